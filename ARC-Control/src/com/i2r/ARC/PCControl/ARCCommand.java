@@ -10,6 +10,8 @@ import java.util.Scanner;
 
 import org.apache.log4j.Logger;
 
+import com.i2r.ARC.PCControl.DataManager.ARCProtocol;
+
 /**
  * ooh boy has this class been expanded.
  * 
@@ -41,6 +43,7 @@ public class ARCCommand {
 	private static final String[] DEFAULT_MODIFY_SENSOR_ARGUMENTS = {NO_ARGUMENT};
 	private static final String[] DEFAULT_LISTEN_ENVIRONMENT_ARGUMENTS = {NO_ARGUMENT};
 	private static final String[] DEFAULT_GET_LOCATION_ARGUMENTS = {NO_ARGUMENT};
+	private static final String[] DEFAULT_NEGOTIATE_PROTOCOL_ARGUMENTS = {String.valueOf(ARCProtocol.NEWEST_VERSION)};
 	
 	private static final String[] DEFAULT_LIST_DEVICES_ARGUMENTS = {};
 	private static final String[] DEFAULT_HELP_ARGUMENTS = {};
@@ -52,6 +55,34 @@ public class ARCCommand {
 	
 	public static final int KILL_TASK_INDEX = 0;
 	
+	public static final int RETRANSMIT_TASK_INDEX = 0;
+	public static final int RETRANSMIT_FIRST_INDEX = 1;
+	public static final int RETRANSMIT_LAST_INDEX = 2;
+	
+	public static final int RETRANSMIT_ARG_LIST_SIZE = 3;
+	
+	public static final int RESUME_SESSION_INDEX = 0;
+	public static final int RESUME_TASKS_START_INDEX = 1;
+	
+	public static final int CREDIT_TASKS_START_INDEX = 0;
+	
+	public static final int CHUNK_MIN_INDEX = 0;
+	public static final int CHUNK_MAX_INDEX = 1;
+	
+	public static final int CHUNK_BOUNDS_ARG_LIST_SIZE = 2;
+	
+	public static final int STRIPE_COUNT_INDEX = 0;
+	public static final int STRIPE_PORT_INDEX = 1;
+	public static final int STRIPE_TOKEN_INDEX = 2;
+	
+	public static final int STRIPE_ARG_LIST_SIZE = 3;
+	
+	//the most extra sockets a remote device will open for bulk data
+	public static final int MAX_STRIPES = 8;
+	
+	//the largest piece a remote device will cut bulk data into, however big the bounds we ask for
+	public static final int MAX_CHUNK_BOUND = 128 * 1024;
+	
 	//the header to a command.
 	private CommandHeader header;
 	
@@ -217,6 +248,7 @@ public class ARCCommand {
 		case RECORD_AUDIO:
 		case LISTEN_ENVIRONMENT:
 		case GET_LOCATION:
+		case NEGOTIATE_PROTOCOL:
 			//if the header was the no command header, the kill header, or the take pictures header
 			//set the class header to the supplied header
 			this.header = header;
@@ -260,6 +292,8 @@ public class ARCCommand {
 			return Arrays.asList(DEFAULT_SUPPORTED_FEATURES);
 		case MODIFY_SENSOR:
 			return Arrays.asList(DEFAULT_MODIFY_SENSOR_ARGUMENTS);
+		case NEGOTIATE_PROTOCOL:
+			return Arrays.asList(DEFAULT_NEGOTIATE_PROTOCOL_ARGUMENTS);
 		case LISTEN_ENVIRONMENT:
 			return Arrays.asList(DEFAULT_LISTEN_ENVIRONMENT_ARGUMENTS);
 		case LIST_DEVICES:
@@ -324,6 +358,12 @@ public class ARCCommand {
 		case RECORD_AUDIO:
 		case LISTEN_ENVIRONMENT:
 		case GET_LOCATION:
+		case NEGOTIATE_PROTOCOL:
+		case RETRANSMIT:
+		case RESUME:
+		case CREDIT:
+		case CHUNK_BOUNDS:
+		case STRIPE:
 			//set the header to the provided header
 			this.header = header;
 			this.arguments = checkAgainstDevice(header, arguments);
@@ -376,6 +416,18 @@ public class ARCCommand {
 				throw new UnsupportedValueException(Sensor.LOCATION.getAlias() + " is unsupported.");
 			}
 			return checkGetLocationArgs(arguments);
+		case NEGOTIATE_PROTOCOL:
+			return checkNegotiateProtocolArgs(arguments);
+		case RETRANSMIT:
+			return checkRetransmitArgs(arguments);
+		case RESUME:
+			return checkResumeArgs(arguments);
+		case CREDIT:
+			return checkCreditArgs(arguments);
+		case CHUNK_BOUNDS:
+			return checkChunkBoundsArgs(arguments);
+		case STRIPE:
+			return checkStripeArgs(arguments);
 		default:
 			throw new UnsupportedValueException("The supplied header " + header.getAlias() + " was invalid.");
 		}
@@ -601,6 +653,220 @@ public class ARCCommand {
 		}
 	}
 
+	/**
+	 * Checks the arguments provided to the negotiate protocol command.
+	 * 
+	 * The negotiate protocol command takes the newest {@link ARCProtocol} version to ask the remote device for, which has to be
+	 * a version this controller can actually read, followed by any number of data types the remote device should compress.
+	 * 
+	 * @param arguments the arguments to check for the negotiate protocol command
+	 * @return the arguments, if they checked out
+	 * @throws UnsupportedValueException if there are no arguments, the first is not a version this controller can read, or one of
+	 * the others is not a data type
+	 */
+	private List<String> checkNegotiateProtocolArgs(List<String> arguments) throws UnsupportedValueException {
+		if(arguments.isEmpty()){
+			throw new UnsupportedValueException("Invalid number of arguments for the protocol command.");
+		}
+		
+		//every argument after the version is a data type, which has to fit in the one byte a frame has for it
+		for(int i = 1; i < arguments.size(); i++){
+			try{
+				int type = Integer.parseInt(arguments.get(i));
+				if(type < 0 || type > 0xFF){
+					throw new UnsupportedValueException(type + " is not a valid data type to compress.");
+				}
+			}catch(NumberFormatException e){
+				throw new UnsupportedValueException(arguments.get(i) + " is not a valid data type to compress.");
+			}
+		}
+		
+		int version;
+		try{
+			version = Integer.parseInt(arguments.get(0));
+		}catch(NumberFormatException e){
+			throw new UnsupportedValueException(arguments.get(0) + " is not a valid protocol version.");
+		}
+		
+		if(version < ARCProtocol.TEXT_VERSION || version > ARCProtocol.NEWEST_VERSION){
+			throw new UnsupportedValueException("Protocol version must be between " + ARCProtocol.TEXT_VERSION + " and " 
+					+ ARCProtocol.NEWEST_VERSION + ".");
+		}
+		
+		return arguments;
+	}
+	
+	/**
+	 * Checks the arguments provided to the retransmit command.
+	 * 
+	 * The retransmit command takes the task whose frames should be sent again, which has to still be on the task stack, and the
+	 * first and last sequence numbers of the frames to send again.
+	 * 
+	 * @param arguments the arguments to check for the retransmit command
+	 * @return the arguments, if they checked out
+	 * @throws UnsupportedValueException if there aren't exactly three numbers, the task isn't on the stack, or the sequence numbers
+	 * don't make a range
+	 */
+	private List<String> checkRetransmitArgs(List<String> arguments) throws UnsupportedValueException {
+		if(arguments.size() != RETRANSMIT_ARG_LIST_SIZE){
+			throw new UnsupportedValueException("Invalid number of arguments for the resend command.");
+		}
+		
+		int taskId;
+		int first;
+		int last;
+		try{
+			taskId = Integer.parseInt(arguments.get(RETRANSMIT_TASK_INDEX));
+			first = Integer.parseInt(arguments.get(RETRANSMIT_FIRST_INDEX));
+			last = Integer.parseInt(arguments.get(RETRANSMIT_LAST_INDEX));
+		}catch(NumberFormatException e){
+			throw new UnsupportedValueException("Arguments to the resend command must be numbers.");
+		}
+		
+		if(dev.deviceTasks.getTask(taskId) == null){
+			throw new UnsupportedValueException("Task ID not found in " + dev + " task stack");
+		}
+		
+		if(first < 0 || first > last){
+			throw new UnsupportedValueException("Frames " + first + " to " + last + " are not a valid range.");
+		}
+		
+		return arguments;
+	}
+	
+	/**
+	 * Checks the arguments provided to the resume command.
+	 * 
+	 * The resume command takes the remote client's session ID, then any number of pairs of a task to carry on, which has to still
+	 * be on the task stack, and the sequence number of the next frame that task is waiting on.
+	 * 
+	 * @param arguments the arguments to check for the resume command
+	 * @return the arguments, if they checked out
+	 * @throws UnsupportedValueException if there isn't a session ID followed by whole pairs of numbers, a task isn't on the stack,
+	 * or a sequence number is negative
+	 */
+	private List<String> checkResumeArgs(List<String> arguments) throws UnsupportedValueException {
+		if(arguments.size() < RESUME_TASKS_START_INDEX || (arguments.size() - RESUME_TASKS_START_INDEX) % 2 != 0){
+			throw new UnsupportedValueException("Invalid number of arguments for the resume command.");
+		}
+		
+		try{
+			Integer.parseInt(arguments.get(RESUME_SESSION_INDEX));
+			
+			for(int i = RESUME_TASKS_START_INDEX; i < arguments.size(); i += 2){
+				int taskId = Integer.parseInt(arguments.get(i));
+				int sequence = Integer.parseInt(arguments.get(i + 1));
+				
+				if(dev.deviceTasks.getTask(taskId) == null){
+					throw new UnsupportedValueException("Task ID not found in " + dev + " task stack");
+				}
+				
+				if(sequence < 0){
+					throw new UnsupportedValueException(sequence + " is not a valid frame to carry on from.");
+				}
+			}
+		}catch(NumberFormatException e){
+			throw new UnsupportedValueException("Arguments to the resume command must be numbers.");
+		}
+		
+		return arguments;
+	}
+	
+	/**
+	 * Checks the arguments provided to the credit command.
+	 * 
+	 * The credit command takes any number of pairs of a task and the number of frame bytes to give back to it.  The task doesn't
+	 * have to be on the task stack, since data keeps coming in for a task for a little while after it is taken off.  With no
+	 * arguments at all, the command just turns credit on.
+	 * 
+	 * @param arguments the arguments to check for the credit command
+	 * @return the arguments, if they checked out
+	 * @throws UnsupportedValueException if the arguments aren't whole pairs of numbers, or a number of bytes isn't positive
+	 */
+	private List<String> checkCreditArgs(List<String> arguments) throws UnsupportedValueException {
+		if((arguments.size() - CREDIT_TASKS_START_INDEX) % 2 != 0){
+			throw new UnsupportedValueException("Invalid number of arguments for the credit command.");
+		}
+		
+		try{
+			for(int i = CREDIT_TASKS_START_INDEX; i < arguments.size(); i += 2){
+				Integer.parseInt(arguments.get(i));
+				int bytes = Integer.parseInt(arguments.get(i + 1));
+				
+				if(bytes <= 0){
+					throw new UnsupportedValueException(bytes + " is not a valid amount of credit.");
+				}
+			}
+		}catch(NumberFormatException e){
+			throw new UnsupportedValueException("Arguments to the credit command must be numbers.");
+		}
+		
+		return arguments;
+	}
+	
+	/**
+	 * Checks the arguments provided to the chunk bounds command.
+	 * 
+	 * The chunk bounds command takes the smallest and the largest piece, in bytes, the remote device may cut bulk data into.  The
+	 * smallest has to be positive, and no bigger than the largest, which can't be more than {@link #MAX_CHUNK_BOUND}.
+	 * 
+	 * @param arguments the arguments to check for the chunk bounds command
+	 * @return the arguments, if they checked out
+	 * @throws UnsupportedValueException if there aren't exactly two numbers, or they aren't valid bounds
+	 */
+	private List<String> checkChunkBoundsArgs(List<String> arguments) throws UnsupportedValueException {
+		if(arguments.size() != CHUNK_BOUNDS_ARG_LIST_SIZE){
+			throw new UnsupportedValueException("Invalid number of arguments for the chunk bounds command.");
+		}
+		
+		try{
+			int min = Integer.parseInt(arguments.get(CHUNK_MIN_INDEX));
+			int max = Integer.parseInt(arguments.get(CHUNK_MAX_INDEX));
+			
+			if(min <= 0 || min > max || max > MAX_CHUNK_BOUND){
+				throw new UnsupportedValueException(min + " to " + max + " are not valid chunk bounds.");
+			}
+		}catch(NumberFormatException e){
+			throw new UnsupportedValueException("Arguments to the chunk bounds command must be numbers.");
+		}
+		
+		return arguments;
+	}
+	
+	/**
+	 * Checks the arguments provided to the stripe command.
+	 * 
+	 * The stripe command takes the number of extra sockets the remote device should open for bulk data, which has to be between 1
+	 * and {@link #MAX_STRIPES}, then the port and the token the link handed out for them.
+	 * 
+	 * @param arguments the arguments to check for the stripe command
+	 * @return the arguments, if they checked out
+	 * @throws UnsupportedValueException if there aren't exactly three numbers, or they aren't valid
+	 */
+	private List<String> checkStripeArgs(List<String> arguments) throws UnsupportedValueException {
+		if(arguments.size() != STRIPE_ARG_LIST_SIZE){
+			throw new UnsupportedValueException("Invalid number of arguments for the stripe command.");
+		}
+		
+		try{
+			int count = Integer.parseInt(arguments.get(STRIPE_COUNT_INDEX));
+			int port = Integer.parseInt(arguments.get(STRIPE_PORT_INDEX));
+			Integer.parseInt(arguments.get(STRIPE_TOKEN_INDEX));
+			
+			if(count < 1 || count > MAX_STRIPES){
+				throw new UnsupportedValueException(count + " is not a valid number of stripes.");
+			}
+			
+			if(port <= 0 || port > 65535){
+				throw new UnsupportedValueException(port + " is not a valid port.");
+			}
+		}catch(NumberFormatException e){
+			throw new UnsupportedValueException("Arguments to the stripe command must be numbers.");
+		}
+		
+		return arguments;
+	}
+	
 	/**
 	 * Checks and sets the arguments provided by the no command command
 	 * 
@@ -634,6 +900,12 @@ public class ARCCommand {
 			throw new UnsupportedValueException("Could not parse header from supplied line.");
 		}
 		
+		//commands that run the connection itself are only built by the remote client
+		if(header.isInternal()){
+			lineScan.close();
+			throw new UnsupportedValueException(header.getAlias() + " is only sent by the controller itself.");
+		}
+		
 		if(lineScan.hasNext()){
 			List<String> lineArgs = new ArrayList<String>();
 			while(lineScan.hasNext()){
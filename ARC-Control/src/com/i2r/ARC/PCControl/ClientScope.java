@@ -0,0 +1,490 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Everything running on behalf of one {@link RemoteClient}: its read, write and parse loops, its pings, and the odd jobs like removing
+ * a task or reconnecting.  Closing the scope cancels all of it, so a client that is shut down leaves nothing behind.
+ * <p>
+ * How jobs are run depends on the controller's thread mode, set with {@link #setMode(String)}:
+ * <ul>
+ * <li>{@link #MODE_DEDICATED}, the default: every job gets a thread of its own, and a repeating job is a thread that sleeps between
+ * runs.  The number of threads grows with every device and every task.</li>
+ * <li>{@link #MODE_SHARED}: jobs run on one pool of worker threads shared by every client, and repeating jobs on a couple of shared
+ * timer threads.  The write and parse loops only take a worker while they have something to do (see {@link #isShared()}), so an idle
+ * device costs no threads at all unless its link needs a blocking read loop.</li>
+ * </ul>
+ * Short jobs that start over and over, like acting on responses, can be run with {@link #executePooled(String, Runnable)} instead,
+ * which in {@link #MODE_DEDICATED} runs them on at most {@link #POOL_THREADS} threads the scope keeps for itself, rather than a new
+ * thread every time.
+ * <p>
+ * Either way, a job keeps the name it would have had as a thread of its own while it runs, so the logs read the same.
+ *
+ * @author Johnathan Pagnutti
+ *
+ */
+public class ClientScope {
+
+	static final Logger logger = Logger.getLogger(ClientScope.class);
+
+	/**
+	 * The thread mode where every job gets a thread of its own
+	 */
+	public static final String MODE_DEDICATED = "DEDICATED";
+
+	/**
+	 * The thread mode where jobs share a pool of threads
+	 */
+	public static final String MODE_SHARED = "SHARED";
+
+	/**
+	 * The number of threads repeating jobs run on in {@link #MODE_SHARED}
+	 */
+	public static final int TIMER_THREADS = 2;
+
+	/**
+	 * The most threads a scope's own pool runs jobs on in {@link #MODE_DEDICATED}
+	 */
+	public static final int POOL_THREADS = 4;
+
+	/**
+	 * The threads jobs run on in {@link #MODE_SHARED}.  Made as jobs need them, and die off after sitting idle for a minute.
+	 */
+	private static final ThreadPoolExecutor workers =
+			(ThreadPoolExecutor) Executors.newCachedThreadPool(new NamedThreadFactory("Client-Worker-"));
+
+	/**
+	 * The threads repeating jobs run on in {@link #MODE_SHARED}
+	 */
+	private static final ScheduledThreadPoolExecutor timers = new ScheduledThreadPoolExecutor(TIMER_THREADS,
+			new NamedThreadFactory("Client-Timer-"));
+
+	static{
+		//a closed client's pings would otherwise sit in the queue, holding on to the client, until they were next due
+		timers.setRemoveOnCancelPolicy(true);
+	}
+
+	//true in MODE_SHARED
+	private static volatile boolean shared = false;
+
+	//what the scope belongs to, for the logs
+	private final String owner;
+
+	//every job started in this scope that hasn't finished yet.  Guarded by itself
+	private final Set<Future<?>> jobs = new HashSet<Future<?>>();
+
+	//set once the scope is closed, after which no more jobs are started.  Guarded by jobs
+	private boolean closed = false;
+
+	//the threads pooled jobs run on in MODE_DEDICATED, made the first time one is run.  Guarded by jobs
+	private ThreadPoolExecutor pool = null;
+
+	/**
+	 * Constructor
+	 *
+	 * @param owner what the scope belongs to, for the logs
+	 */
+	public ClientScope(String owner){
+		this.owner = owner;
+	}
+
+	/**
+	 * Set the thread mode for every scope.  Only jobs started afterwards are affected, so this should be set before any client connects.
+	 *
+	 * @param mode {@link #MODE_DEDICATED} or {@link #MODE_SHARED}
+	 * @throws IllegalArgumentException if the mode is neither
+	 */
+	public static void setMode(String mode){
+		if(MODE_SHARED.equalsIgnoreCase(mode)){
+			shared = true;
+		}else if(MODE_DEDICATED.equalsIgnoreCase(mode)){
+			shared = false;
+		}else{
+			throw new IllegalArgumentException(mode + " is not a thread mode.");
+		}
+	}
+
+	/**
+	 * @return true in {@link #MODE_SHARED}, where loops that spend most of their time waiting for work should instead start a job
+	 * each time work shows up, and finish once it is done
+	 */
+	public static boolean isShared(){
+		return shared;
+	}
+
+	/**
+	 * Run a job once, in this scope
+	 *
+	 * @param name the name of the job, which the thread running it has while it runs
+	 * @param job the job
+	 * @return true if the job was started, false if the scope has been closed
+	 */
+	public boolean execute(String name, Runnable job){
+		final ScopedJob task = new ScopedJob(this, name, job);
+
+		synchronized(jobs){
+			if(closed){
+				logger.debug(name + " not started, " + owner + " has been shut down.");
+				return false;
+			}
+			jobs.add(task);
+		}
+
+		try {
+			if(shared){
+				workers.execute(task);
+			}else{
+				Thread t = new Thread(task);
+				t.setName(name);
+				t.setDaemon(true);
+				t.start();
+			}
+		} catch (RejectedExecutionException e) {
+			logger.error(e.getMessage(), e);
+			finished(task);
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Run a job once, in this scope, on a pooled thread.  For short jobs that are started over and over.  In {@link #MODE_SHARED}
+	 * this is the same as {@link #execute(String, Runnable)}, as every job is pooled already.  In {@link #MODE_DEDICATED} the job runs
+	 * on the scope's own pool of at most {@link #POOL_THREADS} threads, which die off after sitting idle for a minute; once they are
+	 * all busy, the job waits its turn.
+	 *
+	 * @param name the name of the job, which the thread running it has while it runs
+	 * @param job the job
+	 * @return true if the job was started, false if the scope has been closed
+	 */
+	public boolean executePooled(String name, Runnable job){
+		if(shared){
+			return execute(name, job);
+		}
+
+		final ScopedJob task = new ScopedJob(this, name, job);
+		ThreadPoolExecutor target;
+
+		synchronized(jobs){
+			if(closed){
+				logger.debug(name + " not started, " + owner + " has been shut down.");
+				return false;
+			}
+
+			if(pool == null){
+				pool = new ThreadPoolExecutor(POOL_THREADS, POOL_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+						new NamedThreadFactory(owner + "-Pool-"));
+				pool.allowCoreThreadTimeOut(true);
+			}
+
+			jobs.add(task);
+			target = pool;
+		}
+
+		try {
+			target.execute(task);
+		} catch (RejectedExecutionException e) {
+			//closed between adding the job and handing it over
+			logger.debug(name + " not started, " + owner + " has been shut down.");
+			finished(task);
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Run a job over and over in this scope, waiting a fixed time after each run before the next, until the scope is closed.  The job
+	 * should be quick; in {@link #MODE_SHARED} it holds up every other repeating job while it runs.
+	 *
+	 * @param name the name of the job, which the thread running it has while it runs
+	 * @param job the job
+	 * @param periodMillis how long to wait before the first run, and between runs, in milliseconds
+	 * @return true if the job was started, false if the scope has been closed
+	 */
+	public boolean schedule(final String name, final Runnable job, final long periodMillis){
+		if(!shared){
+			//a thread that sleeps between runs
+			return execute(name, new Runnable(){
+				@Override
+				public void run() {
+					while(!Thread.currentThread().isInterrupted()){
+						try {
+							Thread.sleep(periodMillis);
+						} catch (InterruptedException e) {
+							return;
+						}
+						job.run();
+					}
+				}
+			});
+		}
+
+		synchronized(jobs){
+			if(closed){
+				logger.debug(name + " not started, " + owner + " has been shut down.");
+				return false;
+			}
+
+			//a job that throws is logged rather than allowed to stop every run after it
+			jobs.add(timers.scheduleWithFixedDelay(new Runnable(){
+				@Override
+				public void run() {
+					Thread current = Thread.currentThread();
+					String timerName = current.getName();
+					current.setName(name);
+					try {
+						job.run();
+					} catch (RuntimeException e) {
+						logger.error(e.getMessage(), e);
+					} finally {
+						current.setName(timerName);
+					}
+				}
+			}, periodMillis, periodMillis, TimeUnit.MILLISECONDS));
+		}
+
+		return true;
+	}
+
+	/**
+	 * Run a job once in this scope, after a wait.  Nothing is held up while it waits in {@link #MODE_SHARED}; in
+	 * {@link #MODE_DEDICATED} the job's thread sleeps first.  A job still waiting when the scope is closed never runs.
+	 *
+	 * @param name the name of the job, which the thread running it has while it runs
+	 * @param job the job
+	 * @param delayMillis how long to wait before running the job, in milliseconds
+	 * @return true if the job was started, false if the scope has been closed
+	 */
+	public boolean delay(String name, final Runnable job, final long delayMillis){
+		if(!shared){
+			//a thread that sleeps first
+			return execute(name, new Runnable(){
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(delayMillis);
+					} catch (InterruptedException e) {
+						return;
+					}
+					job.run();
+				}
+			});
+		}
+
+		final ScopedJob task = new ScopedJob(this, name, job);
+
+		synchronized(jobs){
+			if(closed){
+				logger.debug(name + " not started, " + owner + " has been shut down.");
+				return false;
+			}
+			jobs.add(task);
+		}
+
+		//the timer only hands the job to a worker, so a slow job doesn't hold up every other timer
+		try {
+			timers.schedule(new Runnable(){
+				@Override
+				public void run() {
+					if(task.isDone()){
+						return;
+					}
+
+					try {
+						workers.execute(task);
+					} catch (RejectedExecutionException e) {
+						logger.error(e.getMessage(), e);
+						task.cancel(false);
+					}
+				}
+			}, delayMillis, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			logger.error(e.getMessage(), e);
+			finished(task);
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Run a job once, outside of any scope, the way the thread mode says to.  For work that doesn't belong to a client.
+	 *
+	 * @param name the name of the job, which the thread running it has while it runs
+	 * @param job the job
+	 */
+	public static void background(String name, Runnable job){
+		if(shared){
+			workers.execute(new ScopedJob(name, job));
+		}else{
+			Thread t = new Thread(job);
+			t.setName(name);
+			t.start();
+		}
+	}
+
+	/**
+	 * Close the scope.  Every job still running is interrupted, repeating jobs stop, the scope's own pool is shut down, and no new
+	 * jobs are started.  A job blocked on I/O only stops once its stream is closed, so the connection should be closed first.
+	 */
+	public void close(){
+		List<Future<?>> running;
+		ThreadPoolExecutor closing;
+		synchronized(jobs){
+			closed = true;
+			running = new ArrayList<Future<?>>(jobs);
+			jobs.clear();
+			closing = pool;
+		}
+
+		logger.debug("Closing " + owner + ", cancelling " + running.size() + " jobs.");
+		for(Future<?> job : running){
+			job.cancel(true);
+		}
+
+		if(closing != null){
+			closing.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return true once {@link #close()} has been called
+	 */
+	public boolean isClosed(){
+		synchronized(jobs){
+			return closed;
+		}
+	}
+
+	/**
+	 * @return the number of jobs in this scope that are running or waiting to run, counting each repeating job once
+	 */
+	public int getJobCount(){
+		synchronized(jobs){
+			return jobs.size();
+		}
+	}
+
+	/**
+	 * @return the number of shared worker threads sitting idle, waiting to be reused or to die off
+	 */
+	static int getIdleWorkers(){
+		return workers.getPoolSize() - workers.getActiveCount();
+	}
+
+	/**
+	 * Called when a job is done, one way or another
+	 */
+	private void finished(Future<?> job){
+		synchronized(jobs){
+			jobs.remove(job);
+		}
+	}
+
+	/***************
+	 * INNER CLASSES
+	 ***************/
+
+	/**
+	 * A job run once, which names the thread it runs on after itself while it runs, and leaves its scope when it is done.  A job run
+	 * outside of a scope has no scope to leave.
+	 *
+	 * @author Johnathan Pagnutti
+	 *
+	 */
+	private static class ScopedJob extends FutureTask<Void> {
+
+		private final String name;
+
+		//the scope to leave when the job is done, or null
+		private final ClientScope scope;
+
+		/**
+		 * Constructor for a job outside of any scope
+		 */
+		ScopedJob(String name, Runnable job){
+			this(null, name, job);
+		}
+
+		/**
+		 * Constructor
+		 */
+		ScopedJob(ClientScope scope, String name, Runnable job){
+			super(job, null);
+			this.scope = scope;
+			this.name = name;
+		}
+
+		@Override
+		public void run(){
+			Thread current = Thread.currentThread();
+			String poolName = current.getName();
+			current.setName(name);
+			try {
+				super.run();
+			} finally {
+				current.setName(poolName);
+			}
+		}
+
+		@Override
+		protected void done(){
+			if(scope != null){
+				scope.finished(this);
+			}
+
+			//a job that threw would otherwise fail without a word
+			if(!isCancelled()){
+				try {
+					get();
+				} catch (Exception e) {
+					logger.error(name + " failed.", e.getCause() != null ? e.getCause() : e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Makes daemon threads with numbered names
+	 *
+	 * @author Johnathan Pagnutti
+	 *
+	 */
+	private static class NamedThreadFactory implements ThreadFactory {
+
+		private final String prefix;
+		private final AtomicInteger count = new AtomicInteger(0);
+
+		NamedThreadFactory(String prefix){
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r);
+			t.setName(prefix + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
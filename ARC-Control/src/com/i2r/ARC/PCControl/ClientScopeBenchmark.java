@@ -0,0 +1,278 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import com.i2r.ARC.PCControl.DataManager.ARCDataManager;
+import com.i2r.ARC.PCControl.DataManager.ARCDataParser;
+import com.i2r.ARC.PCControl.link.RemoteConnection;
+import com.i2r.ARC.PCControl.link.RemoteLink;
+import com.i2r.ARC.PCControl.link.SelectedConnection;
+
+/**
+ * Measures how the number of threads, and the heap, grow with the number of connected {@link RemoteClient}s in each
+ * {@link ClientScope} thread mode.
+ * <p>
+ * Each simulated client is a real {@link RemoteClient} with a real {@link ARCDataManager}, over an in memory connection that never
+ * sends anything back.  It is connected the way {@link RemoteClient#connectToDevice()} connects one (read loop, write loop and ping),
+ * then sent a few pings, and left idle.  Clients are simulated over two kinds of link: one read with a blocking stream, like
+ * Bluetooth, USB and SMS, and one read by its link's selector threads, like Wifi (see {@link SelectedConnection}).
+ * <p>
+ * Heap use is measured as what is freed once the clients are gone.  Thread stacks aren't part of the heap; each thread reserves a
+ * stack of its own (1 MB by default on a 64 bit JVM), so the threads column is where most of the difference between the modes is.
+ * <p>
+ * Run with the client counts to measure as arguments, 1, 100 and 1000 if there are none.  Nothing is sent anywhere, so it doesn't
+ * need a device, or a config file.
+ *
+ * @author Johnathan Pagnutti
+ *
+ */
+public class ClientScopeBenchmark {
+
+	/**
+	 * The client counts measured if none are given
+	 */
+	private static final int[] DEFAULT_CLIENTS = {1, 100, 1000};
+
+	/**
+	 * The pings sent by each client once it is connected
+	 */
+	private static final int PINGS = 3;
+
+	/**
+	 * The clients connected and disconnected before measuring anything, so loading classes and warming up doesn't count
+	 */
+	private static final int WARM_UP_CLIENTS = 100;
+
+	/**
+	 * How long, in milliseconds, the clients are left to settle before measuring
+	 */
+	private static final long SETTLE_MILLIS = 500;
+
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private static final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+	/**
+	 * Runs the benchmark
+	 *
+	 * @param args the client counts to measure
+	 */
+	public static void main(String[] args) throws Exception {
+		BasicConfigurator.configure();
+		Logger.getRootLogger().setLevel(Level.WARN);
+
+		int[] counts = DEFAULT_CLIENTS;
+		if(args.length > 0){
+			counts = new int[args.length];
+			for(int i = 0; i < args.length; i++){
+				counts[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		for(String mode : new String[]{ClientScope.MODE_DEDICATED, ClientScope.MODE_SHARED}){
+			ClientScope.setMode(mode);
+			run(mode, false, WARM_UP_CLIENTS, false);
+			run(mode, true, WARM_UP_CLIENTS, false);
+		}
+
+		System.out.println("clients for each run: " + Arrays.toString(counts));
+		System.out.println(String.format("%-10s %-9s %8s %9s %12s %10s %12s",
+				"mode", "link", "clients", "threads", "per client", "heap KB", "KB/client"));
+
+		for(String mode : new String[]{ClientScope.MODE_DEDICATED, ClientScope.MODE_SHARED}){
+			ClientScope.setMode(mode);
+
+			for(boolean selected : new boolean[]{false, true}){
+				for(int count : counts){
+					run(mode, selected, count, true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Connects some simulated clients, measures, and disconnects them again
+	 *
+	 * @param mode the thread mode being measured
+	 * @param selected true to simulate a link read by selector threads, false for a link read with a blocking stream
+	 * @param count the number of clients
+	 * @param print false to leave out what was measured
+	 */
+	private static void run(String mode, boolean selected, int count, boolean print) throws Exception {
+		settle();
+		int threadsBefore = threadsInUse();
+
+		SimulatedLink link = new SimulatedLink(selected);
+		List<RemoteClient> clients = new ArrayList<RemoteClient>(count);
+
+		for(int i = 0; i < count; i++){
+			RemoteClient dev = new RemoteClient(link, "simulated-" + i);
+
+			//what connectToDevice does, without reporting to a UI or negotiating with a device that isn't there
+			dev.conn = link.connect(dev.connString);
+			dev.dataManager = new ARCDataManager(dev.conn, dev);
+			dev.dataManager.read();
+			dev.startPing();
+
+			for(int j = 0; j < PINGS; j++){
+				dev.sendTask(ARCCommand.fromString(dev, "ping"));
+			}
+
+			clients.add(dev);
+		}
+
+		settle();
+		int threadsAfter = threadsInUse();
+		long heapAfter = memory.getHeapMemoryUsage().getUsed();
+
+		for(RemoteClient dev : clients){
+			dev.die = true;
+			dev.conn.close();
+			dev.getScope().close();
+		}
+		clients.clear();
+
+		//the heap the clients were using is whatever is freed once they're gone
+		settle();
+		long heapGone = memory.getHeapMemoryUsage().getUsed();
+
+		int added = threadsAfter - threadsBefore;
+		long heapKB = (heapAfter - heapGone) / 1024;
+		if(print){
+			System.out.println(String.format("%-10s %-9s %8d %9d %12.2f %10d %12.2f",
+					mode, selected ? "selected" : "stream", count, added, (double) added / count, heapKB, (double) heapKB / count));
+		}
+	}
+
+	/**
+	 * Waits for threads to start or stop, and collects garbage, so what is measured is what is left running
+	 */
+	private static void settle() throws InterruptedException {
+		Thread.sleep(SETTLE_MILLIS);
+		System.gc();
+		System.gc();
+		Thread.sleep(SETTLE_MILLIS);
+	}
+
+	/**
+	 * @return the number of live threads, leaving out shared workers that earlier runs left idle
+	 */
+	private static int threadsInUse(){
+		return threads.getThreadCount() - ClientScope.getIdleWorkers();
+	}
+
+	/****************************
+	 * INNER CLASSES
+	 ****************************/
+
+	/**
+	 * A link that makes a new {@link SimulatedConnection} for every URL
+	 *
+	 * @author Johnathan Pagnutti
+	 *
+	 */
+	private static class SimulatedLink implements RemoteLink<byte[]> {
+
+		private final boolean selected;
+
+		SimulatedLink(boolean selected){
+			this.selected = selected;
+		}
+
+		@Override
+		public void searchForConnections() {}
+
+		@Override
+		public List<String> currentConnections() {
+			return null;
+		}
+
+		@Override
+		public RemoteConnection<byte[]> connect(String connectionURL) {
+			return selected ? new SelectedSimulatedConnection() : new SimulatedConnection();
+		}
+	}
+
+	/**
+	 * A connection whose input never has anything to read until it is closed, and whose output goes nowhere
+	 *
+	 * @author Johnathan Pagnutti
+	 *
+	 */
+	private static class SimulatedConnection extends RemoteConnection<byte[]> {
+
+		//guards closed
+		private final Object lock = new Object();
+		private boolean closed = false;
+
+		SimulatedConnection(){
+			dataIn = new InputStream(){
+				@Override
+				public int read() throws IOException {
+					byte[] b = new byte[1];
+					return (read(b, 0, 1) == -1) ? -1 : b[0] & 0xFF;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					synchronized(lock){
+						while(!closed){
+							try {
+								lock.wait();
+							} catch (InterruptedException e) {
+								throw new IOException("Interrupted while reading.");
+							}
+						}
+					}
+					return -1;
+				}
+			};
+
+			dataOut = new OutputStream(){
+				@Override
+				public void write(int b) {}
+
+				@Override
+				public void write(byte[] b, int off, int len) {}
+			};
+		}
+
+		@Override
+		public void close() {
+			synchronized(lock){
+				closed = true;
+				lock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * A simulated connection read by its link, which never has anything to read
+	 *
+	 * @author Johnathan Pagnutti
+	 *
+	 */
+	private static class SelectedSimulatedConnection extends SimulatedConnection implements SelectedConnection {
+
+		SelectedSimulatedConnection(){
+			dataIn = null;
+		}
+
+		@Override
+		public void startReading(ARCDataParser parser) {}
+	}
+}
@@ -21,6 +21,12 @@ public enum CommandHeader {
 	LISTEN_ENVIRONMENT(2, "sense"),
 	GET_LOCATION(3, "locate"),
 	GET_SENSOR_FEATURES(-5, "features"),
+	NEGOTIATE_PROTOCOL(-6, "protocol"),
+	RETRANSMIT(-7, "resend"),
+	RESUME(-8, "resume"),
+	CREDIT(-9, "credit"),
+	CHUNK_BOUNDS(-16, "chunks"),
+	STRIPE(-17, "stripe"),
 	LIST_DEVICE_SENSORS(-10, "sensors"),
 	LIST_DEVICES(-11, "devices"),
 	PAUSE(-12, "pause"),
@@ -54,6 +60,35 @@ public enum CommandHeader {
 		return alias;
 	}
 	
+	/**
+	 * Query for the priority of this command, the same way the remote device's CommandPacket#hasHighPriority() does
+	 * @return true if the remote device acts on this command as soon as it is read in, false if it is a task starter, which waits its
+	 * turn behind the tasks already running
+	 */
+	public boolean isHighPriority(){
+		return type < 0;
+	}
+	
+	/**
+	 * Query for whether this command is part of running the connection itself: negotiating the protocol, asking for lost frames,
+	 * resuming tasks, giving credit, setting chunk bounds and opening stripes.  These are only ever sent by the {@link RemoteClient},
+	 * since one sent at the wrong time would throw off the framing or flow control of the connection.
+	 * @return true if the user can't send this command
+	 */
+	public boolean isInternal(){
+		switch(this){
+		case NEGOTIATE_PROTOCOL:
+		case RETRANSMIT:
+		case RESUME:
+		case CREDIT:
+		case CHUNK_BOUNDS:
+		case STRIPE:
+			return true;
+		default:
+			return false;
+		}
+	}
+	
 	public static CommandHeader get(Integer type) throws UnsupportedValueException{
 		if(!headerType.containsKey(type)){
 			throw new UnsupportedValueException(type + " is not a valid command header.");
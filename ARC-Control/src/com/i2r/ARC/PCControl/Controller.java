@@ -13,6 +13,8 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.Logger;
@@ -102,6 +104,64 @@ public class Controller{
 	 */
 	String connList;
 	
+	/**
+	 * The size, in bytes, at which an image or audio block from a remote device is written straight to disk as it is read, instead of 
+	 * being held in memory until it is saved.  This is set with the STREAM_THRESHOLD property in the configuration file.
+	 */
+	int streamThreshold = STREAM_THRESHOLD_DEFAULT;
+	
+	/**
+	 * Comma separated list of the {@link RemoteClientResponse} data types a remote device is asked to compress, when it can.  
+	 * This is set with the COMPRESS_TYPES property in the configuration file; an empty value turns compression off.
+	 */
+	String compressTypes = COMPRESS_TYPES_DEFAULT;
+	
+	/**
+	 * The smallest piece, in bytes, a remote device may cut bulk data into before sending it.  Between this and 
+	 * {@link Controller#chunkMax}, the remote device picks the size from how fast the connection is.  This is set with the CHUNK_MIN
+	 * property in the configuration file.
+	 */
+	int chunkMin = CHUNK_MIN_DEFAULT;
+	
+	/**
+	 * The largest piece, in bytes, a remote device may cut bulk data into before sending it.  This is set with the CHUNK_MAX
+	 * property in the configuration file.
+	 */
+	int chunkMax = CHUNK_MAX_DEFAULT;
+	
+	/**
+	 * The number of extra sockets a remote device connected over wifi is asked to open for bulk data, which is striped over them
+	 * so a large capture isn't held to one TCP connection.  0 leaves everything on the one connection.  This is set with the
+	 * WIFI_STRIPES property in the configuration file.
+	 */
+	int wifiStripes = WIFI_STRIPES_DEFAULT;
+	
+	/**
+	 * The number of attempts made to bring a lost connection back before the remote device is given up on.  This is set with the
+	 * RECONNECT_ATTEMPTS property in the configuration file.
+	 */
+	int reconnectAttempts = RECONNECT_ATTEMPTS_DEFAULT;
+	
+	/**
+	 * The wait, in milliseconds, before the first attempt to bring a lost connection back.  It doubles after every attempt that
+	 * fails, up to {@link Controller#reconnectMaxMillis}.  This is set with the RECONNECT_BASE_MILLIS property in the configuration
+	 * file.
+	 */
+	int reconnectBaseMillis = RECONNECT_BASE_MILLIS_DEFAULT;
+	
+	/**
+	 * The longest wait, in milliseconds, between attempts to bring a lost connection back.  This is set with the
+	 * RECONNECT_MAX_MILLIS property in the configuration file.
+	 */
+	int reconnectMaxMillis = RECONNECT_MAX_MILLIS_DEFAULT;
+	
+	/**
+	 * How long, in milliseconds, a task is given past the time it should take before it is ended as timed out, and how long it can go
+	 * without anything heard for it.  The client's measured round trip time is added on top (see {@link TaskDeadlines}).  This is set
+	 * with the TASK_TIMEOUT_MILLIS property in the configuration file.
+	 */
+	int taskTimeoutMillis = TASK_TIMEOUT_MILLIS_DEFAULT;
+	
 	/**
 	 * The actual list of connection types derived from the {@link Controller#connList}
 	 */
@@ -157,6 +217,56 @@ public class Controller{
 	 */
 	private static final String CONN_TYPE_PROPERTY = "CONN_TYPE";
 	
+	/**
+	 * The stream threshold property.  
+	 */
+	private static final String STREAM_THRESHOLD_PROPERTY = "STREAM_THRESHOLD";
+	
+	/**
+	 * The compressed data types property.
+	 */
+	private static final String COMPRESS_TYPES_PROPERTY = "COMPRESS_TYPES";
+	
+	/**
+	 * The smallest chunk size property.
+	 */
+	private static final String CHUNK_MIN_PROPERTY = "CHUNK_MIN";
+	
+	/**
+	 * The largest chunk size property.
+	 */
+	private static final String CHUNK_MAX_PROPERTY = "CHUNK_MAX";
+	
+	/**
+	 * The thread mode property.  Either {@link ClientScope#MODE_DEDICATED} or {@link ClientScope#MODE_SHARED}.
+	 */
+	private static final String THREAD_MODE_PROPERTY = "THREAD_MODE";
+	
+	/**
+	 * The wifi stripes property.
+	 */
+	private static final String WIFI_STRIPES_PROPERTY = "WIFI_STRIPES";
+	
+	/**
+	 * The reconnect attempts property, see {@link Controller#reconnectAttempts}
+	 */
+	private static final String RECONNECT_ATTEMPTS_PROPERTY = "RECONNECT_ATTEMPTS";
+	
+	/**
+	 * The first reconnect wait property, see {@link Controller#reconnectBaseMillis}
+	 */
+	private static final String RECONNECT_BASE_MILLIS_PROPERTY = "RECONNECT_BASE_MILLIS";
+	
+	/**
+	 * The longest reconnect wait property, see {@link Controller#reconnectMaxMillis}
+	 */
+	private static final String RECONNECT_MAX_MILLIS_PROPERTY = "RECONNECT_MAX_MILLIS";
+	
+	/**
+	 * The task timeout property, see {@link Controller#taskTimeoutMillis}
+	 */
+	private static final String TASK_TIMEOUT_MILLIS_PROPERTY = "TASK_TIMEOUT_MILLIS";
+	
 	/**
 	 * The default value of the UI output stream property
 	 */
@@ -172,6 +282,67 @@ public class Controller{
 	 */
 	private static final String CONN_TYPE_DEFAULT = TYPE_LOCAL;
 	
+	/**
+	 * The default value of the stream threshold property, 64 KB
+	 */
+	private static final int STREAM_THRESHOLD_DEFAULT = 65536;
+	
+	/**
+	 * The default value of the compressed data types property: sensor arguments, environment data and location data, which are
+	 * all repetitive text.  Images and audio are already compressed.
+	 */
+	private static final String COMPRESS_TYPES_DEFAULT = "1,10,12,13,14,15";
+	
+	/**
+	 * The default value of the smallest chunk size property, 512 bytes
+	 */
+	private static final int CHUNK_MIN_DEFAULT = 512;
+	
+	/**
+	 * The default value of the largest chunk size property, 64 KB
+	 */
+	private static final int CHUNK_MAX_DEFAULT = 65536;
+	
+	/**
+	 * The default value of the thread mode property, a thread for every job
+	 */
+	private static final String THREAD_MODE_DEFAULT = ClientScope.MODE_DEDICATED;
+	
+	/**
+	 * The default value of the wifi stripes property, no stripes
+	 */
+	private static final int WIFI_STRIPES_DEFAULT = 0;
+	
+	/**
+	 * The default value of the reconnect attempts property
+	 */
+	private static final int RECONNECT_ATTEMPTS_DEFAULT = 8;
+	
+	/**
+	 * The default value of the first reconnect wait property, 1 second
+	 */
+	private static final int RECONNECT_BASE_MILLIS_DEFAULT = 1000;
+	
+	/**
+	 * The default value of the longest reconnect wait property, 30 seconds
+	 */
+	private static final int RECONNECT_MAX_MILLIS_DEFAULT = 30000;
+	
+	/**
+	 * The default value of the task timeout property, 30 seconds
+	 */
+	private static final int TASK_TIMEOUT_MILLIS_DEFAULT = 30000;
+	
+	/**
+	 * The device selector that picks every remote device, see {@link Controller#getDevices(String)}
+	 */
+	public static final String ALL_DEVICES = "all";
+	
+	/**
+	 * A device selector that lists remote device indexes and ranges of them, like 0-9,12
+	 */
+	private static final String DEVICE_SELECTOR_PATTERN = "[0-9]+(-[0-9]+)?(,[0-9]+(-[0-9]+)?)*";
+	
 	//logger
 	static final Logger logger = Logger.getLogger(Controller.class);
 	
@@ -193,7 +364,8 @@ public class Controller{
 	
 	public void initalize(){
 		logger.debug("creating data objects");
-		devices = new ArrayList<RemoteClient>();
+		//wifi devices can be added at any time, while other threads are going through the list
+		devices = new CopyOnWriteArrayList<RemoteClient>();
 		
 		startLock = new AtomicBoolean(true);
 		stillSearchLocks = new ArrayList<AtomicBoolean>();
@@ -220,6 +392,90 @@ public class Controller{
 			UIIn = (prop.getProperty(UI_IN_PROPERTY) == null) ? UI_IN_DEFAULT : prop.getProperty(UI_IN_PROPERTY);
 			connList = (prop.getProperty(CONN_TYPE_PROPERTY) == null) ? CONN_TYPE_DEFAULT : prop.getProperty(CONN_TYPE_PROPERTY);
 			
+			if(prop.getProperty(STREAM_THRESHOLD_PROPERTY) != null){
+				try{
+					streamThreshold = Integer.parseInt(prop.getProperty(STREAM_THRESHOLD_PROPERTY).trim());
+				}catch(NumberFormatException e){
+					logger.error("Bad " + STREAM_THRESHOLD_PROPERTY + " value, using " + STREAM_THRESHOLD_DEFAULT, e);
+					streamThreshold = STREAM_THRESHOLD_DEFAULT;
+				}
+			}
+			
+			if(prop.getProperty(COMPRESS_TYPES_PROPERTY) != null){
+				compressTypes = prop.getProperty(COMPRESS_TYPES_PROPERTY).trim();
+			}
+			
+			if(prop.getProperty(CHUNK_MIN_PROPERTY) != null){
+				try{
+					chunkMin = Integer.parseInt(prop.getProperty(CHUNK_MIN_PROPERTY).trim());
+				}catch(NumberFormatException e){
+					logger.error("Bad " + CHUNK_MIN_PROPERTY + " value, using " + CHUNK_MIN_DEFAULT, e);
+					chunkMin = CHUNK_MIN_DEFAULT;
+				}
+			}
+			
+			if(prop.getProperty(CHUNK_MAX_PROPERTY) != null){
+				try{
+					chunkMax = Integer.parseInt(prop.getProperty(CHUNK_MAX_PROPERTY).trim());
+				}catch(NumberFormatException e){
+					logger.error("Bad " + CHUNK_MAX_PROPERTY + " value, using " + CHUNK_MAX_DEFAULT, e);
+					chunkMax = CHUNK_MAX_DEFAULT;
+				}
+			}
+			
+			if(prop.getProperty(THREAD_MODE_PROPERTY) != null){
+				try{
+					ClientScope.setMode(prop.getProperty(THREAD_MODE_PROPERTY).trim());
+				}catch(IllegalArgumentException e){
+					logger.error("Bad " + THREAD_MODE_PROPERTY + " value, using " + THREAD_MODE_DEFAULT, e);
+					ClientScope.setMode(THREAD_MODE_DEFAULT);
+				}
+			}
+			
+			if(prop.getProperty(WIFI_STRIPES_PROPERTY) != null){
+				try{
+					wifiStripes = Integer.parseInt(prop.getProperty(WIFI_STRIPES_PROPERTY).trim());
+				}catch(NumberFormatException e){
+					logger.error("Bad " + WIFI_STRIPES_PROPERTY + " value, using " + WIFI_STRIPES_DEFAULT, e);
+					wifiStripes = WIFI_STRIPES_DEFAULT;
+				}
+			}
+			
+			if(prop.getProperty(RECONNECT_ATTEMPTS_PROPERTY) != null){
+				try{
+					reconnectAttempts = Integer.parseInt(prop.getProperty(RECONNECT_ATTEMPTS_PROPERTY).trim());
+				}catch(NumberFormatException e){
+					logger.error("Bad " + RECONNECT_ATTEMPTS_PROPERTY + " value, using " + RECONNECT_ATTEMPTS_DEFAULT, e);
+					reconnectAttempts = RECONNECT_ATTEMPTS_DEFAULT;
+				}
+			}
+			
+			if(prop.getProperty(RECONNECT_BASE_MILLIS_PROPERTY) != null){
+				try{
+					reconnectBaseMillis = Integer.parseInt(prop.getProperty(RECONNECT_BASE_MILLIS_PROPERTY).trim());
+				}catch(NumberFormatException e){
+					logger.error("Bad " + RECONNECT_BASE_MILLIS_PROPERTY + " value, using " + RECONNECT_BASE_MILLIS_DEFAULT, e);
+					reconnectBaseMillis = RECONNECT_BASE_MILLIS_DEFAULT;
+				}
+			}
+			
+			if(prop.getProperty(RECONNECT_MAX_MILLIS_PROPERTY) != null){
+				try{
+					reconnectMaxMillis = Integer.parseInt(prop.getProperty(RECONNECT_MAX_MILLIS_PROPERTY).trim());
+				}catch(NumberFormatException e){
+					logger.error("Bad " + RECONNECT_MAX_MILLIS_PROPERTY + " value, using " + RECONNECT_MAX_MILLIS_DEFAULT, e);
+					reconnectMaxMillis = RECONNECT_MAX_MILLIS_DEFAULT;
+				}
+			}
+			
+			if(prop.getProperty(TASK_TIMEOUT_MILLIS_PROPERTY) != null){
+				try{
+					taskTimeoutMillis = Integer.parseInt(prop.getProperty(TASK_TIMEOUT_MILLIS_PROPERTY).trim());
+				}catch(NumberFormatException e){
+					logger.error("Bad " + TASK_TIMEOUT_MILLIS_PROPERTY + " value, using " + TASK_TIMEOUT_MILLIS_DEFAULT, e);
+					taskTimeoutMillis = TASK_TIMEOUT_MILLIS_DEFAULT;
+				}
+			}
 		}else{
 			logger.debug("Configuration file not found, loading defaults.");
 			UIOut = UI_OUT_DEFAULT;
@@ -317,7 +573,10 @@ public class Controller{
 				t.setName("SMS-Search-Thread");
 				t.start();
 			} else if (connType.equals(TYPE_WIFI)) {
-				Thread t = new Thread(new EstablishConnectionsRunnable(new WifiLink(), "Wifi IP", stillSearchLocks.size() - 1));
+				WifiLink wifi = new WifiLink();
+				//devices that connect after the first ones have been found are added as they show up
+				wifi.setArrivalListener(new WifiArrivalListener(wifi));
+				Thread t = new Thread(new EstablishConnectionsRunnable(wifi, "Wifi IP", stillSearchLocks.size() - 1));
 				t.setName("WIFI-Search-Thread");
 				t.start();
 			} else if (connType.equals(TYPE_LOCAL)) {
@@ -367,16 +626,9 @@ public class Controller{
 			dev.die = true;
 		}
 		
-		boolean allTasksComplete = false;
-		while(!allTasksComplete){
-			for(RemoteClient dev : devices){
-				if(dev.deviceTasks.tasksRemaining()){
-					allTasksComplete = false;
-					break;
-				}else{
-					allTasksComplete = true;
-				}
-			}
+		//tasks that never hear back from their remote device end once they run out of time, so this always finishes
+		for(RemoteClient dev : devices){
+			waitForTasks(dev);
 		}
 		
 		logger.debug("All tasks have been finished.");
@@ -394,7 +646,7 @@ public class Controller{
 		ui.close();
 	}
 
-	public void send(RemoteClient dev, ARCCommand newCommand) throws UnsupportedValueException {
+	public TaskFuture send(RemoteClient dev, ARCCommand newCommand) throws UnsupportedValueException {
 		
 		switch(newCommand.getHeader()){
 		case LIST_DEVICES:
@@ -404,13 +656,75 @@ public class Controller{
 			throw new UnsupportedValueException(newCommand.getHeader() + " is not a valid remote command.");
 		default:
 			if(devices.contains(dev)){
-				dev.sendTask(newCommand);
+				return dev.sendTask(newCommand);
 			}else{
 				throw new UnsupportedValueException(dev + " was not found in the master list.");
 			}
-			break;
 		}
 	}
+	
+	/**
+	 * Send one command to many remote devices at once.  The command is checked against each device, and sent, on that device's
+	 * own {@link ClientScope}, see {@link FanOut}.
+	 * 
+	 * @param devs the devices to send to
+	 * @param commandLine the command and its arguments, as they would follow a device index
+	 * @return the handle for how the command goes on each device
+	 */
+	public FanOut fanOut(List<RemoteClient> devs, String commandLine){
+		ui.write("Sending " + commandLine.trim() + " to " + devs.size() + " devices.");
+		return new FanOut(this, devs, commandLine).start();
+	}
+	
+	/**
+	 * Check whether a string picks out a group of remote devices, rather than a single one
+	 * 
+	 * @param selector the string
+	 * @return true if it is {@link #ALL_DEVICES}, or a comma separated list of device indexes and ranges of them
+	 */
+	public static boolean isDeviceSelector(String selector){
+		return selector.equals(ALL_DEVICES) || selector.matches(DEVICE_SELECTOR_PATTERN);
+	}
+	
+	/**
+	 * Get the remote devices a device selector picks out, see {@link #isDeviceSelector(String)}
+	 * 
+	 * @param selector {@link #ALL_DEVICES}, or a comma separated list of device indexes and ranges of them, like 0-9,12
+	 * @return the devices, each only once, in the order they were picked
+	 * @throws UnsupportedValueException if the selector is malformed, or picks out a device that doesn't exist
+	 */
+	public List<RemoteClient> getDevices(String selector) throws UnsupportedValueException {
+		if(selector.equals(ALL_DEVICES)){
+			return new ArrayList<RemoteClient>(devices);
+		}
+		
+		if(!selector.matches(DEVICE_SELECTOR_PATTERN)){
+			throw new UnsupportedValueException(selector + " is not a valid device selector.");
+		}
+		
+		List<RemoteClient> picked = new ArrayList<RemoteClient>();
+		for(String part : selector.split(",")){
+			String[] bounds = part.split("-");
+			try {
+				int first = Integer.parseInt(bounds[0]);
+				int last = (bounds.length > 1) ? Integer.parseInt(bounds[1]) : first;
+				if(last < first || last >= devices.size()){
+					throw new UnsupportedValueException("Devices " + part + " not found, there are " + devices.size() + " devices.");
+				}
+				
+				for(int i = first; i <= last; i++){
+					RemoteClient dev = devices.get(i);
+					if(!picked.contains(dev)){
+						picked.add(dev);
+					}
+				}
+			} catch (NumberFormatException e) {
+				throw new UnsupportedValueException(part + " is not a valid device index.");
+			}
+		}
+		
+		return picked;
+	}
 
 	public RemoteClient getDevice(Integer deviceIndex) throws UnsupportedValueException {
 		if(deviceIndex == null){
@@ -448,14 +762,10 @@ public class Controller{
 			
 			if(arcCommand.getArguments().size() > 1){
 				ui.write("Pausing while task " + arcCommand.getArguments().get(1) + " is running on " + devToPause);
-				while(devToPause.deviceTasks.hasTask(Integer.parseInt(arcCommand.getArguments().get(1)))){
-					//WHEEEEEEEEEEEEEEEEEEEEEEEEEE
-				}
+				waitForTask(devToPause.deviceTasks.getTask(Integer.parseInt(arcCommand.getArguments().get(1))));
 			}else{
 				ui.write("Pausing while " + devToPause + " has tasks.");
-				while(devToPause.deviceTasks.tasksRemaining()){
-					//WHEEEEEEEEEEEEEEEEEEEEEEEEEE
-				}
+				waitForTasks(devToPause);
 				
 				ui.write("Task Stack for " + devToPause);
 				ui.write(devToPause.deviceTasks.logStackState());
@@ -482,6 +792,45 @@ public class Controller{
 		}
 	}
 	
+	/**
+	 * Waits until a {@link RemoteClient} has no {@link Task}s left, including any sent while waiting
+	 * 
+	 * @param dev the remote client
+	 */
+	private void waitForTasks(RemoteClient dev){
+		while(dev.deviceTasks.tasksRemaining()){
+			for(Task t : dev.deviceTasks.currentTasks()){
+				if(!waitForTask(t)){
+					return;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Waits for a {@link Task} to end
+	 * 
+	 * @param task the task, or null if it has already ended
+	 * @return false if the wait was interrupted
+	 */
+	private boolean waitForTask(Task task){
+		if(task == null){
+			return true;
+		}
+		
+		try {
+			task.getCompletion().get();
+			return true;
+		} catch (InterruptedException e) {
+			logger.error("Interrupted while waiting on task " + task.getId(), e);
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			logger.error(e.getMessage(), e);
+			return true;
+		}
+	}
+	
 	
 	/*****************
 	 * INNER CLASSES
@@ -535,5 +884,31 @@ public class Controller{
 			}
 		}
 	}
+	
+	/**
+	 * Adds a {@link RemoteClient} for every remote device that connects to a {@link WifiLink} after its search has finished,
+	 * and tells the user which index to use for it.
+	 * 
+	 * @author Johnathan Pagnutti
+	 *
+	 */
+	private class WifiArrivalListener implements WifiLink.ArrivalListener {
+		
+		private WifiLink link;
+		
+		public WifiArrivalListener(WifiLink link){
+			this.link = link;
+		}
+		
+		@Override
+		public void connectionArrived(String connectionURL) {
+			RemoteClient dev = new RemoteClient(link, connectionURL);
+			devices.add(dev);
+			
+			ui.write("Found Wifi IP" + connectionURL);
+			ui.write("Use index " + devices.indexOf(dev) + " to access this device.");
+			logger.debug("Found a valid connection " + connectionURL);
+		}
+	}
 }
 
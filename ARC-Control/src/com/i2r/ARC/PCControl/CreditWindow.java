@@ -0,0 +1,102 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.i2r.ARC.PCControl.DataManager.ARCProtocol;
+
+/**
+ * Gives the remote device credit to send more bulk data as the controller gets through what it already has.
+ * <p>
+ * Once credit is turned on, the remote device only has {@link ARCProtocol#INITIAL_CREDIT} bytes of bulk frames out for a task
+ * at a time.  Every bulk frame is counted here once its response has been acted on (or thrown out), not when it is read, so a
+ * slow disk or a stream held back waiting on a missing frame stops the remote device from sending more, instead of piling up
+ * responses in memory.  Credit is given back a task at a time, once at least {@link #GRANT_THRESHOLD} bytes of it are owed, so
+ * a steady stream of small frames doesn't turn into a steady stream of {@link CommandHeader#CREDIT} commands.
+ *
+ * @author Johnathan Pagnutti
+ *
+ */
+public class CreditWindow {
+
+	static final Logger logger = Logger.getLogger(CreditWindow.class);
+
+	/**
+	 * The fewest bytes owed to a task before they are given back
+	 */
+	public static final int GRANT_THRESHOLD = ARCProtocol.INITIAL_CREDIT / 4;
+
+	//the remote client to send credit commands through
+	private final RemoteClient dev;
+
+	//the bytes owed to each task that haven't been given back yet, by task ID
+	private final Map<Integer, Integer> owed = new HashMap<Integer, Integer>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param dev the remote client to give credit back through
+	 */
+	public CreditWindow(RemoteClient dev){
+		this.dev = dev;
+	}
+
+	/**
+	 * Counts a response as done with, giving its frame back to the remote device as credit once enough is owed for its task.
+	 * Responses that aren't bulk data, or didn't come in a binary frame, were never counted against any credit, so they are
+	 * ignored.
+	 * <p>
+	 * Called from {@link ResponseDispatcher} threads, and from the parse thread for frames that are thrown out.
+	 *
+	 * @param response the response that is done with
+	 */
+	public void release(RemoteClientResponse response){
+		if(response.frameLength <= 0 || !ARCProtocol.isBulk(response.argType)){
+			return;
+		}
+
+		int grant;
+
+		synchronized(owed){
+			Integer previous = owed.get(response.taskID);
+			grant = ((previous == null) ? 0 : previous) + response.frameLength;
+
+			if(grant < GRANT_THRESHOLD){
+				owed.put(response.taskID, grant);
+				return;
+			}
+
+			owed.remove(response.taskID);
+		}
+
+		//sent outside the lock, so a slow connection never holds up the other streams counting their frames
+		dev.grantCredit(response.taskID, grant);
+	}
+
+	/**
+	 * Forgets what is owed to a task that has ended.  Whatever it was owed is less than {@link #GRANT_THRESHOLD}, and would otherwise
+	 * sit here for the rest of the connection, or be handed to the next task given the same ID.
+	 *
+	 * @param taskID the task that has ended
+	 */
+	public void forget(int taskID){
+		synchronized(owed){
+			owed.remove(taskID);
+		}
+	}
+
+	/**
+	 * Forgets everything owed.  Called on every new connection, since the remote device starts every task over with
+	 * {@link ARCProtocol#INITIAL_CREDIT}.
+	 */
+	public void reset(){
+		synchronized(owed){
+			owed.clear();
+		}
+	}
+}
@@ -3,18 +3,51 @@
  */
 package com.i2r.ARC.PCControl.DataManager;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.Logger;
 
+import com.i2r.ARC.PCControl.ARCCommand;
+import com.i2r.ARC.PCControl.ClientScope;
+import com.i2r.ARC.PCControl.CommandHeader;
 import com.i2r.ARC.PCControl.RemoteClient;
 import com.i2r.ARC.PCControl.Task;
+import com.i2r.ARC.PCControl.TaskResult;
 import com.i2r.ARC.PCControl.link.RemoteConnection;
+import com.i2r.ARC.PCControl.link.SelectedConnection;
 
 /**
  * This is the ARC implementation of a {@link DataManager}
  * Generic to allow for any {@link RemoteConnection} of action <code>byte[]</code> to be used in the constructor.
+ * <p>
+ * Writes never happen on the caller's thread.  {@link #write(Task)} puts the task on a queue of at most {@link #MAX_QUEUED_TASKS}
+ * and returns straight away, and each connection has its own write thread that takes everything queued (up to
+ * {@link #MAX_BATCH_TASKS} tasks at a time) and writes it out with a single write and flush.  That way a burst of commands, or
+ * a slow link, never holds up whoever is sending them, and sending to one device is never held up by another.
+ * <p>
+ * Tasks don't all wait in the same queue.  Each goes in one of the {@link Lane}s, by its command header, and every batch is taken
+ * from the most urgent lane first, the same way the remote device acts on high priority commands ahead of the task starters it has
+ * queued.  Kill, nuke and ping commands are expedited, so they go ahead of everything already waiting, and only
+ * {@link #MAX_LOWER_LANE_BATCH_TASKS} of the rest go out in any one batch, so an expedited command is never stuck behind a long
+ * batch that is already being written.  A kill for a task that hasn't been written yet takes the task out of its queue, and is
+ * never sent itself, and a nuke takes out every task starter still waiting, so nothing is started after the command that was meant
+ * to stop it.
+ * <p>
+ * In {@link ClientScope#MODE_SHARED} there is no write thread.  Instead, queueing a task starts a write job on the client's
+ * {@link ClientScope} if one isn't already running, and the job writes batches the same way until the queue is empty.  The read
+ * loop runs as a job on the scope in either mode.
+ * <p>
+ * If a write fails, the write thread stops, and hands whatever it couldn't write over to the {@link RemoteClient}, which
+ * reconnects on a thread of its own and sends them again.
  * @see {@link DataManager} for general contract details and notes regarding data hiding
  * 
  * @author Johnathan Pagnutti
@@ -29,6 +62,45 @@ public class ARCDataManager extends DataManager<Task, byte[]>{
 	
 	static final Logger logger = Logger.getLogger(ARCDataManager.class);
 	
+	/**
+	 * The most tasks that can be waiting to be written before {@link #write(Task)} starts turning them away
+	 */
+	public static final int MAX_QUEUED_TASKS = 256;
+	
+	/**
+	 * The most tasks written out together with one write and flush
+	 */
+	public static final int MAX_BATCH_TASKS = 32;
+	
+	/**
+	 * The most tasks from {@link Lane#HIGH} and {@link Lane#NORMAL} written out together, which bounds how long an expedited command
+	 * can wait on a batch that is already being written
+	 */
+	public static final int MAX_LOWER_LANE_BATCH_TASKS = 8;
+	
+	//the tasks waiting to be written, one queue for each lane, most urgent first.  Any thread can add to them, only the write thread
+	//takes from them.  Also the lock for everything else about the queues
+	private final LaneQueue[] lanes = newLanes();
+	
+	//the number of tasks waiting in every lane.  Guarded by lanes
+	private int queued = 0;
+	
+	//the connection, kept to tell whether it reads itself
+	private final RemoteConnection<byte[]> conn;
+	
+	//where the read and write loops run, or null if there is no client to run them for
+	private final ClientScope scope;
+	
+	//true if tasks are written by write jobs started as tasks are queued, rather than a write thread
+	private final boolean onDemand = ClientScope.isShared();
+	
+	//set while a write job is running (or about to), so there is only ever one
+	private final AtomicBoolean writing = new AtomicBoolean(false);
+	
+	//cleared once a write has failed, after which nothing more is taken.  Guarded by lanes, so no task can be queued after
+	//the write thread has handed back what was left
+	private boolean open = true;
+	
 	/**
 	 * Constructor.
 	 * A new {@link ARCDataParser} object is also created and assigned to the {@link DataManager#parser} field
@@ -39,68 +111,249 @@ public class ARCDataManager extends DataManager<Task, byte[]>{
 	 */
 	public ARCDataManager(RemoteConnection<byte[]> conn){
 		super(conn);
+		this.conn = conn;
+		this.scope = null;
 		
 		parser = new ARCDataParser();
+		startWriter();
 	}
 	
 	public ARCDataManager(RemoteConnection<byte[]> conn, RemoteClient dev){
 		super(conn, dev);
+		this.conn = conn;
+		this.scope = (dev == null) ? null : dev.getScope();
 		
 		parser = new ARCDataParser(dev);
+		startWriter();
+	}
+	
+	/**
+	 * Starts the write thread for this connection
+	 */
+	private void startWriter(){
+		if(onDemand){
+			//write jobs are started as tasks are queued
+			return;
+		}
+		
+		start("Write-Thread", new ARCDataWriterRunnable(), true);
+	}
+	
+	/**
+	 * Starts a write job, if tasks are written on demand and one isn't already running
+	 */
+	private void startWriteJob(){
+		if(!onDemand || !writing.compareAndSet(false, true)){
+			return;
+		}
+		
+		if(!start("Write-Thread", new ARCDataWriteJob(), true)){
+			writing.set(false);
+		}
+	}
+	
+	/**
+	 * Runs a loop or job in the client's scope, or on a thread of its own if there is no client
+	 * 
+	 * @param name the name of the thread
+	 * @param job the loop or job
+	 * @param daemon whether a thread of its own should be a daemon thread
+	 * @return false if the client's scope has been closed
+	 */
+	private boolean start(String name, Runnable job, boolean daemon){
+		if(scope != null){
+			return scope.execute(name, job);
+		}
+		
+		Thread t = new Thread(job);
+		t.setName(name);
+		t.setDaemon(daemon);
+		t.start();
+		return true;
 	}
 
 	/**
 	 * The implementation of the read() method
 	 * @see {@link DataManager#read()} for contract details
 	 * 
-	 * This implementation of the read method does not block by having a thread handle the actual read loop
+	 * This implementation of the read method does not block by having a thread handle the actual read loop.  A
+	 * {@link SelectedConnection} is already read by a thread its link shares, so it is just pointed at the parser instead.
 	 */
 	@Override
 	public void read() {
-		//create a new thread and start it
-		Thread t = new Thread(new ARCDataManagerRunnable(dataIn, parser));
-		t.setName("Read-Thread");
-		t.start();
+		if(conn instanceof SelectedConnection){
+			((SelectedConnection) conn).startReading((ARCDataParser) parser);
+			return;
+		}
+		
+		//start the read loop
+		start("Read-Thread", new ARCDataManagerRunnable(dataIn, parser), false);
 	}
 
 	/**
 	 * The implementation of the write() method
 	 * @see {@link DataManager#write(Object)} for contract details
 	 * 
+	 * This implementation never blocks.  The task is queued in its {@link Lane} for the write thread, and written along with anything
+	 * else queued at the time, after anything more urgent.
+	 * 
 	 * @param dataElement the data element to write to the connection
+	 * @return true if the task was queued, false if the write thread has stopped or too many tasks are already waiting in its lane
 	 */
 	@Override
-	public void write(Task dataElement) {
-		byte[] dataByes = toSendBytes(dataElement);
+	public boolean write(Task dataElement) {
+		List<Task> killed = Collections.emptyList();
+		boolean unneeded;
 		
-		try {
-			//log loop
-			logger.debug("Writing: ");
-			StringBuilder sb = new StringBuilder();
-			for(byte b : dataByes){
-				sb.append(b);
-				sb.append(" ");
+		synchronized(lanes){
+			if(!open){
+				logger.error("Task " + dataElement.getId() + " not queued, the connection has been lost.");
+				return false;
 			}
-			logger.debug(sb.toString());
 			
-			//write data out to the remote connection
-			dataOut.write(dataByes);
+			//a kill whose task never went out has nothing to stop on the remote device, so it isn't sent either
+			unneeded = withdrawTarget(dataElement.getCommand());
 			
-			//flush the data stream, (backed by a buffer now, and is no longer ensured to write)
-			dataOut.flush();
-		} catch (IOException e) {
-			logger.error(e.getMessage(), e);
-			//lost connection somehow, shit shit shit...
-			dev.report("Attempting to restablish connection...");
-			boolean reconnected = dev.reconnect();
+			if(!unneeded){
+				LaneQueue lane = lanes[Lane.of(dataElement.getCommand().getHeader()).ordinal()];
+				if(lane.tasks.size() >= MAX_QUEUED_TASKS){
+					lane.turnedAway++;
+					logger.error("Task " + dataElement.getId() + " not queued, " + MAX_QUEUED_TASKS + " " + lane.lane
+							+ " tasks are already waiting.");
+					return false;
+				}
+				
+				if(dataElement.getCommand().getHeader() == CommandHeader.KILL_ALL){
+					killed = withdrawStarters();
+				}
+				
+				lane.add(dataElement);
+				queued++;
+				
+				//wake the write thread, if it is waiting
+				lanes.notifyAll();
+			}
+		}
+		
+		if(dev != null){
+			//a nuke that went ahead of task starters stops them before they ever start
+			for(Task t : killed){
+				dev.finishTask(t.getId(), TaskResult.Outcome.KILLED, "Killed before it was sent.");
+			}
 			
-			if(reconnected){
-				write(dataElement);
-			}else{
-				dev.report("Connection Lost.");
-				dev.shutdown();
+			if(unneeded){
+				dev.finishTask(dataElement.getId(), TaskResult.Outcome.COMPLETED, "The task it kills was never sent.");
 			}
 		}
+		
+		if(!unneeded){
+			startWriteJob();
+		}
+		return true;
+	}
+	
+	/**
+	 * @return the number of tasks waiting to be written, in every lane
+	 */
+	public int getQueueDepth(){
+		synchronized(lanes){
+			return queued;
+		}
+	}
+	
+	/**
+	 * Get how one of the lanes has been used so far
+	 * 
+	 * @param lane the lane
+	 * @return a snapshot of its queue
+	 */
+	public LaneStats getLaneStats(Lane lane){
+		synchronized(lanes){
+			return new LaneStats(lanes[lane.ordinal()]);
+		}
+	}
+	
+	/**
+	 * Takes the task a kill command stops out of the lower lanes, if it hasn't been written yet.  The killed task is ended by the
+	 * client as the kill is sent.  Must hold lanes.
+	 * 
+	 * @param command the command being queued
+	 * @return true if the command is a kill, and its task was taken out, so the kill doesn't need to be sent
+	 */
+	private boolean withdrawTarget(ARCCommand command){
+		if(command.getHeader() != CommandHeader.KILL_TASK){
+			return false;
+		}
+		
+		int target = Integer.parseInt(command.getArguments().get(ARCCommand.KILL_TASK_INDEX));
+		for(Lane lower : new Lane[]{Lane.HIGH, Lane.NORMAL}){
+			if(lanes[lower.ordinal()].withdraw(target) != null){
+				queued--;
+				logger.debug("Task " + target + " was killed before it was written, neither it nor its kill will be sent.");
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Takes every task starter out of its lane, as a nuke is queued.  Must hold lanes.
+	 * 
+	 * @return the tasks taken out, which are left for the caller to end
+	 */
+	private List<Task> withdrawStarters(){
+		List<Task> killed = lanes[Lane.NORMAL.ordinal()].withdrawAll();
+		queued -= killed.size();
+		return killed;
+	}
+	
+	/**
+	 * Takes the next batch to write from the lanes, most urgent first: every expedited task waiting, and then at most
+	 * {@link #MAX_LOWER_LANE_BATCH_TASKS} of the rest, up to {@link #MAX_BATCH_TASKS} in all.  Must hold lanes.
+	 * 
+	 * @param batch the list to add the batch to
+	 */
+	private void takeBatch(List<Task> batch){
+		long now = System.nanoTime();
+		int lowerRoom = MAX_LOWER_LANE_BATCH_TASKS;
+		
+		for(LaneQueue lane : lanes){
+			while(batch.size() < MAX_BATCH_TASKS && !lane.tasks.isEmpty()){
+				if(lane.lane != Lane.EXPEDITED && lowerRoom-- <= 0){
+					return;
+				}
+				
+				batch.add(lane.take(now));
+				queued--;
+			}
+		}
+	}
+	
+	/**
+	 * Takes everything left in the lanes, most urgent first.  Must hold lanes.
+	 * 
+	 * @param batch the list to add it all to
+	 */
+	private void takeAll(List<Task> batch){
+		long now = System.nanoTime();
+		for(LaneQueue lane : lanes){
+			while(!lane.tasks.isEmpty()){
+				batch.add(lane.take(now));
+			}
+		}
+		queued = 0;
+	}
+	
+	/**
+	 * @return an empty queue for each lane, in lane order
+	 */
+	private static LaneQueue[] newLanes(){
+		Lane[] all = Lane.values();
+		LaneQueue[] queues = new LaneQueue[all.length];
+		for(Lane lane : all){
+			queues[lane.ordinal()] = new LaneQueue(lane);
+		}
+		return queues;
 	}
 	
 	private byte[] toSendBytes(Task dataElement) {
@@ -120,8 +373,359 @@ public class ARCDataManager extends DataManager<Task, byte[]>{
 	}
 	
 	/*************************
-	 * INNER CLASS
+	 * INNER CLASSES
 	 *************************/
+	
+	/**
+	 * The lanes tasks wait to be written in, most urgent first
+	 * 
+	 * @author Johnathan Pagnutti
+	 *
+	 */
+	public enum Lane {
+		/**
+		 * Commands that stop tasks, or just check the connection is there: kill, nuke and ping
+		 */
+		EXPEDITED,
+		
+		/**
+		 * Every other command the remote device acts on as soon as it reads it, see {@link CommandHeader#isHighPriority()}
+		 */
+		HIGH,
+		
+		/**
+		 * Task starters
+		 */
+		NORMAL;
+		
+		/**
+		 * @param header a command header
+		 * @return the lane commands with that header wait in
+		 */
+		public static Lane of(CommandHeader header){
+			switch(header){
+			case KILL_TASK:
+			case KILL_ALL:
+			case DO_NOTHING:
+				return EXPEDITED;
+			default:
+				return header.isHighPriority() ? HIGH : NORMAL;
+			}
+		}
+	}
+	
+	/**
+	 * A snapshot of how one {@link Lane} has been used, from {@link ARCDataManager#getLaneStats(Lane)}
+	 * 
+	 * @author Johnathan Pagnutti
+	 *
+	 */
+	public static class LaneStats {
+		
+		private final Lane lane;
+		private final int depth;
+		private final int peakDepth;
+		private final long queued;
+		private final long taken;
+		private final long turnedAway;
+		private final long withdrawn;
+		private final long totalWaitNanos;
+		private final long maxWaitNanos;
+		
+		private LaneStats(LaneQueue q){
+			lane = q.lane;
+			depth = q.tasks.size();
+			peakDepth = q.peakDepth;
+			queued = q.queued;
+			taken = q.taken;
+			turnedAway = q.turnedAway;
+			withdrawn = q.withdrawn;
+			totalWaitNanos = q.totalWaitNanos;
+			maxWaitNanos = q.maxWaitNanos;
+		}
+		
+		/**
+		 * @return the lane
+		 */
+		public Lane getLane(){
+			return lane;
+		}
+		
+		/**
+		 * @return the number of tasks waiting in the lane
+		 */
+		public int getDepth(){
+			return depth;
+		}
+		
+		/**
+		 * @return the most tasks that have ever been waiting in the lane at once
+		 */
+		public int getPeakDepth(){
+			return peakDepth;
+		}
+		
+		/**
+		 * @return the number of tasks ever queued in the lane
+		 */
+		public long getQueued(){
+			return queued;
+		}
+		
+		/**
+		 * @return the number of tasks taken from the lane to be written
+		 */
+		public long getTaken(){
+			return taken;
+		}
+		
+		/**
+		 * @return the number of tasks turned away because the lane was full
+		 */
+		public long getTurnedAway(){
+			return turnedAway;
+		}
+		
+		/**
+		 * @return the number of tasks taken out of the lane by a kill or nuke before they were written
+		 */
+		public long getWithdrawn(){
+			return withdrawn;
+		}
+		
+		/**
+		 * @return the average time a task taken from the lane waited in it, in milliseconds
+		 */
+		public double getMeanWaitMillis(){
+			return (taken == 0) ? 0 : (totalWaitNanos / (double) taken) / TimeUnit.MILLISECONDS.toNanos(1);
+		}
+		
+		/**
+		 * @return the longest time a task taken from the lane waited in it, in milliseconds
+		 */
+		public double getMaxWaitMillis(){
+			return maxWaitNanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+		}
+		
+		@Override
+		public String toString(){
+			return String.format("%s: %d waiting (%d at most), %d queued, %d taken, %d turned away, %d withdrawn, wait %.2f ms mean %.2f ms max",
+					lane, depth, peakDepth, queued, taken, turnedAway, withdrawn, getMeanWaitMillis(), getMaxWaitMillis());
+		}
+	}
+	
+	/**
+	 * The queue for one {@link Lane}, and what has been measured about it.  Everything is guarded by
+	 * {@link ARCDataManager#lanes}.
+	 * 
+	 * @author Johnathan Pagnutti
+	 *
+	 */
+	private static class LaneQueue {
+		
+		final Lane lane;
+		
+		//the tasks waiting, oldest first
+		final ArrayDeque<Queued> tasks = new ArrayDeque<Queued>();
+		
+		int peakDepth = 0;
+		long queued = 0;
+		long taken = 0;
+		long turnedAway = 0;
+		long withdrawn = 0;
+		long totalWaitNanos = 0;
+		long maxWaitNanos = 0;
+		
+		LaneQueue(Lane lane){
+			this.lane = lane;
+		}
+		
+		void add(Task task){
+			tasks.addLast(new Queued(task));
+			queued++;
+			peakDepth = Math.max(peakDepth, tasks.size());
+		}
+		
+		Task take(long now){
+			Queued q = tasks.pollFirst();
+			long wait = now - q.since;
+			taken++;
+			totalWaitNanos += wait;
+			maxWaitNanos = Math.max(maxWaitNanos, wait);
+			return q.task;
+		}
+		
+		/**
+		 * @return the task with the given ID, taken out of the queue, or null if it isn't waiting here
+		 */
+		Task withdraw(int taskID){
+			Iterator<Queued> it = tasks.iterator();
+			while(it.hasNext()){
+				Queued q = it.next();
+				if(q.task.getId() == taskID){
+					it.remove();
+					withdrawn++;
+					return q.task;
+				}
+			}
+			return null;
+		}
+		
+		/**
+		 * @return every task waiting, taken out of the queue
+		 */
+		List<Task> withdrawAll(){
+			List<Task> all = new ArrayList<Task>(tasks.size());
+			for(Queued q : tasks){
+				all.add(q.task);
+			}
+			withdrawn += all.size();
+			tasks.clear();
+			return all;
+		}
+	}
+	
+	/**
+	 * A task waiting in a lane, and when it started waiting
+	 * 
+	 * @author Johnathan Pagnutti
+	 *
+	 */
+	private static class Queued {
+		
+		final Task task;
+		final long since = System.nanoTime();
+		
+		Queued(Task task){
+			this.task = task;
+		}
+	}
+	
+	/**
+	 * Implements the thread that writes queued tasks to the connection.  Each pass takes every task waiting (up to
+	 * {@link ARCDataManager#MAX_BATCH_TASKS}, most urgent first), so while the link is slow, tasks pile up and go out together
+	 * rather than one write and flush each.
+	 * 
+	 * @author Johnathan Pagnutti
+	 *
+	 */
+	private class ARCDataWriterRunnable implements Runnable{
+		
+		/**
+		 * Implemented from {@link Runnable}
+		 * 
+		 * Writes batches of tasks until a write fails, at which point the connection is handed back to the {@link RemoteClient}
+		 * along with every task that didn't get written.
+		 */
+		@Override
+		public void run(){
+			List<Task> batch = new ArrayList<Task>(MAX_BATCH_TASKS);
+			ByteArrayOutputStream batchBytes = new ByteArrayOutputStream();
+			
+			while(true){
+				synchronized(lanes){
+					try {
+						//wait for something to write, then take whatever else has piled up along with it
+						while(queued == 0){
+							lanes.wait();
+						}
+					} catch (InterruptedException e) {
+						//the client's scope has been closed
+						logger.debug("Write thread stopped.");
+						return;
+					}
+					takeBatch(batch);
+				}
+				
+				if(!writeBatch(batch, batchBytes)){
+					return;
+				}
+				
+				batch.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Implements a write job, used instead of the write thread in {@link ClientScope#MODE_SHARED}.  A job writes batches of tasks
+	 * the same way the write thread does, but finishes as soon as the queue is empty, rather than waiting for more.
+	 * 
+	 * @author Johnathan Pagnutti
+	 *
+	 */
+	private class ARCDataWriteJob implements Runnable{
+		
+		/**
+		 * Implemented from {@link Runnable}
+		 * 
+		 * Writes batches of tasks until the queue is empty or a write fails, then lets the next task queued start a new job
+		 */
+		@Override
+		public void run(){
+			List<Task> batch = new ArrayList<Task>(MAX_BATCH_TASKS);
+			ByteArrayOutputStream batchBytes = new ByteArrayOutputStream();
+			
+			while(true){
+				synchronized(lanes){
+					takeBatch(batch);
+					
+					if(batch.isEmpty()){
+						//cleared while holding the lock, so any task queued from here on starts a job of its own
+						writing.set(false);
+						return;
+					}
+				}
+				
+				if(!writeBatch(batch, batchBytes)){
+					//leave writing set, nothing more is written on this connection
+					return;
+				}
+				
+				batch.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Writes a batch of tasks out with a single write and flush.  If the write fails, nothing more is taken from the queue, and the
+	 * batch, along with everything still queued, is handed back to the {@link RemoteClient}.
+	 * 
+	 * @param batch the tasks to write
+	 * @param batchBytes a buffer to put the batch together in
+	 * @return true if the batch was written, false if the connection has been lost
+	 */
+	private boolean writeBatch(List<Task> batch, ByteArrayOutputStream batchBytes){
+		batchBytes.reset();
+		for(Task t : batch){
+			byte[] dataBytes = toSendBytes(t);
+			batchBytes.write(dataBytes, 0, dataBytes.length);
+		}
+		
+		try {
+			logger.debug("Writing " + batch.size() + " tasks, " + batchBytes.size() + " bytes.");
+			
+			//write the whole batch out to the remote connection
+			batchBytes.writeTo(dataOut);
+			
+			//flush the data stream, (backed by a buffer now, and is no longer ensured to write)
+			dataOut.flush();
+		} catch (IOException e) {
+			logger.error(e.getMessage(), e);
+			
+			//lost connection somehow, stop taking tasks and hand everything left back
+			synchronized(lanes){
+				open = false;
+				takeAll(batch);
+			}
+			
+			if(dev != null){
+				dev.connectionLost(batch);
+			}
+			return false;
+		}
+		
+		return true;
+	}
 
 	/**
 	 * Implements the thread that the BluetoothDataManager uses to read from the socket.
@@ -178,7 +782,7 @@ public class ARCDataManager extends DataManager<Task, byte[]>{
 						
 							logger.debug("Read " + cleanArray.length + " bytes from the connection.");
 						
-							//pass a copy of the trimmed data to parse it
+							//pass a copy of the trimmed data to parse it.  This waits if the parser has fallen too far behind
 							threadParser.parseData(cleanArray);
 						}else if(bytesRead == -1){
 							threadIn.close();
@@ -189,6 +793,11 @@ public class ARCDataManager extends DataManager<Task, byte[]>{
 			} catch (IOException e) {
 				//some error has occurred.
 				logger.error(e.getMessage(), e);
+			} finally {
+				//nothing more will be read from this connection, let the parse thread finish up what it has and stop
+				if(threadParser instanceof ARCDataParser){
+					((ARCDataParser) threadParser).stop();
+				}
 			}
 		}
 	}
@@ -3,17 +3,19 @@
  */
 package com.i2r.ARC.PCControl.DataManager;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
 
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.log4j.Logger;
 
+import com.i2r.ARC.PCControl.ClientScope;
 import com.i2r.ARC.PCControl.RemoteClientResponse;
 import com.i2r.ARC.PCControl.RemoteClient;
 import com.i2r.ARC.PCControl.ResponseAction;
+import com.i2r.ARC.PCControl.data.FileSink;
 import com.i2r.ARC.PCControl.link.RemoteLink;
 
 /**
@@ -31,6 +33,7 @@ public class ARCDataParser implements DataParser<byte []> {
 	// TYPE
 	// ARG SIZE
 	// ARG
+	//(binary frames put a preamble in front of the ID, see ARCProtocol)
 	
 	/**
 	 * Constant to define that the parser expects to parse a new response segment
@@ -53,7 +56,7 @@ public class ARCDataParser implements DataParser<byte []> {
 	/**
 	 * Constant to define the packet delimiter.
 	 */
-	public static final Byte RESPONSE_PACKET_DELIMITER = new Byte((byte)'\n');
+	public static final byte RESPONSE_PACKET_DELIMITER = (byte)'\n';
 	/**
 	 * Constant to define the max size of the argument list
 	 */
@@ -69,6 +72,17 @@ public class ARCDataParser implements DataParser<byte []> {
 	 */
 	public static final int ASCII_9 = 57;
 	
+	/**
+	 * Constant defines the most ASCII digits a header field may have.  A field with this many digits can still be too big for an
+	 * int, so the value is checked as well
+	 */
+	public static final int MAX_HEADER_DIGITS = 10;
+	
+	/**
+	 * Constant defines the number of read chunks that can wait to be parsed before the read loop is made to wait
+	 */
+	public static final int PARSE_QUEUE_CAPACITY = 256;
+	
 	/**
 	 * Logger
 	 */
@@ -88,19 +102,57 @@ public class ARCDataParser implements DataParser<byte []> {
 	//the amount of file bytes the parser has seen
 	private int readCounter = 0;
 	
+	//the value of the ASCII header field currently being read, built up one digit at a time
+	private int headerValue = 0;
+	
+	//the number of digits (or varint bytes) read into the current header field, carried across chunk boundaries
+	private int headerDigits = 0;
+	
+	//the ARCProtocol version responses are currently framed with.  Only changed by the parse thread, but read by others
+	private volatile int protocolVersion = ARCProtocol.TEXT_VERSION;
+	
+	//the number of binary frame preamble bytes read so far for the frame being parsed
+	private int preambleRead = 0;
+	
+	//the flags byte of the binary frame being parsed
+	private byte frameFlags = ARCProtocol.FLAGS_NONE;
+	
+	//the sequence number of the checked binary frame being parsed, and whether it has been read yet
+	private int sequence = -1;
+	private boolean sequenceRead = false;
+	
+	//the CRC at the end of the checked binary frame being parsed, built up one byte at a time, and the number of its bytes read
+	private int checkValue = 0;
+	private int checkRead = 0;
+	
+	//the CRC of every byte of the binary frame being parsed so far
+	private final CRC32 frameCheck = new CRC32();
+	
+	//the number of bytes thrown out since the last good frame, while looking for the start of the next one
+	private long skippedBytes = 0;
+	
+	//undoes compression on frames flagged ARCProtocol.FLAG_DEFLATED
+	private final FrameInflater inflater = new FrameInflater();
+	
 	//an array to store the file bytes in as they're parsed
 	private byte[] fileBytes = null;
 	
-	//synchronization and multithreading lock
-	private final Object parseLock = new Object();
+	//if the argument is large enough to go straight to disk, the sink to write the file bytes to instead of fileBytes
+	private FileSink sink = null;
+	
+	//the chunks waiting to be parsed, in the order they were read
+	private final ChunkRingBuffer parseQueue;
 	
-	//atomic double lock, to ensure that the subthread gets the parse lock before parse can be called again
-	private AtomicBoolean lockAquired;
+	//set once the one thread that parses every chunk for this parser has been started, on the first chunk
+	private boolean parseStarted = false;
 	
+	//in ClientScope.MODE_SHARED there is no parse thread.  Instead, a parse job is started whenever a chunk is queued and none is
+	//running, and runs until the queue is empty.  Set while a parse job is running (or about to), so there is only ever one
+	private final boolean onDemand = ClientScope.isShared();
+	private final AtomicBoolean parsing = new AtomicBoolean(false);
 	
-	//A list of the current data parsed.  Used for when we get incomplete segments of data and are waiting for the next block
-	//to come in to finish them.
-	private List<Byte> partialSection;
+	//set once a parse job has found the queue stopped and empty, and cleaned up
+	private boolean finished = false;
 
 	public RemoteClient dev;
 	
@@ -111,565 +163,786 @@ public class ARCDataParser implements DataParser<byte []> {
 		//set the state of the parser to the default
 		state = NEW_RESPONSE;
 		
-		//create the partial section list
-		partialSection = new ArrayList<Byte>();
-		
-		
-		//set the lock as open
-		lockAquired = new AtomicBoolean(false);
+		//create the queue that feeds the parse thread
+		parseQueue = new ChunkRingBuffer(PARSE_QUEUE_CAPACITY);
 	}
 	
 	public ARCDataParser(RemoteClient dev){
-		//set the state of the parser to the default
-		state = NEW_RESPONSE;
-		
-		//create the partial section list
-		partialSection = new ArrayList<Byte>();
-		
-		//set the lock as open
-		lockAquired = new AtomicBoolean(false);
+		this();
 		
 		this.dev = dev;
 	}
 	
+	/**
+	 * Constructor for a parser of a connection that never starts out with {@link ARCProtocol#TEXT_VERSION} responses, like the
+	 * extra sockets a remote device opens for bulk data
+	 * 
+	 * @param dev the remote client the responses are for
+	 * @param protocolVersion the {@link ARCProtocol} version the connection starts out with
+	 */
+	public ARCDataParser(RemoteClient dev, int protocolVersion){
+		this(dev);
+		
+		this.protocolVersion = protocolVersion;
+	}
+	
 	/**
 	 * Implemented from {@link DataParser}
 	 * @see {@link DataParser} for contract information.
 	 * 
-	 * This method uses a double lock, the outer one is an atomic boolean, the inner one is a locking object
-	 * Essentally, a calling method has to first set the lock aquired method, then get the locking object.  Another thread in
-	 * another calling method now needs to wait for the thread to release the outer lock (set the lock to false from true) when it
-	 * has aquired the inner lock (in a synchronized block with the inner locking object).
+	 * Every chunk is handed to a single parse thread through a bounded single producer/single consumer {@link ChunkRingBuffer}, 
+	 * so chunks are always parsed in the order they were read, and only one thread ever touches the parser's state.
 	 * 
-	 * This ensures that the inner lock gets passed to the subthread before any logic in the parse method can execute.  This prevents
-	 * a race condition, where a new block of data could start to be parsed before the parser's state reflected what was read in the 
-	 * previous block of data
+	 * If the parse thread falls {@link #PARSE_QUEUE_CAPACITY} chunks behind, this method blocks until it catches up, which holds
+	 * off the read loop rather than letting unparsed data pile up in memory.
+	 * 
+	 * This method must only ever be called from one thread (the read thread), and the array passed in must not be reused afterwards.
+	 * <p>
+	 * In {@link ClientScope#MODE_SHARED}, the chunks are parsed by a job on the client's {@link ClientScope} instead, started here
+	 * if one isn't already running.
 	 */
 	@Override
 	public void parseData(byte[] dataToParse) {
-		//wait for the outer lock to open
-		while(!lockAquired.compareAndSet(false, true)){}
-		
-		//aquired the right to aquire the lock
-		//wait for the parselock
-		synchronized(parseLock){
-			//blocking any threads waiting on parse lock
-			logger.debug("Parsing bytes: ");
-			
-			//log loop
-			StringBuilder sb = new StringBuilder();
-			for(byte b : dataToParse){
-				char c = ((char) b); //Low level byte fun in Java!
-				if(c == '\n'){
-					sb.append("\\n");
-				}else{
-					sb.append(c);
-				}
-				sb.append(" ");
+		startParseThread();
+		
+		if(logger.isDebugEnabled()){
+			logger.debug("Queueing " + dataToParse.length + " bytes to parse, " + parseQueue.size() + " chunks already waiting.");
+		}
+		
+		try {
+			//queue the chunk, waiting for room if the parse thread is behind
+			if(!parseQueue.put(dataToParse)){
+				logger.error("Parser has been stopped, dropping " + dataToParse.length + " bytes.");
 			}
-			logger.debug(sb.toString());
-			
-			//create a new thread object with the implementation as a parsing thread
-			Thread t = new Thread(new ParseRunnable(dataToParse));
 			
-			//start it
+			startParseJob();
+		} catch (InterruptedException e) {
+			logger.error(e.getMessage(), e);
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Queues a chunk to be parsed only if the parse thread has room for it, for threads that read from many connections and
+	 * can't wait on any one of them.  Otherwise the same as {@link #parseData(byte[])}, and the same one thread rule applies.
+	 * 
+	 * @param dataToParse the chunk to parse.  Only owned by the parser if it was queued.
+	 * @return true if the chunk was queued (or dropped because the parser has been stopped), false if the parse thread is
+	 * {@link #PARSE_QUEUE_CAPACITY} chunks behind and the chunk should be offered again later
+	 */
+	public boolean offerData(byte[] dataToParse) {
+		startParseThread();
+		
+		if(parseQueue.isClosed()){
+			logger.error("Parser has been stopped, dropping " + dataToParse.length + " bytes.");
+			return true;
+		}
+		
+		if(!parseQueue.offer(dataToParse)){
+			return false;
+		}
+		
+		startParseJob();
+		return true;
+	}
+	
+	/**
+	 * Starts the parse thread, if this is the first chunk we've seen
+	 */
+	private void startParseThread(){
+		if(parseStarted || onDemand){
+			return;
+		}
+		parseStarted = true;
+		
+		if(dev != null){
+			dev.getScope().execute("Parse-Thread", new ParseRunnable());
+		}else{
+			Thread t = new Thread(new ParseRunnable());
+			t.setName("Parse-Thread");
+			t.setDaemon(true);
 			t.start();
-			
 		}
 	}
 	
-	/****************************
-	 * INNER CLASSES
-	 ****************************/
+	/**
+	 * Starts a parse job, if the parser parses on demand and one isn't already running
+	 */
+	private void startParseJob(){
+		if(!onDemand || !parsing.compareAndSet(false, true)){
+			return;
+		}
+		
+		if(dev == null){
+			ClientScope.background("Parse-Thread", new ParseJob());
+		}else if(!dev.getScope().execute("Parse-Thread", new ParseJob())){
+			//the client has been shut down, nothing more will be parsed
+			parsing.set(false);
+		}
+	}
 	
 	/**
-	 * Class that implements runnable to define the parse thread used by the outer {@link ARCDataParser}
-	 * This thread attempts to parse a dynamically sized block of data received from some external source, such as a {@link RemoteLink}
+	 * Stops the parse thread once every chunk already queued has been parsed.  Any chunk handed to {@link #parseData(byte[])} 
+	 * afterwards is dropped.
+	 */
+	public void stop(){
+		parseQueue.close();
+		
+		//a parse job cleans up when it finds the queue stopped, so make sure one runs
+		startParseJob();
+	}
+	
+	/**
+	 * @return the number of chunks read from the connection that are still waiting to be parsed
+	 */
+	public int getQueueDepth(){
+		return parseQueue.size();
+	}
+	
+	/**
+	 * @return the most chunks that have been waiting to be parsed at once
+	 */
+	public int getQueueHighWaterMark(){
+		return parseQueue.getHighWaterMark();
+	}
+	
+	/**
+	 * @return the number of times the read loop has had to wait on a full parse queue
+	 */
+	public long getQueueFullWaits(){
+		return parseQueue.getFullWaits();
+	}
+	
+	/**
+	 * @return the {@link ARCProtocol} version the parser is currently reading responses with
+	 */
+	public int getProtocolVersion(){
+		return protocolVersion;
+	}
+	
+	/**
+	 * Runs the parser state machine over every byte between the buffer's position and its limit.
 	 * 
-	 * @author Johnathan Pagnutti
-	 *
+	 * The buffer is never copied or compacted; the parser only moves the buffer's position forward as it consumes bytes.  
+	 * With {@link ARCProtocol#TEXT_VERSION} responses, header fields (task ID, argument type and argument size) are ASCII integers, 
+	 * and are built up one digit at a time into {@link #headerValue}.  With {@link ARCProtocol#BINARY_VERSION} responses they are 
+	 * varints (or a single byte, for the argument type), built up one byte at a time the same way.  Either way, a header that is 
+	 * split across two chunks does not need to be buffered anywhere.
+	 * Argument bytes are bulk copied out of the buffer straight into the argument array.
+	 * 
+	 * The protocol version can change in the middle of a chunk, right after the remote device's answer to a 
+	 * {@link com.i2r.ARC.PCControl.CommandHeader#NEGOTIATE_PROTOCOL} command, so it is checked again for every header field.
+	 * 
+	 * Must only be called from the parse thread.
+	 * 
+	 * @param buffer the chunk of data to parse, from its position to its limit
 	 */
-	 private class ParseRunnable implements Runnable{
-
-
-		/**
-		  * A list created from the raw data passed in to parse
-		  */
-		 private List<Byte> rawData;
-		 
-		/**
-		 * A boolean flag if there is data left in the provided data block to parse
-		 */
-		 private boolean hasData = false;
-		 
-		 public ParseRunnable(byte[] bytesToParse){
-			 
-			 //convert the raw array passed in to a List of Bytes
-			 //allows for list utility methods to be called on the parsed bytes.
-			 this.rawData = new ArrayList<Byte>();
-			rawData.addAll(Arrays.asList(ArrayUtils.toObject(bytesToParse)));
-			 
-			//LOGING
-			logger.debug("Passed " + rawData.size() + " bytes to the parsing thread.");
-		 }
-		 
-		 /**
-		  * Implemented from {@link Runnable#run()}
-		  * @See {@link Runnable#run()} for generic contract information
-		  * 
-		  * This method is the core parsing method.  Based on the past data read in the link, this shifts the outer {@link ARCDataParser}
-		  * state to reflect what data to expect next from a connection
-		  */
-		@Override
-		public void run() {
-			//wait for the parse lock
-			synchronized(parseLock){
-				//got it
-				logger.debug("Aquired Inner Lock");
-								
-				//Probably a bit overkill, but if an empty byte array has been passed to the sub thread, then we don't have data to parse
-				if(!rawData.isEmpty()){
-					//so if the provided raw data isn't empty, set the flag to tell the parser that we have work to do
-					hasData = true;
-				}
-				
-				//while we have data to parse
-				while(hasData){
-					//if the parser is expecting a new response
-					if(state == NEW_RESPONSE){
-						logger.debug("Attempting to read a task ID...");
-						//the first element we get from a response is the task ID that generated this response
-						parseTaskID();
-
-					//if the parser has just read a task ID
-					}else if(state == READ_TASK_ID){
-						logger.debug("Parsing Argument Type...");
-						
-						parseArgumentType();
-						
-					}else if(state == READ_ARGUMENT_TYPE){
-						logger.debug("Parsing Argument Size...");
-						
-						//the second element is the size of the third element (argument)
-						parseArgumentSize();
-					//if the parser has just read the argument size	
-					}else if(state == READ_FILE_SIZE){
-						logger.debug("Parsing Argument Data...");
-						
-						//parse argument
-						parseArgumentData();
-						
-					}
-				}
+	private void parse(ByteBuffer buffer){
+		//while we have data to parse
+		while(buffer.hasRemaining()){
+			//if the parser has just read the argument size, the next bytes are raw argument data
+			if(state == READ_FILE_SIZE){
+				parseArgumentData(buffer);
+				continue;
 			}
 			
-			//release the lock
-			if(lockAquired.compareAndSet(true, false)){
-				logger.debug("Released Outer Lock");
+			//otherwise, we are in the middle of one of the header fields
+			boolean complete;
+			if(protocolVersion == ARCProtocol.BINARY_VERSION){
+				complete = parseBinaryHeaderField(buffer);
 			}else{
-				//Something really bad has happened
-				logger.error("WHERE IS YOUR GOD NOW?!");
+				complete = parseHeaderField(buffer);
 			}
-		}
-
-		private void parseArgumentType() {
-			//see if the packet delimiter is in the provided raw data
-			if(!rawData.contains(RESPONSE_PACKET_DELIMITER)){
-				logger.debug("A delimiter could not be found, adding data block to the partial data list.");
-				//we did not see a delimiter, appending the data from this block to the partial list to use
-				//append to the next block we scan.
-				
-				//check to make sure the data we're going to append could interpeted as a number, so that the
-				//partial data block does not get corrupted.
-				int partialCheck = interpetAsInt(rawData);
-				
-				if(partialCheck != -1){
-					//if it could be considered as an ASCII number, append it to the patial list
-					partialSection.addAll(rawData);
-					logger.debug("Partial data list has " + partialSection.size() + " bytes.");	
+			
+			if(!complete){
+				//either the header field continues into the next chunk, or it was bad and the parser has been reset.  Either
+				//way, carry on with whatever is left of this chunk
+				continue;
+			}
+			
+			//we have a complete header field, see what it was
+			if(state == NEW_RESPONSE){
+				//the first element we get from a response is the task ID that generated this response
+				taskID = headerValue;
+				logger.debug("task ID " + taskID);
+				state = READ_TASK_ID;
+				
+			//if the parser has just read a task ID
+			}else if(state == READ_TASK_ID){
+				argumentType = headerValue;
+				logger.debug("Argument Type " + argumentType);
+				state = READ_ARGUMENT_TYPE;
+				
+			//if the parser has just read an argument type
+			}else if(state == READ_ARGUMENT_TYPE){
+				//the third element is the size of the fourth element (argument)
+				argumentSize = headerValue;
+				logger.debug("Argument size: " + argumentSize);
+				
+				//a binary frame never holds more than this, so a bigger size is a corrupt header.  Believing it would set aside
+				//room for data that isn't coming, and read every frame after this one as its data
+				if(protocolVersion == ARCProtocol.BINARY_VERSION && argumentSize > ARCProtocol.MAX_FRAME_SIZE){
+					frameFailure("Frame for task " + taskID + " says it holds " + argumentSize + " bytes, more than " 
+							+ ARCProtocol.MAX_FRAME_SIZE + ".");
+					continue;
 				}
 				
-				//clear the block
-				rawData.clear();
-				hasData = false;
-			}else{
-				//we do have the packet delimiter, so we can parse a task ID from the partial data we have received and the
-				//raw data block provided
-				
-				//get the index of the delimiter
-				int rawPacketDelimiterIndex = rawData.indexOf(RESPONSE_PACKET_DELIMITER);
-				
-				List<Byte> argumentTypeBytes = new ArrayList<Byte>();
-				argumentTypeBytes.addAll(partialSection);
-				
-				argumentTypeBytes.addAll(rawData.subList(0, rawPacketDelimiterIndex));
-				
-				logger.debug("Parsing " + argumentTypeBytes.size() + " bytes.");
-				
-				//clear the partial section data
-				partialSection.clear();
-				
-				//logging loop.  I'm MAYHUD
-				logger.debug("Argument Type bytes: ");
-				//log loop
-				StringBuilder sb = new StringBuilder();
-				for(Byte b : argumentTypeBytes){
-					sb.append(b);
-					sb.append(" ");
+				//large files go straight to disk, everything else is read into memory.  Compressed data has to be inflated
+				//before it means anything, and checked data has to be thrown out if it doesn't match its CRC, so both are always
+				//read into memory.  Checked pictures and recordings are moved to disk once they have been put back in order, see
+				//ResponseAction
+				if(dev != null && (frameFlags & (ARCProtocol.FLAG_DEFLATED | ARCProtocol.FLAG_CHECKED)) == 0){
+					sink = dev.openDataSink(taskID, argumentType, argumentSize);
 				}
-				logger.debug(sb.toString());
-				
-				//intepet the chunk as an integer
-				argumentType = interpetAsInt(argumentTypeBytes);
 				
-				// if the task ID is still its default value...
-				if(argumentType == -1){
-					logger.error("Could not enterpet this segment as a argument action.");
-					logger.error("Clearing current data to parse and resetting parser.");
-					//wipe the current block
-					argumentTypeBytes.clear();
-					rawData.clear();
-					hasData = false;
-					
-					dev.respondParserFailure(state, taskID);
-					
-					//reset the parser
-					parserReset();
-				}else{
-					//change the state of the parser to say that we have parsed a task ID
-					state = READ_ARGUMENT_TYPE;
-					logger.debug("Argument Type " + argumentType);
-			
-					//remove this sublist from the buffer, as we don't need it any more
-					logger.debug("Pulling " + (rawPacketDelimiterIndex + 1) + " bytes as already read.");
-					
-					int i;
-					for(i = 0; i < rawPacketDelimiterIndex; i++){
-						//removal is performed byte by byte
-						rawData.remove(0);
+				if(sink == null){
+					//text responses have no limit of their own, but anything this big that isn't going to disk is as likely to
+					//be a corrupt header as it is to fit in memory
+					if(argumentSize > ARCProtocol.MAX_FRAME_SIZE){
+						headerFailure(buffer);
+						continue;
 					}
 					
-					//remove the actual delimiter
-					rawData.remove(0);					
-					logger.debug("Amount in raw data after removal of " + (i + 1) + " bytes: " + rawData.size());
-
-					//if there is nothing left in the data list, flag that we no longer have data to parse
-					if(rawData.isEmpty()){
-						logger.debug("Setting has data to false");
-						hasData = false;
-					}
+					fileBytes = new byte[argumentSize];
+				}else{
+					logger.debug("Writing " + argumentSize + " argument bytes straight to " + sink.getFile().getName());
+				}
+				
+				//set the parser to start read a variable size argument
+				state = READ_FILE_SIZE;
+				
+				//an empty argument is complete as soon as its size is known, unless there is a CRC still to come
+				if(argumentSize == 0 && !isChecked()){
+					completeResponse();
 				}
 			}
 			
+			//get ready for the next header field
+			headerValue = 0;
+			headerDigits = 0;
 		}
-
-		private void parserReset() {
-			logger.debug("Reset Parser");
-			
-			//reset the taskID
-			taskID = -1;
-			
-			argumentType = -1;
+	}
+	
+	/**
+	 * Reads ASCII digits from the buffer into {@link #headerValue} until a {@link #RESPONSE_PACKET_DELIMITER} is found.
+	 * 
+	 * If something other than a digit shows up, or the field has too many digits to be an int, the failure is reported 
+	 * to the {@link RemoteClient}, the rest of the chunk is thrown out and the parser is reset.
+	 * 
+	 * @param buffer the buffer to read the header field from
+	 * @return true if a complete header field was read, false if more data is needed (or the field was bad)
+	 */
+	private boolean parseHeaderField(ByteBuffer buffer){
+		while(buffer.hasRemaining()){
+			byte b = buffer.get();
 			
-			//reset the file size
-			argumentSize = -1;
+			if(b == RESPONSE_PACKET_DELIMITER){
+				//an empty field is not a number
+				if(headerDigits > 0){
+					return true;
+				}
+				
+				headerFailure(buffer);
+				return false;
+			}
 			
-			//reset the file byte array
-			fileBytes = null;
+			//bytes in the ASCII range are never negative, so a plain compare is enough here
+			if(b < ASCII_0 || b > ASCII_9 || headerDigits == MAX_HEADER_DIGITS){
+				headerFailure(buffer);
+				return false;
+			}
 			
-			//reset the number of bytes read
-			readCounter = 0;
+			//task IDs go all the way up to Integer.MAX_VALUE, so the tenth digit may or may not fit
+			if(headerValue > (Integer.MAX_VALUE - (b - ASCII_0)) / 10){
+				headerFailure(buffer);
+				return false;
+			}
 			
-			//waiting for a new response
-			state = NEW_RESPONSE;
+			headerValue = (headerValue * 10) + (b - ASCII_0);
+			headerDigits++;
 		}
-
-		private void respondWithParsedData() {
-			new ResponseAction(new RemoteClientResponse(taskID, argumentType, fileBytes), dev).performAction();
-		}
-
-		private void parseArgumentData() {
-			//if we haven't been to this part of the parser yet, the array to hold the file will be null
-			//allocate space to hold the bytes
-			if(fileBytes == null){
-				fileBytes = new byte[argumentSize];
-				logger.debug("Allocated " + argumentSize + " bytes to store an argument.");
-			}
 		
-			//internal read counter
-			int internalCounter = 0;
+		//we ran off the end of the chunk without a problem, so the field continues into the next chunk, and we
+		//pick up where we left off then
+		logger.debug("Header field continues into the next chunk, " + headerDigits + " digits read so far.");
+		return false;
+	}
+	
+	/**
+	 * Throws out the rest of the chunk, reports the bad header field to the {@link RemoteClient} and resets the parser
+	 * 
+	 * @param buffer the chunk the bad header field was found in
+	 */
+	private void headerFailure(ByteBuffer buffer){
+		logger.error("Could not enterpet this segment as a header field for parser state " + state + ".");
+		logger.error("Clearing current data to parse and resetting parser");
+		
+		//wipe the current block
+		buffer.position(buffer.limit());
+		
+		dev.respondParserFailure(state, taskID);
+		
+		//reset the parser
+		parserReset();
+	}
+	
+	/**
+	 * Copies as many argument bytes as this chunk holds (up to the argument size) into the argument array, or writes them to the
+	 * argument's {@link FileSink} if it has one, and responds with the finished argument once all of it has been read.
+	 * 
+	 * A checked binary frame is only finished once the CRC after the argument has been read, and matches.
+	 * 
+	 * @param buffer the buffer to read argument bytes from
+	 */
+	private void parseArgumentData(ByteBuffer buffer){
+		//take everything left in the chunk, or just what is left of the argument, whichever is smaller
+		int toRead = Math.min(buffer.remaining(), argumentSize - readCounter);
+		
+		if(sink == null){
+			buffer.get(fileBytes, readCounter, toRead);
 			
-			logger.debug("This chunk has " + rawData.size() + " file bytes");
-			logger.debug(readCounter + " bytes have been read thus far");
-			//for each byte left in the raw byte read buffer
-			for(Byte b : rawData){
-				//if we have not read the correct number of bytes yet
-				if(readCounter < fileBytes.length){
-					//add that byte to the file array
-					fileBytes[readCounter] = b.byteValue();
-					//increment the bytes read counter
-					readCounter++;
-					internalCounter++;
-				}
+			if(isChecked()){
+				frameCheck.update(fileBytes, readCounter, toRead);
 			}
-			logger.debug("Read " + internalCounter + " on this pass");
-			logger.debug("Total after this pass: " + readCounter);
+		}else{
+			//hand the sink a view of just the argument bytes in this chunk, no copy needed
+			ByteBuffer argumentBytes = buffer.slice();
+			argumentBytes.limit(toRead);
 			
-			//if we've read all the bytes for the file
-			if(readCounter == fileBytes.length){
-				logger.debug("Read all of the argument bytes");
+			try {
+				sink.write(argumentBytes);
+			} catch (IOException e) {
+				logger.error(e.getMessage(), e);
+				logger.error("Clearing current data to parse and resetting parser");
 				
-				//create a new ResponseAction and perform it
-				respondWithParsedData();
+				//wipe the current block
+				buffer.position(buffer.limit());
+				
+				dev.respondParserFailure(state, taskID);
 				
 				//reset the parser
 				parserReset();
-				
+				return;
 			}
 			
-			//remove read bytes from the raw list
-			logger.debug("Pulling " + internalCounter + " bytes as already read.");
-			logger.debug("Raw data: " + rawData.size());
-			int i;
-			for(i = 0; i < internalCounter; i++){
-				rawData.remove(0);
-			}
+			buffer.position(buffer.position() + toRead);
+		}
+		
+		readCounter += toRead;
+		
+		logger.debug("Read " + toRead + " on this pass, " + readCounter + " of " + argumentSize + " total.");
+		
+		//if we've read all the bytes for the file
+		if(readCounter == argumentSize){
+			logger.debug("Read all of the argument bytes");
 			
-			//if there is nothing left in the data list, flag that we no longer have data to parse
-			if(rawData.isEmpty()){
-				logger.debug("No more data to parse for this chunk.");
-				hasData = false;
+			//a checked frame still has its CRC to come, which may continue into the next chunk
+			if(isChecked() && !parseCheck(buffer)){
+				return;
 			}
 			
+			completeResponse();
 		}
-
-		private int interpetAsInt(List<Byte> byteList) {
-			int potentialFileSize = -1;
-			byte[] temp = new byte[byteList.size()];
-			boolean validNum = false;
-			
-			logger.debug("allocated " + temp.length + " bytes.");
-			logger.debug("Converting: ");
-			//debug loop
-			StringBuilder sb = new StringBuilder();
-			for(Byte b : byteList){
-				sb.append(b.byteValue());
-				sb.append(" ");
+	}
+	
+	/**
+	 * Reads the CRC at the end of a checked binary frame into {@link #checkValue}, and compares it with the CRC of the frame as
+	 * read.  A frame that doesn't match is reported to the {@link RemoteClient}, which asks for it to be sent again, and the parser
+	 * is reset.
+	 * 
+	 * @param buffer the buffer to read the CRC from
+	 * @return true if the whole CRC was read and it matched, false if more data is needed (or it didn't match)
+	 */
+	private boolean parseCheck(ByteBuffer buffer){
+		while(checkRead < ARCProtocol.CHECK_SIZE){
+			if(!buffer.hasRemaining()){
+				return false;
 			}
-			logger.debug(sb.toString());
 			
-			int i = 0;
-			//for each byte in the arg sublist...
-			for(Byte b : byteList){
-				
-				//see if the raw byte value falls between the ASCII integer values for 0 - 9
-				//for those of us who know Java, chars are two bytes wide.  How do I not loose information?
-				//I'm taking advantage of Java's byte widening system-- characters in the standard ASCII set have Unicode values of
-				// /u00XX, as the upper unicode byte is not used.
-				//When Java converts from a byte to a char, it first widens the byte to an int by sign-extending it.  This means that the
-				//highest order bit from the byte is extended to fill the space on the int.
-				//Now, by contract, I know that I will get ASCII characters, which do not use the high order sign bit
-				// (ASCII ranges from 0000 0000 - 0111 1111), therefore this widening conversion will always fill with 0's.
-				//Then, Java truncates the int down to a char, by removing the pair of high order bytes, leaving me with 0x00XX
-				//Therefore, the resultant unicode character will always have 0x00 in its high byte, and the ASCII value in its low byte,
-				//which will convert to the expected integer value.
-				//
-				//In conclusion, Dr. Nino, I KNOW EXACTLY WHAT I'M DOING.
-				int rawValue = (char)b.byteValue();
-				
-				if(rawValue >= ASCII_0 && rawValue <= ASCII_9){
-					temp[i] = b.byteValue();
-					i++;
-					validNum = true;
-				}else{
-					validNum = false;
-					break;
-				}
-			}
+			checkValue = (checkValue << 8) | (buffer.get() & 0xFF);
+			checkRead++;
+		}
+		
+		if(checkValue != (int) frameCheck.getValue()){
+			logger.error("Frame " + sequence + " of task " + taskID + " failed its check, asking for it again.");
 			
-			if(validNum){
-				potentialFileSize = Integer.parseInt(new String(temp));
-			}
+			dev.respondCorruptFrame(taskID, sequence);
 			
-			return potentialFileSize;
+			parserReset();
+			return false;
 		}
-
-		/**
-		 * Private helper method to parse the task ID from the provided blocks of data.
-		 */
-		private void parseTaskID() {
-			//see if the packet delimiter is in the provided raw data
-			if(!rawData.contains(RESPONSE_PACKET_DELIMITER)){
-				logger.debug("A delimiter could not be found, adding data block to the partial data list.");
-				//we did not see a delimiter, appending the data from this block to the partial list to use
-				//append to the next block we scan.
-				
-				//check to make sure the data we're going to append could interpeted as a number, so that the
-				//partial data block does not get corrupted.
-				int partialCheck = interpetAsInt(rawData);
-				
-				if(partialCheck != -1){
-					//if it could be considered as an ASCII number, append it to the patial list
-					partialSection.addAll(rawData);
-					logger.debug("Partial data list has " + partialSection.size() + " bytes.");	
-				}
-				
-				//clear the block
-				rawData.clear();
-				hasData = false;
-			}else{
-				//we do have the packet delimiter, so we can parse a task ID from the partial data we have received and the
-				//raw data block provided
-				
-				//get the index of the delimiter
-				int rawPacketDelimiterIndex = rawData.indexOf(RESPONSE_PACKET_DELIMITER);
-				
-				List<Byte> taskIdBytes = new ArrayList<Byte>();
-				taskIdBytes.addAll(partialSection);
-				
-				taskIdBytes.addAll(rawData.subList(0, rawPacketDelimiterIndex));
-				
-				logger.debug("Parsing " + taskIdBytes.size() + " bytes.");
-				
-				//clear the partial section data
-				partialSection.clear();
-				
-				//logging loop.  I'm MAYHUD
-				logger.debug("task ID bytes: ");
-				//log loop
-				StringBuilder sb = new StringBuilder();
-				for(Byte b : taskIdBytes){
-					sb.append(b);
-					sb.append(" ");
+		
+		return true;
+	}
+	
+	/**
+	 * @return true if the binary frame being parsed is a checked frame
+	 */
+	private boolean isChecked(){
+		return (frameFlags & ARCProtocol.FLAG_CHECKED) != 0;
+	}
+	
+	/**
+	 * Reads one header field of a binary frame into {@link #headerValue}.
+	 * 
+	 * A new frame starts with the {@link ARCProtocol#FRAME_PREAMBLE_SIZE} preamble bytes, which are checked and then dropped, 
+	 * followed by the sequence number if the frame is checked, and then the task ID.  Anything that shows up where a frame should 
+	 * start that isn't {@link ARCProtocol#FRAME_MAGIC} is skipped, so after a bad frame the parser picks up again at the next good 
+	 * one instead of throwing out the whole chunk.
+	 * 
+	 * Every byte of the frame from the magic on goes into {@link #frameCheck} as it is read.
+	 * 
+	 * @param buffer the buffer to read the header field from
+	 * @return true if a complete header field was read, false if more data is needed (or the field was bad)
+	 */
+	private boolean parseBinaryHeaderField(ByteBuffer buffer){
+		//the argument type is a single byte
+		if(state == READ_TASK_ID){
+			headerValue = buffer.get() & 0xFF;
+			frameCheck.update(headerValue);
+			return true;
+		}
+		
+		//a new frame starts with the preamble
+		if(state == NEW_RESPONSE){
+			while(preambleRead < ARCProtocol.FRAME_PREAMBLE_SIZE){
+				if(!buffer.hasRemaining()){
+					return false;
 				}
-				logger.debug(sb.toString());
 				
-				//intepet the chunk as an integer
-				taskID = interpetAsInt(taskIdBytes);
+				byte b = buffer.get();
 				
-				// if the task ID is still its default value...
-				if(taskID == -1){
-					logger.error("Could not enterpet this segment as a task ID.");
-					logger.error("Clearing current data to parse and resetting parser");
-					//wipe the current block
-					taskIdBytes.clear();
-					rawData.clear();
-					hasData = false;
+				if(preambleRead == 0){
+					//look for the start of the frame
+					if(b != ARCProtocol.FRAME_MAGIC){
+						skippedBytes++;
+						continue;
+					}
 					
-					dev.respondParserFailure(state, taskID);
+					if(skippedBytes > 0){
+						logger.error("Skipped " + skippedBytes + " bytes looking for the start of a frame.");
+						skippedBytes = 0;
+					}
 					
-					//reset the parser
-					parserReset();
+					frameCheck.reset();
+				}else if(preambleRead == 1){
+					if(b != ARCProtocol.BINARY_VERSION){
+						frameFailure("Frame has unknown protocol version " + b + ".");
+						return false;
+					}
 				}else{
-					//change the state of the parser to say that we have parsed a task ID
-					state = READ_TASK_ID;
-					logger.debug("task ID " + taskID);
-			
-					//remove this sublist from the buffer, as we don't need it any more
-					logger.debug("Pulling " + (rawPacketDelimiterIndex + 1) + " bytes as already read.");
-					
-					int i;
-					for(i = 0; i < rawPacketDelimiterIndex; i++){
-						//removal is performed byte by byte
-						rawData.remove(0);
+					if((b & ~ARCProtocol.KNOWN_FLAGS) != 0){
+						frameFailure("Frame has unknown flags " + Integer.toHexString(b & 0xFF) + ".");
+						return false;
 					}
 					
-					//remove the actual delimiter
-					rawData.remove(0);					
-					logger.debug("Amount in raw data after removal of " + (i + 1) + " bytes: " + rawData.size());
-
-					//if there is nothing left in the data list, flag that we no longer have data to parse
-					if(rawData.isEmpty()){
-						logger.debug("Setting has data to false");
-						hasData = false;
-					}
+					frameFlags = b;
+				}
+				
+				frameCheck.update(b);
+				preambleRead++;
+			}
+			
+			//a checked frame has its sequence number ahead of the task ID
+			if(isChecked() && !sequenceRead){
+				if(!parseVarint(buffer)){
+					return false;
 				}
+				
+				sequence = headerValue;
+				sequenceRead = true;
+				headerValue = 0;
+				headerDigits = 0;
 			}
 		}
 		
-		private void parseArgumentSize(){
-			//see if the packet delimiter is in the provided raw data
-			if(!rawData.contains(RESPONSE_PACKET_DELIMITER)){
-				logger.debug("A delimiter could not be found, adding data block to the partial data list.");
-				//we did not see a delimiter, appending the data from this block to the partial list to use
-				//append to the next block we scan.
-				
-				//check to make sure the data we're going to append could interpeted as a number, so that the
-				//partial data block does not get corrupted.
-				int partialCheck = interpetAsInt(rawData);
-				
-				if(partialCheck != -1){
-					//if it could be considered as an ASCII number, append it to the patial list
-					partialSection.addAll(rawData);
-					logger.debug("Partial data list has " + partialSection.size() + " bytes.");	
+		//the task ID and the argument size are varints
+		return parseVarint(buffer);
+	}
+	
+	/**
+	 * Reads an unsigned base 128 varint into {@link #headerValue}, using {@link #headerDigits} to count the bytes read so far,
+	 * so a varint split across two chunks picks up where it left off.
+	 * 
+	 * @param buffer the buffer to read the varint from
+	 * @return true if a complete varint was read, false if more data is needed (or the varint was bad)
+	 */
+	private boolean parseVarint(ByteBuffer buffer){
+		while(buffer.hasRemaining()){
+			if(headerDigits == ARCProtocol.MAX_VARINT_BYTES){
+				frameFailure("Varint is longer than " + ARCProtocol.MAX_VARINT_BYTES + " bytes.");
+				return false;
+			}
+			
+			byte b = buffer.get();
+			frameCheck.update(b);
+			
+			//the last byte an int can take only has room for its top three bits.  Anything more would be shifted out, and a bad
+			//task ID or size would quietly turn into some other number
+			if(headerDigits == ARCProtocol.MAX_VARINT_BYTES - 1 && (b & 0x7F) > 0x07){
+				frameFailure("Varint is too big for an int.");
+				return false;
+			}
+			
+			headerValue |= (b & 0x7F) << (7 * headerDigits);
+			headerDigits++;
+			
+			//the high bit is clear on the last byte
+			if((b & 0x80) == 0){
+				//sequence numbers, task IDs and sizes are never negative
+				if(headerValue < 0){
+					frameFailure("Header field " + headerValue + " is negative.");
+					return false;
 				}
 				
-				//clear the block
-				rawData.clear();
-				hasData = false;
-			}else{
-				//get the index of the delimiter
-				int rawPacketDelimiterIndex = rawData.indexOf(RESPONSE_PACKET_DELIMITER);
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Reports a bad binary frame to the {@link RemoteClient} and resets the parser.
+	 * 
+	 * Unlike {@link #headerFailure(ByteBuffer)}, the rest of the chunk is kept, since the parser will skip ahead to the next
+	 * {@link ARCProtocol#FRAME_MAGIC} on its own.
+	 * 
+	 * A checked frame isn't reported, since its header can't be trusted to say which task it was for.  Once the next frame of its
+	 * task arrives, the gap it left is asked for again.
+	 * 
+	 * @param reason what was wrong with the frame
+	 */
+	private void frameFailure(String reason){
+		logger.error(reason);
+		logger.error("Resetting parser and looking for the next frame");
+		
+		if(!isChecked()){
+			dev.respondParserFailure(state, taskID);
+		}
+		
+		parserReset();
+	}
+	
+	/**
+	 * Responds with a fully read response and resets the parser for the next one.
+	 * 
+	 * If the response was the remote device's answer to a {@link com.i2r.ARC.PCControl.CommandHeader#NEGOTIATE_PROTOCOL} command, 
+	 * the parser switches to the agreed version here, before it reads another byte, since the very next response will already 
+	 * use it.
+	 */
+	private void completeResponse(){
+		//compressed data is inflated before anything else sees it
+		if((frameFlags & ARCProtocol.FLAG_DEFLATED) != 0){
+			try {
+				fileBytes = inflater.inflate(argumentType, fileBytes);
+			} catch (DataFormatException e) {
+				//a checked frame got here intact, so it was sent this way, and asking for it again won't help
+				if(isChecked()){
+					dev.respondUnreadableFrame(taskID);
+				}
 				
-				//get the sublist of the data read in from the first element to the index of the first delimiter
-				List<Byte> argSublist = new ArrayList<Byte>();
-				argSublist.addAll(partialSection);
-				argSublist.addAll(rawData.subList(0, rawPacketDelimiterIndex));
+				frameFailure("Could not inflate frame for task " + taskID + ": " + e.getMessage());
+				return;
+			}
+			
+			if(logger.isDebugEnabled()){
+				logger.debug("Inflated " + argumentSize + " bytes to " + fileBytes.length + ", " + inflater.getCompressedBytes() 
+						+ " compressed bytes to " + inflater.getInflatedBytes() + " so far.");
+			}
+		}
+		
+		//hand the response off to be acted on
+		respondWithParsedData();
+		
+		if(argumentType == RemoteClientResponse.DATA_TYPE_PROTOCOL && fileBytes != null){
+			switchProtocol(new String(fileBytes).trim());
+		}
+		
+		//reset the parser
+		parserReset();
+	}
+	
+	/**
+	 * Switches the parser to read responses with a new {@link ARCProtocol} version
+	 * 
+	 * @param version the version the remote device said it will use, as sent
+	 */
+	private void switchProtocol(String version){
+		try{
+			int newVersion = Integer.parseInt(version);
+			
+			if(newVersion != ARCProtocol.TEXT_VERSION && newVersion != ARCProtocol.BINARY_VERSION){
+				logger.error("Remote device asked for protocol version " + newVersion + ", which this parser can't read.");
+				return;
+			}
+			
+			logger.info("Switching from protocol version " + protocolVersion + " to " + newVersion);
+			protocolVersion = newVersion;
+		}catch(NumberFormatException e){
+			logger.error(version + " is not a valid protocol version.");
+		}
+	}
+	
+	/**
+	 * Resets the parser so that it expects the start of a new response
+	 */
+	private void parserReset() {
+		logger.debug("Reset Parser");
+		
+		//reset the taskID
+		taskID = -1;
+		
+		argumentType = -1;
+		
+		//reset the file size
+		argumentSize = -1;
+		
+		//reset the file byte array
+		fileBytes = null;
+		
+		//the sink belongs to the task, it's closed when the task's file is saved
+		sink = null;
+		
+		//reset the number of bytes read
+		readCounter = 0;
+		
+		//reset the header field in progress
+		headerValue = 0;
+		headerDigits = 0;
+		
+		//reset the binary frame preamble
+		preambleRead = 0;
+		frameFlags = ARCProtocol.FLAGS_NONE;
+		
+		//reset the checked frame fields
+		sequence = -1;
+		sequenceRead = false;
+		checkValue = 0;
+		checkRead = 0;
+		
+		//waiting for a new response
+		state = NEW_RESPONSE;
+	}
+
+	/**
+	 * Hands a fully parsed response off to the {@link RemoteClient}, which performs its {@link ResponseAction} in order with the
+	 * other responses for the same task.  Responses from checked frames are handed off with their sequence number, so the
+	 * {@link RemoteClient} can put them back in order first.  Responses from binary frames carry the length of their frame, so it
+	 * can be given back to the remote device as credit once they have been acted on.
+	 */
+	private void respondWithParsedData() {
+		RemoteClientResponse response;
+		
+		if(sink != null){
+			//the data is already on disk, just say how much of it there was
+			response = new RemoteClientResponse(taskID, argumentType, readCounter);
+		}else{
+			response = new RemoteClientResponse(taskID, argumentType, fileBytes);
+		}
+		
+		if(protocolVersion == ARCProtocol.BINARY_VERSION){
+			response.setFrameLength(ARCProtocol.frameLength(isChecked(), sequence, taskID, argumentSize));
+		}
+		
+		if(sink == null && isChecked()){
+			dev.dispatchResponse(response, sequence);
+			return;
+		}
+		
+		dev.dispatchResponse(response);
+	}
+	
+	/****************************
+	 * INNER CLASSES
+	 ****************************/
+	
+	/**
+	 * Class that implements runnable to define the parse thread used by the outer {@link ARCDataParser}
+	 * This thread takes each block of data received from some external source, such as a {@link RemoteLink}, off of the parse queue
+	 * in order and parses it, until the parser is stopped.
+	 * 
+	 * @author Johnathan Pagnutti
+	 *
+	 */
+	 private class ParseRunnable implements Runnable{
+		 
+		 /**
+		  * Implemented from {@link Runnable#run()}
+		  * @See {@link Runnable#run()} for generic contract information
+		  * 
+		  * This method is the core parsing loop.  Based on the past data read in the link, this shifts the outer {@link ARCDataParser}
+		  * state to reflect what data to expect next from a connection
+		  */
+		@Override
+		public void run() {
+			try {
+				byte[] chunk;
 				
-				//clear the partial section data
-				partialSection.clear();
+				//take chunks until the queue is closed and empty.  Wrapping the chunk does not copy it.
+				while((chunk = parseQueue.take()) != null){
+					parse(ByteBuffer.wrap(chunk));
+				}
+			} catch (InterruptedException e) {
+				//the client's scope has been closed
+				logger.debug("Parse thread interrupted.");
+			}
+			
+			finish();
+		}
+	 }
+	 
+	/**
+	 * Class that implements runnable to define a parse job, used by the outer {@link ARCDataParser} instead of a parse thread in
+	 * {@link ClientScope#MODE_SHARED}.  A job parses every chunk on the parse queue, and finishes as soon as the queue is empty.
+	 * 
+	 * @author Johnathan Pagnutti
+	 *
+	 */
+	 private class ParseJob implements Runnable{
+		 
+		/**
+		 * Implemented from {@link Runnable#run()}
+		 * 
+		 * Parses until the queue is empty, then lets the next chunk queued start a new job
+		 */
+		@Override
+		public void run() {
+			while(true){
+				byte[] chunk;
+				while((chunk = parseQueue.poll()) != null){
+					parse(ByteBuffer.wrap(chunk));
+				}
 				
-				//logging loop
-				logger.debug("Argument size bytes: ");
-				//log loop
-				StringBuilder sb = new StringBuilder();
-				for(Byte b : argSublist){
-					sb.append(b);
-					sb.append(" ");
+				if(parseQueue.isClosed() && parseQueue.size() == 0){
+					//leave parsing set, so no job ever starts again
+					finish();
+					return;
 				}
-				logger.debug(sb.toString());
 				
-				//see if the new argument can be interpreted as a file size
-				argumentSize = interpetAsInt(argSublist);
+				parsing.set(false);
 				
-				//if the argument size could not be determined by this chunk...
-				if(argumentSize == -1){
-					logger.error("Could not enterpet this segment as an argument size.");
-					logger.error("Clearing current data to parse and resetting parser");
-					//wipe the current block
-					argSublist.clear();
-					rawData.clear();
-					hasData = false;
-					
-					dev.respondParserFailure(state, taskID);
-					
-					//reset the parser
-					parserReset();
-				//now that we have an argument size...
-				}else{
-					logger.debug("Argument size: " + argumentSize);
-					logger.debug("State of parser set to read in an argument");
-					//set the parser to start read a variable size argument
-					state = READ_FILE_SIZE;
-					
-					//remove this sublist from the buffer, as we don't need it any more
-					logger.debug("Pulling " + (rawPacketDelimiterIndex + 1) + " bytes as already read.");
-					int i;
-					for(i = 0; i < rawPacketDelimiterIndex; i++){
-						//removal is performed byte by byte
-						rawData.remove(0);
-					}
-					//remove the actual delimiter
-					rawData.remove(0);
-					
-					logger.debug("Amount in raw data after removal of " + (i + 1) + " bytes: " + rawData.size());
-					
-					//if there is nothing left in the data list, flag that we no longer have data to parse
-					if(rawData.isEmpty()){
-						hasData = false;
-					}
+				//a chunk queued, or the queue stopped, after it looked empty but before the flag was cleared didn't start a job of
+				//its own, so this one carries on for it
+				if((parseQueue.size() == 0 && !parseQueue.isClosed()) || !parsing.compareAndSet(false, true)){
+					return;
 				}
 			}
 		}
 	 }
+	 
+	/**
+	 * Cleans up once the parse queue is stopped and empty.  Only called from the parse thread or a parse job.
+	 */
+	private void finish(){
+		if(finished){
+			return;
+		}
+		finished = true;
+		
+		inflater.end();
+		
+		logger.debug("Parse thread stopped.  Most chunks waiting at once: " + parseQueue.getHighWaterMark() 
+				+ ", times the read loop waited: " + parseQueue.getFullWaits());
+	}
 }
@@ -0,0 +1,228 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl.DataManager;
+
+import com.i2r.ARC.PCControl.RemoteClientResponse;
+
+/**
+ * Constants for the framing a remote device uses to send responses to the controller.
+ * <p>
+ * These mirror <code>ARC.Constants.Protocol</code> on the android side, and have to be kept in step with it.
+ * <p>
+ * Every connection starts out with {@link #TEXT_VERSION} responses, newline delimited ASCII:
+ * <pre>
+ * TASK ID\n
+ * DATA TYPE\n
+ * DATA SIZE\n
+ * DATA
+ * </pre>
+ * Once a remote device has answered a {@link com.i2r.ARC.PCControl.CommandHeader#NEGOTIATE_PROTOCOL} command with
+ * {@link #BINARY_VERSION}, every response after that answer is a binary frame:
+ * <pre>
+ * MAGIC       1 byte, always {@link #FRAME_MAGIC}
+ * VERSION     1 byte, always {@link #BINARY_VERSION}
+ * FLAGS       1 byte
+ * TASK ID     varint
+ * DATA TYPE   1 byte
+ * DATA SIZE   varint
+ * DATA
+ * </pre>
+ * Varints are unsigned base 128, low order group first, with the high bit of each byte set if another byte follows.  DATA is
+ * never more than {@link #MAX_FRAME_SIZE} bytes.
+ * <p>
+ * When a frame has {@link #FLAG_DEFLATED} set, its DATA is a varint holding the uncompressed size, followed by the data run
+ * through a {@link java.util.zip.Deflater}.  Each frame is compressed on its own, primed with the dictionary for its data type
+ * (see {@link #dictionaryFor(int)}), and only the data types the controller asked for when negotiating are ever compressed.
+ * <p>
+ * When a frame has {@link #FLAG_CHECKED} set, a varint sequence number comes between the FLAGS and the TASK ID, counting the
+ * frames sent for that task from 0, and {@link #CHECK_SIZE} bytes follow the DATA: the CRC32 of every byte of the frame from the
+ * MAGIC to the end of the DATA, high order byte first.  A checked frame that arrives corrupt, or not at all, can be asked for
+ * again with a {@link com.i2r.ARC.PCControl.CommandHeader#RETRANSMIT} command.
+ * <p>
+ * Once the controller sends a {@link com.i2r.ARC.PCControl.CommandHeader#CREDIT} command, the remote device only writes frames of
+ * bulk data (see {@link #isBulk(int)}) while their task has credit left.  Every task starts out with {@link #INITIAL_CREDIT} bytes,
+ * each bulk frame written uses up its whole length (see {@link #frameLength(boolean, int, int, int)}), and the controller gives
+ * credit back with more credit commands as it gets through the frames.
+ * <p>
+ * Commands sent to a remote device are always text.
+ *
+ * @author Johnathan Pagnutti
+ *
+ */
+public final class ARCProtocol {
+
+	/**
+	 * The original newline delimited ASCII framing
+	 */
+	public static final int TEXT_VERSION = 1;
+
+	/**
+	 * Binary length-prefixed framing
+	 */
+	public static final int BINARY_VERSION = 2;
+
+	/**
+	 * The newest framing this controller can read, and so the version asked for when connecting
+	 */
+	public static final int NEWEST_VERSION = BINARY_VERSION;
+
+	/**
+	 * First byte of every binary frame.  A text response always starts with an ASCII digit, so this can never be mistaken
+	 * for one.
+	 */
+	public static final byte FRAME_MAGIC = (byte) 0xA5;
+
+	/**
+	 * Number of fixed bytes (magic, version, flags) at the start of every binary frame
+	 */
+	public static final int FRAME_PREAMBLE_SIZE = 3;
+
+	/**
+	 * Most bytes an int varint can take up
+	 */
+	public static final int MAX_VARINT_BYTES = 5;
+
+	/**
+	 * Flags value for a frame with no optional features in use
+	 */
+	public static final byte FLAGS_NONE = 0;
+
+	/**
+	 * Frame flag, the frame's data is compressed
+	 */
+	public static final byte FLAG_DEFLATED = 0x01;
+
+	/**
+	 * Frame flag, the frame carries a sequence number and ends with a CRC32
+	 */
+	public static final byte FLAG_CHECKED = 0x02;
+	
+	/**
+	 * Every flag bit this controller understands.  A frame with any other bit set is thrown out.
+	 */
+	public static final int KNOWN_FLAGS = FLAG_DEFLATED | FLAG_CHECKED;
+	
+	/**
+	 * Number of bytes the CRC32 at the end of a {@link #FLAG_CHECKED} frame takes up
+	 */
+	public static final int CHECK_SIZE = 4;
+	
+	/**
+	 * The most data a binary frame can carry, before or after compression.  A frame that says it holds more is thrown out
+	 * rather than read, since a corrupt size could otherwise have the controller set aside gigabytes for it.  Must be the same as
+	 * <code>ARC.Constants.Protocol.MAX_FRAME_SIZE</code>.
+	 */
+	public static final int MAX_FRAME_SIZE = 1024 * 1024;
+	
+	/**
+	 * The frame bytes of bulk data every task can have sent before the controller gives any credit back.  Must be the same as
+	 * <code>ARC.Constants.Protocol.INITIAL_CREDIT</code>.
+	 */
+	public static final int INITIAL_CREDIT = 256 * 1024;
+	
+	/**
+	 * The smallest bulk frame a remote device stripes over the extra sockets opened with
+	 * {@link com.i2r.ARC.PCControl.CommandHeader#STRIPE}.  Must be the same as <code>ARC.Constants.Protocol.MIN_STRIPE_SIZE</code>.
+	 */
+	public static final int MIN_STRIPE_SIZE = 4 * 1024;
+
+	/**
+	 * Dictionary that primes compression of environment frames.  Must be exactly the same bytes as
+	 * <code>ARC.Constants.Protocol.ENVIRONMENT_DICTIONARY</code>.
+	 */
+	public static final String ENVIRONMENT_DICTIONARY =
+			"Light sensor\nProximity sensor\nPressure sensor\n" +
+			"Temperature sensor\nRelative Humidity sensor\n" +
+			"Magnetic field sensor\nOrientation sensor\n" +
+			"Gravity sensor\nLinear Acceleration sensor\n" +
+			"Rotation Vector sensor\nGyroscope sensor\n" +
+			"3-axis Accelerometer\n0.0\n1.0\n-0.0\n" +
+			"accuracy-status-unreliable\naccuracy-status-low\n" +
+			"accuracy-status-medium\naccuracy-status-high\n";
+
+	/**
+	 * Dictionary that primes compression of location frames.  Must be exactly the same bytes as
+	 * <code>ARC.Constants.Protocol.LOCATION_DICTIONARY</code>.
+	 */
+	public static final String LOCATION_DICTIONARY =
+			"mExtras=null\nmExtras=Bundle[mParcelledData.dataSize=]\n" +
+			"mHasAltitude=false mAltitude=0.0\nmHasSpeed=false mSpeed=0.0\n" +
+			"mHasBearing=false mBearing=0.0\nmHasAccuracy=false mAccuracy=0.0\n" +
+			"mProvider=network mTime=\nmProvider=passive mTime=\n" +
+			"mHasAltitude=true mAltitude=\nmHasSpeed=true mSpeed=\n" +
+			"mHasBearing=true mBearing=\nmHasAccuracy=true mAccuracy=\n" +
+			"mProvider=gps mTime=\nmLatitude= mLongitude=\n";
+
+	//the dictionaries as bytes, built once
+	private static final byte[] ENVIRONMENT_DICTIONARY_BYTES = ENVIRONMENT_DICTIONARY.getBytes();
+	private static final byte[] LOCATION_DICTIONARY_BYTES = LOCATION_DICTIONARY.getBytes();
+
+	/**
+	 * Get the dictionary a data type's frames are primed with when they are compressed
+	 *
+	 * @param dataType the data type of the frame, one of the {@link RemoteClientResponse} data types
+	 * @return the dictionary, or null if frames of that type are compressed without one.  Callers must not change it.
+	 */
+	public static byte[] dictionaryFor(int dataType){
+		switch(dataType){
+		case RemoteClientResponse.DATA_TYPE_ENVIRONMENT:
+			return ENVIRONMENT_DICTIONARY_BYTES;
+		case RemoteClientResponse.DATA_TYPE_LOCATION:
+			return LOCATION_DICTIONARY_BYTES;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Find out if frames of a data type are bulk data, which the remote device only sends while their task has credit
+	 *
+	 * @param dataType the data type of the frame, one of the {@link RemoteClientResponse} data types
+	 * @return true if the data type is pictures, audio, environment or location readings
+	 */
+	public static boolean isBulk(int dataType){
+		return dataType == RemoteClientResponse.DATA_TYPE_IMAGE || dataType == RemoteClientResponse.DATA_TYPE_AUDIO
+				|| dataType == RemoteClientResponse.DATA_TYPE_ENVIRONMENT || dataType == RemoteClientResponse.DATA_TYPE_LOCATION
+				|| dataType == RemoteClientResponse.DATA_TYPE_ENVIRONMENT_RECORDS
+				|| dataType == RemoteClientResponse.DATA_TYPE_LOCATION_TRACK;
+	}
+
+	/**
+	 * Work out how many bytes a binary frame took up, header and CRC included.  The remote device always writes varints in as few
+	 * bytes as they fit in, so this is exactly what it counted against the task's credit.
+	 *
+	 * @param checked true if the frame was {@link #FLAG_CHECKED}
+	 * @param sequence the frame's sequence number, ignored if it wasn't checked
+	 * @param taskID the frame's task ID
+	 * @param size the DATA SIZE of the frame, as sent
+	 * @return the length of the frame in bytes
+	 */
+	public static int frameLength(boolean checked, int sequence, int taskID, int size){
+		int length = FRAME_PREAMBLE_SIZE + varintLength(taskID) + 1 + varintLength(size) + size;
+		
+		if(checked){
+			length += varintLength(sequence) + CHECK_SIZE;
+		}
+		
+		return length;
+	}
+
+	/**
+	 * @param value a value that is never negative
+	 * @return the number of bytes the value takes up as a varint
+	 */
+	private static int varintLength(int value){
+		int length = 1;
+		while((value >>>= 7) != 0){
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * Constants only
+	 */
+	private ARCProtocol(){
+	}
+}
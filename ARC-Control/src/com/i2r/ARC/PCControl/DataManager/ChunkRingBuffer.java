@@ -0,0 +1,288 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl.DataManager;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, single producer/single consumer ring buffer of byte slices.
+ * <p>
+ * Exactly one thread may call {@link #put(byte[])} or {@link #offer(byte[])} (for the {@link ARCDataParser}, the read thread of an
+ * {@link ARCDataManager}, or the selector thread a connection is read on), and only one thread at a time may call {@link #take()} or
+ * {@link #poll()} (the parse thread, or whichever parse job is running).  Because of that, the two ends of the ring never write to
+ * the same index, and no locks are needed; each side only publishes its own cursor.
+ * <p>
+ * When the ring is full, {@link #put(byte[])} blocks, which pushes back on the read loop (and so on the connection) until the
+ * parse thread catches up, and {@link #offer(byte[])} returns false straight away so a thread that can't wait can try again later.
+ * When the ring is empty, {@link #take()} blocks until a slice shows up, or the ring is closed, and {@link #poll()} returns null.
+ * <p>
+ * Slices come out in exactly the order they went in.
+ *
+ * @author Johnathan Pagnutti
+ *
+ */
+public class ChunkRingBuffer {
+
+	/**
+	 * The longest time, in nanoseconds, a blocked side will park before checking the ring again.  Each side wakes the other
+	 * when it moves its cursor, so this is only a safety net.
+	 */
+	private static final long PARK_NANOS = 100000000L;
+
+	/**
+	 * The number of times a blocked side checks the ring again before parking
+	 */
+	private static final int SPIN_TRIES = 100;
+
+	//the slots of the ring
+	private final byte[][] slots;
+
+	//slots.length - 1, the slot count is always a power of two so an index can be masked instead of divided
+	private final int mask;
+
+	//the index of the next slice to take.  Only written by the consumer
+	private final AtomicLong head = new AtomicLong(0);
+
+	//the index of the next free slot.  Only written by the producer
+	private final AtomicLong tail = new AtomicLong(0);
+
+	//the threads currently parked waiting on the other side, if any
+	private volatile Thread waitingProducer;
+	private volatile Thread waitingConsumer;
+
+	//set when no more slices will be put
+	private volatile boolean closed = false;
+
+	//the most slices that have been in the ring at once
+	private volatile int highWaterMark = 0;
+
+	//the number of times the producer has had to wait on a full ring
+	private volatile long fullWaits = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity the number of slices the ring can hold.  Rounded up to the next power of two.
+	 */
+	public ChunkRingBuffer(int capacity){
+		int size = 1;
+		while(size < capacity){
+			size <<= 1;
+		}
+
+		slots = new byte[size][];
+		mask = size - 1;
+	}
+
+	/**
+	 * Puts a slice at the end of the ring, blocking while the ring is full.
+	 *
+	 * @param slice the slice to add.  The ring takes ownership of the array, the caller must not change it afterwards.
+	 * @return true if the slice was added, false if the ring was closed first
+	 * @throws InterruptedException if the calling thread is interrupted while waiting for room
+	 */
+	public boolean put(byte[] slice) throws InterruptedException{
+		long t = tail.get();
+
+		//wait for room
+		int tries = 0;
+		while(t - head.get() == slots.length){
+			if(closed){
+				return false;
+			}
+
+			if(tries == 0){
+				fullWaits++;
+			}
+
+			if(tries < SPIN_TRIES){
+				Thread.yield();
+				tries++;
+			}else{
+				//let the consumer know where to find us, then check once more before parking so a wake up can't be missed
+				waitingProducer = Thread.currentThread();
+				if(t - head.get() == slots.length && !closed){
+					LockSupport.parkNanos(this, PARK_NANOS);
+				}
+				waitingProducer = null;
+			}
+
+			if(Thread.interrupted()){
+				throw new InterruptedException();
+			}
+		}
+
+		if(closed){
+			return false;
+		}
+
+		publish(t, slice);
+		return true;
+	}
+
+	/**
+	 * Puts a slice at the end of the ring if there is room for it, without waiting.
+	 *
+	 * @param slice the slice to add.  The ring takes ownership of the array only if it was added.
+	 * @return true if the slice was added, false if the ring was full or closed
+	 */
+	public boolean offer(byte[] slice){
+		long t = tail.get();
+
+		if(closed){
+			return false;
+		}
+
+		if(t - head.get() == slots.length){
+			return false;
+		}
+
+		publish(t, slice);
+		return true;
+	}
+
+	/**
+	 * Stores a slice in the free slot at index t, and hands it to the consumer.  Only called by the producer.
+	 */
+	private void publish(long t, byte[] slice){
+		slots[(int) (t & mask)] = slice;
+
+		//publish the slot to the consumer
+		tail.set(t + 1);
+
+		int depth = (int) (t + 1 - head.get());
+		if(depth > highWaterMark){
+			highWaterMark = depth;
+		}
+
+		Thread consumer = waitingConsumer;
+		if(consumer != null){
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	/**
+	 * Takes the slice at the front of the ring, blocking while the ring is empty.
+	 *
+	 * @return the next slice, or null if the ring has been closed and every slice in it has been taken
+	 * @throws InterruptedException if the calling thread is interrupted while waiting for a slice
+	 */
+	public byte[] take() throws InterruptedException{
+		long h = head.get();
+
+		//wait for a slice
+		int tries = 0;
+		while(h == tail.get()){
+			if(closed && h == tail.get()){
+				return null;
+			}
+
+			if(tries < SPIN_TRIES){
+				Thread.yield();
+				tries++;
+			}else{
+				//let the producer know where to find us, then check once more before parking so a wake up can't be missed
+				waitingConsumer = Thread.currentThread();
+				if(h == tail.get() && !closed){
+					LockSupport.parkNanos(this, PARK_NANOS);
+				}
+				waitingConsumer = null;
+			}
+
+			if(Thread.interrupted()){
+				throw new InterruptedException();
+			}
+		}
+
+		return release(h);
+	}
+
+	/**
+	 * Takes the slice at the front of the ring if there is one, without waiting.
+	 *
+	 * @return the next slice, or null if the ring is empty
+	 */
+	public byte[] poll(){
+		long h = head.get();
+
+		if(h == tail.get()){
+			return null;
+		}
+
+		return release(h);
+	}
+
+	/**
+	 * Takes the slice at index h out of the ring, and hands its slot back to the producer.  Only called by the consumer.
+	 */
+	private byte[] release(long h){
+		int index = (int) (h & mask);
+		byte[] slice = slots[index];
+		slots[index] = null;
+
+		//hand the slot back to the producer
+		head.set(h + 1);
+
+		Thread producer = waitingProducer;
+		if(producer != null){
+			LockSupport.unpark(producer);
+		}
+		return slice;
+	}
+
+	/**
+	 * Closes the ring.  Any blocked {@link #put(byte[])} returns false, and {@link #take()} returns null once the ring is drained.
+	 */
+	public void close(){
+		closed = true;
+
+		Thread producer = waitingProducer;
+		if(producer != null){
+			LockSupport.unpark(producer);
+		}
+
+		Thread consumer = waitingConsumer;
+		if(consumer != null){
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	/**
+	 * @return true if {@link #close()} has been called
+	 */
+	public boolean isClosed(){
+		return closed;
+	}
+
+	/**
+	 * @return the number of slices currently waiting in the ring
+	 */
+	public int size(){
+		//read head first, so the difference is never negative
+		long h = head.get();
+		return (int) (tail.get() - h);
+	}
+
+	/**
+	 * @return the number of slices the ring can hold
+	 */
+	public int capacity(){
+		return slots.length;
+	}
+
+	/**
+	 * @return the most slices that have been waiting in the ring at once
+	 */
+	public int getHighWaterMark(){
+		return highWaterMark;
+	}
+
+	/**
+	 * @return the number of times a {@link #put(byte[])} call found the ring full and had to wait
+	 */
+	public long getFullWaits(){
+		return fullWaits;
+	}
+}
@@ -82,9 +82,10 @@ public abstract class DataManager<T, U> {
 	 * to do so.
 	 * 
 	 * @param dataElement the element to write to the data output stream
+	 * @return true if the element was written (or taken to be written), false if it never will be
 	 * @requires that there is a valid output stream to write to (the dataOut class variable != null)
 	 * @ensures nothing.  Not even that the data got written.  Nope.  #DealWithIt
 	 */
-	public abstract void write(T dataElement);
+	public abstract boolean write(T dataElement);
 	
 }
@@ -0,0 +1,188 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl.DataManager;
+
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+
+import com.i2r.ARC.PCControl.RemoteClientResponse;
+
+/**
+ * Unpacks a block of environment sensor records sent as {@link RemoteClientResponse#DATA_TYPE_ENVIRONMENT_RECORDS} back into the
+ * text a remote device sends for {@link RemoteClientResponse#DATA_TYPE_ENVIRONMENT}, so the rest of the controller, and the files it
+ * saves, can't tell the difference.
+ * <p>
+ * A block starts with a version byte ({@link #RECORDS_VERSION}), then the names of the sensors in the block, each given an ID by
+ * where it is in the list, then the timestamp of the first record as an 8 byte long.  Each record is then a sensor ID, the difference
+ * between its timestamp and the one before as a zigzag varint, an accuracy byte, and its values as 4 byte floats.  Every block stands
+ * on its own, so nothing is kept between blocks.  Must match <code>ARC.Constants.DataTypes.ENVIRONMENT_RECORDS</code>.
+ * <p>
+ * Each record comes out as its sensor's name, the timestamp, the accuracy and then each value, one to a line.
+ *
+ * @author Johnathan Pagnutti
+ *
+ */
+public class EnvironmentRecordDecoder {
+
+	/**
+	 * The version of the block layout this decoder reads.  Must be the same as <code>ARC.Constants.DataTypes.RECORDS_VERSION</code>.
+	 */
+	public static final int RECORDS_VERSION = 1;
+
+	/**
+	 * The most bytes a long varint takes up
+	 */
+	private static final int MAX_VARLONG_BYTES = 10;
+
+	/**
+	 * The text a remote device sends for each accuracy, by accuracy
+	 */
+	private static final String[] ACCURACIES = {
+		"accuracy-status-unreliable", "accuracy-status-low",
+		"accuracy-status-medium", "accuracy-status-high"
+	};
+
+	//the block being read
+	private final byte[] block;
+
+	//where in the block the next byte is read from
+	private int pos = 0;
+
+	/**
+	 * Unpacks a block of records
+	 *
+	 * @param block the data of a {@link RemoteClientResponse#DATA_TYPE_ENVIRONMENT_RECORDS} response
+	 * @return the records as environment data text
+	 * @throws DataFormatException if the block is a version this decoder can't read, is cut short, or refers to a sensor it
+	 * doesn't name
+	 */
+	public static byte[] decode(byte[] block) throws DataFormatException{
+		return new EnvironmentRecordDecoder(block).decode();
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param block the block to read
+	 */
+	private EnvironmentRecordDecoder(byte[] block){
+		this.block = block;
+	}
+
+	/**
+	 * The body of {@link #decode(byte[])}
+	 */
+	private byte[] decode() throws DataFormatException{
+		int version = readByte();
+		if(version != RECORDS_VERSION){
+			throw new DataFormatException("Can't read version " + version + " environment records.");
+		}
+
+		//the names of the sensors, by ID
+		String[] names = new String[readCount()];
+		for(int i = 0; i < names.length; i++){
+			int length = readCount();
+			names[i] = readName(length);
+		}
+
+		long timestamp = 0;
+		for(int i = 0; i < 8; i++){
+			timestamp = (timestamp << 8) | readByte();
+		}
+
+		int records = readCount();
+		StringBuilder sb = new StringBuilder(records * 64);
+
+		for(int i = 0; i < records; i++){
+			int id = readCount();
+			if(id >= names.length){
+				throw new DataFormatException("Record for sensor " + id + ", but the block only names " + names.length + ".");
+			}
+
+			//undo the zigzag to get the signed difference back
+			long delta = readVarlong();
+			timestamp += (delta >>> 1) ^ -(delta & 1);
+
+			int accuracy = (byte) readByte();
+
+			sb.append(names[id]).append('\n');
+			sb.append(timestamp).append('\n');
+			sb.append((accuracy >= 0 && accuracy < ACCURACIES.length) ? ACCURACIES[accuracy] : "accuracy-status-" + accuracy);
+			sb.append('\n');
+
+			int values = readCount();
+			for(int j = 0; j < values; j++){
+				int bits = (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+				sb.append(Float.intBitsToFloat(bits)).append('\n');
+			}
+		}
+
+		if(pos != block.length){
+			throw new DataFormatException((block.length - pos) + " bytes left over after the last environment record.");
+		}
+
+		return sb.toString().getBytes();
+	}
+
+	/**
+	 * @return the next byte of the block, from 0 to 255
+	 * @throws DataFormatException if the block has run out
+	 */
+	private int readByte() throws DataFormatException{
+		if(pos >= block.length){
+			throw new DataFormatException("Environment records cut short.");
+		}
+		return block[pos++] & 0xFF;
+	}
+
+	/**
+	 * @return the next varint of the block, which has to fit in a non negative int
+	 * @throws DataFormatException if the block has run out, or the varint is too big
+	 */
+	private int readCount() throws DataFormatException{
+		long value = readVarlong();
+		if(value > Integer.MAX_VALUE){
+			throw new DataFormatException("Count of " + value + " in environment records is too big.");
+		}
+		return (int) value;
+	}
+
+	/**
+	 * @return the next varint of the block
+	 * @throws DataFormatException if the block has run out, or the varint is too long
+	 */
+	private long readVarlong() throws DataFormatException{
+		long value = 0;
+		int b;
+		int count = 0;
+		do{
+			if(count == MAX_VARLONG_BYTES){
+				throw new DataFormatException("Varint in environment records is too long.");
+			}
+			b = readByte();
+			value |= (long) (b & 0x7F) << (7 * count);
+			count++;
+		}while((b & 0x80) != 0);
+		return value;
+	}
+
+	/**
+	 * @param length the number of bytes in the name
+	 * @return the next sensor name in the block
+	 * @throws DataFormatException if the block has run out
+	 */
+	private String readName(int length) throws DataFormatException{
+		if(length > block.length - pos){
+			throw new DataFormatException("Environment records cut short in a sensor name.");
+		}
+
+		try {
+			String name = new String(block, pos, length, "UTF-8");
+			pos += length;
+			return name;
+		} catch (UnsupportedEncodingException e) {
+			throw new DataFormatException("UTF-8 is not supported.");
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl.DataManager;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Undoes the compression a remote device puts on frames flagged {@link ARCProtocol#FLAG_DEFLATED}.
+ * <p>
+ * One {@link Inflater} is kept and reset for every frame, since every frame was compressed on its own.  This class is not thread
+ * safe; an {@link ARCDataParser} only ever uses it from its parse thread.
+ *
+ * @author Johnathan Pagnutti
+ *
+ */
+public class FrameInflater {
+
+	//the inflater, reused for every frame
+	private final Inflater inflater = new Inflater();
+
+	//running totals, for seeing how well compression is doing
+	private long compressedBytes = 0;
+	private long inflatedBytes = 0;
+
+	/**
+	 * Inflates the data of one compressed frame
+	 *
+	 * @param dataType the data type of the frame, which picks the dictionary to prime the inflater with
+	 * @param payload the frame's data: a varint holding the uncompressed size, then the compressed bytes
+	 * @return the uncompressed data
+	 * @throws DataFormatException if the payload is not validly compressed data, says it inflates to more than
+	 * {@link ARCProtocol#MAX_FRAME_SIZE} bytes, or does not inflate to the size it says it does
+	 */
+	public byte[] inflate(int dataType, byte[] payload) throws DataFormatException{
+		//read the uncompressed size off the front
+		int size = 0;
+		int offset = 0;
+		byte b;
+		do{
+			if(offset == payload.length || offset == ARCProtocol.MAX_VARINT_BYTES){
+				throw new DataFormatException("Bad uncompressed size at the start of a compressed frame.");
+			}
+
+			b = payload[offset];
+			size |= (b & 0x7F) << (7 * offset);
+			offset++;
+		}while((b & 0x80) != 0);
+
+		//the size comes off the wire, so it is checked before any room is set aside for it
+		if(size < 0 || size > ARCProtocol.MAX_FRAME_SIZE){
+			throw new DataFormatException("Compressed frame says it holds " + size + " bytes.");
+		}
+
+		inflater.reset();
+		inflater.setInput(payload, offset, payload.length - offset);
+
+		byte[] data = new byte[size];
+		int read = 0;
+
+		while(read < size){
+			int count = inflater.inflate(data, read, size - read);
+
+			if(count == 0){
+				if(inflater.needsDictionary()){
+					byte[] dictionary = ARCProtocol.dictionaryFor(dataType);
+					if(dictionary == null){
+						throw new DataFormatException("Frame of type " + dataType + " needs a dictionary, but there isn't one.");
+					}
+
+					inflater.setDictionary(dictionary);
+				}else if(inflater.finished() || inflater.needsInput()){
+					break;
+				}
+			}
+
+			read += count;
+		}
+
+		if(read != size){
+			throw new DataFormatException("Compressed frame inflated to " + read + " bytes, expected " + size + ".");
+		}
+
+		compressedBytes += payload.length;
+		inflatedBytes += size;
+		return data;
+	}
+
+	/**
+	 * @return the number of compressed bytes inflated so far
+	 */
+	public long getCompressedBytes(){
+		return compressedBytes;
+	}
+
+	/**
+	 * @return the number of bytes the compressed bytes inflated to so far
+	 */
+	public long getInflatedBytes(){
+		return inflatedBytes;
+	}
+
+	/**
+	 * Frees the inflater.  It can't be used afterwards.
+	 */
+	public void end(){
+		inflater.end();
+	}
+}
@@ -0,0 +1,214 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl.DataManager;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+import com.i2r.ARC.PCControl.RemoteClientResponse;
+import com.i2r.ARC.PCControl.data.LocationTrack;
+
+/**
+ * Unpacks a block of location fixes sent as {@link RemoteClientResponse#DATA_TYPE_LOCATION_TRACK} into {@link LocationTrack.Fix}es.
+ * <p>
+ * A block starts with a version byte ({@link #TRACK_VERSION}), then the names of the location providers in the block, each given an ID
+ * by where it is in the list, then the time of the first fix as an 8 byte long.  Each fix is then a provider ID, a byte of
+ * <code>HAS</code> flags, and the differences between its time, latitude and longitude and the fix before's as zigzag varints
+ * (latitude and longitude in units of 1/{@link #DEGREE_SCALE} of a degree), followed by whichever of accuracy, altitude, speed and
+ * bearing its flags say it has, in hundredths.  Every block stands on its own, so nothing is kept between blocks.  Must match
+ * <code>ARC.Constants.DataTypes.LOCATION_TRACK</code>.
+ *
+ * @author Johnathan Pagnutti
+ *
+ */
+public class LocationTrackDecoder {
+
+	/**
+	 * The version of the block layout this decoder reads.  Must be the same as <code>ARC.Constants.DataTypes.TRACK_VERSION</code>.
+	 */
+	public static final int TRACK_VERSION = 1;
+
+	/**
+	 * Latitude and longitude units in one degree.  Must be the same as <code>ARC.Constants.DataTypes.TRACK_DEGREE_SCALE</code>.
+	 */
+	public static final double DEGREE_SCALE = 1e7;
+
+	/**
+	 * Flag for a fix that has an accuracy
+	 */
+	public static final int HAS_ACCURACY = 0x01;
+
+	/**
+	 * Flag for a fix that has an altitude
+	 */
+	public static final int HAS_ALTITUDE = 0x02;
+
+	/**
+	 * Flag for a fix that has a speed
+	 */
+	public static final int HAS_SPEED = 0x04;
+
+	/**
+	 * Flag for a fix that has a bearing
+	 */
+	public static final int HAS_BEARING = 0x08;
+
+	/**
+	 * The most bytes a long varint takes up
+	 */
+	private static final int MAX_VARLONG_BYTES = 10;
+
+	//the block being read
+	private final byte[] block;
+
+	//where in the block the next byte is read from
+	private int pos = 0;
+
+	/**
+	 * Unpacks a block of fixes
+	 *
+	 * @param block the data of a {@link RemoteClientResponse#DATA_TYPE_LOCATION_TRACK} response
+	 * @return the fixes, oldest first
+	 * @throws DataFormatException if the block is a version this decoder can't read, is cut short, or refers to a provider it
+	 * doesn't name
+	 */
+	public static List<LocationTrack.Fix> decode(byte[] block) throws DataFormatException{
+		return new LocationTrackDecoder(block).decode();
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param block the block to read
+	 */
+	private LocationTrackDecoder(byte[] block){
+		this.block = block;
+	}
+
+	/**
+	 * The body of {@link #decode(byte[])}
+	 */
+	private List<LocationTrack.Fix> decode() throws DataFormatException{
+		int version = readByte();
+		if(version != TRACK_VERSION){
+			throw new DataFormatException("Can't read version " + version + " location tracks.");
+		}
+
+		//the names of the providers, by ID
+		String[] providers = new String[readCount()];
+		for(int i = 0; i < providers.length; i++){
+			providers[i] = readName(readCount());
+		}
+
+		long time = 0;
+		for(int i = 0; i < 8; i++){
+			time = (time << 8) | readByte();
+		}
+
+		int count = readCount();
+		List<LocationTrack.Fix> fixes = new ArrayList<LocationTrack.Fix>(Math.min(count, block.length));
+
+		long latitude = 0;
+		long longitude = 0;
+
+		for(int i = 0; i < count; i++){
+			int id = readCount();
+			if(id >= providers.length){
+				throw new DataFormatException("Fix from provider " + id + ", but the block only names " + providers.length + ".");
+			}
+
+			int flags = readByte();
+
+			time += readZigzag();
+			latitude += readZigzag();
+			longitude += readZigzag();
+
+			double accuracy = ((flags & HAS_ACCURACY) != 0) ? readVarlong() / 100.0 : Double.NaN;
+			double altitude = ((flags & HAS_ALTITUDE) != 0) ? readZigzag() / 100.0 : Double.NaN;
+			double speed = ((flags & HAS_SPEED) != 0) ? readVarlong() / 100.0 : Double.NaN;
+			double bearing = ((flags & HAS_BEARING) != 0) ? readVarlong() / 100.0 : Double.NaN;
+
+			fixes.add(new LocationTrack.Fix(time, providers[id], latitude / DEGREE_SCALE, longitude / DEGREE_SCALE,
+					accuracy, altitude, speed, bearing));
+		}
+
+		if(pos != block.length){
+			throw new DataFormatException((block.length - pos) + " bytes left over after the last location fix.");
+		}
+
+		return fixes;
+	}
+
+	/**
+	 * @return the next byte of the block, from 0 to 255
+	 * @throws DataFormatException if the block has run out
+	 */
+	private int readByte() throws DataFormatException{
+		if(pos >= block.length){
+			throw new DataFormatException("Location track cut short.");
+		}
+		return block[pos++] & 0xFF;
+	}
+
+	/**
+	 * @return the next varint of the block, which has to fit in a non negative int
+	 * @throws DataFormatException if the block has run out, or the varint is too big
+	 */
+	private int readCount() throws DataFormatException{
+		long value = readVarlong();
+		if(value > Integer.MAX_VALUE){
+			throw new DataFormatException("Count of " + value + " in a location track is too big.");
+		}
+		return (int) value;
+	}
+
+	/**
+	 * @return the next zigzag varint of the block, with its sign put back
+	 * @throws DataFormatException if the block has run out, or the varint is too long
+	 */
+	private long readZigzag() throws DataFormatException{
+		long value = readVarlong();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * @return the next varint of the block
+	 * @throws DataFormatException if the block has run out, or the varint is too long
+	 */
+	private long readVarlong() throws DataFormatException{
+		long value = 0;
+		int b;
+		int count = 0;
+		do{
+			if(count == MAX_VARLONG_BYTES){
+				throw new DataFormatException("Varint in a location track is too long.");
+			}
+			b = readByte();
+			value |= (long) (b & 0x7F) << (7 * count);
+			count++;
+		}while((b & 0x80) != 0);
+		return value;
+	}
+
+	/**
+	 * @param length the number of bytes in the name
+	 * @return the next provider name in the block
+	 * @throws DataFormatException if the block has run out
+	 */
+	private String readName(int length) throws DataFormatException{
+		if(length > block.length - pos){
+			throw new DataFormatException("Location track cut short in a provider name.");
+		}
+
+		try {
+			String name = new String(block, pos, length, "UTF-8");
+			pos += length;
+			return name;
+		} catch (UnsupportedEncodingException e) {
+			throw new DataFormatException("UTF-8 is not supported.");
+		}
+	}
+}
@@ -0,0 +1,572 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import com.i2r.ARC.PCControl.DataManager.ARCDataManager;
+import com.i2r.ARC.PCControl.UI.StreamUI;
+import com.i2r.ARC.PCControl.link.RemoteLink;
+import com.i2r.ARC.PCControl.link.simLink.SimulatedDevice;
+import com.i2r.ARC.PCControl.link.simLink.SimulatedLink;
+import com.i2r.ARC.PCControl.link.wifiLink.WifiLink;
+
+/**
+ * Runs the controller against a farm of {@link SimulatedDevice}s, to find out how many devices it can keep up with.
+ * <p>
+ * Each simulated device is connected to a real {@link RemoteClient} the way any device is, with {@link RemoteClient#connectToDevice()},
+ * so it negotiates binary frames, credit and chunk bounds.  Once it has described its sensors, it is sent a picture, record, sense
+ * and locate task, which stream synthetic JPEGs, PCM audio, environment readings and location fixes for the length of the run.  The
+ * devices are either all in memory, over a {@link SimulatedLink}, or connected over loopback TCP to a real {@link WifiLink}, selector
+ * threads and all.
+ * <p>
+ * While they stream, the farm reports:
+ * <ul>
+ * <li>throughput: the bytes the devices got written.  With credit on, a device can't get more than the credit window ahead of the
+ * bulk data the controller has acted on, so this is close to what the controller got through.</li>
+ * <li>latency: every so often each device is asked to describe its location sensor, which it answers straight away, and the time
+ * from sending that until the task is off the stack is measured.  It is checked for every millisecond, so it is good to about a
+ * millisecond.</li>
+ * <li>credit waits and overruns: how often a device had data ready but no credit to send it, and how often it had to drop data
+ * because too much was already waiting.  Overruns mean the controller is not keeping up.</li>
+ * <li>the heap, at its highest and once the run is over, and the most threads the controller had running, leaving out the simulated
+ * devices' threads.</li>
+ * </ul>
+ * Settings are given as arguments, each one <code>name=value</code>:
+ * <pre>
+ * devices      number of simulated devices (10)
+ * seconds      how long the devices stream for (30)
+ * link         memory or tcp (memory)
+ * port         the port the {@link WifiLink} listens on for tcp ({@link WifiLink#PORT})
+ * mode         the {@link ClientScope} thread mode, DEDICATED or SHARED (DEDICATED)
+ * version      the newest response framing the devices agree to, 1 or 2 (2)
+ * picture-kb   the size of each picture (64)
+ * picture-ms   milliseconds between pictures (2000)
+ * audio-bps    bytes of audio a second (16000)
+ * env-ms       milliseconds between environment readings (100)
+ * location-ms  milliseconds between location fixes (1000)
+ * probe-ms     milliseconds between latency probes for each device (1000)
+ * </pre>
+ * The controller saves what the devices send the way it always does, into the working directory, so run it from somewhere the files
+ * can be thrown away.
+ *
+ * @author Johnathan Pagnutti
+ *
+ */
+public class DeviceFarm {
+
+	static final Logger logger = Logger.getLogger(DeviceFarm.class);
+
+	public static final String LINK_MEMORY = "memory";
+	public static final String LINK_TCP = "tcp";
+
+	private static final int DEVICES_DEFAULT = 10;
+	private static final int SECONDS_DEFAULT = 30;
+	private static final int PROBE_MILLIS_DEFAULT = 1000;
+
+	/**
+	 * How long, in milliseconds, to wait for every device to connect, or to describe its sensors
+	 */
+	private static final long CONNECT_TIMEOUT_MILLIS = 30000;
+
+	/**
+	 * How long, in milliseconds, the devices have to finish their tasks once the run is over
+	 */
+	private static final long DRAIN_TIMEOUT_MILLIS = 30000;
+
+	/**
+	 * How often, in milliseconds, the heap and threads are sampled
+	 */
+	private static final long SAMPLE_MILLIS = 1000;
+
+	/**
+	 * How long, in milliseconds, to leave things to settle before the heap is measured
+	 */
+	private static final long SETTLE_MILLIS = 500;
+
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private static final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+	private final Properties settings;
+	private final int deviceCount;
+	private final int seconds;
+	private final long probeMillis;
+	private final SimulatedDevice.Profile profile = new SimulatedDevice.Profile();
+
+	private final List<RemoteClient> clients = new ArrayList<RemoteClient>();
+	private final List<SimulatedDevice> devices = new ArrayList<SimulatedDevice>();
+	private RemoteLink<byte[]> link;
+
+	//probes sent, but not answered yet
+	private final AtomicInteger outstanding = new AtomicInteger(0);
+
+	//how long each answered probe took, in nanoseconds.  Added to by whichever thread ends the probe's task, guarded by itself
+	private final List<Long> latencies = new ArrayList<Long>();
+
+	private volatile boolean monitoring = false;
+	private volatile boolean probing = false;
+	private volatile long peakHeap = 0;
+	private volatile int peakThreads = 0;
+
+	/**
+	 * Runs the farm
+	 *
+	 * @param args the settings, each one name=value
+	 */
+	public static void main(String[] args) throws Exception {
+		BasicConfigurator.configure();
+		Logger.getRootLogger().setLevel(Level.WARN);
+
+		Properties settings = new Properties();
+		for(String arg : args){
+			int split = arg.indexOf('=');
+			if(split <= 0){
+				System.err.println("Ignoring " + arg + ", settings are name=value.");
+				continue;
+			}
+			settings.setProperty(arg.substring(0, split).trim(), arg.substring(split + 1).trim());
+		}
+
+		new DeviceFarm(settings).run();
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param settings the settings, see {@link DeviceFarm}
+	 */
+	public DeviceFarm(Properties settings){
+		this.settings = settings;
+
+		deviceCount = intSetting("devices", DEVICES_DEFAULT);
+		seconds = intSetting("seconds", SECONDS_DEFAULT);
+		probeMillis = intSetting("probe-ms", PROBE_MILLIS_DEFAULT);
+
+		profile.protocolVersion = intSetting("version", profile.protocolVersion);
+		profile.pictureBytes = intSetting("picture-kb", profile.pictureBytes / 1024) * 1024;
+		profile.pictureMillis = intSetting("picture-ms", (int) profile.pictureMillis);
+		profile.audioBytesPerSecond = intSetting("audio-bps", profile.audioBytesPerSecond);
+		profile.environmentMillis = intSetting("env-ms", (int) profile.environmentMillis);
+		profile.locationMillis = intSetting("location-ms", (int) profile.locationMillis);
+		profile.streamMillis = seconds * 1000L;
+
+		try {
+			ClientScope.setMode(settings.getProperty("mode", ClientScope.MODE_DEDICATED));
+		} catch (IllegalArgumentException e) {
+			logger.error("Bad mode value, using " + ClientScope.MODE_DEDICATED, e);
+			ClientScope.setMode(ClientScope.MODE_DEDICATED);
+		}
+	}
+
+	/**
+	 * Connects the devices, has them stream for the length of the run, reports, and disconnects them again
+	 */
+	public void run() throws Exception {
+		String linkType = settings.getProperty("link", LINK_MEMORY);
+
+		//reports from the clients go nowhere, there are far too many of them to read
+		Controller cntrl = Controller.getInstance();
+		cntrl.devices = new CopyOnWriteArrayList<RemoteClient>();
+		cntrl.ui = new StreamUI<OutputStream, InputStream, String>(new ByteArrayInputStream(new byte[0]), new OutputStream(){
+			@Override
+			public void write(int b) {}
+
+			@Override
+			public void write(byte[] b, int off, int len) {}
+		}, cntrl);
+
+		System.out.println("Connecting " + deviceCount + " simulated devices over " + linkType + ", "
+				+ (ClientScope.isShared() ? ClientScope.MODE_SHARED : ClientScope.MODE_DEDICATED) + " threads.");
+
+		List<String> urls = LINK_TCP.equalsIgnoreCase(linkType) ? connectOverTCP() : connectInMemory();
+		for(String url : urls){
+			RemoteClient dev = new RemoteClient(link, url);
+			if(dev.connectToDevice()){
+				clients.add(dev);
+				cntrl.devices.add(dev);
+			}else{
+				logger.error("Could not connect to " + url);
+			}
+		}
+		if(link instanceof SimulatedLink){
+			devices.addAll(((SimulatedLink) link).getDevices());
+		}
+
+		if(!describeSensors()){
+			System.out.println("Not every device described its sensors in time, carrying on with the ones that did.");
+		}
+
+		Thread monitor = startMonitor();
+
+		long start = System.nanoTime();
+		for(RemoteClient dev : clients){
+			if(dev.supportedSensors.size() == Sensor.values().length){
+				startStreaming(dev);
+			}
+		}
+
+		Thread.sleep(seconds * 1000L);
+
+		//probes would keep the stacks from ever emptying
+		probing = false;
+		long drained = drain();
+		long elapsed = System.nanoTime() - start;
+
+		monitoring = false;
+		monitor.join();
+
+		report(elapsed, drained);
+		shutdown();
+	}
+
+	/**
+	 * Starts the devices in memory
+	 *
+	 * @return the URL of every device
+	 */
+	private List<String> connectInMemory(){
+		link = new SimulatedLink(deviceCount, profile);
+		link.searchForConnections();
+		return link.currentConnections();
+	}
+
+	/**
+	 * Starts a {@link WifiLink}, and connects every device to it over loopback TCP
+	 *
+	 * @return the URL the link has for every device that connected in time
+	 */
+	private List<String> connectOverTCP() throws IOException, InterruptedException {
+		int port = intSetting("port", WifiLink.PORT);
+		WifiLink wifi = new WifiLink(port);
+		link = wifi;
+
+		final BlockingQueue<String> arrived = new LinkedBlockingQueue<String>();
+		wifi.setArrivalListener(new WifiLink.ArrivalListener(){
+			@Override
+			public void connectionArrived(String connectionURL) {
+				arrived.add(connectionURL);
+			}
+		});
+		wifi.searchForConnections();
+
+		for(int i = 0; i < deviceCount; i++){
+			Socket socket = new Socket("127.0.0.1", port);
+			socket.setTcpNoDelay(true);
+
+			SimulatedDevice device = new SimulatedDevice(SimulatedLink.URL_PREFIX + i, profile, socket.getInputStream(),
+					socket.getOutputStream());
+			device.start();
+			devices.add(device);
+		}
+
+		//the devices accepted before the link first reports are in its list, the rest go to the listener
+		Set<String> urls = new LinkedHashSet<String>();
+		long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+		List<String> found;
+		while((found = wifi.currentConnections()) == RemoteLink.STILL_SEARCHING && System.currentTimeMillis() < deadline){
+			Thread.sleep(10);
+		}
+		if(found != null && found != RemoteLink.STILL_SEARCHING){
+			urls.addAll(found);
+		}
+
+		while(urls.size() < deviceCount){
+			String url = arrived.poll(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+			if(url == null){
+				logger.error("Only " + urls.size() + " of " + deviceCount + " devices connected in time.");
+				break;
+			}
+			urls.add(url);
+		}
+
+		return new ArrayList<String>(urls);
+	}
+
+	/**
+	 * Asks every device to describe its sensors, and waits until they all have
+	 *
+	 * @return true if every device described every sensor in time
+	 */
+	private boolean describeSensors() throws InterruptedException {
+		for(RemoteClient dev : clients){
+			List<String> args = new ArrayList<String>();
+			for(Sensor sensor : Sensor.values()){
+				args.add(sensor.getAlias());
+			}
+			send(dev, CommandHeader.GET_SENSOR_FEATURES, args);
+		}
+
+		long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+		for(RemoteClient dev : clients){
+			while(dev.supportedSensors.size() < Sensor.values().length){
+				if(System.currentTimeMillis() > deadline){
+					return false;
+				}
+				Thread.sleep(10);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sends a device the tasks that stream for the rest of the run
+	 */
+	private void startStreaming(RemoteClient dev){
+		String millis = String.valueOf(seconds * 1000L);
+		send(dev, CommandHeader.TAKE_PICTURE, Arrays.asList(String.valueOf(profile.pictureMillis), millis, "-1"));
+		send(dev, CommandHeader.RECORD_AUDIO, Arrays.asList(millis));
+		send(dev, CommandHeader.LISTEN_ENVIRONMENT, Arrays.asList("-1"));
+		send(dev, CommandHeader.GET_LOCATION, Arrays.asList("-1"));
+	}
+
+	/**
+	 * Waits for every device to finish its tasks
+	 *
+	 * @return the number of tasks still on the stacks when it gave up, 0 if they all finished
+	 */
+	private long drain() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+		long left;
+		do {
+			left = 0;
+			for(RemoteClient dev : clients){
+				left += dev.deviceTasks.currentTasks().size();
+			}
+			if(left > 0){
+				Thread.sleep(10);
+			}
+		} while(left > 0 && System.currentTimeMillis() < deadline);
+		return left;
+	}
+
+	/**
+	 * Starts the thread that sends probes and samples the heap and threads
+	 */
+	private Thread startMonitor(){
+		monitoring = true;
+		probing = true;
+		Thread t = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				long nextProbe = System.currentTimeMillis();
+				long nextSample = nextProbe;
+
+				while(monitoring){
+					long now = System.currentTimeMillis();
+
+					if(probing && now >= nextProbe){
+						nextProbe = now + probeMillis;
+						for(RemoteClient dev : clients){
+							probe(dev);
+						}
+					}
+
+					if(now >= nextSample){
+						nextSample = now + SAMPLE_MILLIS;
+						peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+						peakThreads = Math.max(peakThreads, controllerThreads());
+					}
+
+					try {
+						Thread.sleep(1);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		});
+		t.setName("Device-Farm-Monitor");
+		t.setDaemon(true);
+		t.start();
+		return t;
+	}
+
+	/**
+	 * Asks a device to describe its location sensor, and times the answer from the moment its task ends
+	 */
+	private void probe(RemoteClient dev){
+		if(!dev.supportedSensors.containsKey(Sensor.LOCATION)){
+			return;
+		}
+
+		final long sent = System.nanoTime();
+		TaskFuture answer = send(dev, CommandHeader.GET_SENSOR_FEATURES, Arrays.asList(Sensor.LOCATION.getAlias()));
+		if(answer == null){
+			return;
+		}
+
+		outstanding.incrementAndGet();
+		answer.addListener(new TaskFuture.CompletionListener(){
+			@Override
+			public void taskEnded(TaskResult result) {
+				long took = System.nanoTime() - sent;
+				outstanding.decrementAndGet();
+				synchronized(latencies){
+					latencies.add(took);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Makes and sends a command, logging it if it couldn't be
+	 *
+	 * @return the command's task's future, or null if it couldn't be made
+	 */
+	private TaskFuture send(RemoteClient dev, CommandHeader header, List<String> args){
+		try {
+			ARCCommand command = new ARCCommand(dev, header, new ArrayList<String>(args));
+			return dev.sendTask(command);
+		} catch (UnsupportedValueException e) {
+			logger.error(dev + " couldn't be sent a " + header.getAlias() + " command: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Prints what was measured
+	 *
+	 * @param elapsed how long the devices streamed for, in nanoseconds, including finishing their tasks
+	 * @param left the number of tasks that never finished
+	 */
+	private void report(long elapsed, long left) throws InterruptedException {
+		long bytes = 0, frames = 0, waits = 0, overruns = 0;
+		for(SimulatedDevice device : devices){
+			bytes += device.getBytesWritten();
+			frames += device.getFramesWritten();
+			waits += device.getCreditWaits();
+			overruns += device.getOverruns();
+		}
+
+		double secs = elapsed / 1e9;
+		List<Long> sorted;
+		synchronized(latencies){
+			sorted = new ArrayList<Long>(latencies);
+		}
+		Collections.sort(sorted);
+
+		System.out.println(String.format("devices connected     %d of %d", clients.size(), deviceCount));
+		System.out.println(String.format("ran for               %.1f s", secs));
+		System.out.println(String.format("throughput            %.2f MB/s, %.0f frames/s (%d bytes, %d frames)",
+				bytes / secs / (1024 * 1024), frames / secs, bytes, frames));
+		System.out.println(String.format("probe latency (ms)    p50 %.2f  p95 %.2f  p99 %.2f  max %.2f  (%d probes, %d unanswered)",
+				percentile(sorted, 0.50), percentile(sorted, 0.95), percentile(sorted, 0.99), percentile(sorted, 1.0), sorted.size(),
+				outstanding.get()));
+		System.out.println(String.format("credit waits          %d", waits));
+		System.out.println(String.format("overruns              %d", overruns));
+		for(ARCDataManager.Lane lane : ARCDataManager.Lane.values()){
+			long taken = 0;
+			double maxWait = 0;
+			for(RemoteClient dev : clients){
+				if(dev.dataManager instanceof ARCDataManager){
+					ARCDataManager.LaneStats stats = ((ARCDataManager) dev.dataManager).getLaneStats(lane);
+					taken += stats.getTaken();
+					maxWait = Math.max(maxWait, stats.getMaxWaitMillis());
+				}
+			}
+			System.out.println(String.format("%-21s %d written, %.2f ms longest wait", lane.toString().toLowerCase() + " lane", taken,
+					maxWait));
+		}
+		System.out.println(String.format("tasks left            %d", left));
+		System.out.println(String.format("controller threads    %d at most", peakThreads));
+
+		settle();
+		System.out.println(String.format("heap                  %.1f MB at most, %.1f MB after", peakHeap / (1024.0 * 1024),
+				memory.getHeapMemoryUsage().getUsed() / (1024.0 * 1024)));
+	}
+
+	/**
+	 * @param sorted the latencies, in nanoseconds, sorted
+	 * @param p the percentile, between 0 and 1
+	 * @return the latency at that percentile, in milliseconds, or 0 if nothing was measured
+	 */
+	private static double percentile(List<Long> sorted, double p){
+		if(sorted.isEmpty()){
+			return 0;
+		}
+		int index = (int) Math.ceil(p * sorted.size()) - 1;
+		return sorted.get(Math.max(index, 0)) / 1e6;
+	}
+
+	/**
+	 * Disconnects every client, and stops every device
+	 */
+	private void shutdown(){
+		for(RemoteClient dev : clients){
+			dev.die = true;
+			dev.conn.close();
+			dev.getScope().close();
+		}
+		for(SimulatedDevice device : devices){
+			device.stop();
+		}
+		if(link instanceof WifiLink){
+			((WifiLink) link).close();
+		}
+	}
+
+	/**
+	 * @return the number of live threads, leaving out the simulated devices'
+	 */
+	private static int controllerThreads(){
+		int count = 0;
+		for(ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())){
+			if(info != null && !info.getThreadName().startsWith(SimulatedDevice.THREAD_PREFIX)){
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Waits for threads to stop, and collects garbage, so what is measured is what is left
+	 */
+	private static void settle() throws InterruptedException {
+		Thread.sleep(SETTLE_MILLIS);
+		System.gc();
+		System.gc();
+		Thread.sleep(SETTLE_MILLIS);
+	}
+
+	/**
+	 * @return the setting as an int, or the default if it isn't set or isn't a number
+	 */
+	private int intSetting(String name, int defaultValue){
+		String value = settings.getProperty(name);
+		if(value == null){
+			return defaultValue;
+		}
+
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			logger.error("Bad " + name + " value, using " + defaultValue, e);
+			return defaultValue;
+		}
+	}
+}
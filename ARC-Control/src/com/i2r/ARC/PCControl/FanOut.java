@@ -0,0 +1,385 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * One command sent to many {@link RemoteClient}s at once, and the handle for how it went on each of them.
+ * <p>
+ * Rather than the command being checked and sent one device after another, every device gets a job on its own {@link ClientScope}
+ * that parses the command against that device's {@link Capabilities} and hands it to
+ * {@link Controller#send(RemoteClient, ARCCommand)}, which queues it for the device's own writer.  So checking and writing happen for
+ * every device at once, and a device that can't take the command (it doesn't have the sensor, or has been shut down) is rejected
+ * without holding up the rest.
+ * <p>
+ * Each device's {@link TaskFuture} reports back here as its task ends.  Once half of the devices are done, a check is set on the shared
+ * {@link TimerWheel} for {@link #STRAGGLER_FACTOR} times the median time they took, and any device still running then is reported as a
+ * straggler.  Once every device is done, a summary of how the command went, with the percentiles of how long it took, is reported.
+ *
+ * @author Johnathan Pagnutti
+ *
+ */
+public class FanOut {
+
+	static final Logger logger = Logger.getLogger(FanOut.class);
+
+	/**
+	 * How many times the median completion time a device can take before it is a straggler
+	 */
+	public static final double STRAGGLER_FACTOR = 2.0;
+
+	/**
+	 * Where the command is on one device
+	 *
+	 * @author Johnathan Pagnutti
+	 */
+	public enum Status {
+		/**
+		 * Still being checked against the device and sent
+		 */
+		PENDING,
+
+		/**
+		 * The command wasn't valid for the device, or the device couldn't be sent anything
+		 */
+		REJECTED,
+
+		/**
+		 * Sent, and waiting for the task to end
+		 */
+		RUNNING,
+
+		/**
+		 * The task has ended, see {@link Target#getResult()}
+		 */
+		ENDED
+	}
+
+	private final Controller cntrl;
+
+	//the command, without a device index in front of it
+	private final String commandLine;
+
+	private final List<Target> targets;
+
+	//when the command started going out, in nanoseconds
+	private final long startNanos = System.nanoTime();
+
+	//counted down as each device is rejected or its task ends
+	private final CountDownLatch remaining;
+
+	//the number of devices whose task has ended
+	private final AtomicInteger ended = new AtomicInteger(0);
+
+	//set once the straggler check has been set, there is only ever one
+	private final AtomicBoolean stragglerCheck = new AtomicBoolean(false);
+
+	/**
+	 * Constructor.  Nothing is sent until {@link #start()}.
+	 *
+	 * @param cntrl the controller, for sending and reporting
+	 * @param devs the devices to send the command to
+	 * @param commandLine the command and its arguments, as they would follow a device index in the UI
+	 */
+	public FanOut(Controller cntrl, List<RemoteClient> devs, String commandLine){
+		this.cntrl = cntrl;
+		this.commandLine = commandLine.trim();
+
+		List<Target> all = new ArrayList<Target>(devs.size());
+		for(RemoteClient dev : devs){
+			all.add(new Target(dev));
+		}
+		targets = Collections.unmodifiableList(all);
+		remaining = new CountDownLatch(all.size());
+	}
+
+	/**
+	 * Starts checking and sending the command on every device at once.  Returns straight away.
+	 *
+	 * @return this
+	 */
+	public FanOut start(){
+		for(Target target : targets){
+			if(!target.dev.getScope().execute("Fan-Out-Thread", target)){
+				target.reject(target.dev + " has been shut down.");
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * @return the command being sent, without a device index
+	 */
+	public String getCommandLine(){
+		return commandLine;
+	}
+
+	/**
+	 * @return every device the command was sent to, in the order they were given
+	 */
+	public List<Target> getTargets(){
+		return targets;
+	}
+
+	/**
+	 * @return true once every device has been rejected or finished its task
+	 */
+	public boolean isDone(){
+		return remaining.getCount() == 0;
+	}
+
+	/**
+	 * Waits for every device to be rejected or finish its task
+	 *
+	 * @param timeout the longest to wait
+	 * @param unit the unit of timeout
+	 * @return true if every device is done, false if the time ran out first
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+		return remaining.await(timeout, unit);
+	}
+
+	/**
+	 * Get how long devices took to finish their task, from when the command started going out
+	 *
+	 * @param p the percentile, between 0 and 1
+	 * @return the time at that percentile, in milliseconds, or 0 if no device has finished
+	 */
+	public double percentileMillis(double p){
+		List<Long> sorted = new ArrayList<Long>(targets.size());
+		for(Target target : targets){
+			if(target.getStatus() == Status.ENDED){
+				sorted.add(target.endNanos - startNanos);
+			}
+		}
+		if(sorted.isEmpty()){
+			return 0;
+		}
+		Collections.sort(sorted);
+
+		int index = (int) Math.ceil(p * sorted.size()) - 1;
+		return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1))) / 1e6;
+	}
+
+	/**
+	 * Get the devices that are holding the command up: still running after {@link #STRAGGLER_FACTOR} times the median time the
+	 * devices that have finished took.  Until half of the devices have finished, there is no median to go by, and nothing is a
+	 * straggler.
+	 *
+	 * @return the stragglers, which may be empty
+	 */
+	public List<RemoteClient> getStragglers(){
+		List<RemoteClient> stragglers = new ArrayList<RemoteClient>();
+		if(!halfEnded()){
+			return stragglers;
+		}
+
+		double limitMillis = STRAGGLER_FACTOR * percentileMillis(0.5);
+		double elapsedMillis = (System.nanoTime() - startNanos) / 1e6;
+		if(elapsedMillis <= limitMillis){
+			return stragglers;
+		}
+
+		for(Target target : targets){
+			if(target.getStatus() == Status.RUNNING){
+				stragglers.add(target.dev);
+			}
+		}
+		return stragglers;
+	}
+
+	/**
+	 * @return how the command went on every device so far: how many devices ended each way, and how long they took
+	 */
+	public String summary(){
+		Map<Status, Integer> statuses = new EnumMap<Status, Integer>(Status.class);
+		Map<TaskResult.Outcome, Integer> outcomes = new EnumMap<TaskResult.Outcome, Integer>(TaskResult.Outcome.class);
+		for(Target target : targets){
+			Status status = target.getStatus();
+			if(status == Status.ENDED){
+				increment(outcomes, target.getResult().getOutcome());
+			}else{
+				increment(statuses, status);
+			}
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(commandLine).append(" on ").append(targets.size()).append(" devices:");
+		for(Map.Entry<TaskResult.Outcome, Integer> e : outcomes.entrySet()){
+			sb.append(" ").append(e.getValue()).append(" ").append(e.getKey().toString().toLowerCase());
+		}
+		for(Map.Entry<Status, Integer> e : statuses.entrySet()){
+			sb.append(" ").append(e.getValue()).append(" ").append(e.getKey().toString().toLowerCase());
+		}
+		sb.append(".");
+		if(!outcomes.isEmpty()){
+			sb.append(String.format("  Finished in p50 %.0f ms, p95 %.0f ms, p99 %.0f ms, max %.0f ms.",
+					percentileMillis(0.50), percentileMillis(0.95), percentileMillis(0.99), percentileMillis(1.0)));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Counts one device as done.  Sets the straggler check once half of them are, and reports the summary once they all are.
+	 */
+	private void done(){
+		remaining.countDown();
+
+		if(remaining.getCount() == 0){
+			report(summary());
+			return;
+		}
+
+		if(halfEnded() && stragglerCheck.compareAndSet(false, true)){
+			long delayMillis = (long) Math.ceil(STRAGGLER_FACTOR * percentileMillis(0.5) - ((System.nanoTime() - startNanos) / 1e6));
+			TimerWheel.getShared().schedule(new Runnable(){
+				@Override
+				public void run() {
+					List<RemoteClient> stragglers = getStragglers();
+					if(!stragglers.isEmpty()){
+						report(stragglers.size() + " devices are still running " + commandLine + ": " + stragglers);
+					}
+				}
+			}, delayMillis);
+		}
+	}
+
+	/**
+	 * @return true once at least half of the devices, and at least one, have finished their task
+	 */
+	private boolean halfEnded(){
+		int count = ended.get();
+		return count > 0 && count * 2 >= targets.size();
+	}
+
+	private static <K> void increment(Map<K, Integer> counts, K key){
+		Integer count = counts.get(key);
+		counts.put(key, (count == null) ? 1 : count + 1);
+	}
+
+	/**
+	 * Report something back to the user
+	 */
+	private void report(String message){
+		logger.debug(message);
+		if(cntrl.ui != null){
+			cntrl.ui.write(message);
+		}
+	}
+
+	/****************************
+	 * INNER CLASSES
+	 ****************************/
+
+	/**
+	 * The command on one device.  Also the job, run on the device's {@link ClientScope}, that checks and sends it.
+	 *
+	 * @author Johnathan Pagnutti
+	 *
+	 */
+	public class Target implements Runnable, TaskFuture.CompletionListener {
+
+		private final RemoteClient dev;
+
+		private volatile Status status = Status.PENDING;
+
+		//why the device was rejected
+		private volatile String error;
+
+		//how the task ended, and when, in nanoseconds
+		private volatile TaskResult result;
+		private volatile long endNanos;
+
+		private Target(RemoteClient dev){
+			this.dev = dev;
+		}
+
+		/**
+		 * Checks the command against the device's capabilities and sends it
+		 */
+		@Override
+		public void run() {
+			TaskFuture completion;
+			try {
+				completion = cntrl.send(dev, ARCCommand.fromString(dev, commandLine));
+			} catch (UnsupportedValueException e) {
+				reject(e.getMessage());
+				return;
+			} catch (RuntimeException e) {
+				logger.error(e.getMessage(), e);
+				reject(commandLine + " could not be read: " + e.getMessage());
+				return;
+			}
+
+			status = Status.RUNNING;
+			completion.addListener(this);
+		}
+
+		/**
+		 * Implemented from {@link TaskFuture.CompletionListener}
+		 */
+		@Override
+		public void taskEnded(TaskResult taskResult) {
+			endNanos = System.nanoTime();
+			result = taskResult;
+			status = Status.ENDED;
+
+			ended.incrementAndGet();
+			done();
+		}
+
+		private void reject(String message){
+			error = message;
+			status = Status.REJECTED;
+			logger.debug(dev + " rejected " + commandLine + ": " + message);
+
+			done();
+		}
+
+		/**
+		 * @return the device
+		 */
+		public RemoteClient getDevice(){
+			return dev;
+		}
+
+		/**
+		 * @return where the command is on the device
+		 */
+		public Status getStatus(){
+			return status;
+		}
+
+		/**
+		 * @return why the device was rejected, or null if it wasn't
+		 */
+		public String getError(){
+			return error;
+		}
+
+		/**
+		 * @return how the task ended, or null if it hasn't
+		 */
+		public TaskResult getResult(){
+			return result;
+		}
+
+		@Override
+		public String toString(){
+			return dev + " " + ((status == Status.ENDED) ? result.toString() : status + ((error == null) ? "" : ": " + error));
+		}
+	}
+}
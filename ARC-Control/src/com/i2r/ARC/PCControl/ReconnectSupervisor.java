@@ -0,0 +1,383 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+
+import com.i2r.ARC.PCControl.DataManager.ARCDataManager;
+
+/**
+ * Brings a {@link RemoteClient}'s connection back after it has been lost, without holding up anything else while it does.
+ * <p>
+ * A client starts out {@link State#CONNECTED}.  When a write fails the client goes {@link State#RECONNECTING}, and attempts are made
+ * as delayed jobs on the client's {@link ClientScope}, so no thread sits sleeping between them.  The wait before each attempt doubles,
+ * from {@link Controller#reconnectBaseMillis} up to {@link Controller#reconnectMaxMillis}, and only half of it is fixed; the other half
+ * is picked at random.  When an access point restarts, every device on it is lost at the same moment, and without the random part
+ * their clients would all try again at the same moment too, every time.
+ * <p>
+ * Tasks sent while the client is reconnecting are held, in order, behind the ones the lost connection never wrote, and are all written
+ * once the connection is back, after the commands a new connection starts with.  Once {@link Controller#reconnectAttempts} attempts
+ * have failed, the client is {@link State#FAILED} and is shut down, and everything held is dropped with it.
+ * <p>
+ * Every change of state is reported to the user and handed to each {@link StateListener}.
+ *
+ * @author Johnathan Pagnutti
+ *
+ */
+public class ReconnectSupervisor {
+
+	static final Logger logger = Logger.getLogger(ReconnectSupervisor.class);
+
+	/**
+	 * The most tasks held while reconnecting, the same as the most a connection queues to be written
+	 */
+	public static final int MAX_HELD_TASKS = ARCDataManager.MAX_QUEUED_TASKS;
+
+	/**
+	 * The states a {@link RemoteClient}'s connection can be in
+	 *
+	 * @author Johnathan Pagnutti
+	 */
+	public enum State {
+		/**
+		 * Tasks are written as they are sent
+		 */
+		CONNECTED,
+
+		/**
+		 * The connection was lost, and is being brought back.  Tasks are held until it is.
+		 */
+		RECONNECTING,
+
+		/**
+		 * The connection could not be brought back, and the client has been shut down
+		 */
+		FAILED
+	}
+
+	//the client whose connection is looked after
+	private final RemoteClient dev;
+
+	//picks the random part of each wait
+	private final Random jitter = new Random();
+
+	//who to tell about changes of state
+	private final List<StateListener> listeners = new CopyOnWriteArrayList<StateListener>();
+
+	//the tasks waiting for the connection to come back, in the order they are to be written.  Guarded by itself, as is everything below
+	private final Deque<Task> held = new ArrayDeque<Task>();
+
+	private State state = State.CONNECTED;
+
+	//the number of attempts that have failed since the connection was lost
+	private int failures = 0;
+
+	//the thread making an attempt right now, whose tasks are the commands the new connection starts with, and are never held
+	private Thread connecting = null;
+
+	/**
+	 * Constructor
+	 *
+	 * @param dev the client whose connection to look after
+	 */
+	public ReconnectSupervisor(RemoteClient dev){
+		this.dev = dev;
+	}
+
+	/**
+	 * @param listener who to tell about every change of state from now on
+	 */
+	public void addStateListener(StateListener listener){
+		listeners.add(listener);
+	}
+
+	/**
+	 * @param listener who to stop telling about changes of state
+	 */
+	public void removeStateListener(StateListener listener){
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @return the state the connection is in now
+	 */
+	public State getState(){
+		synchronized(held){
+			return state;
+		}
+	}
+
+	/**
+	 * @return the number of tasks waiting for the connection to come back
+	 */
+	public int getHeldCount(){
+		synchronized(held){
+			return held.size();
+		}
+	}
+
+	/**
+	 * Called by the {@link RemoteClient} when a write fails.  Only the first loss starts reconnecting; a connection lost while one
+	 * is already being brought back is left to it, and its unsent tasks are held along with the rest.
+	 *
+	 * @param unsent the tasks that were waiting to be written, in the order they were queued
+	 */
+	public void connectionLost(List<Task> unsent){
+		synchronized(held){
+			if(state == State.FAILED){
+				return;
+			}
+
+			//the lost connection's tasks go ahead of anything sent since, so they are written in the order they were sent
+			for(int i = unsent.size() - 1; i >= 0; i--){
+				held.addFirst(unsent.get(i));
+				dev.unwritten.add(unsent.get(i).getId());
+			}
+
+			if(state == State.RECONNECTING){
+				return;
+			}
+
+			failures = 0;
+		}
+
+		changeState(State.CONNECTED, State.RECONNECTING);
+		scheduleAttempt();
+	}
+
+	/**
+	 * Holds a task to be written once the connection is back, if it is being brought back right now.  The commands a new connection
+	 * starts with are never held, since they are what brings it back.
+	 *
+	 * @param t the task to write
+	 * @return true if the task is held, false if it should be written now
+	 * @throws IllegalStateException if too many tasks are already held
+	 */
+	public boolean hold(Task t){
+		synchronized(held){
+			if(state == State.CONNECTED || Thread.currentThread() == connecting){
+				return false;
+			}
+
+			if(held.size() >= MAX_HELD_TASKS){
+				throw new IllegalStateException(MAX_HELD_TASKS + " tasks are already waiting for the connection to come back.");
+			}
+
+			//the remote device has never seen it, so it isn't asked to carry on with it
+			held.addLast(t);
+			dev.unwritten.add(t.getId());
+			return true;
+		}
+	}
+
+	/**
+	 * Gets how long to wait before the next attempt: the base wait, doubled for each attempt that has failed, up to the longest wait,
+	 * of which the second half is random
+	 *
+	 * @param failures the number of attempts that have failed so far
+	 * @return the wait, in milliseconds
+	 */
+	long backoff(int failures){
+		long wait = Math.max(1, dev.cntrl.reconnectBaseMillis);
+
+		//shifting past the longest wait would only overflow
+		for(int i = 0; i < failures && wait < dev.cntrl.reconnectMaxMillis; i++){
+			wait <<= 1;
+		}
+		wait = Math.min(wait, Math.max(1, dev.cntrl.reconnectMaxMillis));
+
+		long half = wait / 2;
+		return (wait - half) + (long) (jitter.nextDouble() * (half + 1));
+	}
+
+	/**
+	 * Starts the next attempt once its wait is up
+	 */
+	private void scheduleAttempt(){
+		int failed;
+		synchronized(held){
+			failed = failures;
+		}
+
+		long wait = backoff(failed);
+		logger.debug(dev + " attempting to reconnect in " + wait + " ms.");
+
+		if(!dev.scope.delay("Reconnect-Thread", new ReconnectAttempt(), wait)){
+			//the client was shut down in the meantime
+			fail();
+		}
+	}
+
+	/**
+	 * Called when the client is shut down.  If the connection was being brought back, it is given up on, and everything held is
+	 * dropped.
+	 */
+	void close(){
+		synchronized(held){
+			if(state != State.RECONNECTING){
+				return;
+			}
+		}
+
+		fail();
+	}
+
+	/**
+	 * Gives up on the connection, dropping everything held
+	 */
+	private void fail(){
+		State old;
+		synchronized(held){
+			old = state;
+			if(old == State.FAILED){
+				return;
+			}
+			state = State.FAILED;
+			held.clear();
+		}
+		dev.unwritten.clear();
+
+		notifyListeners(old, State.FAILED);
+	}
+
+	/**
+	 * Moves from one state to another, telling the user and every listener, if the connection is still in the first state
+	 */
+	private void changeState(State from, State to){
+		synchronized(held){
+			if(state != from){
+				return;
+			}
+			state = to;
+		}
+
+		notifyListeners(from, to);
+	}
+
+	private void notifyListeners(State from, State to){
+		logger.debug(dev + " went from " + from + " to " + to);
+
+		switch(to){
+		case CONNECTED:
+			dev.report("Connection reestablished.");
+			break;
+		case RECONNECTING:
+			dev.report("Connection lost, attempting to reestablish it...");
+			break;
+		case FAILED:
+			dev.report("Connection could not be reestablished.");
+			break;
+		}
+
+		for(StateListener listener : listeners){
+			try{
+				listener.stateChanged(dev, from, to);
+			}catch(RuntimeException e){
+				logger.error(e.getMessage(), e);
+			}
+		}
+	}
+
+	/***************
+	 * INNER CLASSES
+	 ***************/
+
+	/**
+	 * Interface for whoever wants to know when a {@link RemoteClient}'s connection is lost, brought back, or given up on
+	 *
+	 * @author Johnathan Pagnutti
+	 */
+	public interface StateListener {
+
+		/**
+		 * Called each time the connection changes state, on whichever thread changed it
+		 *
+		 * @param dev the client whose connection changed state
+		 * @param from the state it was in
+		 * @param to the state it is in now
+		 */
+		public void stateChanged(RemoteClient dev, State from, State to);
+	}
+
+	/**
+	 * A single attempt to bring the connection back.  If it works, everything held is written and the client is connected again;
+	 * if not, the next attempt is scheduled, or the client is shut down once there have been too many.
+	 *
+	 * @author Johnathan Pagnutti
+	 */
+	private class ReconnectAttempt implements Runnable {
+
+		@Override
+		public void run() {
+			if(dev.die){
+				fail();
+				return;
+			}
+
+			synchronized(held){
+				connecting = Thread.currentThread();
+			}
+
+			boolean connected;
+			try{
+				connected = dev.connectToDevice();
+			}finally{
+				synchronized(held){
+					connecting = null;
+				}
+			}
+
+			if(connected){
+				reconnected();
+				return;
+			}
+
+			boolean giveUp;
+			synchronized(held){
+				failures++;
+				giveUp = failures >= dev.cntrl.reconnectAttempts;
+			}
+
+			if(giveUp){
+				fail();
+				dev.shutdown();
+			}else{
+				scheduleAttempt();
+			}
+		}
+
+		/**
+		 * Writes everything held that is still on the task stack, and lets tasks be written as they are sent again.  Done while
+		 * holding the lock, so nothing sent in the meantime can get ahead of what was held; writing only queues, so it is quick.
+		 */
+		private void reconnected(){
+			List<Task> dropped = new ArrayList<Task>();
+
+			synchronized(held){
+				Task t;
+				while((t = held.pollFirst()) != null){
+					if(dev.deviceTasks.hasTask(t.getId()) && !dev.dataManager.write(t)){
+						dropped.add(t);
+					}
+				}
+
+				state = State.CONNECTED;
+			}
+			dev.unwritten.clear();
+
+			for(Task t : dropped){
+				logger.error("Could not send task " + t.getId() + " again after reconnecting.");
+			}
+
+			notifyListeners(State.RECONNECTING, State.CONNECTED);
+		}
+	}
+}
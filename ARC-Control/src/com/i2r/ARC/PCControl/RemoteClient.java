@@ -3,10 +3,15 @@
  */
 package com.i2r.ARC.PCControl;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -14,10 +19,14 @@ import org.apache.log4j.Logger;
 
 import com.i2r.ARC.PCControl.DataManager.ARCDataManager;
 import com.i2r.ARC.PCControl.DataManager.ARCDataParser;
+import com.i2r.ARC.PCControl.DataManager.ARCProtocol;
 import com.i2r.ARC.PCControl.DataManager.DataManager;
 import com.i2r.ARC.PCControl.DataManager.DataParser;
+import com.i2r.ARC.PCControl.data.FileSink;
 import com.i2r.ARC.PCControl.link.RemoteConnection;
 import com.i2r.ARC.PCControl.link.RemoteLink;
+import com.i2r.ARC.PCControl.link.SelectedConnection;
+import com.i2r.ARC.PCControl.link.StripedConnection;
 
 /**
  * The capabilities object is part of the {@link RemoteClient} which is the {@link RemoteLink} that got the connection, the 
@@ -39,11 +48,6 @@ import com.i2r.ARC.PCControl.link.RemoteLink;
  *
  */
 public class RemoteClient {
-	/**
-	 * The amount of times to attempt to reconnect through a connection before it is declared dead
-	 */
-	private static final int RECONNECT_ATTEMPTS = 5;
-	
 	/**
 	 * The amount of milliseconds to wait before sending another quality of service ping
 	 */
@@ -97,16 +101,6 @@ public class RemoteClient {
 	 */
 	Map<Sensor, Map<String, String>> currentSensorValues;
 	
-	/**
-	 * This is a map of {@link Task}s to {@link RemoteClientResponse}'s associated with those tasks.  If some {@link RemoteClientResponse} needs
-	 * to perform some sort of operation on this side of the connection, we want to make sure that it isn't removed from the
-	 * {@link RemoteClient#deviceTasks} before we're done processing on this side.
-	 * <p>
-	 * So, the {@link RemoteClientResponse} is stored here while we're processing it, then released so it can be removed from the {@link TaskStack}
-	 * safely.
-	 */
-	Map<Task, RemoteClientResponse> pendingTaskMap;
-	
 	/**
 	 * This is the data structure that holds on to any {@link Task} that the user has specified for this {@link RemoteClient}.
 	 * {@link Task}s are removed when this {@link RemoteClient} gets a task complete message from the remote device, or when
@@ -133,6 +127,74 @@ public class RemoteClient {
 	 */
 	boolean die;
 	
+	/**
+	 * The {@link ARCProtocol} version the remote device is using to send responses.  Every connection starts out with
+	 * {@link ARCProtocol#TEXT_VERSION}, and is moved up when the remote device answers the {@link CommandHeader#NEGOTIATE_PROTOCOL}
+	 * command sent on connecting.
+	 */
+	volatile int protocolVersion = ARCProtocol.TEXT_VERSION;
+	
+	/**
+	 * Performs the {@link ResponseAction}s for every response the parser reads, keeping responses for the same {@link Task} in
+	 * order, while responses for different {@link Task}s go ahead independently.
+	 */
+	ResponseDispatcher responses;
+	
+	/**
+	 * Puts checked frames back in order, and asks for the ones that arrived corrupt or not at all to be sent again.  It lasts as
+	 * long as this {@link RemoteClient}, since the remote device keeps numbering frames across reconnects for the same session.
+	 */
+	StreamSequencer sequencer;
+	
+	/**
+	 * The {@link CommandHeader#RETRANSMIT} tasks still waiting on an answer, mapped to the task whose frames they asked for.
+	 */
+	Map<Integer, Integer> retransmits;
+	
+	/**
+	 * Identifies this {@link RemoteClient} to the remote device across reconnects.  It is sent with a {@link CommandHeader#RESUME}
+	 * on every connection, and while it matches the one the remote device has, tasks that were running when a connection was lost
+	 * carry on from the frames the remote device spooled in the meantime.
+	 */
+	final int sessionID;
+	
+	/**
+	 * The {@link CommandHeader#RESUME} tasks still waiting on an answer, mapped to the tasks they asked to carry on.
+	 */
+	Map<Integer, List<Integer>> resumes;
+	
+	/**
+	 * Brings the connection back when it is lost, holding the tasks sent in the meantime.
+	 */
+	final ReconnectSupervisor supervisor;
+	
+	/**
+	 * Ends tasks the remote device never finishes, once they have had long enough.
+	 */
+	final TaskDeadlines deadlines;
+	
+	/**
+	 * The IDs of tasks that never got written before the connection was lost, or were sent while it was being brought back.  They
+	 * are sent once it is back, so they aren't asked to carry on with the {@link CommandHeader#RESUME}.
+	 */
+	final Set<Integer> unwritten = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+	
+	/**
+	 * Gives the remote device credit to send more bulk data as this client's responses are acted on.
+	 */
+	CreditWindow credits;
+	
+	/**
+	 * Everything this {@link RemoteClient} has running: the read, write and parse loops of its connection, its pings, and any task
+	 * removal or reconnect in progress.  Closed when the client is shut down.
+	 */
+	final ClientScope scope;
+	
+	/**
+	 * Set once the ping has been started.  It carries on across reconnects, so it is only ever started once.
+	 */
+	private final AtomicBoolean pinging = new AtomicBoolean(false);
+	
 	/**
 	 * Constructor! 
 	 * 
@@ -145,8 +207,16 @@ public class RemoteClient {
 		//don't make this client for death (we just created it!)
 		die = false;
 		
-		pendingTaskMap = new ConcurrentHashMap<Task, RemoteClientResponse>();
 		deviceTasks = new TaskStack();
+		retransmits = new ConcurrentHashMap<Integer, Integer>();
+		resumes = new ConcurrentHashMap<Integer, List<Integer>>();
+		sequencer = new StreamSequencer(this);
+		credits = new CreditWindow(this);
+		sessionID = new Random().nextInt(Integer.MAX_VALUE);
+		scope = new ClientScope("Remote client " + connInfo);
+		responses = new ResponseDispatcher(scope);
+		supervisor = new ReconnectSupervisor(this);
+		deadlines = new TaskDeadlines(this);
 		
 		supportedSensors = new EnumMap<Sensor, Capabilities>(Sensor.class);
 		currentSensorValues = new EnumMap<Sensor, Map<String, String>>(Sensor.class);
@@ -161,6 +231,9 @@ public class RemoteClient {
 	 * The method called to actually connect to this {@link RemoteClient}.  Creates a {@link RemoteConnection}, and then a new
 	 * {@link ARCDataManager} to manage the I/O streams to the remote device.  The read thread of the {@link ARCDataManager} is
 	 * started, and this {@link RemoteClient}'s ping thread is started.
+	 * <p>
+	 * Every connection resumes this client's session, so any tasks still on the stack from a lost connection carry on where they
+	 * left off.
 	 * 
 	 * @return true if we have valid connection objects, false if otherwise.
 	 */
@@ -172,17 +245,65 @@ public class RemoteClient {
 		
 		//if we have a real remote connection
 		if(conn != null){
+			//a new connection always starts out with text responses, and the remote device starts every task's credit over
+			protocolVersion = ARCProtocol.TEXT_VERSION;
+			credits.reset();
+			
+			//any stripes went with the old connection, so frames arrive in order again until new ones open
+			sequencer.setReorderWindow(0);
+			
+			//work out where every task left over from the last connection got up to, before anything new is on the stack
+			List<String> resumeArgs = resumeArguments();
+			
 			//assign a new data manager to the connection
 			dataManager = new ARCDataManager(conn, this);
 			//start the read thread
 			dataManager.read();
 			
-			//create the ping thread
-			Thread t = new Thread(new PingConnectionRunnable(this));
-			t.setName("Ping-Thread");
+			//ask for the newest response framing we can read, and compression for the data types that are worth it.
+			//Devices that don't know the command error it out, and we just keep using text
+			try {
+				sendTask(new ARCCommand(this, CommandHeader.NEGOTIATE_PROTOCOL, negotiateProtocolArguments()));
+			} catch (UnsupportedValueException e) {
+				logger.error(e.getMessage(), e);
+			}
+			
+			//only let the remote device send as much bulk data as we have room for, starting before any spooled frames come in.
+			//Devices that don't know the command just keep sending as fast as they can
+			try {
+				sendTask(new ARCCommand(this, CommandHeader.CREDIT, new ArrayList<String>()));
+			} catch (UnsupportedValueException e) {
+				logger.error(e.getMessage(), e);
+			}
 			
-			//start it
-			t.start();
+			//tell the remote device how big a piece it may cut bulk data into.  Devices that don't know the command just
+			//keep using their own bounds
+			try {
+				sendTask(new ARCCommand(this, CommandHeader.CHUNK_BOUNDS, chunkBoundsArguments()));
+			} catch (UnsupportedValueException e) {
+				logger.error(e.getMessage(), e);
+			}
+			
+			//have bulk data striped over extra sockets, if we want it and the link can do it.  Devices that don't know the command
+			//error it out, and everything stays on the one connection
+			List<String> stripeArgs = stripeArguments();
+			if(stripeArgs != null){
+				try {
+					sendTask(new ARCCommand(this, CommandHeader.STRIPE, stripeArgs));
+				} catch (UnsupportedValueException e) {
+					logger.error(e.getMessage(), e);
+				}
+			}
+			
+			//then carry on with the tasks left over, if there are any
+			try {
+				sendTask(new ARCCommand(this, CommandHeader.RESUME, resumeArgs));
+			} catch (UnsupportedValueException e) {
+				logger.error(e.getMessage(), e);
+			}
+			
+			//start pinging, if this isn't a reconnect
+			startPing();
 			
 			//tell the user that this remote client has established a connection
 			logger.debug("Established Connection");
@@ -194,6 +315,100 @@ public class RemoteClient {
 		}
 	}
 	
+	/**
+	 * Get the arguments for the {@link CommandHeader#NEGOTIATE_PROTOCOL} command sent on connecting: the newest
+	 * {@link ARCProtocol} version this controller can read, followed by each data type in {@link Controller#compressTypes}.
+	 * 
+	 * @return the argument list
+	 */
+	private List<String> negotiateProtocolArguments(){
+		List<String> args = new ArrayList<String>();
+		args.add(String.valueOf(ARCProtocol.NEWEST_VERSION));
+		
+		for(String type : cntrl.compressTypes.split(",")){
+			if(!type.trim().equals("")){
+				args.add(type.trim());
+			}
+		}
+		
+		return args;
+	}
+	
+	/**
+	 * Get the arguments for the {@link CommandHeader#CHUNK_BOUNDS} command sent on connecting: {@link Controller#chunkMin}, then
+	 * {@link Controller#chunkMax}.
+	 * 
+	 * @return the argument list
+	 */
+	private List<String> chunkBoundsArguments(){
+		List<String> args = new ArrayList<String>();
+		args.add(String.valueOf(cntrl.chunkMin));
+		args.add(String.valueOf(cntrl.chunkMax));
+		return args;
+	}
+	
+	/**
+	 * Get the arguments for the {@link CommandHeader#STRIPE} command sent on connecting: {@link Controller#wifiStripes}, then the
+	 * port and token the connection's link handed out for the stripes.
+	 * 
+	 * @return the argument list, or null if no stripes are wanted, or the connection can't have them
+	 */
+	private List<String> stripeArguments(){
+		if(cntrl.wifiStripes <= 0 || !(conn instanceof StripedConnection)){
+			return null;
+		}
+		
+		int[] portAndToken = ((StripedConnection) conn).expectStripes(new StripeReader());
+		if(portAndToken == null){
+			return null;
+		}
+		
+		List<String> args = new ArrayList<String>();
+		args.add(String.valueOf(Math.min(cntrl.wifiStripes, ARCCommand.MAX_STRIPES)));
+		args.add(String.valueOf(portAndToken[0]));
+		args.add(String.valueOf(portAndToken[1]));
+		return args;
+	}
+	
+	/**
+	 * Get the arguments for the {@link CommandHeader#RESUME} command sent on connecting: this client's {@link #sessionID}, then
+	 * each task on the stack along with the sequence number its {@link StreamSequencer} stream is waiting on.
+	 * <p>
+	 * Tasks that only meant anything to the old connection (negotiating the protocol, asking for frames again, or resuming) are
+	 * taken off the stack instead, and so are tasks whose streams have already been given up on.  Tasks that never got written
+	 * are left out, since they are about to be sent again.
+	 * 
+	 * @return the argument list
+	 */
+	private List<String> resumeArguments(){
+		List<String> args = new ArrayList<String>();
+		args.add(String.valueOf(sessionID));
+		
+		for(Task t : deviceTasks.currentTasks()){
+			CommandHeader header = t.getCommand().getHeader();
+			
+			if(header == CommandHeader.NEGOTIATE_PROTOCOL || header == CommandHeader.RETRANSMIT || header == CommandHeader.RESUME){
+				retransmits.remove(t.getId());
+				resumes.remove(t.getId());
+				endTask(t.getId(), TaskResult.Outcome.ABANDONED, null);
+				continue;
+			}
+			
+			//the remote device never got it, it is sent again instead
+			if(unwritten.contains(t.getId())){
+				continue;
+			}
+			
+			int position = sequencer.resumeFrom(t.getId());
+			if(position >= 0){
+				args.add(String.valueOf(t.getId()));
+				args.add(String.valueOf(position));
+			}
+		}
+		
+		return args;
+	}
+	
 	/**
 	 * Send a task through the {@link RemoteClient#conn}.
 	 * <p>
@@ -201,10 +416,24 @@ public class RemoteClient {
 	 * needs to do before sending the task (ie: removing {@link Task}s from the {@link TaskStack} before sending kill commands)
 	 * <p>
 	 * @param command the command to create a new {@link Task} for.
+	 * @return the future finished when the task ends, whether the remote device finishes it, it is killed, or it can't be sent
 	 * @throws UnsupportedValueException thrown if the {@link ARCCommand} provided attempts to use any sensors that are not in
 	 * this {@link RemoteClient}'s {@link Capabilities}
 	 */
-	public void sendTask(ARCCommand command) throws UnsupportedValueException{
+	public TaskFuture sendTask(ARCCommand command) throws UnsupportedValueException{
+		return sendTask(command, new TaskFuture());
+	}
+	
+	/**
+	 * Send a task through the {@link RemoteClient#conn}, finishing an existing {@link TaskFuture} when it ends.
+	 * <p>
+	 * @param command the command to create a new {@link Task} for.
+	 * @param completion the future to finish when the task ends
+	 * @return completion
+	 * @throws UnsupportedValueException thrown if the {@link ARCCommand} provided attempts to use any sensors that are not in
+	 * this {@link RemoteClient}'s {@link Capabilities}
+	 */
+	private TaskFuture sendTask(ARCCommand command, TaskFuture completion) throws UnsupportedValueException{
 		CommandHeader commandHeader = command.getHeader();
 		
 		//create a task to go with this command
@@ -213,20 +442,47 @@ public class RemoteClient {
 		//if the task in question requires us to do something, do it here
 		switch(commandHeader){
 		case DO_NOTHING:
+		case CREDIT:
+		case CHUNK_BOUNDS:
+		case STRIPE:
 			//create the task
-			newTask = deviceTasks.createTask(command);
+			newTask = deviceTasks.createTask(command, completion);
 			
-			//the ping task never generates a response, and as such, needs to be removed from the stack
-			//also, ping tasks never have pending data, so they can be removed without checking
-			//the pending data map
-			this.deviceTasks.removeTask(newTask.getId());
+			//the ping, credit, chunk bounds and stripe tasks never generate a response, and as such, need to be removed from the stack
+			//also, they never have pending data, so they can be removed right away
+			endTask(newTask.getId(), TaskResult.Outcome.COMPLETED, null);
 			break;
 		case KILL_TASK:
 			//create the task
-			newTask = deviceTasks.createTask(command);
+			newTask = deviceTasks.createTask(command, completion);
+			
+			//end the task the kill task is stopping, once anything already in for it has been dealt with
+			final int killed = Integer.parseInt(command.getArguments().get(ARCCommand.KILL_TASK_INDEX));
+			responses.dispatch(killed, new Runnable(){
+				@Override
+				public void run() {
+					finishTask(killed, TaskResult.Outcome.KILLED, null);
+				}
+			});
+			break;
+		case RETRANSMIT:
+			//create the task
+			newTask = deviceTasks.createTask(command, completion);
+			
+			//remember which task's frames it asked for, in case the remote device doesn't have them anymore
+			retransmits.put(newTask.getId(), Integer.parseInt(command.getArguments().get(ARCCommand.RETRANSMIT_TASK_INDEX)));
+			break;
+		case RESUME:
+			//create the task
+			newTask = deviceTasks.createTask(command, completion);
 			
-			//remove the task the kill task is stopping from the stack (waiting until it is no longer pending)
-			removePendingTask(Integer.parseInt(command.getArguments().get(ARCCommand.KILL_TASK_INDEX)));
+			//remember which tasks it asked to carry on, in case the remote device can't
+			List<Integer> resumed = new ArrayList<Integer>();
+			List<String> resumeArgs = command.getArguments();
+			for(int i = ARCCommand.RESUME_TASKS_START_INDEX; i < resumeArgs.size(); i += 2){
+				resumed.add(Integer.parseInt(resumeArgs.get(i)));
+			}
+			resumes.put(newTask.getId(), resumed);
 			break;
 		case MODIFY_SENSOR:
 			//one final check to make sure the sensor to modify is in the capabilities map for this remote client
@@ -239,7 +495,7 @@ public class RemoteClient {
 			}
 			
 			//create the task
-			newTask = deviceTasks.createTask(command);
+			newTask = deviceTasks.createTask(command, completion);
 			break;
 		case TAKE_PICTURE:
 			//check to make sure the camera is supported for this remote client
@@ -249,7 +505,7 @@ public class RemoteClient {
 			}
 			
 			//create the task
-			newTask = deviceTasks.createTask(command);
+			newTask = deviceTasks.createTask(command, completion);
 			break;
 		case RECORD_AUDIO:
 			//check to make sure the microphone is supported for this remote client
@@ -259,7 +515,7 @@ public class RemoteClient {
 			}
 			
 			//create the task
-			newTask = deviceTasks.createTask(command);
+			newTask = deviceTasks.createTask(command, completion);
 			break;
 		case GET_LOCATION:
 			//check to make sure the location sensor is supported for this remote client
@@ -269,7 +525,7 @@ public class RemoteClient {
 			}
 			
 			//create the task
-			newTask = deviceTasks.createTask(command);
+			newTask = deviceTasks.createTask(command, completion);
 			break;
 		case LISTEN_ENVIRONMENT:
 			//check to make sure the environment sensor is supported for this remote client
@@ -279,33 +535,59 @@ public class RemoteClient {
 			}
 			
 			//create the task
-			newTask = deviceTasks.createTask(command);
+			newTask = deviceTasks.createTask(command, completion);
 			break;
 		default:
 			
 			//create the task
-			newTask = deviceTasks.createTask(command);
+			newTask = deviceTasks.createTask(command, completion);
 			break;
 		}
 		
-		//if we have a valid data manager
-		if(dataManager != null){
-			//send the task off
-			dataManager.write(newTask);
-			
-			//if the task is not a ping task...
-			if(newTask.getCommand().getHeader() != CommandHeader.DO_NOTHING){
+		//ping tasks, asking for lost frames, resuming the session, giving credit, setting chunk bounds and opening stripes all happen
+		//without the user asking
+		boolean quiet = commandHeader == CommandHeader.DO_NOTHING || commandHeader == CommandHeader.RETRANSMIT
+				|| commandHeader == CommandHeader.RESUME || commandHeader == CommandHeader.CREDIT
+				|| commandHeader == CommandHeader.CHUNK_BOUNDS || commandHeader == CommandHeader.STRIPE;
+		
+		//a task that is waiting on an answer gets a deadline, before it can be answered
+		if(deviceTasks.getTask(newTask.getId()) == newTask){
+			deadlines.arm(newTask);
+		}
+		
+		//while the connection is being brought back, the task waits for it rather than failing
+		boolean held;
+		try {
+			held = supervisor.hold(newTask);
+		} catch (IllegalStateException e) {
+			logger.error(e.getMessage());
+			held = false;
+		}
+		
+		if(held){
+			if(!quiet){
+				report("Task " + newTask.getId() + " will be sent once the connection is reestablished.");
+			}
+		//if we have a valid data manager, queue the task to be sent off.  This never waits on the connection
+		}else if(dataManager != null && dataManager.write(newTask)){
+			if(!quiet){
 				//tell the user that we have created a new task
 				report("Sent New Task: " + newTask.getId());
 			}
 		}else{
 			//otherwise, report that the connection might be dead maybe
-			report("Task " + newTask.getId() + " not sent, connection may be down.");
-			logger.error("Task " + newTask.getId() + " not sent, Data Manager was null.");
+			if(!quiet){
+				report("Task " + newTask.getId() + " not sent, connection may be down.");
+			}
+			logger.error("Task " + newTask.getId() + " not sent, the Data Manager didn't take it.");
 			
 			//remove the task from the task stack, as it never got sent
-			this.deviceTasks.removeTask(newTask.getId());
+			retransmits.remove(newTask.getId());
+			resumes.remove(newTask.getId());
+			endTask(newTask.getId(), TaskResult.Outcome.NOT_SENT, null);
 		}
+		
+		return completion;
 	}
 
 	/**
@@ -376,6 +658,332 @@ public class RemoteClient {
 		
 	}
 
+	/**
+	 * Hand a parsed response off to be acted on.
+	 * <p>
+	 * The response's {@link ResponseAction} is performed after every action already waiting for the same task, on a
+	 * {@link ResponseDispatcher} thread, so this never blocks the parser.
+	 * <p>
+	 * @param response the response the parser read
+	 */
+	public void dispatchResponse(RemoteClientResponse response){
+		deadlines.heard(response.taskID);
+		
+		//the parser moves on to the task's next segment now, not once the response has been acted on
+		if(response.endsSegment()){
+			Task t = deviceTasks.getTask(response.taskID);
+			if(t != null){
+				t.endSegment();
+			}
+		}
+		
+		responses.dispatch(response.taskID, new ResponseAction(response, this));
+	}
+	
+	/**
+	 * Hand a parsed response from a checked frame off to be acted on, once every frame before it for the same task has been.
+	 * <p>
+	 * @param response the response the parser read
+	 * @param sequence the sequence number of the frame it was read from
+	 * @see StreamSequencer
+	 */
+	public void dispatchResponse(RemoteClientResponse response, int sequence){
+		deadlines.heard(response.taskID);
+		sequencer.accept(response, sequence);
+	}
+	
+	/**
+	 * Called when the parser reads a checked frame whose data doesn't match its CRC.  Only that frame (and any before it that never
+	 * showed up) is asked for again, everything else already received for the task is kept.
+	 * <p>
+	 * @param taskID the task ID the frame said it was for
+	 * @param sequence the sequence number the frame said it had
+	 */
+	public void respondCorruptFrame(int taskID, int sequence){
+		sequencer.corrupt(taskID, sequence);
+	}
+	
+	/**
+	 * Called when the parser reads a checked frame that arrived intact but can't be made sense of.  Sending it again would only
+	 * give the same frame, so the whole task is sent again instead.
+	 * <p>
+	 * @param taskID the task ID the frame was for
+	 */
+	public void respondUnreadableFrame(int taskID){
+		sequencer.abandon(taskID);
+	}
+	
+	/**
+	 * Asks the remote device to send a run of a task's frames again.  If the command can't be sent, the whole task is sent again
+	 * instead.
+	 * <p>
+	 * @param taskID the task the frames were sent for
+	 * @param first the first sequence number to send again
+	 * @param last the last sequence number to send again
+	 */
+	void requestRetransmit(int taskID, int first, int last){
+		List<String> args = new ArrayList<String>();
+		args.add(String.valueOf(taskID));
+		args.add(String.valueOf(first));
+		args.add(String.valueOf(last));
+		
+		try {
+			sendTask(new ARCCommand(this, CommandHeader.RETRANSMIT, args));
+		} catch (UnsupportedValueException e) {
+			logger.error(e.getMessage(), e);
+			sequencer.abandon(taskID);
+		}
+	}
+	
+	/**
+	 * Called once a response is done with, whether its action was performed or it was thrown out, so its frame can be given back
+	 * to the remote device as credit.
+	 * <p>
+	 * @param response the response that is done with
+	 * @see CreditWindow
+	 */
+	void releaseCredit(RemoteClientResponse response){
+		credits.release(response);
+	}
+	
+	/**
+	 * Gives a task's frame bytes back to the remote device, so it can send that much more bulk data for the task.
+	 * <p>
+	 * @param taskID the task to give credit to
+	 * @param bytes the number of frame bytes to give back
+	 */
+	void grantCredit(int taskID, int bytes){
+		//a new connection starts the credit over anyway
+		if(dataManager == null){
+			return;
+		}
+		
+		List<String> args = new ArrayList<String>();
+		args.add(String.valueOf(taskID));
+		args.add(String.valueOf(bytes));
+		
+		try {
+			sendTask(new ARCCommand(this, CommandHeader.CREDIT, args));
+		} catch (UnsupportedValueException e) {
+			logger.error(e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Called when the remote device answers a task.  If the task was a {@link CommandHeader#RETRANSMIT} that the remote device 
+	 * couldn't do, because the frames asked for are gone, the task they belonged to is given up on and sent again whole.
+	 * <p>
+	 * @param taskID the task that was answered
+	 * @param errored true if the remote device said the task errored out
+	 * @return true if the task was a {@link CommandHeader#RETRANSMIT}, false otherwise
+	 */
+	public boolean retransmitFinished(int taskID, boolean errored){
+		Integer lostTask = retransmits.remove(taskID);
+		
+		if(lostTask == null){
+			return false;
+		}
+		
+		if(errored){
+			logger.error("Remote device no longer has the frames task " + taskID + " asked for.");
+			sequencer.abandon(lostTask);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Called when the remote device answers a task.  If the task was a {@link CommandHeader#RESUME}, every task it asked to carry on
+	 * that the remote device couldn't is given up on and sent again whole.  The remote device lists the ones it couldn't carry on
+	 * in its answer; if the answer doesn't list any (a device that doesn't know the command), none of them carried on.
+	 * <p>
+	 * @param taskID the task that was answered
+	 * @param errored true if the remote device said the task errored out
+	 * @param otherArgs the rest of the answer, after the notification itself
+	 * @return true if the task was a {@link CommandHeader#RESUME}, false otherwise
+	 */
+	public boolean resumeFinished(int taskID, boolean errored, List<String> otherArgs){
+		List<Integer> resumed = resumes.remove(taskID);
+		
+		if(resumed == null){
+			return false;
+		}
+		
+		List<Integer> lost = new ArrayList<Integer>();
+		
+		if(errored){
+			//pick the task IDs out of the answer
+			for(int i = 1; i < otherArgs.size(); i++){
+				for(String word : otherArgs.get(i).trim().split("\\s+")){
+					try{
+						Integer lostTask = Integer.valueOf(word);
+						if(resumed.contains(lostTask)){
+							lost.add(lostTask);
+						}
+					}catch(NumberFormatException e){
+						//not a task ID, so not a list of them
+					}
+				}
+			}
+			
+			if(lost.isEmpty()){
+				lost.addAll(resumed);
+			}
+		}
+		
+		if(resumed.size() > lost.size()){
+			report((resumed.size() - lost.size()) + " tasks carried on where they left off.");
+		}
+		
+		for(Integer lostTask : lost){
+			sequencer.abandon(lostTask);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * @param taskID a task ID
+	 * @return true if the task is on this client's {@link TaskStack}, false otherwise
+	 */
+	public boolean hasTask(int taskID){
+		return deviceTasks.hasTask(taskID);
+	}
+	
+	/**
+	 * Check if sensor data goes to disk as it comes in, rather than being held in memory until its file is saved.  Only image and
+	 * audio data at least {@link Controller#streamThreshold} bytes long does.
+	 * <p>
+	 * @param dataType the data type, one of the {@link RemoteClientResponse} data type constants
+	 * @param size the number of bytes of it
+	 * @return true if that much data of that type should be written to disk
+	 */
+	boolean writesToDisk(int dataType, long size){
+		return size >= cntrl.streamThreshold && 
+				(dataType == RemoteClientResponse.DATA_TYPE_IMAGE || dataType == RemoteClientResponse.DATA_TYPE_AUDIO);
+	}
+	
+	/**
+	 * Get somewhere to write a large block of sensor data straight to disk as the parser reads it, instead of holding the whole
+	 * block in memory.
+	 * <p>
+	 * Only image and audio data blocks at least {@link Controller#streamThreshold} bytes long are written straight to disk; 
+	 * anything else is left to the normal in-memory {@link RemoteClientResponse} path.
+	 * <p>
+	 * @param taskID the task the data block belongs to
+	 * @param dataType the data type of the block, one of the {@link RemoteClientResponse} data type constants
+	 * @param size the number of bytes in the block
+	 * @return a {@link FileSink} to write the data block to, or null if the block should be handled in memory
+	 */
+	public FileSink openDataSink(int taskID, int dataType, int size){
+		//small blocks, and blocks that aren't files, stay in memory
+		if(!writesToDisk(dataType, size)){
+			return null;
+		}
+		
+		//get the task the data belongs to
+		Task t = deviceTasks.getTask(taskID);
+		
+		//if there is no task, let the normal path deal with the data
+		if(t == null){
+			return null;
+		}
+		
+		try {
+			return t.openSink(getFileType(dataType));
+		} catch (IOException e) {
+			//couldn't get a file, so fall back to memory
+			logger.error(e.getMessage(), e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Get the file extension to save a kind of sensor data with.
+	 * <p>
+	 * Checks this {@link RemoteClient}'s {@link RemoteClient#currentSensorValues} to see if a file type has been set for the sensor
+	 * the data came from, and if not, uses a default for that kind of data.
+	 * <p>
+	 * @param dataType the data type, one of the {@link RemoteClientResponse} data type constants
+	 * @return the file extension to use, "raw" if nothing better could be found
+	 */
+	String getFileType(int dataType){
+		//inital filetype.  This is, essentally, what to use if we couldn't glean a file type from the capabilities object
+		// and didn't have a default for that sensor
+		String fileType;
+		
+		//depending on the argument type...
+		switch(dataType){
+		//if the argument type was image data...
+		case (RemoteClientResponse.DATA_TYPE_IMAGE):
+			//attempt to get a file type associated with the camera, or use a jpeg
+			fileType = getSensorFileType(Sensor.CAMERA, "picture-format", "jpg");
+			break;
+		//if the argument type was audio data...
+		case (RemoteClientResponse.DATA_TYPE_AUDIO):
+			//attempt to get a file type associated with the microphone, or use a wav
+			fileType = getSensorFileType(Sensor.MICROPHONE, "audio-output-format", "wav");
+			break;
+		//if the argument type was environment data...
+		case (RemoteClientResponse.DATA_TYPE_ENVIRONMENT):
+			//attempt to get a file type associated with the environment, or use a txt
+			fileType = getSensorFileType(Sensor.ENVIRONMENT, "", "txt");
+			break;
+		//if the argument type was location data...
+		case (RemoteClientResponse.DATA_TYPE_LOCATION):
+			//attempt to get a file type associated with the location, or use a txt
+			fileType = getSensorFileType(Sensor.LOCATION, "", "txt");
+			break;
+		//if the argument type was a packed location track, it is saved as comma separated values
+		case (RemoteClientResponse.DATA_TYPE_LOCATION_TRACK):
+			fileType = "csv";
+			break;
+		//otherwise
+		default:
+			//just use "raw" and let and end user figure it out
+			fileType = "raw"; 
+			break;
+		}
+		
+		//if we encountered some sort of error geting the file type...
+		if(fileType == null){
+			fileType = "raw";
+		}
+		
+		return fileType;
+	}
+	
+	/**
+	 * Private internal helper method to get a file type associated with a sensor, through this {@link RemoteClient}'s 
+	 * {@link RemoteClient#currentSensorValues} for that sensor.
+	 * 
+	 * @param sensor the sensor to check the {@link RemoteClient#currentSensorValues} of
+	 * @param fileTypeKey the key to look for in the {@link RemoteClient#currentSensorValues}
+	 * @param defaultType the file type to use if the sensor doesn't have a value for the key
+	 * @return either the value stored at fileTypeKey of the {@link RemoteClient#currentSensorValues},
+	 * 			the provided default,
+	 * 			or null if the sensor could not be found
+	 */
+	private String getSensorFileType(Sensor sensor, String fileTypeKey, String defaultType){
+		//if the current value map has values for the data type...
+		if(currentSensorValues.containsKey(sensor)){
+			//if the sensor in the current values map has a value for the key...
+			if(currentSensorValues.get(sensor).containsKey(fileTypeKey)){
+				//use the file type specified in the sensor's current values map
+				return currentSensorValues.get(sensor).get(fileTypeKey);
+			}else{
+				//otherwise use a default
+				logger.debug(fileTypeKey + " not found in " + sensor.getAlias());
+				logger.debug("Using default");
+				return defaultType;
+			}
+		}else{
+			//otherwise, log an error, as we don't have a sensor registered, how are we getting data from that sensor?
+			logger.error(sensor.getAlias() + " has not been found for this device.");
+			return null;
+		}	
+	}
+	
 	/**
 	 * Send a message to the end user.
 	 * <p>
@@ -397,72 +1005,124 @@ public class RemoteClient {
 	
 	
 	/**
-	 * Removes a {@link Task} from this {@link RemoteClient}'s {@link TaskStack} at {@link RemoteClient#deviceTasks}.
+	 * Ends a {@link Task}: removes it from this {@link RemoteClient}'s {@link TaskStack} at {@link RemoteClient#deviceTasks}, saving
+	 * any data it was holding on to, and finishes its {@link TaskFuture}.  The user is told what tasks are left.
 	 * <p>
-	 * If a {@link Task} is in this {@link RemoteClient}'s {@link RemoteClient#pendingTaskMap}, then we don't want to remove it from
-	 * the {@link TaskStack} yet, and instead the client waits until the task is no longer pending to remove it.
+	 * This has to run on the task's stream in the {@link ResponseDispatcher}, as the task complete notifications do, or be queued
+	 * there, as kills are, so that everything that came in for the task before it ends has already been dealt with.  There is nothing
+	 * to wait for after that, so the task is removed right away.
 	 * <p>
-	 * To ensure that the wait doesn't cause the program to slow down, it's per
+	 * @param taskID the task that we want to end
+	 * @param outcome how it ended
+	 * @param message anything the remote device said about it, or null
+	 */
+	public void finishTask(int taskID, TaskResult.Outcome outcome, String message){
+		if(!endTask(taskID, outcome, message)){
+			//we've attempted to remove a task that's already been removed.  That happens when a task runs out of time and is killed,
+			//or is killed as it finishes, so don't tell the user
+			logger.debug("Attempted to end task " + taskID + ", which was not on the stack.");
+			return;
+		}
+		
+		//inform the user what tasks are left on the task stack
+		StringBuilder sb = new StringBuilder();
+		sb.append("Removed task ").append(taskID).append(" from ").append(this).append(" task stack.\n");
+		sb.append("Sent Tasks: \n");
+		
+		if(deviceTasks.tasksRemaining()){
+			sb.append(deviceTasks.logStackState());
+		}else{
+			sb.append("none");
+		}
+		
+		report(sb.toString());
+	}
+	
+	/**
+	 * Takes a {@link Task} off the stack and finishes its {@link TaskFuture}, without telling the user
 	 * <p>
-	 * formed in a separate thread.
+	 * @param taskID the task that we want to end
+	 * @param outcome how it ended
+	 * @param message anything the remote device said about it, or null
+	 * @return true if the task was on the stack, false if it had already ended
+	 */
+	private boolean endTask(int taskID, TaskResult.Outcome outcome, String message){
+		Task removed = deviceTasks.removeTask(taskID);
+		if(removed == null){
+			return false;
+		}
+		
+		//nothing more is coming for it, so whatever credit it was still owed goes with it
+		credits.forget(taskID);
+		
+		TaskResult result = new TaskResult(taskID, outcome, message);
+		deadlines.ended(removed, result);
+		removed.getCompletion().complete(result);
+		return true;
+	}
+	
+	/**
+	 * Ends a {@link Task} that has run out of time (see {@link TaskDeadlines}), saving whatever data it got.  If it was using a sensor,
+	 * the remote device is told to stop, in case it is still going.  Asking for lost frames, or resuming the session, count as
+	 * having failed.
 	 * <p>
-	 * @param taskID the task that we want to remove from the task stack
+	 * Run on the task's stream in the {@link ResponseDispatcher}, so anything that came in for it before it ran out of time is
+	 * dealt with first.
+	 * <p>
+	 * @param taskID the task that ran out of time
 	 */
-	public void removePendingTask(int taskID){
-		//get the task in question from the task stack
-		Task referencedTask = deviceTasks.getTask(taskID);
+	void expireTask(int taskID){
+		Task t = deviceTasks.getTask(taskID);
+		if(t == null){
+			return;
+		}
 		
-		//if we have a valid task...
-		if(referencedTask != null){
-			//report to the user that the program intends to remove a task.
-			report("Removing task " + taskID + " from " + this + " task stack.");
-			
-			//create and start the remove task thread
-			Thread t = new Thread(new RemovePendingTaskRunnable(referencedTask));
-			t.setName("Remove-Task-Thread");
-			t.start();
-
-		}else{
-			//if we never got a valid task from the stack, we've attempted to remove a task that's already been removed.
-			//log the error, but do not report it to the user, as it doesn't always indicate that the program has failed
-			logger.error("Arrempted to remove a task with a reference to a task that was not on the stack.");
-		}
-	}
-	
-	/**
-	 * Attempts to reconnect to a remote device if we've lost the connection.
-	 * <p>
-	 * Tries {@link RemoteClient#RECONNECT_ATTEMPTS} times, waiting five seconds between each attempt.  If a valid connection can not
-	 * be established in that time, the connection is considered dead and this {@link RemoteClient} is removed as a valid client to
-	 * connect and send commands to.
-	 * <p>
-	 * @return true if the connection could be reestablished, false if otherwise
-	 */
-	public boolean reconnect() {
-		//if we weren't supposed to die...
-		if(!die){
-			//start attempting to reconnect
-			for(int i = 0; i < RECONNECT_ATTEMPTS; i++){
-				//if we could reconnect...
-				if(this.connectToDevice()){
-					//tell the user that we've reconnected
-					report("connection reestablished");
-					//tell the program that we've reconnected
-					return true;
-				//otherwise...
-				}else{
-					//wait 5 seconds before trying again.
-					try {
-						Thread.sleep(5000);
-					} catch (InterruptedException e) {
-						logger.error(e.getMessage(), e);
-					}
+		switch(t.getCommand().getHeader()){
+		case TAKE_PICTURE:
+		case RECORD_AUDIO:
+		case LISTEN_ENVIRONMENT:
+		case GET_LOCATION:
+			//the kill ends the task too, but only once it is this task's turn again, after this
+			if(!die){
+				try {
+					sendTask(new ARCCommand(this, CommandHeader.KILL_TASK, new ArrayList<String>(Collections.singletonList(String.valueOf(taskID)))));
+				} catch (UnsupportedValueException e) {
+					logger.error("Couldn't stop task " + taskID + " on " + this + ": " + e.getMessage());
 				}
 			}
+			break;
+		default:
+			retransmitFinished(taskID, true);
+			resumeFinished(taskID, true, Collections.<String>emptyList());
+			break;
+		}
+		
+		report("Task " + taskID + " timed out, nothing was heard back for it in time.");
+		finishTask(taskID, TaskResult.Outcome.TIMED_OUT, "Nothing was heard back in time.");
+	}
+	
+	/**
+	 * Called by the {@link ARCDataManager}'s write thread when a write fails.  The connection is brought back by the
+	 * {@link ReconnectSupervisor}, in the background, and once it is back every task that didn't get written, and is still on the
+	 * stack, is sent again, along with any sent in the meantime.  If the connection can't be brought back, this client is shut down.
+	 * <p>
+	 * A connection lost while one is already being brought back is left to it.
+	 * <p>
+	 * @param unsent the tasks that were waiting to be written, in the order they were queued
+	 */
+	public void connectionLost(List<Task> unsent){
+		if(die){
+			return;
 		}
 		
-		//if we never reconnected, tell the program that we were unable to reconnect.
-		return false;
+		supervisor.connectionLost(unsent);
+	}
+	
+	/**
+	 * @return what brings this client's connection back when it is lost, for listening to its changes of state
+	 */
+	public ReconnectSupervisor getSupervisor(){
+		return supervisor;
 	}
 	
 	/**
@@ -484,19 +1144,38 @@ public class RemoteClient {
 		//mark this client for death, so QoS pings stop and no attempts are made to reconnect with this device
 		die = true;
 		
-		//remove any pending tasks from the task map, without waiting for them to finish
-		for(Task t : pendingTaskMap.keySet()){
-			pendingTaskMap.remove(t);
-		}
-		
-		//clear the task stack, making an attempt to save data in the tasks.
+		//clear the task stack, making an attempt to save data in the tasks, and letting anything waiting on them know
 		deviceTasks.clear();
 		
-		//close the remote connection
-		conn.close();
+		//close the remote connection, if the last attempt to make one got that far
+		if(conn != null){
+			conn.close();
+		}
+		
+		//give up on bringing the connection back, if it was being brought back
+		supervisor.close();
 		
 		//remove this device from the controller's devices list
 		cntrl.devices.remove(this);
+		
+		//stop everything still running for this client.  Done last, since this may be running on one of them
+		scope.close();
+	}
+	
+	/**
+	 * Starts sending a quality of service ping every {@link #PING_INTERVAL}, unless it has already been started.
+	 */
+	void startPing(){
+		if(pinging.compareAndSet(false, true)){
+			scope.schedule("Ping-Thread", new PingConnectionRunnable(this), PING_INTERVAL);
+		}
+	}
+	
+	/**
+	 * @return everything this {@link RemoteClient} has running
+	 */
+	public ClientScope getScope(){
+		return scope;
 	}
 
 	/**
@@ -507,6 +1186,9 @@ public class RemoteClient {
 	 * all data associated with that {@link Task} is cleared, and the {@link Task} is removed from the task stack.  The task is then
 	 * sent back over the connection to try again.
 	 * <p>
+	 * Failures in checked binary frames don't come through here; those frames are asked for again on their own by the 
+	 * {@link StreamSequencer}, and only if that doesn't work is the task sent again, through {@link #resendLostTask(int)}.
+	 * <p>
 	 * @param state the state of the parser when this method is called
 	 * @param taskID the taskID read by the parser, or null if no task ID was read
 	 */
@@ -533,6 +1215,20 @@ public class RemoteClient {
 			
 	}
 
+	/**
+	 * Gives up on the data received so far for a task whose lost frames could not be gotten back, and sends the whole task again.
+	 * <p>
+	 * @param taskID the ID of the task to resend
+	 */
+	void resendLostTask(int taskID){
+		report("Lost data for task " + taskID + " could not be recovered, sending it again.");
+		
+		//clear out any data associated with the task
+		clearTaskData(taskID);
+		//resend it
+		resendTask(taskID);
+	}
+
 	/**
 	 * This method is called when we want to resend a {@link Task} to the Remote Device.
 	 * <p>
@@ -560,13 +1256,18 @@ public class RemoteClient {
 		if(t != null){
 			//get the ARC Command 
 			ARCCommand command = t.getCommand();
-			//remove the task from the task stack
-			removePendingTask(t.getId());
+			//remove the task from the task stack, leaving its future for the new task to finish
+			if(deviceTasks.removeTask(t.getId()) == null){
+				//it ended while we were getting to it
+				return;
+			}
+			credits.forget(t.getId());
 			try {
 				//send the command over the link again
-				sendTask(command);
+				sendTask(command, t.getCompletion());
 			} catch (UnsupportedValueException e) {
 				report("Unable to resend task " + taskID + " after parsing error.");
+				t.getCompletion().complete(new TaskResult(taskID, TaskResult.Outcome.NOT_SENT, e.getMessage()));
 			}
 		}
 	}
@@ -588,75 +1289,6 @@ public class RemoteClient {
 		}			
 	}
 			
-	/**********************
-	 * INNER CLASS
-	 **********************/
-	/**
-	 * This runnable defines how a remove task thread should run.
-	 * <p>
-	 * The task that we want to remove is passed to the thread in this runnable's constructor.  The {@link Runnable#run()} method
-	 * defines what to do when {@link Thread#start()} is called.
-	 * 
-	 * @author Johnathan Pagnutti
-	 */
-	private class RemovePendingTaskRunnable implements Runnable{
-		/**
-		 * This is the {@link Task} that we want to remove from the outer remote client's {@link TaskStack}
-		 */
-		Task referencedTask;
-		
-		/**
-		 * Constructor!
-		 * 
-		 * @param referencedTask the task that this thread is going to remove
-		 */
-		public RemovePendingTaskRunnable(Task referencedTask) {
-			this.referencedTask = referencedTask;
-		}
-
-		/**
-		 * This method defines how a task is removed from the stack.
-		 * <p>
-		 * The pending task map is checked to see if it contains the taskID of the task we want to remove.  If it does, the thread
-		 * waits for 5 seconds before trying again.  If it doesn't, the task is removed from the task stack.
-		 */
-		@Override
-		public void run() {
-			//keep trying, using break statements to escape
-			while(true){
-				//if the pending task map contains a reference to the task...
-				if(pendingTaskMap.containsKey(referencedTask.getId())){
-					try{
-						//wait five seconds before checking again
-						Thread.sleep(5000);
-					} catch (InterruptedException e) {
-						logger.error(e.getMessage(), e);
-					}
-					continue;
-				//otherwise...
-				}else{
-					//remove the task from the task stack
-					deviceTasks.removeTask(referencedTask.getId());
-					
-					//inform the user what tasks are left on the task stack
-					StringBuilder sb = new StringBuilder();
-					sb.append("Sent Tasks: \n");
-			
-					if(deviceTasks.tasksRemaining()){
-						sb.append(deviceTasks.logStackState());
-					}else{
-						sb.append("none");
-					}
-					
-					report(sb.toString());
-					break;
-				}
-			}
-		}
-	}
-	
-	
-	
 	/**********************
 	 * INNER CLASS
 	 **********************/
@@ -688,30 +1320,49 @@ public class RemoteClient {
 		 /**
 		  * This method defines how a {@link RemoteClient} is pinged.
 		  * <p>
-		  * Every {@link RemoteClient#PING_INTERVAL}, a ping is sent over the connection to ensure that it is still active and alive.
-		  * The pings take the form of the {@link CommandHeader#DO_NOTHING} header, with no argument data passed.
+		  * Run every {@link RemoteClient#PING_INTERVAL} by the client's {@link ClientScope}, it sends a ping over the connection to
+		  * ensure that it is still active and alive.  The pings take the form of the {@link CommandHeader#DO_NOTHING} header, with no
+		  * argument data passed.
 		  */
 		@Override
 		public void run() {
-			//as long as a remote client has not been marked for death...
-			while(!die){
-				//wait the ping interval
+			//if the remote client isn't marked for death...
+			if(!die){
 				try {
-					Thread.sleep(PING_INTERVAL);
-				} catch (InterruptedException e) {
+					//send a ping
+					dev.sendTask(ARCCommand.fromString(dev, "ping"));
+				} catch (UnsupportedValueException e) {
 					logger.error(e.getMessage(), e);
 				}
-				
-				//if the remote client still isn't marked for death...
-				if(!die){
-					try {
-						//send a ping
-						dev.sendTask(ARCCommand.fromString(dev, "ping"));
-					} catch (UnsupportedValueException e) {
-						logger.error(e.getMessage(), e);
-					}
-				}
 			}
 		}
 	 }
+	 
+	/**
+	 * Reads the stripes the remote device opens for bulk data.  Each stripe gets a parser of its own, since each is a stream of
+	 * frames of its own, and every frame read goes through the same {@link StreamSequencer}, which puts them back in order.
+	 * 
+	 * @author Johnathan Pagnutti
+	 *
+	 */
+	private class StripeReader implements StripedConnection.StripeListener {
+		
+		@Override
+		public void stripeOpened(SelectedConnection stripe) {
+			//frames can overtake each other from here on
+			sequencer.setReorderWindow(StreamSequencer.STRIPE_REORDER_FRAMES);
+			
+			//stripes only ever carry binary frames
+			stripe.startReading(new ARCDataParser(RemoteClient.this, ARCProtocol.BINARY_VERSION));
+		}
+		
+		@Override
+		public void stripeClosed(SelectedConnection stripe) {
+			//frames lost with the stripe, the last ones especially, might never have anything arrive far enough past them to be
+			//asked for again.  Asking as soon as anything is missing sometimes asks for frames still on their way over the other
+			//stripes, which are dropped as repeats when they get here
+			sequencer.setReorderWindow(0);
+			sequencer.requestMissing();
+		}
+	}
 }
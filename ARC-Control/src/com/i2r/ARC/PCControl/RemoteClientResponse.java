@@ -3,8 +3,14 @@ package com.i2r.ARC.PCControl;
 import java.util.ArrayList;
 import java.util.List;
 
+import java.util.zip.DataFormatException;
+
 import org.apache.log4j.Logger;
 
+import com.i2r.ARC.PCControl.DataManager.EnvironmentRecordDecoder;
+import com.i2r.ARC.PCControl.DataManager.LocationTrackDecoder;
+import com.i2r.ARC.PCControl.data.LocationTrack;
+
 /**
  * This object packages a response from some remote device.
  * 
@@ -32,6 +38,11 @@ public class RemoteClientResponse {
 	public static final int DATA_TYPE_ENVIRONMENT = 13;
 	public static final int DATA_TYPE_LOCATION = 14;
 	
+	public static final int DATA_TYPE_PROTOCOL = 16;
+	
+	public static final int DATA_TYPE_ENVIRONMENT_RECORDS = 17;
+	public static final int DATA_TYPE_LOCATION_TRACK = 18;
+	
 	/**
 	 * This is the notify code that a task has been successfully completed.
 	 */
@@ -98,6 +109,11 @@ public class RemoteClientResponse {
 	 */
 	public static int LOCATION_ARGS = 7;
 	
+	/**
+	 * This is the action code to record the response framing a {@link RemoteClient} has agreed to use
+	 */
+	public static int PROTOCOL = 8;
+	
 	/**
 	 * The taskID.  This marks which task the response should be associated with.
 	 * This value should never be -1 when we actually want to process a response
@@ -130,6 +146,18 @@ public class RemoteClientResponse {
 	 */
 	byte[] dataBlock = null;
 	
+	/**
+	 * The number of bytes the binary frame this response came in took up, or 0 if it didn't come in a binary frame.  Once the
+	 * response has been acted on, frames of bulk data are given back to the remote device as credit.
+	 */
+	int frameLength = 0;
+	
+	/**
+	 * The location fixes in a {@link RemoteClientResponse#DATA_TYPE_LOCATION_TRACK} response, oldest first.  Null for every other
+	 * kind of response.
+	 */
+	List<LocationTrack.Fix> fixes = null;
+	
 	/**
 	 * This field encapsulates any other arguments we would want to send along with a response. It's default is a <code>List</code> of
 	 * action <code>String</code> with the single element of a blank string.
@@ -159,6 +187,43 @@ public class RemoteClientResponse {
 		interpet(data);
 	}
 
+	/**
+	 * Object constructor for a block of data that was not kept in memory, but written straight to a {@link Task}'s file as it was
+	 * read.  The response is a {@link RemoteClientResponse#STREAM} response with no {@link RemoteClientResponse#dataBlock}.
+	 * 
+	 * @param taskID the taskID to set
+	 * @param dataType the data type of the block that was written
+	 * @param writtenSize the number of bytes that were written
+	 */
+	public RemoteClientResponse(int taskID, int dataType, int writtenSize){
+		logger.debug("Creating a written out Response for task " + taskID);
+		
+		this.taskID = taskID;
+		this.argType = dataType;
+		this.action = STREAM;
+		this.dataBlockSize = writtenSize;
+	}
+	
+	/**
+	 * Set the number of bytes the binary frame this response came in took up
+	 * 
+	 * @param frameLength the length of the frame, from {@link com.i2r.ARC.PCControl.DataManager.ARCProtocol#frameLength}
+	 */
+	public void setFrameLength(int frameLength){
+		this.frameLength = frameLength;
+	}
+	
+	/**
+	 * Check if this response closes off its {@link Task}'s current {@link com.i2r.ARC.PCControl.data.DataSegment}, so that any data
+	 * after it belongs to the next one
+	 * 
+	 * @return true if the response saves a file or moves on to the next picture
+	 */
+	public boolean endsSegment(){
+		return action == SAVE_FILE || 
+				(action == NOTIFY && otherArgs != null && !otherArgs.isEmpty() && otherArgs.get(0).equals(NEXT_PICTURE));
+	}
+	
 	/**
 	 * Private method to interpet the data block sent to the response object.  Sets the appropriate fields as well.
 	 * @param data
@@ -253,6 +318,44 @@ public class RemoteClientResponse {
 			this.dataBlockSize = data.length;
 			this.dataBlock = data;
 			break;
+			
+		case (DATA_TYPE_ENVIRONMENT_RECORDS):
+			//unpack the records into the same text environment data comes in, and treat it just like that from here on
+			try {
+				byte[] text = EnvironmentRecordDecoder.decode(data);
+				
+				logger.debug("Environment Records unpacked.");
+				this.argType = DATA_TYPE_ENVIRONMENT;
+				this.action = STREAM;
+				this.dataBlockSize = text.length;
+				this.dataBlock = text;
+			} catch (DataFormatException e) {
+				logger.error("Could not unpack environment records for task " + taskID + ": " + e.getMessage(), e);
+			}
+			break;
+			
+		case (DATA_TYPE_LOCATION_TRACK):
+			//unpack the fixes, which are added to the task's track when the response is acted on
+			try {
+				this.fixes = LocationTrackDecoder.decode(data);
+				
+				logger.debug("Location Track of " + fixes.size() + " fixes unpacked.");
+				this.action = STREAM;
+				this.dataBlockSize = data.length;
+				this.dataBlock = data;
+			} catch (DataFormatException e) {
+				logger.error("Could not unpack location track for task " + taskID + ": " + e.getMessage(), e);
+			}
+			break;
+			
+		case (DATA_TYPE_PROTOCOL):
+			//the data is the version number the device has switched to
+			logger.debug("Protocol Response created.");
+			this.action = PROTOCOL;
+			
+			otherArgs = new ArrayList<String>(1);
+			this.otherArgs.add(new String(data).trim());
+			break;
 		default:
 			logger.error("This argument action is not supported: " + argType);
 		}
@@ -3,24 +3,28 @@
  */
 package com.i2r.ARC.PCControl;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 
 import com.i2r.ARC.PCControl.data.DataSegment;
+import com.i2r.ARC.PCControl.data.LocationTrack;
 
 /**
  * Object handles a {@link RemoteClientResponse} object and performs some action based on what fields in the {@link RemoteClientResponse} object have 
  * been filled.  {@link ResponseAction}s have references to the {@link RemoteClient} that started the task that returned a result we
  * need to respond to.
  * 
- * There are several actions we keep track of.  The first one is saving received data to some sort of file.  Saving a file is set to 
- * be its own thread created by the inner {@link SaveDataRunnable}, so that the system does not block on File I/O.
+ * There are several actions we keep track of.  The first one is saving received data to some sort of file.  Actions are performed
+ * on the {@link RemoteClient}'s {@link ResponseDispatcher}, so the parser does not block on File I/O, and the data for one task is
+ * always saved in the order it arrived.
  * 
  * The other main response is to populate the {@link Capabilities} map.
  * 
- * The {@link RemoteClient} performs {@link Task} removal, and the process for that is covered there.
+ * The {@link RemoteClient} performs {@link Task} removal, and the process for that is covered there.  Task complete and errored
+ * notifications end their task right away, since they are performed after everything else that came in for it.
  * @author Johnathan Pagnutti
  *
  */
@@ -38,12 +42,6 @@ public class ResponseAction {
 	 */
 	RemoteClientResponse response;
 	
-	/**
-	 * A {@link Task} that was referenced by the {@link RemoteClientResponse#taskID}.  Used here as a concrete reference to a particular task,
-	 * even if, during processing, that task is removed from the {@link TaskStack}
-	 */
-	Task referencedTask;
-	
 	/**
 	 * Constructor.
 	 * 
@@ -53,14 +51,6 @@ public class ResponseAction {
 	public ResponseAction(RemoteClientResponse dataResponse, RemoteClient dev) {
 		this.response = dataResponse;
 		this.dev = dev;
-		
-		logger.debug("Added: " + dataResponse.taskID + " to the pending task map.");
-		
-		//if this task is actually in the task stack (some notifications are not)...
-		if(dev.deviceTasks.hasTask(dataResponse.taskID)){
-			//then add it to the pending tasks map, as there might be some processing to perform
-			dev.pendingTaskMap.put(dev.deviceTasks.getTask(dataResponse.taskID), dataResponse);
-		}
 	}
 
 	/**
@@ -70,6 +60,18 @@ public class ResponseAction {
 	 * If the {@link RemoteClientResponse#action} is invalid, then don't do anything and log an error.
 	 */
 	public void performAction(){
+		try{
+			perform();
+		}finally{
+			//done with the response either way, so its frame can be given back as credit
+			dev.releaseCredit(response);
+		}
+	}
+	
+	/**
+	 * The body of {@link #performAction()}
+	 */
+	private void perform(){
 		//get ready for the longest if/then/else statement of all time
 		
 		//if the response action is to save a file
@@ -82,6 +84,18 @@ public class ResponseAction {
 			//append data associated with a response to the current data associated with a task
 			appendData();
 			
+		//if the response action is to remove a task that was asking for lost frames again, the user doesn't need to hear about it
+		}else if (response.action == RemoteClientResponse.REMOVE_TASK && dev.retransmitFinished(response.taskID,
+				response.otherArgs.get(0).equals(RemoteClientResponse.TASK_ERRORED_ARGUMENT))){
+			//remove the task associated with the response
+			removeTask();
+			
+		//if the response action is to remove a task that was resuming the session, the remote client reports what came of it
+		}else if (response.action == RemoteClientResponse.REMOVE_TASK && dev.resumeFinished(response.taskID,
+				response.otherArgs.get(0).equals(RemoteClientResponse.TASK_ERRORED_ARGUMENT), response.otherArgs)){
+			//remove the task associated with the response
+			removeTask();
+			
 		//if the response action is to remove a task
 		}else if (response.action == RemoteClientResponse.REMOVE_TASK){
 			StringBuilder sb = new StringBuilder();
@@ -178,17 +192,27 @@ public class ResponseAction {
 			//set up the location sensor with the data in response
 			setSensorArguments(Sensor.LOCATION, response);
 		
+		//if the response action is to record the framing the remote device agreed to...
+		}else if (response.action == RemoteClientResponse.PROTOCOL){
+			setProtocolVersion();
+		
 		//otherwise...
 		}else{
 			//log an error
 			logger.error("The action " + response.action + " is invalid.");
 		}
-		
-		//if the pending task map has a task with this response's ID...
-		if(dev.pendingTaskMap.containsKey(response.taskID)){
-			//remove it
-			logger.debug("Removed " + response.taskID + " from the pending tasks map.");
-			dev.pendingTaskMap.remove(response.taskID);
+	}
+	
+	/**
+	 * Record the response framing the remote device has agreed to use.  The parser has already switched over by the time this
+	 * runs, this just keeps the {@link RemoteClient} in step and lets the user know.
+	 */
+	private void setProtocolVersion(){
+		try{
+			dev.protocolVersion = Integer.parseInt(response.otherArgs.get(0));
+			dev.report("Using response protocol version " + dev.protocolVersion);
+		}catch(NumberFormatException e){
+			logger.error(response.otherArgs.get(0) + " is not a valid protocol version.");
 		}
 	}
 	
@@ -212,25 +236,73 @@ public class ResponseAction {
 	 * The action that removes a task from the stack.
 	 * 
 	 * This method is called when we get a {@link RemoteClientResponse} with a {@link RemoteClientResponse#action} of type {@link RemoteClientResponse#REMOVE_TASK}
-	 * If a task is pending (ie, this side of the connection is currently doing something with the task), the remove waits for the task
-	 * to no longer be pending, then removes it from the stack
+	 * This runs on the task's stream, after every response that came in for the task before it, so the task is done with on this side
+	 * of the connection and can be ended right away, finishing its {@link TaskFuture}.
 	 */
 	private void removeTask(){
-		//tell the remote client remove it from the stack
-		dev.removePendingTask(response.taskID);
+		String control = response.otherArgs.get(0);
+		
+		TaskResult.Outcome outcome;
+		if(control.equals(RemoteClientResponse.TASK_ERRORED_ARGUMENT)){
+			outcome = TaskResult.Outcome.ERRORED;
+		}else if(control.equals(RemoteClientResponse.UNSUPPORTED_SENSOR)){
+			outcome = TaskResult.Outcome.UNSUPPORTED_SENSOR;
+		}else{
+			outcome = TaskResult.Outcome.COMPLETED;
+		}
+		
+		//tell the remote client to end it
+		dev.finishTask(response.taskID, outcome, (response.otherArgs.size() > 1) ? response.otherArgs.get(1).trim() : null);
 	}
 	
 	/**
 	 * The action that saves data from a task
 	 * 
 	 * This method is called when we get a {@link RemoteClientResponse} with a {@link RemoteClientResponse#action} of type {@link RemoteClientResponse#STREAM}.
-	 * It is called to save data associated with the {@link RemoteClientResponse#taskID} of a {@link RemoteClientResponse}.  Starts the Save File thread, 
-	 * and does not block.
+	 * It is called to save data associated with the {@link RemoteClientResponse#taskID} of a {@link RemoteClientResponse}.  This already runs
+	 * on the task's stream in the {@link ResponseDispatcher}, so the save is done right here, in order with the rest of the task's data.
+	 * Large blocks that the parser has already written straight to disk have no data left to save.
 	 */ 
 	private void appendData(){
-		Thread t = new Thread(new SaveDataRunnable(response));
-		t.setName("Append-Data-Thread-" + t.getId());
-		t.start();
+		//if the parser already wrote the data straight to the task's file, there's nothing left to save
+		if(response.dataBlock == null){
+			logger.debug("Task " + response.taskID + " had " + response.dataBlockSize + " bytes written straight to disk.");
+			dev.report("Saved " + response.dataBlockSize + " bytes recived from the remote connection for task " + response.taskID + ".");
+			return;
+		}
+		
+		//packed location fixes go on the task's track, rather than straight into its file
+		if(response.fixes != null){
+			appendTrack();
+			return;
+		}
+		
+		new SaveDataRunnable(response).run();
+	}
+	
+	/**
+	 * The action that adds the fixes of a {@link RemoteClientResponse#DATA_TYPE_LOCATION_TRACK} response to its {@link Task}'s
+	 * {@link com.i2r.ARC.PCControl.data.LocationTrack}.  The fixes are also saved, as comma separated values, with a header line
+	 * before the first of them.
+	 */
+	private void appendTrack(){
+		Task ref = dev.deviceTasks.getTask(response.taskID);
+		
+		if(ref == null || ref.getTrack() == null){
+			logger.error("Got a location track for task " + response.taskID + ", which isn't a location task on the stack.");
+			return;
+		}
+		
+		boolean first = ref.getTrack().size() == 0;
+		ref.getTrack().addAll(response.fixes);
+		
+		String csv = LocationTrack.toCSV(response.fixes);
+		ref.saveChunk(dev.getFileType(response.argType), ((first) ? LocationTrack.CSV_HEADER + csv : csv).getBytes());
+		
+		if(!response.fixes.isEmpty()){
+			dev.report("Task " + response.taskID + " has " + ref.getTrack().size() + " fixes, newest at "
+					+ response.fixes.get(response.fixes.size() - 1) + ".");
+		}
 	}
 
 	/**
@@ -377,37 +449,6 @@ public class ResponseAction {
 			this.saveResponse = response;
 		}
 		
-		/**
-		 * Private internal helper method to get a file type associated with a sensor, through the {@link RemoteClient}'s 
-		 * {@link RemoteClient#currentSensorValues} for that sensor.
-		 * @param sensor the sensor to check the {@link RemoteClient#currentSensorValues} of
-		 * @param fileTypeKey the key to look for in the {@link RemoteClient#currentSensorValues}
-		 * @return either the value stored at fileTypeKey of the {@link RemoteClient#currentSensorValues},
-		 * 			the <code>String</code> "default",
-		 * 			or null if the sensor could not be found
-		 */
-		private String getFileType(Sensor sensor, String fileTypeKey){
-			//if the current value map has values for the data type...
-			if(dev.currentSensorValues.containsKey(sensor)){
-				//if the camera sensor in the current values map has a value for "picture-format"...
-				if(dev.currentSensorValues.get(sensor).containsKey(fileTypeKey)){
-					//use the file type specified in the camera's current values map
-					return dev.currentSensorValues.get(sensor).get(fileTypeKey);
-				}else{
-					//otherwise use a default
-					logger.debug(fileTypeKey + " not found in " + sensor.getAlias());
-					logger.debug("Using default");
-					return "default";
-				}
-			}else{
-				//otherwise, log an error, as we don't have a sensor registered, how are we getting data from that sensor?
-				logger.error(sensor.getAlias() + " has not been found for this device.");
-				//TODO: send some kind of error packet?
-				return null;
-			}	
-		}
-		
-		
 		/**
 		 * Run method!  
 		 * 
@@ -434,72 +475,25 @@ public class ResponseAction {
 			
 			dev.report("Saving data recived from the remote connection.");
 			
-			//inital filetype.  This is, essentally, what to use if we couldn't glean a file type from the capabilities object
-			// and didn't have a default for that sensor
-			String fileType = "raw";
+			logger.debug("Response Type: " + saveResponse.argType);
 			
+			//figure out what kind of file the data should be saved as
+			String fileType = dev.getFileType(saveResponse.argType);
 			
-			logger.debug("Response Type: " + response.argType);
+			//save the segment of data we got
+			ref.saveChunk(fileType, saveResponse.dataBlock);
 			
-			//depending on the argument type...
-			switch(response.argType){
-			//if the argument type was image data...
-			case (RemoteClientResponse.DATA_TYPE_IMAGE):
-				//attempt to get a file type associated with the camera...
-				fileType = getFileType(Sensor.CAMERA, "picture-format");
-				
-				//if none was found...
-				if(fileType.equals("default")){
-					//use a jpeg
-					fileType = "jpg";
-				}
-				break;
-			//if the argument type was audio data...
-			case (RemoteClientResponse.DATA_TYPE_AUDIO):
-				//attempt to get a file type associated with the microphone...
-				fileType = getFileType(Sensor.MICROPHONE, "audio-output-format");
-				//if none was found...
-				if(fileType.equals("default")){
-					//use a wav
-					fileType = "wav";
+			//checked frames are always read into memory, so once the pieces of a picture or recording have added up to as much as
+			//the parser would have written straight to disk, the rest of it goes to disk from here
+			if(dev.writesToDisk(saveResponse.argType, ref.getHeldBytes())){
+				try {
+					ref.spoolSegment();
+				} catch (IOException e) {
+					//it can still be saved from memory
+					logger.error(e.getMessage(), e);
 				}
-				break;
-			//if the argument type was environment data...
-			case (RemoteClientResponse.DATA_TYPE_ENVIRONMENT):
-				//attempt to get a file type associated with the environment...
-				fileType = getFileType(Sensor.ENVIRONMENT, "");
-				//if none was found...
-				if(fileType.equals("default")){
-					//use a txt
-					fileType = "txt";
-				}
-				break;
-			//if the argument type was location data...
-			case (RemoteClientResponse.DATA_TYPE_LOCATION):
-				//attempt to get a file type associated with the location...
-				fileType = getFileType(Sensor.LOCATION, "");
-				//if none was found...
-				if(fileType.equals("default")){
-					//use a txt
-					fileType = "txt";
-				}
-				break;
-			//otherwise
-			default:
-				//just use "raw" and let and end user figure it out
-				fileType = "raw"; 
-				break;
-			}
-			
-			//if we encountered some sort of error geting the file type...
-			if(fileType == null){
-				//TODO: man, I don't know what to do here.  Throw an error?  QQ?
-				fileType = "raw";
 			}
 			
-			//save the segment of data we got
-			ref.saveChunk(fileType, saveResponse.dataBlock);
-			
 			StringBuilder sb = new StringBuilder();
 			
 			//TODO: this clutters up the UI, so either find a better way to report this or just don't.
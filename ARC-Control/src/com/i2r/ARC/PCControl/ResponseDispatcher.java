@@ -0,0 +1,178 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.i2r.ARC.PCControl.DataManager.ARCDataParser;
+
+/**
+ * Hands parsed {@link ResponseAction}s off to be performed, keeping one reassembly context per stream.
+ * <p>
+ * A stream is every response with the same task ID.  Within a stream, actions are performed one at a time, in exactly the order
+ * the parser finished them, so the chunks of a picture are appended in order, and the task's next picture or task complete
+ * notification is only acted on after all of the data before it.  Different streams are performed at the same time, each as a
+ * pooled job on the client's {@link ClientScope} (see {@link ClientScope#executePooled(String, Runnable)}), so a kill or ping reply
+ * doesn't wait behind another task's data being written to disk, the parse thread never waits on any of it, and a stream starting up
+ * again doesn't cost a new thread.
+ * <p>
+ * A stream's context only exists while it has actions waiting; once it runs dry it is thrown away.  Once the scope is closed, a
+ * stream that is running stops after the action it is on, and anything dispatched after that is dropped.
+ *
+ * @author Johnathan Pagnutti
+ *
+ */
+public class ResponseDispatcher {
+
+	static final Logger logger = Logger.getLogger(ResponseDispatcher.class);
+
+	/**
+	 * Where the streams are performed
+	 */
+	private final ClientScope scope;
+
+	/**
+	 * The streams that have actions waiting, by task ID
+	 */
+	private final Map<Integer, StreamContext> streams = new HashMap<Integer, StreamContext>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param scope the scope of the client the responses are for, which streams are performed in
+	 */
+	public ResponseDispatcher(ClientScope scope){
+		this.scope = scope;
+	}
+
+	/**
+	 * Queues an action to be performed after every action already queued for its stream.
+	 * <p>
+	 * Called from the {@link ARCDataParser}'s parse thread.  Never blocks.
+	 *
+	 * @param streamID the task ID the action's response was for
+	 * @param action the action to perform
+	 */
+	public void dispatch(int streamID, final ResponseAction action){
+		dispatch(streamID, new Runnable(){
+			@Override
+			public void run() {
+				action.performAction();
+			}
+		});
+	}
+
+	/**
+	 * Queues a job to be run after every action already queued for a stream, for work on this side of the connection that has to
+	 * wait for a task's data to be done with, such as ending a task that has been killed.  Never blocks.
+	 *
+	 * @param streamID the task ID of the stream
+	 * @param job the job to run
+	 */
+	public void dispatch(int streamID, Runnable job){
+		StreamContext context;
+		boolean start = false;
+
+		synchronized(streams){
+			context = streams.get(streamID);
+
+			if(context == null){
+				context = new StreamContext(streamID);
+				streams.put(streamID, context);
+				start = true;
+			}
+
+			context.actions.addLast(job);
+		}
+
+		//a new context needs a job, an existing one already has one draining it
+		if(start && !scope.executePooled("Response-Thread", context)){
+			//the client has been shut down, nothing more will be performed for it
+			context.drop();
+		}
+	}
+
+	/**
+	 * @return the number of streams that currently have actions waiting or running
+	 */
+	public int activeStreams(){
+		synchronized(streams){
+			return streams.size();
+		}
+	}
+
+	/****************************
+	 * INNER CLASSES
+	 ****************************/
+
+	/**
+	 * The reassembly context of one stream.  Performs the stream's actions in order until there are none left, then removes
+	 * itself from the outer {@link ResponseDispatcher}.
+	 *
+	 * @author Johnathan Pagnutti
+	 *
+	 */
+	private class StreamContext implements Runnable {
+
+		//the task ID of this stream
+		private final int streamID;
+
+		//the actions waiting to be performed, guarded by the outer streams map
+		private final LinkedList<Runnable> actions = new LinkedList<Runnable>();
+
+		private StreamContext(int streamID){
+			this.streamID = streamID;
+		}
+
+		/**
+		 * Implemented from {@link Runnable#run()}
+		 *
+		 * Performs every action queued for this stream.  The context is only removed while holding the outer map's lock and
+		 * with nothing queued, so an action can never be queued on a context that has stopped running.
+		 */
+		@Override
+		public void run() {
+			while(true){
+				Runnable next;
+
+				//the scope has been closed
+				if(Thread.currentThread().isInterrupted()){
+					drop();
+					return;
+				}
+
+				synchronized(streams){
+					next = actions.pollFirst();
+
+					if(next == null){
+						streams.remove(streamID);
+						return;
+					}
+				}
+
+				try{
+					next.run();
+				}catch(RuntimeException e){
+					//one bad response shouldn't take the rest of the stream down with it
+					logger.error("Response for task " + streamID + " failed: " + e.getMessage(), e);
+				}
+			}
+		}
+
+		/**
+		 * Throws away every action still waiting, and the context with them
+		 */
+		private void drop(){
+			synchronized(streams){
+				logger.debug("Dropping " + actions.size() + " responses for task " + streamID + ", the client has been shut down.");
+				actions.clear();
+				streams.remove(streamID);
+			}
+		}
+	}
+}
@@ -0,0 +1,337 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+import com.i2r.ARC.PCControl.DataManager.ARCDataParser;
+import com.i2r.ARC.PCControl.DataManager.ARCProtocol;
+
+/**
+ * Puts the checked frames of each stream back in order before they are dispatched, and asks the remote device to send again any
+ * frame that arrived corrupt or never arrived at all.
+ * <p>
+ * Every {@link ARCProtocol#FLAG_CHECKED} frame carries a sequence number, counting the frames sent for its task from 0.  A frame
+ * with the next sequence number a stream is waiting on is dispatched straight away, along with any later frames of the stream that
+ * were already held back waiting for it.  A frame that shows up ahead of its turn is held back, and every sequence number it skipped
+ * over is asked for again with a {@link CommandHeader#RETRANSMIT} command.  Frames that show up again after they have been
+ * dispatched are dropped.
+ * <p>
+ * If a stream gets more than {@link #MAX_HELD_FRAMES} frames ahead of itself, or the remote device no longer has the frames asked
+ * for, the stream is abandoned: everything held back is dropped, the rest of the stream is ignored, and the whole task is sent
+ * again, the same as before frames were checked.
+ * <p>
+ * Once a remote device is striping bulk frames over extra sockets (see {@link CommandHeader#STRIPE}), frames can overtake each
+ * other without anything being lost, so a frame is only asked for again once the stream has got {@link #STRIPE_REORDER_FRAMES}
+ * frames past it (see {@link #setReorderWindow(int)}).
+ * <p>
+ * A stream only gets sequenced while its task is on the {@link TaskStack}; frames for anything else (pings, or tasks that have
+ * already been removed) are dispatched as they arrive.
+ * <p>
+ * Streams carry on across reconnects.  The remote device keeps numbering a task's frames for as long as the session lasts, and
+ * once the connection is back, {@link #resumeFrom(int)} gives the sequence number each stream should carry on from.
+ *
+ * @author Johnathan Pagnutti
+ *
+ */
+public class StreamSequencer {
+
+	static final Logger logger = Logger.getLogger(StreamSequencer.class);
+
+	/**
+	 * The most frames a stream can hold back waiting for a missing one before the stream is abandoned
+	 */
+	public static final int MAX_HELD_FRAMES = 1024;
+
+	/**
+	 * How far a striped frame can fall behind the frames sent after it.  Credit only lets a remote device have
+	 * {@link ARCProtocol#INITIAL_CREDIT} bytes of a task's bulk frames out at once, and only frames at least
+	 * {@link ARCProtocol#MIN_STRIPE_SIZE} long are striped, so this is twice the most striped frames a task can have out.
+	 */
+	public static final int STRIPE_REORDER_FRAMES = 2 * ARCProtocol.INITIAL_CREDIT / ARCProtocol.MIN_STRIPE_SIZE;
+
+	/**
+	 * The number of streams to keep track of before throwing out the ones whose tasks are done
+	 */
+	private static final int PRUNE_THRESHOLD = 64;
+
+	//the remote client the frames came from
+	private final RemoteClient dev;
+
+	//the streams being sequenced, by task ID
+	private final Map<Integer, Stream> streams = new HashMap<Integer, Stream>();
+
+	//how many frames past a missing frame a stream has to get before it is asked for again
+	private int reorderWindow = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param dev the remote client to dispatch responses and ask for frames again through
+	 */
+	public StreamSequencer(RemoteClient dev){
+		this.dev = dev;
+	}
+
+	/**
+	 * Dispatches a checked frame's response, or holds it back until every frame before it in its stream has been dispatched.
+	 * <p>
+	 * Called from the {@link ARCDataParser}'s parse thread.
+	 *
+	 * @param response the response the frame held
+	 * @param sequence the frame's sequence number
+	 */
+	public synchronized void accept(RemoteClientResponse response, int sequence){
+		Stream stream = getStream(response.taskID);
+
+		if(stream == null){
+			dev.dispatchResponse(response);
+			return;
+		}
+
+		if(stream.abandoned){
+			logger.debug("Dropping frame " + sequence + " of abandoned task " + response.taskID);
+			dev.releaseCredit(response);
+			return;
+		}
+
+		//already dispatched, or already held: a frame that was sent again when it didn't need to be
+		if(sequence < stream.expected || stream.held.containsKey(sequence)){
+			logger.debug("Dropping repeated frame " + sequence + " of task " + response.taskID);
+			dev.releaseCredit(response);
+			return;
+		}
+
+		//ahead of its turn, hold it back and ask for whatever it skipped over
+		if(sequence > stream.expected){
+			stream.held.put(sequence, response);
+			requestUpTo(response.taskID, stream, sequence - 1 - reorderWindow);
+
+			if(stream.held.size() > MAX_HELD_FRAMES){
+				logger.error("Task " + response.taskID + " is holding back " + stream.held.size() + " frames, giving up on it.");
+				abandon(response.taskID);
+			}
+			return;
+		}
+
+		//its turn, dispatch it and everything held back behind it
+		dev.dispatchResponse(response);
+		stream.expected++;
+
+		while(!stream.held.isEmpty() && stream.held.firstKey() == stream.expected){
+			dev.dispatchResponse(stream.held.pollFirstEntry().getValue());
+			stream.expected++;
+		}
+	}
+
+	/**
+	 * Asks for a frame that arrived but failed its check to be sent again, along with any frames before it that haven't arrived.
+	 * <p>
+	 * The task ID and sequence number come from a frame that is known to be corrupt, so they may be wrong.  A sequence number too
+	 * far ahead of its stream to be believable is ignored; the frame will be asked for once the frames after it show it missing.
+	 *
+	 * @param taskID the task ID the corrupt frame said it was for
+	 * @param sequence the sequence number the corrupt frame said it had
+	 */
+	public synchronized void corrupt(int taskID, int sequence){
+		Stream stream = getStream(taskID);
+
+		if(stream == null || stream.abandoned || sequence < stream.expected || stream.held.containsKey(sequence)
+				|| sequence >= stream.expected + MAX_HELD_FRAMES){
+			return;
+		}
+
+		if(sequence <= stream.requested){
+			//already asked for once, and what came back was corrupt too, so ask again
+			request(taskID, sequence, sequence);
+		}else{
+			requestUpTo(taskID, stream, sequence);
+		}
+	}
+
+	/**
+	 * Gives up on getting a stream's frames in order, and has the whole task sent again.  Does nothing if the stream has already
+	 * been abandoned.
+	 *
+	 * @param taskID the task ID of the stream to give up on
+	 */
+	public synchronized void abandon(int taskID){
+		Stream stream = streams.get(taskID);
+
+		if(stream == null){
+			stream = new Stream();
+			streams.put(taskID, stream);
+		}else if(stream.abandoned){
+			return;
+		}
+
+		stream.abandoned = true;
+		
+		//frames held back are thrown out, so they no longer count against the remote device's credit
+		for(RemoteClientResponse dropped : stream.held.values()){
+			dev.releaseCredit(dropped);
+		}
+		stream.held.clear();
+
+		dev.resendLostTask(taskID);
+	}
+
+	/**
+	 * Sets how many frames past a missing frame a stream has to get before the missing frame is asked for again.  0, the default,
+	 * asks for it as soon as anything after it shows up, which is right for a single connection, where frames can't overtake each
+	 * other.
+	 *
+	 * @param frames the number of frames, {@link #STRIPE_REORDER_FRAMES} while bulk frames are being striped
+	 */
+	public synchronized void setReorderWindow(int frames){
+		reorderWindow = frames;
+	}
+
+	/**
+	 * Asks for every frame that hasn't arrived yet but that a frame after it has, in every stream, without waiting for the streams
+	 * to get far enough past them.  Used when a stripe closes, since whatever was on its way over it is never going to show up.
+	 */
+	public synchronized void requestMissing(){
+		for(Map.Entry<Integer, Stream> entry : streams.entrySet()){
+			Stream stream = entry.getValue();
+			if(!stream.abandoned && !stream.held.isEmpty()){
+				requestUpTo(entry.getKey(), stream, stream.held.lastKey() - 1);
+			}
+		}
+	}
+
+	/**
+	 * Gets where a stream should carry on from after a reconnect.  Any frames asked for again on the old connection will never
+	 * show up, so they can be asked for again.
+	 *
+	 * @param taskID the task ID of the stream
+	 * @return the sequence number of the next frame the stream is waiting on (0 if nothing has arrived for it yet), or -1 if the
+	 * stream has been abandoned
+	 */
+	public synchronized int resumeFrom(int taskID){
+		Stream stream = streams.get(taskID);
+
+		if(stream == null){
+			return 0;
+		}
+
+		if(stream.abandoned){
+			return -1;
+		}
+
+		stream.requested = stream.expected - 1;
+		return stream.expected;
+	}
+
+	/**
+	 * @return the number of frames currently held back, across every stream
+	 */
+	public synchronized int heldFrames(){
+		int count = 0;
+		for(Stream stream : streams.values()){
+			count += stream.held.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Get the stream for a task, starting one if the task is on the task stack and doesn't have one yet
+	 *
+	 * @param taskID the task ID of the stream
+	 * @return the stream, or null if frames for this task shouldn't be sequenced
+	 */
+	private Stream getStream(int taskID){
+		Stream stream = streams.get(taskID);
+
+		if(stream == null && dev.hasTask(taskID)){
+			prune();
+
+			stream = new Stream();
+			streams.put(taskID, stream);
+		}
+
+		return stream;
+	}
+
+	/**
+	 * Asks for every frame of a stream up to and including the given sequence number that hasn't arrived and hasn't been asked for
+	 *
+	 * @param taskID the task ID of the stream
+	 * @param stream the stream
+	 * @param last the last sequence number that is missing
+	 */
+	private void requestUpTo(int taskID, Stream stream, int last){
+		int first = Math.max(stream.expected, stream.requested + 1);
+
+		//frames held back below the last one have obviously arrived
+		Integer heldBelow = stream.held.lowerKey(last + 1);
+		if(heldBelow != null){
+			first = Math.max(first, heldBelow + 1);
+		}
+
+		if(first <= last){
+			request(taskID, first, last);
+			stream.requested = Math.max(stream.requested, last);
+		}
+	}
+
+	/**
+	 * Sends the command to have a run of frames sent again
+	 *
+	 * @param taskID the task ID of the stream
+	 * @param first the first sequence number to send again
+	 * @param last the last sequence number to send again
+	 */
+	private void request(int taskID, int first, int last){
+		logger.debug("Asking for frames " + first + " to " + last + " of task " + taskID + " again.");
+		dev.requestRetransmit(taskID, first, last);
+	}
+
+	/**
+	 * Throws out the streams of tasks that are no longer on the task stack, once there are enough streams for it to be worth it
+	 */
+	private void prune(){
+		if(streams.size() < PRUNE_THRESHOLD){
+			return;
+		}
+
+		Iterator<Map.Entry<Integer, Stream>> iter = streams.entrySet().iterator();
+		while(iter.hasNext()){
+			Map.Entry<Integer, Stream> entry = iter.next();
+			if(entry.getValue().held.isEmpty() && !dev.hasTask(entry.getKey())){
+				iter.remove();
+			}
+		}
+	}
+
+	/****************************
+	 * INNER CLASSES
+	 ****************************/
+
+	/**
+	 * Where one stream is up to.
+	 *
+	 * @author Johnathan Pagnutti
+	 *
+	 */
+	private static class Stream {
+
+		//the sequence number of the next frame to dispatch
+		private int expected = 0;
+
+		//the highest sequence number that has been asked for again
+		private int requested = -1;
+
+		//frames that arrived ahead of their turn, by sequence number
+		private final TreeMap<Integer, RemoteClientResponse> held = new TreeMap<Integer, RemoteClientResponse>();
+
+		//true once the stream has been given up on
+		private boolean abandoned = false;
+	}
+}
@@ -1,11 +1,14 @@
 package com.i2r.ARC.PCControl;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
 
 import com.i2r.ARC.PCControl.data.DataSegment;
+import com.i2r.ARC.PCControl.data.FileSink;
+import com.i2r.ARC.PCControl.data.LocationTrack;
 
 
 /**
@@ -39,9 +42,17 @@ public class Task {
 	
 	/**
 	 * The <code>int</code> position counter.  Keeps track of unique {@link DataSegments} associated with this class, so that
-	 * unique {@link DataSegments} will be different values in the {@link Task#taskData} {@link Map}
+	 * unique {@link DataSegments} will be different values in the {@link Task#taskData} {@link Map}.  Moved on by the
+	 * {@link ResponseDispatcher} as each segment is saved.
 	 */
-	int pos;
+	volatile int pos;
+	
+	/**
+	 * The position of the {@link DataSegment} the parser is reading data for.  Moved on, on the parse thread, as soon as a response
+	 * that ends a segment is parsed, so the parser never writes into a segment that is about to be saved.  It runs ahead of
+	 * {@link Task#pos} until the {@link ResponseDispatcher} catches up.
+	 */
+	private int spoolPos;
 	
 	/**
 	 * The {@link ARCCommand} that abstracts the command associated with this {@link Task}.  The {@link Task} can be considered as an active
@@ -56,6 +67,33 @@ public class Task {
 	 */
 	Map<Integer, DataSegment> taskData;
 	
+	/**
+	 * The {@link LocationTrack} of fixes a location task has gotten back, when they came back packed.  Null for every other kind of
+	 * task.
+	 */
+	private LocationTrack track;
+	
+	/**
+	 * The {@link TaskFuture} finished when this {@link Task} ends
+	 */
+	private final TaskFuture completion;
+	
+	/**
+	 * When this {@link Task} was sent, and when anything was last heard for it, in milliseconds.  Kept by {@link TaskDeadlines}.
+	 */
+	volatile long sentMillis;
+	volatile long lastHeardMillis;
+	
+	/**
+	 * How long this {@link Task} should take to run on the remote device, in milliseconds.  Kept by {@link TaskDeadlines}.
+	 */
+	volatile long expectedMillis;
+	
+	/**
+	 * This {@link Task}'s current deadline on the {@link TimerWheel}, or null if it hasn't been sent
+	 */
+	volatile TimerWheel.Timeout deadline;
+	
 	/**
 	 * Constructor
 	 * 
@@ -63,12 +101,25 @@ public class Task {
 	 * @param command a new command
 	 */
 	public Task(int newID, ARCCommand command){
+		this(newID, command, new TaskFuture());
+	}
+	
+	/**
+	 * Constructor for a {@link Task} that carries on from an earlier one, and finishes the earlier one's {@link TaskFuture} when it ends
+	 * 
+	 * @param newID a new task ID
+	 * @param command a new command
+	 * @param completion the future to finish when this task ends
+	 */
+	public Task(int newID, ARCCommand command, TaskFuture completion){
 		//initialize the class fields to the provided values
 		this.id = newID;
 		this.command = command;
+		this.completion = completion;
 		
 		//initialize pos to 0
 		this.pos = 0;
+		this.spoolPos = 0;
 		
 		//if the command has a header that will return persistent data...
 		switch(command.getHeader()){
@@ -78,6 +129,11 @@ public class Task {
 			//initialize the data map
 			taskData = new HashMap<Integer, DataSegment>();
 			break;
+		case GET_LOCATION:
+			//location tasks keep their fixes as a track, as well as saving them
+			taskData = new HashMap<Integer, DataSegment>();
+			track = new LocationTrack();
+			break;
 		default:
 			//otherwise, don't bother wasting the space
 			break;
@@ -92,6 +148,14 @@ public class Task {
 		return id;
 	}
 
+	/**
+	 * Get the fixes this task has gotten back so far
+	 * @return the track, or null if this isn't a location task
+	 */
+	public LocationTrack getTrack() {
+		return track;
+	}
+
 	/**
 	 * Get the {@link ARCCommand} associated with this task
 	 * @return the command
@@ -100,13 +164,21 @@ public class Task {
 		return command;
 	}
 	
+	/**
+	 * Get the future that is finished when this task ends
+	 * @return the future
+	 */
+	public TaskFuture getCompletion() {
+		return completion;
+	}
+	
 	/**
 	 * Save a section of data that has been associated with this task, along with the filetype of that data
 	 * 
 	 * @param fileType the string that will be appended to the filename dealing with this data
 	 * @param data the data to save
 	 */
-	public void saveChunk(String fileType, byte[] data){
+	public synchronized void saveChunk(String fileType, byte[] data){
 		//if this task has a task data field
 		if(taskData != null){
 			//attempt to get the data segment at pos
@@ -130,6 +202,74 @@ public class Task {
 		}
 	}
 
+	/**
+	 * Get somewhere to write the data for the current {@link DataSegment} as it comes in, rather than holding it in memory.
+	 * <p>
+	 * The segment the parser is reading data for is switched over to writing straight to the file it would have been saved as (any
+	 * data it already had is written out first).  If there is no segment there yet, one is created with the given file type.
+	 * <p>
+	 * Called from the parse thread, which may be ahead of the {@link ResponseDispatcher}, so this goes by {@link Task#spoolPos} rather
+	 * than {@link Task#pos}.
+	 * 
+	 * @param fileType the string that will be appended to the filename dealing with this data, if a new segment is created
+	 * @return the {@link FileSink} to write the current segment's data to, or null if this task does not keep data
+	 * @throws IOException if the file could not be opened
+	 */
+	public synchronized FileSink openSink(String fileType) throws IOException{
+		//if this task doesn't keep data, there's nowhere to put it
+		if(taskData == null){
+			return null;
+		}
+		
+		//attempt to get the data segment the parser is on
+		DataSegment section = taskData.get(spoolPos);
+		
+		//if that data segment does not exist
+		if(section == null){
+			//create it
+			section = new DataSegment(fileType);
+			taskData.put(spoolPos, section);
+		}
+		
+		//start writing the segment to its file
+		return section.spoolToFile(fileNameHeader(spoolPos) + "." + section.fileType);
+	}
+	
+	/**
+	 * Get how much data the {@link DataSegment} at {@link Task#pos} is holding in memory
+	 * 
+	 * @return the number of bytes, which is 0 if there is no segment there or it is already being written straight to its file
+	 */
+	public synchronized long getHeldBytes(){
+		DataSegment section = (taskData == null) ? null : taskData.get(pos);
+		return (section == null) ? 0 : section.getHeldBytes();
+	}
+	
+	/**
+	 * Switch the {@link DataSegment} at {@link Task#pos} over to writing straight to the file it would have been saved as.  For
+	 * data that had to be read into memory before it could be trusted, such as checked frames, which only get here once they have
+	 * passed their CRC and been put back in order.
+	 * <p>
+	 * Called from the {@link ResponseDispatcher}, after {@link #saveChunk(String, byte[])}.
+	 * 
+	 * @throws IOException if the file could not be opened or written to
+	 */
+	public synchronized void spoolSegment() throws IOException{
+		DataSegment section = (taskData == null) ? null : taskData.get(pos);
+		
+		if(section != null){
+			section.spoolToFile(fileNameHeader(pos) + "." + section.fileType);
+		}
+	}
+	
+	/**
+	 * Move the parser on to the next {@link DataSegment}.  Called from the parse thread when it has parsed a response that ends the
+	 * current segment, before the response is dispatched, so any data after it is written to the segment after.
+	 */
+	public synchronized void endSegment(){
+		spoolPos++;
+	}
+
 	/**
 	 * Save a single file from this {@link Task}'s {@link Task#taskData}.  Dumps one {@link DataSegment} to a file.
 	 * 
@@ -141,16 +281,26 @@ public class Task {
 		
 		//if we found file data...
 		if(file != null){
-			//create a new file header string, ala string builder
-			StringBuilder sb = new StringBuilder();
-			sb.append(id);
-			sb.append("_");
-			sb.append(dataPos);
 			//save the data
-			file.saveSegmentAsFile(sb.toString());
+			file.saveSegmentAsFile(fileNameHeader(dataPos));
 		}
 	}
 	
+	/**
+	 * Get the name, without an extension, of the file the {@link DataSegment} at some position is saved to
+	 * 
+	 * @param dataPos the position of the data segment
+	 * @return the task ID and the position, separated by an underscore
+	 */
+	private String fileNameHeader(int dataPos){
+		//create a new file header string, ala string builder
+		StringBuilder sb = new StringBuilder();
+		sb.append(id);
+		sb.append("_");
+		sb.append(dataPos);
+		return sb.toString();
+	}
+	
 	/**
 	 * Push the remaining data in this task's {@link Task#taskData} to a set of files, which should just be the data
 	 * that the task's {@link Task#pos} variable, as pos is incremented after a file is saved.
@@ -176,6 +326,11 @@ public class Task {
 	public void clearData() {
 		//if this task has data...
 		if(taskData != null){
+			//throw out each segment, including any files they were being written to
+			for(DataSegment section : taskData.values()){
+				section.discard();
+			}
+			
 			//clear it
 			taskData.clear();
 		}
@@ -0,0 +1,220 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl;
+
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps a deadline for every {@link Task} a {@link RemoteClient} sends, so a task the remote device never finishes, because it
+ * crashed or the notification was lost, doesn't sit on the {@link TaskStack} forever.
+ * <p>
+ * A task is given as long as it should take to run, going by its command and arguments (a picture task's time frame, or its number
+ * of pictures times the time between them; an audio task's duration), plus a grace period.  The grace period is
+ * {@link Controller#taskTimeoutMillis}, plus four times the client's retransmission timeout, worked out from the round trip times of
+ * commands the remote device answers straight away the same way TCP does, so a slow link gets longer deadlines without anyone
+ * setting them by hand.  A task is also kept for at least the grace period after the last thing heard for it, so a task that runs
+ * for as long as it likes (no duration given) lasts as long as data keeps coming in for it.
+ * <p>
+ * Deadlines are set on the shared {@link TimerWheel}.  When one comes due and the task still has time, because data came in for it or
+ * the connection is being brought back, it is set again for the time left; otherwise the task is ended as timed out, through
+ * {@link RemoteClient#expireTask(int)}, on the task's stream so anything already in for it is dealt with first.
+ *
+ * @author Johnathan Pagnutti
+ *
+ */
+public class TaskDeadlines {
+
+	static final Logger logger = Logger.getLogger(TaskDeadlines.class);
+
+	/**
+	 * The round trip time assumed, in milliseconds, before any have been measured
+	 */
+	public static final long INITIAL_RTT_MILLIS = 1000;
+
+	/**
+	 * The number of retransmission timeouts added to every task's grace period
+	 */
+	public static final int RTO_MULTIPLIER = 4;
+
+	//the client whose tasks these are
+	private final RemoteClient dev;
+
+	//the smoothed round trip time and its mean deviation, in milliseconds, or -1 before the first sample.  Guarded by this
+	private double srtt = -1;
+	private double rttvar = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param dev the client whose tasks to keep deadlines for
+	 */
+	public TaskDeadlines(RemoteClient dev){
+		this.dev = dev;
+	}
+
+	/**
+	 * Sets a task's deadline, as it is sent
+	 *
+	 * @param task the task
+	 */
+	public void arm(Task task){
+		long now = System.currentTimeMillis();
+		task.sentMillis = now;
+		task.lastHeardMillis = now;
+		task.expectedMillis = expectedMillis(task.getCommand());
+
+		task.deadline = TimerWheel.getShared().schedule(new DeadlineCheck(task), task.expectedMillis + graceMillis());
+	}
+
+	/**
+	 * Notes that something was heard for a task, which gives it at least another grace period
+	 *
+	 * @param taskID the task
+	 */
+	public void heard(int taskID){
+		Task task = dev.deviceTasks.getTask(taskID);
+		if(task != null){
+			task.lastHeardMillis = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Notes that a task has ended, cancelling its deadline.  If it was a command the remote device answers straight away, the time it
+	 * took is a round trip time sample.
+	 *
+	 * @param task the task
+	 * @param result how it ended
+	 */
+	public void ended(Task task, TaskResult result){
+		TimerWheel.Timeout deadline = task.deadline;
+		if(deadline != null){
+			deadline.cancel();
+		}
+
+		if(!result.isSuccessful() || task.sentMillis == 0){
+			return;
+		}
+
+		switch(task.getCommand().getHeader()){
+		case GET_SENSOR_FEATURES:
+		case MODIFY_SENSOR:
+		case NEGOTIATE_PROTOCOL:
+			sample(System.currentTimeMillis() - task.sentMillis);
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * @return the retransmission timeout, in milliseconds: the smoothed round trip time plus four times its deviation
+	 */
+	public synchronized long rtoMillis(){
+		if(srtt < 0){
+			return INITIAL_RTT_MILLIS;
+		}
+		return (long) Math.ceil(srtt + (4 * rttvar));
+	}
+
+	/**
+	 * @return how long a task is given past the time it should take, and how long it is kept after the last thing heard for it
+	 */
+	public long graceMillis(){
+		return dev.cntrl.taskTimeoutMillis + (RTO_MULTIPLIER * rtoMillis());
+	}
+
+	/**
+	 * Adds a round trip time sample, the same way as TCP (RFC 6298)
+	 */
+	private synchronized void sample(long rtt){
+		if(srtt < 0){
+			srtt = rtt;
+			rttvar = rtt / 2.0;
+		}else{
+			rttvar = (0.75 * rttvar) + (0.25 * Math.abs(srtt - rtt));
+			srtt = (0.875 * srtt) + (0.125 * rtt);
+		}
+	}
+
+	/**
+	 * Works out how long a command should take to run on the remote device, from its arguments
+	 *
+	 * @param command the command
+	 * @return the time, in milliseconds, or 0 if it should be answered straight away or runs until there's nothing left to send
+	 */
+	static long expectedMillis(ARCCommand command){
+		List<String> args = command.getArguments();
+
+		try{
+			switch(command.getHeader()){
+			case TAKE_PICTURE:
+				long timeframe = Long.parseLong(args.get(ARCCommand.TAKE_PICTURE_TIMEFRAME_INDEX));
+				if(timeframe > 0){
+					return timeframe;
+				}
+				long frequency = Long.parseLong(args.get(ARCCommand.TAKE_PICTURE_FREQUENCY_INDEX));
+				long amount = Long.parseLong(args.get(ARCCommand.TAKE_PICTURE_AMMOUNT_INDEX));
+				return Math.max(frequency, 0) * Math.max(amount, 0);
+			case RECORD_AUDIO:
+				return Math.max(Long.parseLong(args.get(0)), 0);
+			default:
+				return 0;
+			}
+		}catch(NumberFormatException | IndexOutOfBoundsException e){
+			logger.debug("Couldn't tell how long " + command.getHeader().getAlias() + " should take, " + e.getMessage());
+			return 0;
+		}
+	}
+
+	/****************************
+	 * INNER CLASSES
+	 ****************************/
+
+	/**
+	 * What runs when a task's deadline comes due, on the {@link TimerWheel}'s thread
+	 *
+	 * @author Johnathan Pagnutti
+	 *
+	 */
+	private class DeadlineCheck implements Runnable {
+
+		private final Task task;
+
+		DeadlineCheck(Task task){
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			//already ended, or ended and the ID handed out again
+			if(task.getCompletion().isDone() || dev.deviceTasks.getTask(task.getId()) != task){
+				return;
+			}
+
+			long now = System.currentTimeMillis();
+			long grace = graceMillis();
+
+			//nothing can be heard while the connection is down, so a task waiting on it isn't held against the remote device
+			if(dev.getSupervisor().getState() == ReconnectSupervisor.State.RECONNECTING){
+				task.lastHeardMillis = now;
+			}
+
+			long due = Math.max(task.sentMillis + task.expectedMillis + grace, task.lastHeardMillis + grace);
+			if(due > now){
+				task.deadline = TimerWheel.getShared().schedule(this, due - now);
+				return;
+			}
+
+			logger.debug("Task " + task.getId() + " on " + dev + " ran out of time.");
+			dev.responses.dispatch(task.getId(), new Runnable(){
+				@Override
+				public void run() {
+					dev.expireTask(task.getId());
+				}
+			});
+		}
+	}
+}
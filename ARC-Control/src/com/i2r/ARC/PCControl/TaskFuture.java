@@ -0,0 +1,160 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The end of a {@link Task}, which {@link RemoteClient#sendTask(ARCCommand)} hands back as soon as the task is sent.
+ * <p>
+ * The future is finished by whatever ends the task: the {@link ResponseDispatcher} thread acting on the task complete or errored
+ * notification, the kill command that stops it, or the client shutting down.  That happens the moment the task comes off the
+ * {@link TaskStack}, after any data it was holding on to has been saved.  Callers can block on {@link #get()}, or add a
+ * {@link CompletionListener} to be told, which is run on the thread that finished the task (or straight away, if it already has).
+ * <p>
+ * A task sent again keeps its future, so it only finishes once, when the last attempt does.
+ * <p>
+ * Tasks can't be cancelled through their future; a kill command is what stops a task on the remote device.
+ *
+ * @author Johnathan Pagnutti
+ *
+ */
+public class TaskFuture implements Future<TaskResult> {
+
+	static final Logger logger = Logger.getLogger(TaskFuture.class);
+
+	//opened once there is a result
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	//who to tell once there is a result, or null once they have been.  Guarded by this
+	private List<CompletionListener> listeners = new ArrayList<CompletionListener>();
+
+	private volatile TaskResult result;
+
+	/**
+	 * Finishes the future, waking anything waiting on it and telling every listener.  Only the first result counts.
+	 *
+	 * @param taskResult how the task ended
+	 * @return true if this finished the future, false if it was already finished
+	 */
+	boolean complete(TaskResult taskResult){
+		List<CompletionListener> toTell;
+
+		synchronized(this){
+			if(result != null){
+				return false;
+			}
+			result = taskResult;
+			toTell = listeners;
+			listeners = null;
+		}
+
+		done.countDown();
+
+		for(CompletionListener l : toTell){
+			tell(l, taskResult);
+		}
+		return true;
+	}
+
+	/**
+	 * Adds something to be told when the task ends.  If it already has, the listener is told straight away, on this thread.
+	 *
+	 * @param listener the listener
+	 */
+	public void addListener(CompletionListener listener){
+		synchronized(this){
+			if(result == null){
+				listeners.add(listener);
+				return;
+			}
+		}
+
+		tell(listener, result);
+	}
+
+	/**
+	 * Tasks can't be cancelled through their future, send a kill command instead
+	 *
+	 * @return false
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public boolean isDone() {
+		return result != null;
+	}
+
+	/**
+	 * Waits for the task to end
+	 *
+	 * @return how it ended
+	 */
+	@Override
+	public TaskResult get() throws InterruptedException, ExecutionException {
+		done.await();
+		return result;
+	}
+
+	/**
+	 * Waits for the task to end, for at most the given time
+	 *
+	 * @return how it ended
+	 * @throws TimeoutException if it didn't end in time
+	 */
+	@Override
+	public TaskResult get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if(!done.await(timeout, unit)){
+			throw new TimeoutException("Task did not end within " + timeout + " " + unit);
+		}
+		return result;
+	}
+
+	/**
+	 * Tells one listener, keeping a listener that fails from stopping the rest
+	 */
+	private void tell(CompletionListener listener, TaskResult taskResult){
+		try{
+			listener.taskEnded(taskResult);
+		}catch(RuntimeException e){
+			logger.error("Listener for " + taskResult + " failed: " + e.getMessage(), e);
+		}
+	}
+
+	/******************
+	 * INNER CLASSES
+	 ******************/
+
+	/**
+	 * Interface for anything that wants to know when a task ends
+	 *
+	 * @author Johnathan Pagnutti
+	 *
+	 */
+	public interface CompletionListener {
+
+		/**
+		 * Called once the task has ended, and come off the {@link TaskStack}
+		 *
+		 * @param result how it ended
+		 */
+		public void taskEnded(TaskResult result);
+	}
+}
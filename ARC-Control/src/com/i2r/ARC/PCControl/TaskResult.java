@@ -0,0 +1,108 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl;
+
+/**
+ * How a {@link Task} ended, handed to whoever is waiting on its {@link TaskFuture}.
+ *
+ * @author Johnathan Pagnutti
+ *
+ */
+public class TaskResult {
+
+	/**
+	 * The ways a task can end
+	 *
+	 * @author Johnathan Pagnutti
+	 */
+	public enum Outcome {
+		/**
+		 * The remote device finished the task, and any data it sent back has been saved
+		 */
+		COMPLETED,
+
+		/**
+		 * The remote device gave up on the task
+		 */
+		ERRORED,
+
+		/**
+		 * The task asked for a sensor the remote device doesn't have
+		 */
+		UNSUPPORTED_SENSOR,
+
+		/**
+		 * The task was stopped with a kill command
+		 */
+		KILLED,
+
+		/**
+		 * The task could not be sent
+		 */
+		NOT_SENT,
+
+		/**
+		 * Nothing was heard back from the remote device about the task before its deadline.  Any data it sent has been saved.
+		 */
+		TIMED_OUT,
+
+		/**
+		 * The task was dropped without hearing back from the remote device, because the client shut down or the task only meant
+		 * something to a connection that was lost
+		 */
+		ABANDONED
+	}
+
+	private final int taskID;
+
+	private final Outcome outcome;
+
+	private final String message;
+
+	/**
+	 * Constructor
+	 *
+	 * @param taskID the ID of the task that ended
+	 * @param outcome how it ended
+	 * @param message anything the remote device said about it, or null
+	 */
+	public TaskResult(int taskID, Outcome outcome, String message){
+		this.taskID = taskID;
+		this.outcome = outcome;
+		this.message = message;
+	}
+
+	/**
+	 * @return the ID of the task that ended.  A task that was sent again ends under the ID it was last sent with.
+	 */
+	public int getTaskID(){
+		return taskID;
+	}
+
+	/**
+	 * @return how the task ended
+	 */
+	public Outcome getOutcome(){
+		return outcome;
+	}
+
+	/**
+	 * @return anything the remote device said about how the task ended, or null if it didn't say anything
+	 */
+	public String getMessage(){
+		return message;
+	}
+
+	/**
+	 * @return true if the remote device finished the task
+	 */
+	public boolean isSuccessful(){
+		return outcome == Outcome.COMPLETED;
+	}
+
+	@Override
+	public String toString(){
+		return "Task " + taskID + " " + outcome + ((message == null) ? "" : ": " + message);
+	}
+}
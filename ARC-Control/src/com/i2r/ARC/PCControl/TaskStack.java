@@ -1,154 +1,228 @@
 /**
- * 
+ *
  */
 package com.i2r.ARC.PCControl;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.apache.log4j.Logger;
 
 /**
  * This class abstracts the data structure for {@link Task}s.  It's not actually a stack.
- * The data structure is a map, which maps a {@link Integer} to a {@link Task}.  The <code>Integer</code> key is the task ID,
- * the unique identifier for that task.
- * <p>
- *.Task ID's are randomly generated from {@link Integer#MIN_VALUE} to {@link Integer#MAX_VALUE}.
+ * The data structure is a map from a task ID, the unique identifier for a task, to the {@link Task}.
  * <p>
- * The obvious result from this is that there may be many tasks that have task ID 0 (it's rare, but possible), however, there 
- * will never be two task 0's at the same time.
+ * Task ID's are handed out in order, starting from a random point so that a remote device that still has tasks from an earlier
+ * run of the controller doesn't mistake new tasks for them, and wrapping back around to 1 after {@link Integer#MAX_VALUE}.
  * <p>
- * In addition, the accessing methods to the task stack are synchronized so that multiple threads will not ruin the Task Stack
- * 
+ * Since the stack picks the IDs, it can pick them so that no two tasks on the stack ever want the same slot of its table: each
+ * task lives in the slot its ID picks out, and an ID whose slot is still in use by a task further back is just skipped.  So
+ * finding a task is a single read of an array, with no searching, no boxing of the ID and no locks; adding and removing a task
+ * is a single compare and swap.  Once the table gets crowded, and too many IDs in a row have to be skipped, it is copied into one
+ * twice the size.  Slots that have been copied are marked, so that anything that finds a mark goes on to the new table, and
+ * nothing ever waits on the copy.
+ *
  * @author Johnathan Pagnutti
  *
  */
 public class TaskStack {
-	
+
 	/**
 	 * Logger
 	 */
 	static final Logger logger = Logger.getLogger(TaskStack.class);
-	
+
+	/**
+	 * The number of slots the table starts out with
+	 */
+	public static final int INITIAL_SLOTS = 64;
+
+	/**
+	 * The most IDs in a row that are skipped because their slots are in use before the table is made bigger
+	 */
+	public static final int MAX_SKIPPED_IDS = 8;
+
+	/**
+	 * Put in a slot once its task has been copied into the next table
+	 */
+	private static final Object MOVED = new Object();
+
+	/**
+	 * The table tasks are currently added to.  Older tables lead to it through their {@link #MOVED} marks.
+	 */
+	private final AtomicReference<Table> table;
+
+	/**
+	 * The next ID to try handing out
+	 */
+	private final AtomicInteger nextID;
+
 	/**
-	 * The {@link Map} of {@link Integer}s to {@link Task}s.  The <code>Integer</code>s are the task ID's for the {@link Task}s that
-	 * are mapped to that key.  The elements in the {@link Map} are the currently pending tasks.
+	 * The number of tasks on the stack
 	 */
-	private Map<Integer, Task> taskMap;
-	
-	Random rand;
-	
+	private final AtomicInteger size = new AtomicInteger(0);
+
 	/**
 	 * Constructor
 	 */
 	public TaskStack(){
-		//create a new HashMap for for the taskMap
-		taskMap = new ConcurrentHashMap<Integer, Task>();
-		
-		rand = new Random();
+		table = new AtomicReference<Table>(new Table(INITIAL_SLOTS));
+		nextID = new AtomicInteger(1 + new Random().nextInt(Integer.MAX_VALUE / 2));
 	}
-	
+
 	/**
 	 * Creates a new task object and adds it to the task stack.  Also assigns an ID to that task.
-	 * No messing with the task stack object while we're creating a new task
-	 * 
+	 *
 	 * @param newCommand command to add
 	 * @return the task created (which has a reference to the ID it got)
 	 */
-	public synchronized Task createTask(ARCCommand newCommand){
-		//get a set of the current integers in the task map
-		Set<Integer> taskIDSet = taskMap.keySet();
-		
-		//get a random number for the task ID
-		int newId = rand.nextInt(Integer.MAX_VALUE);
-		
-		//while we already have a task mapped to a particular id
-		while(taskIDSet.contains(Integer.valueOf(newId))){
-			//generate a new random number
-			newId = rand.nextInt(Integer.MAX_VALUE);
-		}
-		
-		//create a new task with the unique id
-		logger.debug("Creating a new task with ID: " + newId);
-		Task task = new Task(Integer.valueOf(newId), newCommand);
-		
-		//add it to the task map
-		taskMap.put(Integer.valueOf(newId), task);
-		
-		//debug and print to output
-		logger.debug(logStackState());
-		
-		//return the newly created task
-		return task;
+	public Task createTask(ARCCommand newCommand){
+		return createTask(newCommand, new TaskFuture());
 	}
-	
+
 	/**
-	 * Removes a task (given an ID) from the task stack
-	 * no touching the stack while we're removing an element
-	 * 
-	 * @param taskID the id of the task to remove
+	 * Creates a new task object that finishes an existing {@link TaskFuture} when it ends, and adds it to the task stack.  Used
+	 * when a task is sent again, so whoever is waiting on it doesn't have to know.
+	 *
+	 * @param newCommand command to add
+	 * @param completion the future to finish when the task ends
+	 * @return the task created (which has a reference to the ID it got)
 	 */
-	public synchronized void removeTask(int taskID){
-		logger.debug("Attempting to remove task " + taskID);
-		
-		//if the task has been holding on to data...
-		if(taskMap.get(taskID).taskData != null){
-			//attempt to save it
-			logger.debug("Saving data held by the task...");
-			saveTaskData(taskID);
+	public Task createTask(ARCCommand newCommand, TaskFuture completion){
+		int skipped = 0;
+
+		while(true){
+			int newId = takeID();
+			Task task = new Task(newId, newCommand, completion);
+
+			Table t = table.get();
+			while(true){
+				int slot = newId & t.mask;
+				Object current = t.slots.get(slot);
+
+				if(current == MOVED){
+					//the table is being copied, carry on in the new one
+					t = t.next.get();
+					continue;
+				}
+
+				if(current == null && t.slots.compareAndSet(slot, null, task)){
+					size.incrementAndGet();
+					if(logger.isDebugEnabled()){
+						logger.debug("Created a new task with ID: " + newId);
+					}
+					return task;
+				}
+
+				if(t.slots.get(slot) == MOVED){
+					continue;
+				}
+
+				//the slot is in use, give up on this ID.  If that keeps happening, the table is too full.  A table still being
+				//copied into is left alone until the copy is done, and it becomes the current table
+				if(++skipped >= MAX_SKIPPED_IDS && t == table.get()){
+					grow(t);
+					skipped = 0;
+				}
+				break;
+			}
 		}
-		
-		//remove the task from the map
-		taskMap.remove(Integer.valueOf(taskID));
-		
-		//debug and print to UI out
-		logger.debug(logStackState());
 	}
 
 	/**
-	 * Save the data held on to by a particular task
-	 * 
-	 * @param taskID the id of the task to save the data from
+	 * Removes a task (given an ID) from the task stack, saving any data it was holding on to.  The task's {@link TaskFuture}
+	 * is left for the caller to finish.
+	 *
+	 * @param taskID the id of the task to remove
+	 * @return the task removed, or null if it wasn't on the stack (or another thread removed it first)
 	 */
-	private void saveTaskData(int taskID) {
-		logger.debug("Saving data");
-		//save the data as one or more files
-		taskMap.get(taskID).pushAllData();
+	public Task removeTask(int taskID){
+		Table t = table.get();
+
+		while(true){
+			int slot = taskID & t.mask;
+			Object current = t.slots.get(slot);
+
+			if(current == MOVED){
+				t = t.next.get();
+				continue;
+			}
+
+			if(current == null || ((Task) current).getId() != taskID){
+				logger.debug("Task " + taskID + " is not on the stack, nothing to remove.");
+				return null;
+			}
+
+			//only the thread that takes the task out of its slot saves its data
+			if(t.slots.compareAndSet(slot, current, null)){
+				size.decrementAndGet();
+
+				Task task = (Task) current;
+				if(task.taskData != null){
+					logger.debug("Saving data held by task " + taskID + "...");
+					task.pushAllData();
+				}
+
+				logger.debug("Removed task " + taskID);
+				return task;
+			}
+		}
 	}
 
 	/**
 	 * check to see if there are tasks remaining in the task stack
 	 * @return true if there are tasks left, false otherwise
 	 */
-	public synchronized boolean tasksRemaining() {
-		return !taskMap.isEmpty();
+	public boolean tasksRemaining() {
+		return size.get() > 0;
 	}
 
 	/**
 	 * Get a task from the task stack given a task ID
-	 * 
+	 *
 	 * @param taskID the id of the task to get
 	 * @return the task, or null if the task was not found
 	 */
-	public synchronized Task getTask(int taskID) {
-		//log the state of the task stack
-		logger.debug(logStackState());
-		//return the task
-		return taskMap.get(Integer.valueOf(taskID));
+	public Task getTask(int taskID) {
+		Table t = table.get();
+
+		while(true){
+			Object current = t.slots.get(taskID & t.mask);
+
+			if(current == MOVED){
+				t = t.next.get();
+				continue;
+			}
+
+			return (current != null && ((Task) current).getId() == taskID) ? (Task) current : null;
+		}
+	}
+
+	/**
+	 * Get every task currently on the task stack
+	 *
+	 * @return a copy of the pending tasks, which can be changed without touching the stack
+	 */
+	public List<Task> currentTasks(){
+		List<Task> tasks = new ArrayList<Task>(size.get());
+		collect(table.get(), tasks);
+		return tasks;
 	}
-	
+
 	/**
 	 * Get a string that represents the current state of the task stack
-	 * 
+	 *
 	 * @return the state of the task stack as a string
 	 */
-	public synchronized String logStackState(){
+	public String logStackState(){
 		StringBuilder sb = new StringBuilder();
 		sb.append("Task Stack State\n");
 		//for each task in the stack
-		for(Task t : taskMap.values()){
+		for(Task t : currentTasks()){
 			//get the ID
 			sb.append(t.getId());
 			sb.append(" ");
@@ -162,36 +236,135 @@ public class TaskStack {
 			}
 			sb.append("\n");
 		}
-		
+
 		//return the task stack state.
 		return sb.toString();
 	}
 
 	/**
 	 * Check to see if a particular task exists in the task stack
-	 * 
+	 *
 	 * @param taskID the ID of the task to check
 	 * @return true if a task with that ID has been found, false if otherwise
 	 */
-	public synchronized boolean hasTask(Integer taskID) {
-		//if the task map has a task id that matches the one provided
-		if(taskMap.containsKey(taskID)){
-			//return true
-			return true;
-		}
-		//otherwise, return false
-		return false;
+	public boolean hasTask(int taskID) {
+		return getTask(taskID) != null;
 	}
 
 	/**
-	 * Clear out any data in a the {@link Task#taskData}
-	 * 
+	 * Clear out every task, making an attempt to save any data in their {@link Task#taskData}.  Each task's {@link TaskFuture} is
+	 * finished as {@link TaskResult.Outcome#ABANDONED}.
+	 *
 	 */
 	public void clear() {
-		//wipe the task stack out
-		//make an attempt to save any data currently floating around
-		for(int taskID : taskMap.keySet()){
-			removeTask(taskID);
+		for(Task t : currentTasks()){
+			if(removeTask(t.getId()) != null){
+				t.getCompletion().complete(new TaskResult(t.getId(), TaskResult.Outcome.ABANDONED, null));
+			}
+		}
+	}
+
+	/**
+	 * Takes the next ID, wrapping back around to 1 after {@link Integer#MAX_VALUE}
+	 */
+	private int takeID(){
+		while(true){
+			int id = nextID.get();
+			int next = (id == Integer.MAX_VALUE) ? 1 : id + 1;
+			if(nextID.compareAndSet(id, next)){
+				return id;
+			}
+		}
+	}
+
+	/**
+	 * Copies a table into one twice its size, unless another thread already is.  Only one thread ever copies a table, so
+	 * nothing else puts tasks in a slot of the new table before the slot it comes from in the old one has been marked.
+	 *
+	 * @param old the table that is too full
+	 */
+	private void grow(Table old){
+		Table bigger = new Table(old.slots.length() * 2);
+		if(!old.next.compareAndSet(null, bigger)){
+			//someone else is copying it, carry on with the old table until they are done
+			return;
+		}
+		logger.debug("Task stack table full, growing to " + bigger.slots.length() + " slots.");
+
+		for(int i = 0; i < old.slots.length(); i++){
+			while(true){
+				Object current = old.slots.get(i);
+				if(current == MOVED){
+					break;
+				}
+
+				if(current == null){
+					if(old.slots.compareAndSet(i, null, MOVED)){
+						break;
+					}
+					continue;
+				}
+
+				//copy the task across before marking its old slot, so it can always be found in one or the other.  Two tasks
+				//in different slots of the old table are always in different slots of the new one
+				Task task = (Task) current;
+				int slot = task.getId() & bigger.mask;
+				bigger.slots.compareAndSet(slot, null, task);
+
+				if(old.slots.compareAndSet(i, current, MOVED)){
+					break;
+				}
+
+				//it was removed while being copied, so take the copy back out
+				bigger.slots.compareAndSet(slot, task, null);
+			}
+		}
+
+		table.set(bigger);
+	}
+
+	/**
+	 * Adds every task in a table to a list.  If the table is being copied, the tasks are taken from the new table instead, so
+	 * none are listed twice.
+	 */
+	private void collect(Table t, List<Task> tasks){
+		int i = 0;
+		while(i < t.slots.length()){
+			Object current = t.slots.get(i);
+			if(current == MOVED){
+				//start over on the new table, which has every task already read from this one
+				tasks.clear();
+				t = t.next.get();
+				i = 0;
+				continue;
+			}
+			if(current != null){
+				tasks.add((Task) current);
+			}
+			i++;
+		}
+	}
+
+	/**
+	 * One table of slots
+	 *
+	 * @author Johnathan Pagnutti
+	 *
+	 */
+	private static class Table {
+
+		//a task, null, or MOVED
+		final AtomicReferenceArray<Object> slots;
+
+		//the number of slots - 1, the slot count is always a power of two so an ID can be masked to get its slot
+		final int mask;
+
+		//the table everything is being copied into, once there is one
+		final AtomicReference<Table> next = new AtomicReference<Table>();
+
+		Table(int size){
+			slots = new AtomicReferenceArray<Object>(size);
+			mask = size - 1;
 		}
 	}
 }
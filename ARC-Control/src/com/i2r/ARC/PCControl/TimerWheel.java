@@ -0,0 +1,241 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A hashed timing wheel, for the deadlines of every {@link Task} on every {@link RemoteClient}.
+ * <p>
+ * There can be thousands of deadlines waiting at once, almost all of which are cancelled long before they come due, so they need to
+ * be cheap to set and cheap to cancel.  The wheel is a ring of {@link #WHEEL_SIZE} buckets, one for every {@link #TICK_MILLIS}, and
+ * a deadline goes in the bucket for the tick it comes due on, along with the number of times round the wheel it has to wait.  Setting
+ * a deadline only puts it on a queue, and cancelling one only marks it, so neither ever takes a lock.  A single thread moves queued
+ * deadlines into their buckets and, every tick, runs through one bucket, running what has come due and dropping what was cancelled.
+ * <p>
+ * Deadlines are only as accurate as the tick, and run on the wheel's thread, so what they run should just hand work off somewhere
+ * else.  The thread is started when the first deadline is set, and never stops; it is a daemon thread, so it doesn't hold the
+ * program open.
+ *
+ * @author Johnathan Pagnutti
+ *
+ */
+public class TimerWheel {
+
+	static final Logger logger = Logger.getLogger(TimerWheel.class);
+
+	/**
+	 * How often, in milliseconds, the wheel moves on a bucket
+	 */
+	public static final long TICK_MILLIS = 100;
+
+	/**
+	 * The number of buckets in the wheel, a little under a minute's worth of ticks.  A power of two, so a tick can be masked to get its
+	 * bucket.
+	 */
+	public static final int WHEEL_SIZE = 512;
+
+	/**
+	 * The wheel every {@link RemoteClient} shares
+	 */
+	private static final TimerWheel shared = new TimerWheel("Task-Deadline-Wheel");
+
+	//the name of the wheel's thread
+	private final String name;
+
+	//each bucket, as the first of a list of deadlines.  Only touched by the wheel's thread
+	private final Timeout[] buckets = new Timeout[WHEEL_SIZE];
+
+	//deadlines that have been set, but not put in their buckets yet
+	private final Queue<Timeout> added = new ConcurrentLinkedQueue<Timeout>();
+
+	//when the wheel started, in milliseconds
+	private volatile long start;
+
+	//the number of ticks run so far.  Only touched by the wheel's thread
+	private long tick = 0;
+
+	private Thread worker;
+
+	/**
+	 * Constructor
+	 *
+	 * @param name the name of the wheel's thread
+	 */
+	public TimerWheel(String name){
+		this.name = name;
+	}
+
+	/**
+	 * @return the wheel every {@link RemoteClient}'s task deadlines are set on
+	 */
+	public static TimerWheel getShared(){
+		return shared;
+	}
+
+	/**
+	 * Sets a deadline
+	 *
+	 * @param job what to run once it comes due, on the wheel's thread
+	 * @param delayMillis how long from now it comes due, in milliseconds
+	 * @return the deadline, which can be used to cancel it
+	 */
+	public Timeout schedule(Runnable job, long delayMillis){
+		startIfNeeded();
+
+		Timeout timeout = new Timeout(job, System.currentTimeMillis() + Math.max(delayMillis, 0));
+		added.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Starts the wheel's thread, the first time a deadline is set
+	 */
+	private synchronized void startIfNeeded(){
+		if(worker != null){
+			return;
+		}
+
+		start = System.currentTimeMillis();
+		worker = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				turn();
+			}
+		});
+		worker.setName(name);
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * The wheel's thread.  Waits for each tick, then runs through its bucket.
+	 */
+	private void turn(){
+		while(true){
+			long wait = start + ((tick + 1) * TICK_MILLIS) - System.currentTimeMillis();
+			if(wait > 0){
+				try {
+					Thread.sleep(wait);
+				} catch (InterruptedException e) {
+					//nothing stops the wheel, try again
+					continue;
+				}
+			}
+
+			placeAdded();
+			expire((int) (tick & (WHEEL_SIZE - 1)));
+			tick++;
+		}
+	}
+
+	/**
+	 * Moves every deadline set since the last tick into its bucket.  A deadline that has already come due goes in this tick's bucket.
+	 */
+	private void placeAdded(){
+		Timeout timeout;
+		while((timeout = added.poll()) != null){
+			if(timeout.state.get() == Timeout.CANCELLED){
+				continue;
+			}
+
+			long due = Math.max((timeout.deadline - start) / TICK_MILLIS, tick);
+			timeout.rounds = (due - tick) / WHEEL_SIZE;
+
+			int bucket = (int) (due & (WHEEL_SIZE - 1));
+			timeout.next = buckets[bucket];
+			buckets[bucket] = timeout;
+		}
+	}
+
+	/**
+	 * Runs every deadline in a bucket that has come due, and drops every one that was cancelled
+	 */
+	private void expire(int bucket){
+		Timeout previous = null;
+		Timeout timeout = buckets[bucket];
+
+		while(timeout != null){
+			Timeout next = timeout.next;
+			boolean keep = false;
+
+			if(timeout.state.get() == Timeout.CANCELLED){
+				//just drop it
+			}else if(timeout.rounds > 0){
+				timeout.rounds--;
+				keep = true;
+			}else if(timeout.state.compareAndSet(Timeout.WAITING, Timeout.EXPIRED)){
+				try{
+					timeout.job.run();
+				}catch(RuntimeException e){
+					logger.error("Deadline failed: " + e.getMessage(), e);
+				}
+			}
+
+			if(keep){
+				previous = timeout;
+			}else if(previous == null){
+				buckets[bucket] = next;
+			}else{
+				previous.next = next;
+			}
+			timeout.next = keep ? next : null;
+
+			timeout = next;
+		}
+	}
+
+	/****************************
+	 * INNER CLASSES
+	 ****************************/
+
+	/**
+	 * A deadline that has been set on a {@link TimerWheel}
+	 *
+	 * @author Johnathan Pagnutti
+	 *
+	 */
+	public static class Timeout {
+
+		private static final int WAITING = 0;
+		private static final int EXPIRED = 1;
+		private static final int CANCELLED = 2;
+
+		private final Runnable job;
+
+		//when it comes due, in milliseconds
+		private final long deadline;
+
+		private final AtomicInteger state = new AtomicInteger(WAITING);
+
+		//the number of times round the wheel left to wait, and the next deadline in the same bucket.  Only touched by the wheel's thread
+		private long rounds;
+		private Timeout next;
+
+		private Timeout(Runnable job, long deadline){
+			this.job = job;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancels the deadline, if it hasn't come due yet
+		 *
+		 * @return true if it was cancelled, false if it had already come due or been cancelled
+		 */
+		public boolean cancel(){
+			return state.compareAndSet(WAITING, CANCELLED);
+		}
+
+		/**
+		 * @return true if the deadline has come due, and its job has been run
+		 */
+		public boolean isExpired(){
+			return state.get() == EXPIRED;
+		}
+	}
+}
@@ -129,12 +129,17 @@ public class StreamUI<U extends OutputStream, T extends InputStream, V> {
 				
 				int remoteDeviceIndex = -2;
 				
+				//set if the command goes to a group of devices, like all or 0-9,12
+				String deviceSelector = null;
+				
 				try{
 					
 					if(line.substring(0, line.indexOf(' ')).equals("local")){
 						remoteDeviceIndex = -1;
 					}else if(line.substring(0, line.indexOf(' ')).matches("[0-9]+")){
 						remoteDeviceIndex = Integer.valueOf(line.substring(0, line.indexOf(' ')));
+					}else if(Controller.isDeviceSelector(line.substring(0, line.indexOf(' ')))){
+						deviceSelector = line.substring(0, line.indexOf(' '));
 					}
 				}catch(NumberFormatException e){
 					try {
@@ -148,7 +153,9 @@ public class StreamUI<U extends OutputStream, T extends InputStream, V> {
 				}
 				
 				try {
-					if(remoteDeviceIndex > -1){
+					if(deviceSelector != null){
+						cntrl.fanOut(cntrl.getDevices(deviceSelector), line.substring(line.indexOf(' ')));
+					}else if(remoteDeviceIndex > -1){
 						RemoteClient dev = cntrl.getDevice(remoteDeviceIndex);
 						cntrl.send(dev, ARCCommand.fromString(dev, line.substring(line.indexOf(' '))));
 					}else if (remoteDeviceIndex == -1){
@@ -0,0 +1,179 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl.data;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded ring of bytes, for handing bytes from the threads that receive them to a thread that reads them as a stream.
+ * <p>
+ * Any number of threads may write, and a write always goes in whole and in order, so bytes from two writers are never mixed.  One
+ * thread at a time reads.  A reader waiting on an empty ring, or a writer waiting on a full one, sleeps on a {@link Condition} until
+ * the other side moves, so neither uses any CPU while it waits.  Reads take everything waiting, up to the room given, in one go.
+ * <p>
+ * Once the ring is closed, writes are refused and readers get whatever is left, then the end of the stream.
+ *
+ * @author Johnathan Pagnutti
+ *
+ */
+public class ByteRingBuffer {
+
+	private final byte[] ring;
+
+	//the index of the next byte to read, and the number of bytes waiting.  Guarded by lock, as is everything below
+	private int head = 0;
+	private int count = 0;
+
+	private boolean closed = false;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	//signalled when bytes are written, or the ring is closed
+	private final Condition notEmpty = lock.newCondition();
+
+	//signalled when bytes are read, or the ring is closed
+	private final Condition notFull = lock.newCondition();
+
+	//held by a writer for the whole of its write, so writes go in whole even when they don't fit all at once
+	private final ReentrantLock writers = new ReentrantLock();
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity the number of bytes the ring can hold
+	 * @throws IllegalArgumentException if the capacity is less than one
+	 */
+	public ByteRingBuffer(int capacity){
+		if(capacity < 1){
+			throw new IllegalArgumentException("A ring has to hold at least one byte, not " + capacity + ".");
+		}
+
+		ring = new byte[capacity];
+	}
+
+	/**
+	 * Adds bytes to the end of the ring, waiting for room as needed.  Bytes too many to fit at once are added as the reader makes room,
+	 * with no other write getting in between.
+	 *
+	 * @param b the bytes to add
+	 * @param off where in the array they start
+	 * @param len the number of bytes to add
+	 * @return true if every byte was added, false if the ring was closed first
+	 * @throws InterruptedException if the calling thread is interrupted while waiting for room
+	 */
+	public boolean write(byte[] b, int off, int len) throws InterruptedException{
+		writers.lockInterruptibly();
+		try {
+			lock.lockInterruptibly();
+			try {
+				while(len > 0){
+					while(count == ring.length && !closed){
+						notFull.await();
+					}
+
+					if(closed){
+						return false;
+					}
+
+					//copy up to the end of the ring, or the start of the waiting bytes, whichever comes first
+					int tail = (head + count) % ring.length;
+					int length = Math.min(len, Math.min(ring.length - count, ring.length - tail));
+					System.arraycopy(b, off, ring, tail, length);
+
+					count += length;
+					off += length;
+					len -= length;
+
+					notEmpty.signal();
+				}
+
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		} finally {
+			writers.unlock();
+		}
+	}
+
+	/**
+	 * Takes bytes from the front of the ring, waiting until there are some.
+	 *
+	 * @param b where to put the bytes
+	 * @param off where in the array to start putting them
+	 * @param len the most bytes to take
+	 * @return the number of bytes taken, which is at least one unless len is zero, or -1 if the ring is closed and empty
+	 * @throws InterruptedException if the calling thread is interrupted while waiting for bytes
+	 */
+	public int read(byte[] b, int off, int len) throws InterruptedException{
+		if(len == 0){
+			return 0;
+		}
+
+		lock.lockInterruptibly();
+		try {
+			while(count == 0){
+				if(closed){
+					return -1;
+				}
+				notEmpty.await();
+			}
+
+			//the waiting bytes may wrap around the end of the ring, in which case they are copied in two goes
+			int taken = 0;
+			while(taken < len && count > 0){
+				int length = Math.min(len - taken, Math.min(count, ring.length - head));
+				System.arraycopy(ring, head, b, off + taken, length);
+
+				head = (head + length) % ring.length;
+				count -= length;
+				taken += length;
+			}
+
+			notFull.signalAll();
+			return taken;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of bytes that can be read without waiting
+	 */
+	public int available(){
+		lock.lock();
+		try {
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the ring.  Writers waiting for room give up, and readers get whatever is left, then the end of the stream.
+	 */
+	public void close(){
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return true once the ring has been closed
+	 */
+	public boolean isClosed(){
+		lock.lock();
+		try {
+			return closed;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -7,11 +7,14 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 
+import com.i2r.ARC.PCControl.ClientScope;
+
 /**
  * @author Johnathan
  *
@@ -23,9 +26,21 @@ public class DataSegment {
 	public String fileType;
 	private List<byte[]> rawData;
 	
+	//if this segment is being written straight to a file, the sink for that file.  Null if the segment is held in memory.
+	private FileSink sink;
+	
+	//the number of bytes held in rawData
+	private long heldBytes = 0;
+	
 	public DataSegment(String fileType, List<byte[]> data){
 		this.fileType = fileType;
 		this.rawData = data;
+		
+		if(data != null){
+			for(byte[] chunk : data){
+				heldBytes += chunk.length;
+			}
+		}
 	}
 	
 	public DataSegment(){
@@ -38,15 +53,72 @@ public class DataSegment {
 		rawData = new ArrayList<byte[]>();
 	}
 	
-	public void appendData(byte[] data){
+	public synchronized void appendData(byte[] data){
+		//if this segment is already on its way to a file, the data goes there too
+		if(sink != null){
+			try {
+				sink.write(ByteBuffer.wrap(data));
+			} catch (IOException e) {
+				logger.error("Unable to write task data to " + sink.getFile().getName(), e);
+			}
+			return;
+		}
+		
 		if(rawData == null){
 			rawData = new ArrayList<byte[]>();
 		}
 		
 		rawData.add(data);
+		heldBytes += data.length;
 	}
 	
-	public byte[] getData(){
+	/**
+	 * @return the number of bytes this segment is holding in memory, which is 0 once it is being written straight to a file
+	 */
+	public synchronized long getHeldBytes(){
+		return heldBytes;
+	}
+	
+	/**
+	 * Switches this segment over to writing straight to a file.  Any data already held in memory is written to the file first, 
+	 * and dropped from memory.  Once a segment has a file, every later {@link #appendData(byte[])} call goes to that file.
+	 * 
+	 * @param fileName the name of the file to write the segment to
+	 * @return the {@link FileSink} for this segment's file, so more data can be written to it directly
+	 * @throws IOException if the file could not be opened or written to
+	 */
+	public synchronized FileSink spoolToFile(String fileName) throws IOException{
+		if(sink == null){
+			sink = new FileSink(new File(fileName));
+			
+			if(rawData != null){
+				for(byte[] chunk : rawData){
+					sink.write(ByteBuffer.wrap(chunk));
+				}
+				rawData.clear();
+			}
+			heldBytes = 0;
+		}
+		
+		return sink;
+	}
+	
+	/**
+	 * Throws out the data in this segment, including the segment's file if it was being written straight to one.
+	 */
+	public synchronized void discard(){
+		if(sink != null){
+			sink.discard();
+			sink = null;
+		}
+		
+		if(rawData != null){
+			rawData.clear();
+		}
+		heldBytes = 0;
+	}
+	
+	public synchronized byte[] getData(){
 		int dataSize = 0;
 		for(byte[] chunk : rawData){
 			dataSize += chunk.length;
@@ -56,21 +128,24 @@ public class DataSegment {
 		
 		int pos = 0;
 		for(byte[] chunk : rawData){
-			for(byte b : chunk){
-				rawArray[pos] = b;
-				pos++;
-			}
+			System.arraycopy(chunk, 0, rawArray, pos, chunk.length);
+			pos += chunk.length;
 		}
 		
 		logger.debug("data size: " + rawArray.length);
 		return rawArray;
 	}
 	
-	public void saveSegmentAsFile(String fileNameHeader){
+	public synchronized void saveSegmentAsFile(String fileNameHeader){
+		//if the data has been going straight to a file, it has already been saved, just finish up the file
+		if(sink != null){
+			logger.debug("Closing spooled file for: " + fileNameHeader);
+			sink.close();
+			return;
+		}
+		
 		logger.debug("Starting save file thread for: " + fileNameHeader);
-		Thread t = new Thread(new SaveFileRunnable(fileNameHeader, this));
-		t.setName("Save-File-Thread-" + t.getId());
-		t.start();
+		ClientScope.background("Save-File-Thread-" + fileNameHeader, new SaveFileRunnable(fileNameHeader, this));
 	}
 	
 	
@@ -0,0 +1,118 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A place to put data for a {@link DataSegment} as it comes in, instead of holding on to it in memory until the segment is saved.
+ * <p>
+ * Backed by a {@link FileChannel}.  Each write goes to the channel at the offset just past the last one, so data ends up in the
+ * file in the order it was written, and the only memory used is whatever buffer the caller passes in.
+ *
+ * @author Johnathan Pagnutti
+ *
+ */
+public class FileSink {
+
+	static final Logger logger = Logger.getLogger(FileSink.class);
+
+	/**
+	 * The file this sink writes to
+	 */
+	private File file;
+
+	/**
+	 * The channel to the file
+	 */
+	private FileChannel channel;
+
+	/**
+	 * The offset in the file the next write goes to, which is also the number of bytes written so far
+	 */
+	private long offset;
+
+	/**
+	 * Constructor.  Creates (or truncates) the file and opens a channel to it.
+	 *
+	 * @param file the file to write to
+	 * @throws IOException if the file could not be opened
+	 */
+	public FileSink(File file) throws IOException{
+		this.file = file;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+
+		this.channel = raf.getChannel();
+		this.offset = 0;
+
+		logger.debug("Opened " + file.getName() + " to write to.");
+	}
+
+	/**
+	 * Writes every byte between the buffer's position and its limit to the file, at the end of what has been written so far.
+	 * The buffer's position is moved up to its limit.
+	 *
+	 * @param data the data to write
+	 * @throws IOException if the data could not be written, or the sink has been closed
+	 */
+	public synchronized void write(ByteBuffer data) throws IOException{
+		if(channel == null){
+			throw new IOException(file.getName() + " has already been closed.");
+		}
+
+		//a positional write may not take everything at once
+		while(data.hasRemaining()){
+			offset += channel.write(data, offset);
+		}
+	}
+
+	/**
+	 * @return the number of bytes written to the file so far
+	 */
+	public synchronized long size(){
+		return offset;
+	}
+
+	/**
+	 * @return the file this sink writes to
+	 */
+	public File getFile(){
+		return file;
+	}
+
+	/**
+	 * Closes the channel to the file.  Calling this more than once does nothing.
+	 */
+	public synchronized void close(){
+		if(channel != null){
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.error(e.getMessage(), e);
+			}
+
+			channel = null;
+			logger.debug("Closed " + file.getName() + " after " + offset + " bytes.");
+		}
+	}
+
+	/**
+	 * Closes the channel and deletes the file, throwing out everything written to it.
+	 */
+	public synchronized void discard(){
+		close();
+
+		if(!file.delete()){
+			logger.error("Unable to delete " + file.getName());
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The location fixes a {@link com.i2r.ARC.PCControl.Task} has gotten back from a remote device, in the order they came in.
+ * <p>
+ * Fixes come in from {@link com.i2r.ARC.PCControl.DataManager.LocationTrackDecoder}, a block at a time.  The track can be read
+ * while more fixes are still coming in, and is saved as comma separated values, one fix to a line.
+ *
+ * @author Johnathan Pagnutti
+ *
+ */
+public class LocationTrack {
+
+	/**
+	 * The first line of a saved track, naming each column
+	 */
+	public static final String CSV_HEADER = "time,provider,latitude,longitude,accuracy,altitude,speed,bearing\n";
+
+	//the fixes, oldest first
+	private final List<Fix> fixes = new ArrayList<Fix>();
+
+	/**
+	 * Add fixes to the end of the track
+	 *
+	 * @param more the fixes to add, oldest first
+	 */
+	public synchronized void addAll(List<Fix> more){
+		fixes.addAll(more);
+	}
+
+	/**
+	 * @return a copy of every fix in the track, oldest first
+	 */
+	public synchronized List<Fix> getFixes(){
+		return Collections.unmodifiableList(new ArrayList<Fix>(fixes));
+	}
+
+	/**
+	 * @return the newest fix in the track, or null if there aren't any yet
+	 */
+	public synchronized Fix last(){
+		return fixes.isEmpty() ? null : fixes.get(fixes.size() - 1);
+	}
+
+	/**
+	 * @return the number of fixes in the track
+	 */
+	public synchronized int size(){
+		return fixes.size();
+	}
+
+	/**
+	 * Write some fixes as comma separated values, one fix to a line, in the columns of {@link #CSV_HEADER}
+	 *
+	 * @param some the fixes to write
+	 * @return the fixes as text
+	 */
+	public static String toCSV(List<Fix> some){
+		StringBuilder sb = new StringBuilder(some.size() * 80);
+		for(Fix fix : some){
+			fix.appendCSV(sb);
+		}
+		return sb.toString();
+	}
+
+	/****************************
+	 * INNER CLASSES
+	 ****************************/
+
+	/**
+	 * One location fix.  Accuracy, altitude, speed and bearing are {@link Double#NaN} when the remote device didn't have them.
+	 *
+	 * @author Johnathan Pagnutti
+	 *
+	 */
+	public static class Fix {
+
+		/**
+		 * When the fix was taken, in milliseconds since the epoch
+		 */
+		public final long time;
+
+		/**
+		 * The name of the location provider that gave the fix
+		 */
+		public final String provider;
+
+		/**
+		 * Latitude, in degrees
+		 */
+		public final double latitude;
+
+		/**
+		 * Longitude, in degrees
+		 */
+		public final double longitude;
+
+		/**
+		 * Accuracy, in meters
+		 */
+		public final double accuracy;
+
+		/**
+		 * Altitude, in meters
+		 */
+		public final double altitude;
+
+		/**
+		 * Speed, in meters per second
+		 */
+		public final double speed;
+
+		/**
+		 * Bearing, in degrees
+		 */
+		public final double bearing;
+
+		/**
+		 * Constructor
+		 */
+		public Fix(long time, String provider, double latitude, double longitude, double accuracy, double altitude, double speed,
+				double bearing){
+			this.time = time;
+			this.provider = provider;
+			this.latitude = latitude;
+			this.longitude = longitude;
+			this.accuracy = accuracy;
+			this.altitude = altitude;
+			this.speed = speed;
+			this.bearing = bearing;
+		}
+
+		/**
+		 * Append this fix as a line of comma separated values, leaving out anything the fix doesn't have
+		 *
+		 * @param sb where to append it
+		 */
+		void appendCSV(StringBuilder sb){
+			sb.append(time).append(',');
+			sb.append(provider).append(',');
+			sb.append(latitude).append(',');
+			sb.append(longitude).append(',');
+			appendOptional(sb, accuracy).append(',');
+			appendOptional(sb, altitude).append(',');
+			appendOptional(sb, speed).append(',');
+			appendOptional(sb, bearing).append('\n');
+		}
+
+		@Override
+		public String toString(){
+			StringBuilder sb = new StringBuilder();
+			appendCSV(sb);
+			return sb.toString().trim();
+		}
+
+		//appends a value the fix may not have, as nothing if it doesn't
+		private static StringBuilder appendOptional(StringBuilder sb, double value){
+			return Double.isNaN(value) ? sb : sb.append(value);
+		}
+	}
+}
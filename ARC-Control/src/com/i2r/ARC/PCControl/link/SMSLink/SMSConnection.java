@@ -4,7 +4,7 @@
 package com.i2r.ARC.PCControl.link.SMSLink;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.smslib.AGateway;
@@ -35,10 +35,11 @@ public class SMSConnection extends RemoteConnection<byte[]> {
 		service = Service.getInstance();
 		gateway = service.getGateway(gatewayID);
 		
-		dataIn = new SMSInputStream();
+		SMSInputStream inbound = new SMSInputStream();
+		dataIn = inbound;
 		dataOut = new SMSOutputStream("+9855026193");
 		
-		service.setInboundMessageNotification(new StreamInboundNotification(dataIn));
+		service.setInboundMessageNotification(new StreamInboundNotification(inbound));
 		service.setGatewayStatusNotification(new StreamGatewayStatusNotification());
 		service.setOutboundMessageNotification(new StreamOutboundNotification());
 		
@@ -54,8 +55,8 @@ public class SMSConnection extends RemoteConnection<byte[]> {
 	 */
 	@Override
 	public void close() {
-		// TODO Auto-generated method stub
-
+		//the read thread gets whatever messages are left, then the end of the stream
+		((SMSInputStream) dataIn).close();
 	}
 
 	
@@ -63,11 +64,27 @@ public class SMSConnection extends RemoteConnection<byte[]> {
 	 * INNER CLASSES
 	 ******************/
 	 
-	private class StreamInboundNotification implements IInboundMessageNotification{
+	/**
+	 * Puts the segments of each packet the gateway receives back together, and puts each whole packet at the end of an
+	 * {@link SMSInputStream}.  Any gateway can hand it messages, so it can be driven without a real one.
+	 * 
+	 * @author Johnathan
+	 *
+	 */
+	static class StreamInboundNotification implements IInboundMessageNotification{
 
 		SMSInputStream inboundStream;
-		public StreamInboundNotification(InputStream dataIn) {
-			inboundStream = (SMSInputStream)dataIn;
+		
+		//gateways may hand over messages on more than one thread, so it is guarded by itself
+		private final SMSReassembler reassembler = new SMSReassembler();
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param inboundStream the stream to put messages on
+		 */
+		StreamInboundNotification(SMSInputStream inboundStream) {
+			this.inboundStream = inboundStream;
 		}
 
 		@Override
@@ -75,7 +92,19 @@ public class SMSConnection extends RemoteConnection<byte[]> {
 				InboundMessage msg) {
 			
 			if(msgType == MessageTypes.INBOUND){
-				inboundStream.insert(msg.getText());
+				List<byte[]> packets;
+				synchronized(reassembler){
+					packets = reassembler.accept(msg.getText(), System.currentTimeMillis());
+					
+					//inserted while still holding the reassembler, so packets finished on two threads stay in order
+					try {
+						for(byte[] packet : packets){
+							inboundStream.insert(packet);
+						}
+					} catch (IOException e) {
+						logger.error(e.getMessage(), e);
+					}
+				}
 			}
 			
 			logger.debug("Inbound Message Recieved From " + msg.getOriginator());
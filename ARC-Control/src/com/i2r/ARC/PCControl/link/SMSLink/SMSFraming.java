@@ -0,0 +1,238 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl.link.SMSLink;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How packets are cut into text messages, and how the bytes in them are written so they get through a text-only gateway.
+ * <p>
+ * A text message holds 160 characters of the GSM 7-bit alphabet, and only some of those are the same in ASCII and GSM, so bytes
+ * can't be sent as they are.  Instead, every 4 bytes are written as 5 characters picked from {@link #ALPHABET}, 85 characters
+ * that mean the same thing in both, and a few bytes left over at the end are written as one character more than there are bytes.
+ * That gets 4 bytes through for every 5 characters, where base 64 only gets 3 through for every 4.
+ * <p>
+ * Each packet is cut into segments of at most {@link #PAYLOAD_BYTES} bytes, and each segment is sent as a message of its own:
+ * <pre>
+ * S [packet ID, 2 characters] [segment index, 2 characters] [segment count, 2 characters] [encoded bytes] .
+ * </pre>
+ * The numbers are written in base 85 with the same alphabet.  Packets are numbered in the order they are sent, wrapping back to
+ * 0 after {@link #MAX_PACKET_ID}, so the other end can put segments back together, and packets back in order, however the
+ * messages arrive.  The marks at either end are never spaces, so a gateway that trims messages can't take any bytes with it.
+ *
+ * @author Johnathan Pagnutti
+ *
+ */
+final class SMSFraming {
+
+	/**
+	 * The characters bytes are written with, each standing for its index.  Every one is in the basic GSM 7-bit alphabet, with the
+	 * same meaning as in ASCII, and takes a single character's room.
+	 */
+	static final String ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz!\"#$%&'()*+,-./:;<=>?_ ";
+
+	/**
+	 * The base the alphabet counts in
+	 */
+	static final int BASE = 85;
+
+	/**
+	 * The mark every segment starts with
+	 */
+	static final char SEGMENT_START = 'S';
+
+	/**
+	 * The mark every segment ends with
+	 */
+	static final char SEGMENT_END = '.';
+
+	/**
+	 * The characters each number in a segment's header takes
+	 */
+	static final int NUMBER_CHARS = 2;
+
+	/**
+	 * The characters before a segment's bytes: the start mark, then the packet ID, segment index and segment count
+	 */
+	static final int HEADER_CHARS = 1 + (3 * NUMBER_CHARS);
+
+	/**
+	 * The most bytes in a segment, 30 groups of 4, which fits in a 160 character message along with the header and end mark
+	 */
+	static final int PAYLOAD_BYTES = 120;
+
+	/**
+	 * The highest number the header can hold, for packet IDs and segment counts
+	 */
+	static final int MAX_PACKET_ID = (BASE * BASE) - 1;
+
+	/**
+	 * The biggest packet that can be sent, in bytes
+	 */
+	static final int MAX_PACKET_BYTES = MAX_PACKET_ID * PAYLOAD_BYTES;
+
+	//the value of each character, by its char value, or -1 for characters outside the alphabet
+	private static final int[] VALUES = new int[128];
+
+	static{
+		for(int i = 0; i < VALUES.length; i++){
+			VALUES[i] = -1;
+		}
+		for(int i = 0; i < ALPHABET.length(); i++){
+			VALUES[ALPHABET.charAt(i)] = i;
+		}
+	}
+
+	private SMSFraming(){}
+
+	/**
+	 * Cuts a packet into segments
+	 *
+	 * @param packetID the packet's number
+	 * @param packet the bytes of the packet
+	 * @param off where in the array the packet starts
+	 * @param len the length of the packet
+	 * @return the text of each segment, in order
+	 * @throws IllegalArgumentException if the packet is too big to send
+	 */
+	static List<String> pack(int packetID, byte[] packet, int off, int len){
+		if(len > MAX_PACKET_BYTES){
+			throw new IllegalArgumentException("A " + len + " byte packet is too big for text messages, the most is " + MAX_PACKET_BYTES + ".");
+		}
+
+		int count = Math.max(1, (len + PAYLOAD_BYTES - 1) / PAYLOAD_BYTES);
+		List<String> segments = new ArrayList<String>(count);
+
+		for(int i = 0; i < count; i++){
+			int start = i * PAYLOAD_BYTES;
+			int length = Math.min(PAYLOAD_BYTES, len - start);
+
+			StringBuilder sb = new StringBuilder(HEADER_CHARS + encodedLength(length) + 1);
+			sb.append(SEGMENT_START);
+			appendNumber(sb, packetID);
+			appendNumber(sb, i);
+			appendNumber(sb, count);
+			encode(sb, packet, off + start, length);
+			sb.append(SEGMENT_END);
+
+			segments.add(sb.toString());
+		}
+
+		return segments;
+	}
+
+	/**
+	 * Gets the number of characters a run of bytes is written with
+	 *
+	 * @param length the number of bytes
+	 * @return the number of characters
+	 */
+	static int encodedLength(int length){
+		int rest = length % 4;
+		return ((length / 4) * 5) + ((rest == 0) ? 0 : rest + 1);
+	}
+
+	/**
+	 * Writes bytes out as characters of {@link #ALPHABET}
+	 *
+	 * @param sb where to write the characters
+	 * @param b the bytes
+	 * @param off where in the array they start
+	 * @param len the number of bytes
+	 */
+	static void encode(StringBuilder sb, byte[] b, int off, int len){
+		char[] group = new char[5];
+		int end = off + len;
+
+		for(int i = off; i < end; i += 4){
+			int length = Math.min(4, end - i);
+
+			//a short group is padded out with zeroes, and only as many characters as it needs are kept
+			long value = 0;
+			for(int j = 0; j < 4; j++){
+				value = (value << 8) | ((j < length) ? (b[i + j] & 0xFF) : 0);
+			}
+
+			for(int j = 4; j >= 0; j--){
+				group[j] = ALPHABET.charAt((int) (value % BASE));
+				value /= BASE;
+			}
+
+			sb.append(group, 0, (length == 4) ? 5 : length + 1);
+		}
+	}
+
+	/**
+	 * Reads bytes back from characters of {@link #ALPHABET}
+	 *
+	 * @param text the text the characters are in
+	 * @param off where in the text they start
+	 * @param len the number of characters
+	 * @return the bytes
+	 * @throws IllegalArgumentException if the characters can't have come from {@link #encode(StringBuilder, byte[], int, int)}
+	 */
+	static byte[] decode(String text, int off, int len){
+		int rest = len % 5;
+		if(rest == 1){
+			throw new IllegalArgumentException("A single character left over can't be a byte.");
+		}
+
+		byte[] bytes = new byte[((len / 5) * 4) + ((rest == 0) ? 0 : rest - 1)];
+		int end = off + len;
+		int position = 0;
+
+		for(int i = off; i < end; i += 5){
+			int length = Math.min(5, end - i);
+
+			//a short group is padded out with the highest digit, which rounds its value up past whatever was cut off
+			long value = 0;
+			for(int j = 0; j < 5; j++){
+				value = (value * BASE) + ((j < length) ? value(text.charAt(i + j)) : BASE - 1);
+			}
+
+			if(value > 0xFFFFFFFFL){
+				throw new IllegalArgumentException("\"" + text.substring(i, i + length) + "\" is too big to be 4 bytes.");
+			}
+
+			for(int j = 0; j < length - 1; j++){
+				bytes[position++] = (byte) (value >>> (24 - (8 * j)));
+			}
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Writes a header number as {@link #NUMBER_CHARS} characters
+	 */
+	static void appendNumber(StringBuilder sb, int number){
+		sb.append(ALPHABET.charAt(number / BASE));
+		sb.append(ALPHABET.charAt(number % BASE));
+	}
+
+	/**
+	 * Reads a header number back from {@link #NUMBER_CHARS} characters
+	 *
+	 * @param text the text the number is in
+	 * @param off where in the text it starts
+	 * @return the number
+	 * @throws IllegalArgumentException if a character is outside the alphabet
+	 */
+	static int readNumber(String text, int off){
+		return (value(text.charAt(off)) * BASE) + value(text.charAt(off + 1));
+	}
+
+	/**
+	 * @return the value of a character of {@link #ALPHABET}
+	 * @throws IllegalArgumentException if the character is outside the alphabet
+	 */
+	private static int value(char c){
+		int value = (c < VALUES.length) ? VALUES[c] : -1;
+		if(value < 0){
+			throw new IllegalArgumentException("'" + c + "' is not a character bytes are written with.");
+		}
+		return value;
+	}
+}
@@ -6,37 +6,98 @@ package com.i2r.ARC.PCControl.link.SMSLink;
 import java.io.IOException;
 import java.io.InputStream;
 
-import com.i2r.ARC.PCControl.data.MultithreadStringBuffer;
+import com.i2r.ARC.PCControl.data.ByteRingBuffer;
 
 /**
+ * The stream text messages from a remote device are read from.  Each packet is put at the end of the stream once all of the
+ * messages it was sent in have arrived (see {@link SMSReassembler}), by whichever gateway thread got the last one, and read back as
+ * bytes by the {@link com.i2r.ARC.PCControl.DataManager.ARCDataManager}'s read thread.
+ * <p>
+ * Messages wait in a {@link ByteRingBuffer}, so a read with nothing to read sleeps until a message shows up, rather than spinning,
+ * and a read takes everything waiting at once.  A gateway thread with a message that doesn't fit waits until the read thread makes
+ * room for it.  Once the stream is closed, the read thread gets whatever is left, then the end of the stream.
+ *
  * @author Johnathan
  *
  */
 public class SMSInputStream extends InputStream {
 
-	MultithreadStringBuffer messageBuffer;
-	
+	/**
+	 * The number of bytes held before a gateway thread has to wait for the read thread, room for a few hundred text messages
+	 */
+	public static final int CAPACITY = 64 * 1024;
+
+	private final ByteRingBuffer messageBuffer;
+
 	public SMSInputStream(){
-		messageBuffer = new MultithreadStringBuffer();
+		messageBuffer = new ByteRingBuffer(CAPACITY);
 	}
-	
-	
-	public void insert(String message){
-		messageBuffer.write(message);
+
+	/**
+	 * Put a text message at the end of the stream
+	 *
+	 * @param message the text of the message
+	 * @throws IOException if the stream is closed first
+	 */
+	public void insert(String message) throws IOException{
+		insert(message.getBytes());
 	}
-	
+
+	/**
+	 * Put the body of a binary message at the end of the stream
+	 *
+	 * @param message the bytes of the message
+	 * @throws IOException if the stream is closed first
+	 */
+	public void insert(byte[] message) throws IOException{
+		try {
+			if(!messageBuffer.write(message, 0, message.length)){
+				throw new IOException("Stream closed, message dropped.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for room for a message.");
+		}
+	}
+
 	/**
 	 * @see java.io.InputStream#read()
 	 */
 	@Override
 	public int read() throws IOException {
-		try{
-			
-			while(!messageBuffer.hasNext()){}
-			
-			return messageBuffer.read();
-		}catch(IndexOutOfBoundsException e){
-			return -1;
+		byte[] b = new byte[1];
+		return (read(b, 0, 1) == -1) ? -1 : b[0] & 0xFF;
+	}
+
+	/**
+	 * Reads everything waiting, up to len bytes, sleeping until there is something if nothing is
+	 *
+	 * @see java.io.InputStream#read(byte[], int, int)
+	 */
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(off < 0 || len < 0 || len > b.length - off){
+			throw new IndexOutOfBoundsException();
 		}
+
+		try {
+			return messageBuffer.read(b, off, len);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a message.");
+		}
+	}
+
+	@Override
+	public int available(){
+		return messageBuffer.available();
+	}
+
+	/**
+	 * Closes the stream.  Messages that show up afterwards are dropped.
+	 */
+	@Override
+	public void close(){
+		messageBuffer.close();
 	}
 }
@@ -3,34 +3,67 @@
  */
 package com.i2r.ARC.PCControl.link.SMSLink;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.List;
 
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.log4j.Logger;
 import org.smslib.GatewayException;
 import org.smslib.OutboundMessage;
 import org.smslib.Service;
 import org.smslib.TimeoutException;
 
+import com.i2r.ARC.PCControl.DataManager.ARCDataManager;
+
 /**
+ * The stream commands are written to a remote device over.  Bytes are held until a whole packet has been written, then the packet
+ * is cut into segments by {@link SMSFraming} and each segment is sent as a text message of its own.
+ * <p>
+ * The end of a packet is found as bytes are written, by keeping track of how much of {@link #PACKET_END} the last few bytes
+ * match, so each byte is only looked at once however long the packet gets.
+ *
  * @author Johnathan
  *
  */
 public class SMSOutputStream extends OutputStream {
 	static final Logger logger = Logger.getLogger(SMSOutputStream.class);
-	
+
+	/**
+	 * The bytes every packet ends with
+	 */
+	public static final byte[] PACKET_END = ("PACKET_COMPLETE" + ARCDataManager.SEND_PACKET_DELIMITER).getBytes();
+
+	//for each length of PACKET_END matched so far, how much of it is still matched after a byte that doesn't carry on the match
+	private static final int[] FALLBACK = fallbacks(PACKET_END);
+
 	String number;
-	List<Byte> message;
-	Service smsService;
-	
+
+	//the bytes of the packet written so far
+	private final ByteArrayOutputStream message;
+
+	//how many bytes of PACKET_END the end of the message matches
+	private int matched = 0;
+
+	//the number of the next packet
+	private int packetID = 0;
+
+	private final MessageSender sender;
+
 	public SMSOutputStream(String number) {
+		this(number, new ServiceSender());
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param number the number to send messages to
+	 * @param sender what actually sends each message
+	 */
+	SMSOutputStream(String number, MessageSender sender) {
 		logger.debug("Sending texts to " + number);
 		this.number = number;
-		message = new ArrayList<Byte>();
-		smsService = Service.getInstance();
+		this.sender = sender;
+		message = new ByteArrayOutputStream();
 	}
 
 	/* (non-Javadoc)
@@ -38,24 +71,113 @@ public class SMSOutputStream extends OutputStream {
 	 */
 	@Override
 	public void write(int b) throws IOException {
-		message.add((byte)b);
-		
-		String txtMessage = new String(ArrayUtils.toPrimitive(message.toArray(new Byte[message.size()])));
-		if(txtMessage.contains("PACKET_COMPLETE")){
-			logger.debug("Found packet delimiter, sending text message...");
-			send(txtMessage);
-			message.clear();
+		message.write(b);
+
+		while(matched > 0 && (byte) b != PACKET_END[matched]){
+			matched = FALLBACK[matched];
+		}
+		if((byte) b == PACKET_END[matched]){
+			matched++;
+		}
+
+		if(matched == PACKET_END.length){
+			logger.debug("Found packet delimiter, sending text messages...");
+			matched = 0;
+
+			byte[] packet = message.toByteArray();
+			message.reset();
+			send(packet);
 		}
 	}
-	
-	public void send(String txtMessage){
-		logger.debug("Sending: " + txtMessage);
-		OutboundMessage msg = new OutboundMessage(number, txtMessage);
-		try {
-			smsService.sendMessage(msg);
-		} catch (TimeoutException | GatewayException | IOException
-				| InterruptedException e) {
-			logger.error(e.getMessage(), e);
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		for(int i = off; i < off + len; i++){
+			write(b[i]);
+		}
+	}
+
+	/**
+	 * Cuts a packet into segments, and sends each one
+	 *
+	 * @param packet the packet
+	 * @throws IOException if a segment could not be sent
+	 */
+	private void send(byte[] packet) throws IOException{
+		int id = packetID;
+		packetID = (packetID + 1) % (SMSFraming.MAX_PACKET_ID + 1);
+
+		for(String segment : SMSFraming.pack(id, packet, 0, packet.length)){
+			sender.send(number, segment);
+		}
+	}
+
+	/**
+	 * Works out, for each length of a pattern matched so far, the longest start of the pattern that is also an end of what was
+	 * matched, which is how much is still matched when the next byte doesn't carry on the match.
+	 */
+	private static int[] fallbacks(byte[] pattern){
+		int[] fallback = new int[pattern.length + 1];
+		int k = 0;
+		for(int i = 1; i < pattern.length; i++){
+			while(k > 0 && pattern[i] != pattern[k]){
+				k = fallback[k];
+			}
+			if(pattern[i] == pattern[k]){
+				k++;
+			}
+			fallback[i + 1] = k;
+		}
+		return fallback;
+	}
+
+	/******************
+	 * INNER CLASSES
+	 ******************/
+
+	/**
+	 * Interface for whatever sends text messages for an {@link SMSOutputStream}.  Normally that is the smslib {@link Service},
+	 * but anything can stand in for it.
+	 *
+	 * @author Johnathan
+	 *
+	 */
+	interface MessageSender {
+
+		/**
+		 * Send a text message
+		 *
+		 * @param number the number to send it to
+		 * @param text the text of the message
+		 * @throws IOException if it could not be sent
+		 */
+		public void send(String number, String text) throws IOException;
+	}
+
+	/**
+	 * Sends text messages through the smslib {@link Service}
+	 *
+	 * @author Johnathan
+	 *
+	 */
+	private static class ServiceSender implements MessageSender {
+
+		private final Service smsService = Service.getInstance();
+
+		@Override
+		public void send(String number, String text) throws IOException {
+			logger.debug("Sending: " + text);
+			OutboundMessage msg = new OutboundMessage(number, text);
+			try {
+				if(!smsService.sendMessage(msg)){
+					throw new IOException("Text message to " + number + " was not sent, " + msg.getFailureCause());
+				}
+			} catch (TimeoutException | GatewayException e) {
+				throw new IOException(e.getMessage(), e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while sending a text message.");
+			}
 		}
 	}
 }
@@ -0,0 +1,179 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl.link.SMSLink;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Puts packets back together from the text message segments they were cut into by {@link SMSFraming#pack(int, byte[], int, int)}.
+ * <p>
+ * Text messages can arrive in any order, so segments are kept by packet until every one of a packet's segments is in, and whole
+ * packets are kept until every packet numbered before them has been handed on, so packets come out in the order they were sent.
+ * A packet that still isn't whole {@link #GAP_MILLIS} after a later one was, has most likely lost a message, and is given up on
+ * so the packets after it aren't held forever.  That is only checked as messages arrive, since nothing is waiting on it until the
+ * next one does.  Segments arriving twice are only counted once.
+ * <p>
+ * Not thread safe; messages are handed to it one at a time.
+ *
+ * @author Johnathan Pagnutti
+ *
+ */
+class SMSReassembler {
+
+	static final Logger logger = Logger.getLogger(SMSReassembler.class);
+
+	/**
+	 * How long, in milliseconds, packets that are whole wait on a packet before them before it is given up on
+	 */
+	public static final long GAP_MILLIS = 60000;
+
+	/**
+	 * The furthest ahead of the next packet to hand on that a packet is kept.  Segments for packets further ahead than this, or
+	 * behind it, are from packets already handed on or given up on, and are thrown out.
+	 */
+	public static final int WINDOW = 256;
+
+	//the number of the next packet to hand on
+	private int next = 0;
+
+	//packets still missing segments, by packet number
+	private final Map<Integer, Partial> partials = new HashMap<Integer, Partial>();
+
+	//whole packets waiting on a packet before them, by packet number
+	private final Map<Integer, byte[]> waiting = new HashMap<Integer, byte[]>();
+
+	//when the oldest whole packet started waiting, or -1 if none are
+	private long waitingSince = -1;
+
+	/**
+	 * Takes a text message
+	 *
+	 * @param text the text of the message
+	 * @param now the time it arrived, in milliseconds
+	 * @return the packets now ready to be handed on, in order, which may be none
+	 */
+	public List<byte[]> accept(String text, long now){
+		List<byte[]> ready = new ArrayList<byte[]>();
+
+		try{
+			add(text, now);
+		}catch(IllegalArgumentException e){
+			logger.error("Threw out a text message that isn't a segment, " + e.getMessage());
+		}
+
+		//skip over a packet that has kept whole ones waiting too long
+		while(!waiting.isEmpty() && !waiting.containsKey(next) && now - waitingSince >= GAP_MILLIS){
+			logger.error("Gave up on packet " + next + ", " + GAP_MILLIS + " ms after a packet sent later arrived whole.");
+			partials.remove(next);
+			next = (next + 1) % (SMSFraming.MAX_PACKET_ID + 1);
+		}
+
+		byte[] packet;
+		while((packet = waiting.remove(next)) != null){
+			ready.add(packet);
+			next = (next + 1) % (SMSFraming.MAX_PACKET_ID + 1);
+
+			//whatever is left waits on a new packet now
+			waitingSince = now;
+		}
+
+		if(waiting.isEmpty()){
+			waitingSince = -1;
+		}
+
+		return ready;
+	}
+
+	/**
+	 * @return the number of packets missing segments, or waiting on a packet before them
+	 */
+	public int getPendingCount(){
+		return partials.size() + waiting.size();
+	}
+
+	/**
+	 * Reads a segment and adds it to its packet, moving the packet to {@link #waiting} once it is whole
+	 *
+	 * @throws IllegalArgumentException if the text is not a segment
+	 */
+	private void add(String text, long now){
+		if(text == null || text.length() < SMSFraming.HEADER_CHARS + 1 || text.charAt(0) != SMSFraming.SEGMENT_START
+				|| text.charAt(text.length() - 1) != SMSFraming.SEGMENT_END){
+			throw new IllegalArgumentException("it has no segment header or end.");
+		}
+
+		int packetID = SMSFraming.readNumber(text, 1);
+		int index = SMSFraming.readNumber(text, 1 + SMSFraming.NUMBER_CHARS);
+		int count = SMSFraming.readNumber(text, 1 + (2 * SMSFraming.NUMBER_CHARS));
+
+		if(count == 0 || index >= count){
+			throw new IllegalArgumentException("segment " + index + " of " + count + " can't be.");
+		}
+
+		int ahead = (packetID - next + SMSFraming.MAX_PACKET_ID + 1) % (SMSFraming.MAX_PACKET_ID + 1);
+		if(ahead >= WINDOW || waiting.containsKey(packetID)){
+			logger.debug("Threw out segment " + index + " of packet " + packetID + ", the packet has already been handed on.");
+			return;
+		}
+
+		Partial partial = partials.get(packetID);
+		if(partial == null){
+			partial = new Partial(count);
+			partials.put(packetID, partial);
+		}else if(partial.segments.length != count){
+			throw new IllegalArgumentException("packet " + packetID + " was sent in " + partial.segments.length + " segments, not " + count + ".");
+		}
+
+		if(partial.segments[index] != null){
+			return;
+		}
+
+		byte[] bytes = SMSFraming.decode(text, SMSFraming.HEADER_CHARS, text.length() - SMSFraming.HEADER_CHARS - 1);
+		partial.segments[index] = bytes;
+		partial.length += bytes.length;
+		partial.received++;
+
+		if(partial.received < count){
+			return;
+		}
+
+		//the packet is whole, join its segments
+		byte[] packet = new byte[partial.length];
+		int position = 0;
+		for(byte[] segment : partial.segments){
+			System.arraycopy(segment, 0, packet, position, segment.length);
+			position += segment.length;
+		}
+
+		partials.remove(packetID);
+		waiting.put(packetID, packet);
+		if(waitingSince < 0){
+			waitingSince = now;
+		}
+	}
+
+	/**
+	 * The segments of a packet that have arrived so far
+	 *
+	 * @author Johnathan Pagnutti
+	 */
+	private static class Partial {
+
+		//the bytes of each segment, or null for those not in yet
+		final byte[][] segments;
+
+		//the number of segments in, and the bytes in them
+		int received = 0;
+		int length = 0;
+
+		Partial(int count){
+			segments = new byte[count][];
+		}
+	}
+}
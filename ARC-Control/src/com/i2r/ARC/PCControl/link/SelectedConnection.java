@@ -0,0 +1,25 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl.link;
+
+import com.i2r.ARC.PCControl.DataManager.ARCDataManager;
+import com.i2r.ARC.PCControl.DataManager.ARCDataParser;
+
+/**
+ * Interface for a {@link RemoteConnection} that is read by a thread its link shares between all of its connections, rather than by
+ * a read thread of its own.  Whatever the connection reads is handed straight to a parser, so an {@link ARCDataManager} over one of
+ * these doesn't start a read thread, and {@link RemoteConnection#dataIn} is null.
+ *
+ * @author Johnathan Pagnutti
+ */
+public interface SelectedConnection {
+
+	/**
+	 * Start reading from the connection.  Every chunk read is handed to the parser, in order, until the connection is closed or
+	 * the remote device hangs up, at which point the parser is stopped.  Only the first call does anything.
+	 *
+	 * @param parser the parser to hand what is read to
+	 */
+	public void startReading(ARCDataParser parser);
+}
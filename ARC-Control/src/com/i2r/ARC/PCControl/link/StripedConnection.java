@@ -0,0 +1,47 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl.link;
+
+/**
+ * Interface for a {@link RemoteConnection} whose remote device can open extra sockets alongside it, for bulk data to be striped
+ * over.  The extra sockets only ever carry checked binary frames, which are put back in order by their sequence numbers, so the
+ * connection itself is left to commands and notifications.
+ *
+ * @author Johnathan Pagnutti
+ */
+public interface StripedConnection {
+
+	/**
+	 * Get ready for the remote device to open extra sockets for this connection.  Each one is handed to the listener as it shows up,
+	 * until the connection is closed, which closes them too.
+	 *
+	 * @param listener who to hand each extra socket to
+	 * @return the port the remote device should open the sockets to, then the token each has to start with, or null if this
+	 * connection can't have extra sockets
+	 */
+	public int[] expectStripes(StripeListener listener);
+
+	/**
+	 * Interface for whoever reads the extra sockets of a {@link StripedConnection}
+	 *
+	 * @author Johnathan Pagnutti
+	 */
+	public interface StripeListener {
+
+		/**
+		 * Called each time the remote device opens an extra socket.  Nothing is read from it until it is started.
+		 *
+		 * @param stripe the extra socket
+		 */
+		public void stripeOpened(SelectedConnection stripe);
+
+		/**
+		 * Called when a stripe closes while the connection it belongs to is still open.  Whatever was on its way over it may never
+		 * arrive.
+		 *
+		 * @param stripe the stripe
+		 */
+		public void stripeClosed(SelectedConnection stripe);
+	}
+}
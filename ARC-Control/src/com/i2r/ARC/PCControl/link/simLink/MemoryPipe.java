@@ -0,0 +1,121 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl.link.simLink;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.i2r.ARC.PCControl.DataManager.ChunkRingBuffer;
+
+/**
+ * A one way, in memory stand in for a socket: whatever is written to {@link #out} can be read from {@link #in}, in order.
+ * <p>
+ * Each write is copied into a slice of a {@link ChunkRingBuffer}, so writes block once the ring is full, the same as a socket's
+ * send buffer filling up, until the reader catches up.  The ring only has one end each, so only one thread may write at a time,
+ * and only one thread may read.  Closing either end closes the pipe: the reader gets whatever was already written, then the end
+ * of the stream, and the writer gets an {@link IOException}.
+ *
+ * @author Johnathan Pagnutti
+ */
+class MemoryPipe {
+
+	/**
+	 * The number of writes the pipe holds before a writer has to wait for the reader
+	 */
+	public static final int CAPACITY = 64;
+
+	private final ChunkRingBuffer ring = new ChunkRingBuffer(CAPACITY);
+
+	//the slice being read, and how far into it the reader is.  Only touched by the reader
+	private byte[] current;
+	private int position;
+
+	/**
+	 * The end of the pipe to read from
+	 */
+	final InputStream in = new InputStream(){
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return (read(b, 0, 1) == -1) ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(len == 0){
+				return 0;
+			}
+
+			if(current == null || position == current.length){
+				try {
+					current = ring.take();
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted while reading.");
+				}
+				position = 0;
+
+				if(current == null){
+					return -1;
+				}
+			}
+
+			int count = Math.min(len, current.length - position);
+			System.arraycopy(current, position, b, off, count);
+			position += count;
+			return count;
+		}
+
+		@Override
+		public int available(){
+			return (current == null) ? 0 : current.length - position;
+		}
+
+		@Override
+		public void close(){
+			ring.close();
+		}
+	};
+
+	/**
+	 * The end of the pipe to write to
+	 */
+	final OutputStream out = new OutputStream(){
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if(len == 0){
+				return;
+			}
+
+			//the ring owns what it is given, so it gets a copy
+			byte[] slice = new byte[len];
+			System.arraycopy(b, off, slice, 0, len);
+
+			try {
+				if(!ring.put(slice)){
+					throw new IOException("Pipe closed.");
+				}
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while writing.");
+			}
+		}
+
+		@Override
+		public void close(){
+			ring.close();
+		}
+	};
+
+	/**
+	 * Close both ends of the pipe
+	 */
+	void close(){
+		ring.close();
+	}
+}
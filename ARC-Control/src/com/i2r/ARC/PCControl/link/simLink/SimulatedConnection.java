@@ -0,0 +1,41 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl.link.simLink;
+
+import com.i2r.ARC.PCControl.link.RemoteConnection;
+
+/**
+ * A connection to a {@link SimulatedDevice} over a pair of {@link MemoryPipe}s.  It is read with a blocking stream, like a
+ * Bluetooth, USB or SMS connection.
+ *
+ * @author Johnathan Pagnutti
+ */
+class SimulatedConnection extends RemoteConnection<byte[]> {
+
+	private final MemoryPipe commands;
+	private final MemoryPipe responses;
+
+	/**
+	 * Constructor
+	 *
+	 * @param commands the pipe commands go to the device over
+	 * @param responses the pipe responses come back from the device over
+	 */
+	SimulatedConnection(MemoryPipe commands, MemoryPipe responses){
+		this.commands = commands;
+		this.responses = responses;
+
+		dataIn = responses.in;
+		dataOut = commands.out;
+	}
+
+	/**
+	 * Closes both pipes.  The device reads to the end of its commands, and stops.
+	 */
+	@Override
+	public void close() {
+		commands.close();
+		responses.close();
+	}
+}
@@ -0,0 +1,977 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl.link.simLink;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+import com.i2r.ARC.PCControl.CommandHeader;
+import com.i2r.ARC.PCControl.RemoteClientResponse;
+import com.i2r.ARC.PCControl.UnsupportedValueException;
+import com.i2r.ARC.PCControl.DataManager.ARCDataManager;
+import com.i2r.ARC.PCControl.DataManager.ARCProtocol;
+
+/**
+ * A remote device that doesn't need a phone.  It reads commands the way <code>CommandPacket</code> does on the android side, and
+ * answers them the way <code>CommandFilter</code> and <code>ResponsePacket</code> do, over whatever pair of streams it is given: an
+ * in memory {@link MemoryPipe} from a {@link SimulatedLink}, or a socket to a {@link com.i2r.ARC.PCControl.link.wifiLink.WifiLink}.
+ * <p>
+ * What it does with each command:
+ * <ul>
+ * <li>{@link CommandHeader#NEGOTIATE_PROTOCOL}: agrees to the newer of the version asked for and {@link Profile#protocolVersion},
+ * answering in the old framing and switching after.  Binary frames are always {@link ARCProtocol#FLAG_CHECKED}, and never
+ * compressed.</li>
+ * <li>{@link CommandHeader#CREDIT}: turns credit on, and adds what it grants.  Bulk frames wait for credit, just like
+ * <code>FrameScheduler</code>.</li>
+ * <li>{@link CommandHeader#CHUNK_BOUNDS}: cuts bulk data into pieces of the largest size allowed.</li>
+ * <li>{@link CommandHeader#RESUME}: always a new session, so any task it lists can't carry on.</li>
+ * <li>{@link CommandHeader#RETRANSMIT}: errors out, nothing sent is kept, so the controller sends the whole task again.</li>
+ * <li>{@link CommandHeader#GET_SENSOR_FEATURES}: describes a camera, microphone, environment and location sensor.</li>
+ * <li>{@link CommandHeader#TAKE_PICTURE}, {@link CommandHeader#RECORD_AUDIO}, {@link CommandHeader#LISTEN_ENVIRONMENT} and
+ * {@link CommandHeader#GET_LOCATION}: sends synthetic JPEGs, 16 bit PCM, environment readings and location fixes, at the rates and
+ * sizes in its {@link Profile}, then completes the task.</li>
+ * <li>{@link CommandHeader#KILL_TASK} and {@link CommandHeader#KILL_ALL}: stops the tasks and completes.</li>
+ * <li>{@link CommandHeader#STRIPE} and pings: nothing, the same as a device that has nowhere to open stripes to.</li>
+ * </ul>
+ * Commands are read on a thread of the device's own.  Sensor data is made on a few timer threads shared by every simulated device,
+ * so a thousand devices don't need thousands of threads on top of the controller's.  Every thread a simulated device uses has a
+ * name that starts with {@link #THREAD_PREFIX}, so they can be told apart from the controller's.
+ *
+ * @author Johnathan Pagnutti
+ */
+public class SimulatedDevice {
+
+	static final Logger logger = Logger.getLogger(SimulatedDevice.class);
+
+	/**
+	 * The start of the name of every thread a simulated device uses
+	 */
+	public static final String THREAD_PREFIX = "Sim-Device-";
+
+	/**
+	 * The line that ends every command, see {@link ARCDataManager}
+	 */
+	public static final String PACKET_END = "PACKET_COMPLETE";
+
+	/**
+	 * The longest, in milliseconds, a task waiting on credit goes before trying again
+	 */
+	public static final long RETRY_MILLIS = 50;
+
+	/**
+	 * The most pieces of sensor data a task holds while it waits on credit.  Data made past that is dropped, and counted as an
+	 * overrun, like a sensor buffer that overflows.
+	 */
+	public static final int MAX_PENDING = 32;
+
+	/**
+	 * The size bulk data is cut into until the controller sets chunk bounds
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+
+	/**
+	 * The value of an argument the controller left unset
+	 */
+	private static final int NO_ARGUMENT = -1;
+
+	/**
+	 * The timer threads every simulated device makes its sensor data on
+	 */
+	private static final ScheduledThreadPoolExecutor timers = new ScheduledThreadPoolExecutor(
+			Runtime.getRuntime().availableProcessors(), new ThreadFactory(){
+				private final AtomicInteger count = new AtomicInteger(0);
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r);
+					t.setName(THREAD_PREFIX + "Timer-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	static{
+		//a stopped device's tasks would otherwise sit in the queue until they were next due
+		timers.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * The features sent for the camera, microphone, environment and location, in the form <code>Feature.encode()</code> uses
+	 */
+	private static final Map<Integer, String> FEATURES = new HashMap<Integer, String>();
+
+	static{
+		FEATURES.put(RemoteClientResponse.DATA_TYPE_CAMERA_ARGS, "picture-format\njpeg\n5\n7\n1\njpeg\n&");
+		FEATURES.put(RemoteClientResponse.DATA_TYPE_MICROPHONE_ARGS, "audio-recording-duration\n-1\n3\n6\n2\n1\n"
+				+ Integer.MAX_VALUE + "\n&");
+		FEATURES.put(RemoteClientResponse.DATA_TYPE_ENVIRONMENT_ARGS, "sensor-rate\n100\n3\n6\n2\n1\n60000\n&");
+		FEATURES.put(RemoteClientResponse.DATA_TYPE_LOCATION_ARGS, "location-rate\n1000\n3\n6\n2\n1\n60000\n&");
+	}
+
+	private final String name;
+	private final Profile profile;
+	private final InputStream commands;
+	private final OutputStream responses;
+
+	//guards writing a response, and everything about the framing: version, credit, chunk size and sequence numbers
+	private final Object writeLock = new Object();
+	private int protocolVersion = ARCProtocol.TEXT_VERSION;
+	private boolean creditOn = false;
+	private final Map<Integer, Integer> credit = new HashMap<Integer, Integer>();
+	private final Map<Integer, Integer> sequences = new HashMap<Integer, Integer>();
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private final CRC32 check = new CRC32();
+
+	//the tasks making sensor data, by task ID.  Guarded by itself
+	private final Map<Integer, SensorTask> tasks = new HashMap<Integer, SensorTask>();
+
+	private volatile boolean stopped = false;
+
+	private final AtomicLong bytesWritten = new AtomicLong(0);
+	private final AtomicLong framesWritten = new AtomicLong(0);
+	private final AtomicLong creditWaits = new AtomicLong(0);
+	private final AtomicLong overruns = new AtomicLong(0);
+
+	//made once, and sent over and over
+	private final byte[] picture;
+	private final byte[] tone;
+	private final Random random = new Random();
+
+	/**
+	 * Constructor.  Nothing is read until {@link #start()} is called.
+	 *
+	 * @param name the name of the device, for the logs and its thread
+	 * @param profile the rates and sizes to make sensor data at
+	 * @param commands where commands from the controller are read from
+	 * @param responses where responses to the controller are written to
+	 */
+	public SimulatedDevice(String name, Profile profile, InputStream commands, OutputStream responses){
+		this.name = name;
+		this.profile = profile;
+		this.commands = commands;
+		this.responses = responses;
+
+		picture = makePicture(profile.pictureBytes);
+		tone = makeTone(profile.audioBytesPerSecond);
+	}
+
+	/**
+	 * Start reading commands
+	 */
+	public void start(){
+		Thread t = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				readCommands();
+			}
+		});
+		t.setName(THREAD_PREFIX + "Reader-" + name);
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * Stop every task, and close both streams
+	 */
+	public void stop(){
+		stopped = true;
+
+		synchronized(tasks){
+			for(SensorTask task : tasks.values()){
+				task.cancel();
+			}
+			tasks.clear();
+		}
+
+		try {
+			commands.close();
+		} catch (IOException e) {
+			logger.error(e.getMessage(), e);
+		}
+
+		try {
+			responses.close();
+		} catch (IOException e) {
+			logger.error(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return true once the device has been stopped, or the controller has gone away
+	 */
+	public boolean isStopped(){
+		return stopped;
+	}
+
+	/**
+	 * @return the number of bytes written to the controller
+	 */
+	public long getBytesWritten(){
+		return bytesWritten.get();
+	}
+
+	/**
+	 * @return the number of responses written to the controller
+	 */
+	public long getFramesWritten(){
+		return framesWritten.get();
+	}
+
+	/**
+	 * @return the number of times a task had bulk data ready, but had to wait on the controller for credit
+	 */
+	public long getCreditWaits(){
+		return creditWaits.get();
+	}
+
+	/**
+	 * @return the number of pieces of sensor data dropped because too many were already waiting on credit
+	 */
+	public long getOverruns(){
+		return overruns.get();
+	}
+
+	@Override
+	public String toString(){
+		return name;
+	}
+
+	/**
+	 * Reads commands until the stream ends, and performs each one
+	 */
+	private void readCommands(){
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(commands, "US-ASCII"));
+			List<String> lines = new ArrayList<String>();
+
+			String line;
+			while(!stopped && (line = reader.readLine()) != null){
+				if(line.equals(PACKET_END)){
+					perform(lines);
+					lines.clear();
+				}else{
+					lines.add(line);
+				}
+			}
+		} catch (IOException e) {
+			if(!stopped){
+				logger.debug(name + " stopped reading: " + e.getMessage());
+			}
+		}
+
+		stop();
+	}
+
+	/**
+	 * Performs one command
+	 *
+	 * @param lines the task ID, the command type, then each argument
+	 */
+	private void perform(List<String> lines){
+		if(lines.size() < 2){
+			logger.error(name + " got a command with no task ID or type.");
+			return;
+		}
+
+		int taskID;
+		CommandHeader header;
+		try {
+			taskID = Integer.parseInt(lines.get(0));
+			header = CommandHeader.get(Integer.parseInt(lines.get(1)));
+		} catch (NumberFormatException e) {
+			logger.error(name + " got a command it couldn't read: " + lines);
+			return;
+		} catch (UnsupportedValueException e) {
+			notify(0, RemoteClientResponse.TASK_ERRORED_ARGUMENT, "command is unknown");
+			return;
+		}
+
+		int[] args = new int[lines.size() - 2];
+		for(int i = 0; i < args.length; i++){
+			try {
+				args[i] = Integer.parseInt(lines.get(i + 2));
+			} catch (NumberFormatException e) {
+				args[i] = NO_ARGUMENT;
+			}
+		}
+
+		switch(header){
+		case DO_NOTHING:
+		case STRIPE:
+			break;
+		case NEGOTIATE_PROTOCOL:
+			negotiate(taskID, args);
+			break;
+		case CREDIT:
+			grant(args);
+			break;
+		case CHUNK_BOUNDS:
+			synchronized(writeLock){
+				if(args.length > 1 && args[1] > 0){
+					chunkSize = args[1];
+				}
+			}
+			break;
+		case RESUME:
+			resume(taskID, args);
+			break;
+		case RETRANSMIT:
+			notify(taskID, RemoteClientResponse.TASK_ERRORED_ARGUMENT, "frames are not kept");
+			break;
+		case GET_SENSOR_FEATURES:
+			features(taskID, args);
+			break;
+		case TAKE_PICTURE:
+			//frequency, then how long to take them for, or how many to take
+			long interval = (args.length > 0 && args[0] > 0) ? args[0] : profile.pictureMillis;
+			int amount = (args.length > 2) ? args[2] : NO_ARGUMENT;
+			long duration = (args.length > 1 && args[1] > 0) ? args[1] : profile.streamMillis;
+			run(new PictureTask(taskID, interval, amount, duration));
+			break;
+		case RECORD_AUDIO:
+			run(new AudioTask(taskID, (args.length > 0 && args[0] > 0) ? args[0] : profile.streamMillis));
+			break;
+		case LISTEN_ENVIRONMENT:
+			run(new EnvironmentTask(taskID, profile.streamMillis));
+			break;
+		case GET_LOCATION:
+			run(new LocationTask(taskID, profile.streamMillis));
+			break;
+		case KILL_TASK:
+			if(args.length > 0){
+				SensorTask killed;
+				synchronized(tasks){
+					killed = tasks.remove(args[0]);
+				}
+				if(killed != null){
+					killed.cancel();
+				}
+			}
+			notify(taskID, RemoteClientResponse.TASK_COMPLETE_ARGUMENT, null);
+			break;
+		case KILL_ALL:
+			synchronized(tasks){
+				for(SensorTask task : tasks.values()){
+					task.cancel();
+				}
+				tasks.clear();
+			}
+			notify(taskID, RemoteClientResponse.TASK_COMPLETE_ARGUMENT, null);
+			break;
+		case MODIFY_SENSOR:
+			notify(taskID, RemoteClientResponse.TASK_COMPLETE_ARGUMENT, null);
+			break;
+		default:
+			notify(taskID, RemoteClientResponse.TASK_ERRORED_ARGUMENT, "command is unknown");
+			break;
+		}
+	}
+
+	/**
+	 * Answer a negotiate command in the old framing, then switch to the agreed one
+	 */
+	private void negotiate(int taskID, int[] args){
+		if(args.length == 0){
+			notify(taskID, RemoteClientResponse.TASK_ERRORED_ARGUMENT, null);
+			return;
+		}
+
+		int version = Math.max(ARCProtocol.TEXT_VERSION, Math.min(args[0], profile.protocolVersion));
+
+		synchronized(writeLock){
+			write(taskID, RemoteClientResponse.DATA_TYPE_PROTOCOL, String.valueOf(version).getBytes(), false);
+			protocolVersion = version;
+		}
+
+		notify(taskID, RemoteClientResponse.TASK_COMPLETE_ARGUMENT, null);
+	}
+
+	/**
+	 * Turn credit on, if responses are binary, and add to the credit of every task listed
+	 */
+	private void grant(int[] args){
+		synchronized(writeLock){
+			if(protocolVersion != ARCProtocol.BINARY_VERSION){
+				return;
+			}
+
+			creditOn = true;
+			for(int i = 0; i + 1 < args.length; i += 2){
+				credit.put(args[i], creditOf(args[i]) + args[i + 1]);
+			}
+		}
+	}
+
+	/**
+	 * A simulated device never has anything left from an old session, so every task listed is lost
+	 */
+	private void resume(int taskID, int[] args){
+		StringBuilder lost = new StringBuilder();
+		for(int i = 1; i + 1 < args.length; i += 2){
+			if(lost.length() > 0){
+				lost.append(' ');
+			}
+			lost.append(args[i]);
+		}
+
+		if(lost.length() == 0){
+			notify(taskID, RemoteClientResponse.TASK_COMPLETE_ARGUMENT, null);
+		}else{
+			notify(taskID, RemoteClientResponse.TASK_ERRORED_ARGUMENT, lost.toString());
+		}
+	}
+
+	/**
+	 * Describe each sensor asked for, every sensor if none were
+	 */
+	private void features(int taskID, int[] args){
+		List<Integer> sensors = new ArrayList<Integer>();
+		for(int sensor : args){
+			if(sensor == NO_ARGUMENT){
+				sensors.addAll(FEATURES.keySet());
+			}else{
+				sensors.add(sensor);
+			}
+		}
+
+		for(Integer sensor : sensors){
+			String features = FEATURES.get(sensor);
+			if(features == null){
+				notify(taskID, RemoteClientResponse.UNSUPPORTED_SENSOR, String.valueOf(sensor));
+				return;
+			}
+			send(taskID, sensor, features.getBytes());
+		}
+
+		notify(taskID, RemoteClientResponse.TASK_COMPLETE_ARGUMENT, null);
+	}
+
+	/**
+	 * Start a task making sensor data, stopping any other with the same ID
+	 */
+	private void run(SensorTask task){
+		SensorTask old;
+		synchronized(tasks){
+			if(stopped){
+				return;
+			}
+			old = tasks.put(task.taskID, task);
+			task.future = timers.scheduleAtFixedRate(task, 0, Math.min(task.period, RETRY_MILLIS), TimeUnit.MILLISECONDS);
+		}
+
+		if(old != null){
+			old.cancel();
+		}
+	}
+
+	/**
+	 * Send a notification
+	 *
+	 * @param taskID the task it is for
+	 * @param code one of the {@link RemoteClientResponse} notify codes
+	 * @param message the message to go with it, or null
+	 */
+	private void notify(int taskID, String code, String message){
+		send(taskID, RemoteClientResponse.DATA_TYPE_NOTIFY, ((message == null) ? code : code + "\n" + message + "\n").getBytes());
+	}
+
+	/**
+	 * Send a response that isn't bulk data
+	 */
+	private void send(int taskID, int dataType, byte[] data){
+		synchronized(writeLock){
+			write(taskID, dataType, data, true);
+		}
+	}
+
+	/**
+	 * Send a piece of bulk data, if its task has the credit for it
+	 *
+	 * @return true if it was sent, false if it has to wait for more credit
+	 */
+	private boolean sendBulk(int taskID, int dataType, byte[] data){
+		synchronized(writeLock){
+			if(creditOn){
+				int length = ARCProtocol.frameLength(true, sequenceOf(taskID), taskID, data.length);
+				int left = creditOf(taskID);
+				if(left < length){
+					return false;
+				}
+				credit.put(taskID, left - length);
+			}
+
+			write(taskID, dataType, data, true);
+			return true;
+		}
+	}
+
+	/**
+	 * Write a response in the current framing.  Must be called holding the write lock.
+	 *
+	 * @param number false to leave a binary frame's sequence number alone, for an answer sent before responses were binary
+	 */
+	private void write(int taskID, int dataType, byte[] data, boolean number){
+		if(stopped){
+			return;
+		}
+
+		byte[] encoded;
+		if(protocolVersion == ARCProtocol.BINARY_VERSION){
+			int sequence = sequenceOf(taskID);
+			if(number){
+				sequences.put(taskID, sequence + 1);
+			}
+			encoded = encodeFrame(taskID, dataType, data, sequence);
+		}else{
+			encoded = encodePacket(taskID, dataType, data);
+		}
+
+		try {
+			responses.write(encoded);
+			responses.flush();
+			bytesWritten.addAndGet(encoded.length);
+			framesWritten.incrementAndGet();
+		} catch (IOException e) {
+			if(!stopped){
+				logger.debug(name + " lost the controller: " + e.getMessage());
+				stopped = true;
+			}
+		}
+	}
+
+	/**
+	 * @return the newline delimited ASCII response, see {@link ARCProtocol#TEXT_VERSION}
+	 */
+	private byte[] encodePacket(int taskID, int dataType, byte[] data){
+		ByteArrayOutputStream stream = new ByteArrayOutputStream(data.length + 24);
+		byte[] header = (taskID + "\n" + dataType + "\n" + data.length + "\n").getBytes();
+		stream.write(header, 0, header.length);
+		stream.write(data, 0, data.length);
+		return stream.toByteArray();
+	}
+
+	/**
+	 * @return the checked binary frame, see {@link ARCProtocol#BINARY_VERSION}
+	 */
+	private byte[] encodeFrame(int taskID, int dataType, byte[] data, int sequence){
+		ByteArrayOutputStream stream = new ByteArrayOutputStream(ARCProtocol.FRAME_PREAMBLE_SIZE + 3 * ARCProtocol.MAX_VARINT_BYTES + 1);
+		stream.write(ARCProtocol.FRAME_MAGIC);
+		stream.write(ARCProtocol.BINARY_VERSION);
+		stream.write(ARCProtocol.FLAG_CHECKED);
+		writeVarint(stream, sequence);
+		writeVarint(stream, taskID);
+		stream.write(dataType);
+		writeVarint(stream, data.length);
+		byte[] header = stream.toByteArray();
+
+		byte[] frame = new byte[header.length + data.length + ARCProtocol.CHECK_SIZE];
+		System.arraycopy(header, 0, frame, 0, header.length);
+		System.arraycopy(data, 0, frame, header.length, data.length);
+
+		check.reset();
+		check.update(frame, 0, header.length + data.length);
+		int crc = (int) check.getValue();
+
+		int end = header.length + data.length;
+		frame[end] = (byte) (crc >>> 24);
+		frame[end + 1] = (byte) (crc >>> 16);
+		frame[end + 2] = (byte) (crc >>> 8);
+		frame[end + 3] = (byte) crc;
+		return frame;
+	}
+
+	private static void writeVarint(ByteArrayOutputStream stream, int value){
+		while((value & ~0x7F) != 0){
+			stream.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		stream.write(value);
+	}
+
+	/**
+	 * Must be called holding the write lock
+	 */
+	private int creditOf(int taskID){
+		Integer left = credit.get(taskID);
+		return (left == null) ? ARCProtocol.INITIAL_CREDIT : left;
+	}
+
+	/**
+	 * Must be called holding the write lock
+	 */
+	private int sequenceOf(int taskID){
+		Integer next = sequences.get(taskID);
+		return (next == null) ? 0 : next;
+	}
+
+	/**
+	 * @return the current chunk size
+	 */
+	private int chunkSize(){
+		synchronized(writeLock){
+			return chunkSize;
+		}
+	}
+
+	/**
+	 * @return a JPEG's start and end markers around random bytes, the given size in all
+	 */
+	private static byte[] makePicture(int size){
+		byte[] start = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0x00, 0x10, 'J', 'F', 'I', 'F', 0x00, 0x01, 0x01,
+				0x00, 0x00, 0x01, 0x00, 0x01, 0x00, 0x00};
+		byte[] data = new byte[Math.max(size, start.length + 2)];
+		new Random().nextBytes(data);
+		System.arraycopy(start, 0, data, 0, start.length);
+		data[data.length - 2] = (byte) 0xFF;
+		data[data.length - 1] = (byte) 0xD9;
+		return data;
+	}
+
+	/**
+	 * @return one second of a 440Hz tone, as 16 bit little endian PCM, at however many bytes a second there are
+	 */
+	private static byte[] makeTone(int bytesPerSecond){
+		int samples = Math.max(bytesPerSecond / 2, 1);
+		byte[] data = new byte[samples * 2];
+		for(int i = 0; i < samples; i++){
+			short sample = (short) (Math.sin(2 * Math.PI * 440 * i / samples) * Short.MAX_VALUE / 2);
+			data[2 * i] = (byte) sample;
+			data[2 * i + 1] = (byte) (sample >> 8);
+		}
+		return data;
+	}
+
+	/***************
+	 * INNER CLASSES
+	 ***************/
+
+	/**
+	 * The rates and sizes a {@link SimulatedDevice} makes sensor data at.  Every field can be changed before the device is made.
+	 *
+	 * @author Johnathan Pagnutti
+	 */
+	public static class Profile {
+
+		/**
+		 * The newest response framing the device will agree to
+		 */
+		public int protocolVersion = ARCProtocol.BINARY_VERSION;
+
+		/**
+		 * The size of each picture, in bytes
+		 */
+		public int pictureBytes = 64 * 1024;
+
+		/**
+		 * Milliseconds between pictures, if the command didn't say
+		 */
+		public long pictureMillis = 2000;
+
+		/**
+		 * Bytes of audio recorded each second.  16000 is 8kHz, 16 bit mono.
+		 */
+		public int audioBytesPerSecond = 16000;
+
+		/**
+		 * Milliseconds between pieces of audio
+		 */
+		public long audioMillis = 100;
+
+		/**
+		 * Milliseconds between environment readings
+		 */
+		public long environmentMillis = 100;
+
+		/**
+		 * Milliseconds between location fixes
+		 */
+		public long locationMillis = 1000;
+
+		/**
+		 * How long, in milliseconds, a task streams for if its command didn't say
+		 */
+		public long streamMillis = 30000;
+	}
+
+	/**
+	 * A task making sensor data on the timer threads, and sending it as its credit allows.  A task never runs on two timer threads
+	 * at once, so its own fields need no locking.
+	 *
+	 * @author Johnathan Pagnutti
+	 */
+	private abstract class SensorTask implements Runnable {
+
+		final int taskID;
+		final long period;
+		final long end;
+		final int dataType;
+
+		volatile ScheduledFuture<?> future;
+
+		//data made, but not sent yet
+		private final LinkedList<byte[]> pending = new LinkedList<byte[]>();
+		private long next;
+		private boolean done = false;
+
+		/**
+		 * @param taskID the task
+		 * @param period milliseconds between pieces of data
+		 * @param duration how long to make data for, in milliseconds
+		 * @param dataType the data type of the pieces
+		 */
+		SensorTask(int taskID, long period, long duration, int dataType){
+			this.taskID = taskID;
+			this.period = Math.max(period, 1);
+			this.dataType = dataType;
+			this.next = System.currentTimeMillis();
+			this.end = next + duration;
+		}
+
+		/**
+		 * @param now the time
+		 * @return the next piece of data, or null if there is no more
+		 */
+		abstract byte[] make(long now);
+
+		@Override
+		public void run(){
+			if(stopped){
+				cancel();
+				return;
+			}
+
+			long now = System.currentTimeMillis();
+			while(!done && now >= next && ready()){
+				next += period;
+
+				byte[] data = (now < end) ? make(now) : null;
+				if(data == null){
+					done = true;
+				}else if(pending.size() >= MAX_PENDING){
+					overruns.incrementAndGet();
+				}else{
+					add(data);
+				}
+			}
+
+			while(!pending.isEmpty()){
+				if(!sendBulk(taskID, dataType, pending.peek())){
+					creditWaits.incrementAndGet();
+					return;
+				}
+				pending.poll();
+			}
+
+			if(done){
+				finished();
+			}
+		}
+
+		/**
+		 * @return true if the task can make its next piece of data
+		 */
+		boolean ready(){
+			return true;
+		}
+
+		/**
+		 * @return true if there is data made, but not sent yet
+		 */
+		boolean isPending(){
+			return !pending.isEmpty();
+		}
+
+		/**
+		 * Queue a piece of data to be sent, cut down to the chunk size
+		 */
+		void add(byte[] data){
+			int size = chunkSize();
+			for(int off = 0; off < data.length; off += size){
+				int length = Math.min(size, data.length - off);
+				byte[] piece = new byte[length];
+				System.arraycopy(data, off, piece, 0, length);
+				pending.add(piece);
+			}
+		}
+
+		/**
+		 * Called once every piece of data has been sent
+		 */
+		void finished(){
+			cancel();
+			synchronized(tasks){
+				if(tasks.get(taskID) == this){
+					tasks.remove(taskID);
+				}
+			}
+			SimulatedDevice.this.notify(taskID, RemoteClientResponse.TASK_COMPLETE_ARGUMENT, null);
+		}
+
+		void cancel(){
+			ScheduledFuture<?> f = future;
+			if(f != null){
+				f.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Takes a picture every so often, for so long or until it has taken so many, moving the controller on to the next picture
+	 * after each one
+	 */
+	private class PictureTask extends SensorTask {
+
+		private int left;
+		private boolean waiting = false;
+
+		PictureTask(int taskID, long interval, int amount, long duration){
+			super(taskID, interval, (amount > 0) ? Long.MAX_VALUE / 2 : duration, RemoteClientResponse.DATA_TYPE_IMAGE);
+			this.left = amount;
+		}
+
+		@Override
+		byte[] make(long now){
+			if(left == 0){
+				return null;
+			}
+			if(left > 0){
+				left--;
+			}
+
+			//stamp the picture, so no two are the same
+			byte[] data = picture.clone();
+			long stamp = now;
+			for(int i = 20; i < 28 && i < data.length - 2; i++){
+				data[i] = (byte) stamp;
+				stamp >>>= 8;
+			}
+			return data;
+		}
+
+		@Override
+		public void run(){
+			super.run();
+
+			//once the last piece of a picture is out, the controller can save it
+			if(waiting && !isPending()){
+				SimulatedDevice.this.notify(taskID, RemoteClientResponse.NEXT_PICTURE, null);
+				waiting = false;
+			}
+		}
+
+		@Override
+		boolean ready(){
+			//a picture has to be all the way out before the next is taken
+			return !waiting;
+		}
+
+		@Override
+		void add(byte[] data){
+			super.add(data);
+			waiting = true;
+		}
+
+		@Override
+		void finished(){
+			if(waiting){
+				SimulatedDevice.this.notify(taskID, RemoteClientResponse.NEXT_PICTURE, null);
+				waiting = false;
+			}
+			super.finished();
+		}
+	}
+
+	/**
+	 * Records 16 bit PCM
+	 */
+	private class AudioTask extends SensorTask {
+
+		private int position = 0;
+
+		AudioTask(int taskID, long duration){
+			super(taskID, profile.audioMillis, duration, RemoteClientResponse.DATA_TYPE_AUDIO);
+		}
+
+		@Override
+		byte[] make(long now){
+			int size = (int) ((long) profile.audioBytesPerSecond * period / 1000) & ~1;
+			byte[] data = new byte[Math.max(size, 2)];
+			for(int i = 0; i < data.length; i++){
+				data[i] = tone[position];
+				position = (position + 1) % tone.length;
+			}
+			return data;
+		}
+	}
+
+	/**
+	 * Reads an accelerometer and a light sensor
+	 */
+	private class EnvironmentTask extends SensorTask {
+
+		EnvironmentTask(int taskID, long duration){
+			super(taskID, profile.environmentMillis, duration, RemoteClientResponse.DATA_TYPE_ENVIRONMENT);
+		}
+
+		@Override
+		byte[] make(long now){
+			StringBuilder sb = new StringBuilder();
+			sb.append("3-axis Accelerometer\n").append(now).append('\n');
+			sb.append(random.nextGaussian() * 0.1).append('\n');
+			sb.append(9.81 + random.nextGaussian() * 0.1).append('\n');
+			sb.append(random.nextGaussian() * 0.1).append('\n');
+			sb.append("accuracy-status-high\n");
+			sb.append("Light sensor\n").append(now).append('\n');
+			sb.append(300 + random.nextInt(50)).append(".0\n");
+			sb.append("accuracy-status-high\n");
+			return sb.toString().getBytes();
+		}
+	}
+
+	/**
+	 * Walks about, a few meters at a time
+	 */
+	private class LocationTask extends SensorTask {
+
+		private double latitude = 40.0 + random.nextDouble();
+		private double longitude = -75.0 + random.nextDouble();
+
+		LocationTask(int taskID, long duration){
+			super(taskID, profile.locationMillis, duration, RemoteClientResponse.DATA_TYPE_LOCATION);
+		}
+
+		@Override
+		byte[] make(long now){
+			latitude += random.nextGaussian() * 0.00003;
+			longitude += random.nextGaussian() * 0.00003;
+
+			StringBuilder sb = new StringBuilder();
+			sb.append("Location[mProvider=gps mTime=").append(now);
+			sb.append(" mLatitude=").append(latitude).append(" mLongitude=").append(longitude);
+			sb.append(" mHasAltitude=true mAltitude=").append(100 + random.nextInt(5));
+			sb.append(" mHasSpeed=false mSpeed=0.0 mHasBearing=false mBearing=0.0");
+			sb.append(" mHasAccuracy=true mAccuracy=5.0 mExtras=null]\n");
+			return sb.toString().getBytes();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl.link.simLink;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.i2r.ARC.PCControl.link.RemoteConnection;
+import com.i2r.ARC.PCControl.link.RemoteLink;
+
+/**
+ * A link to a fixed number of {@link SimulatedDevice}s, all in memory.  Unlike the {@link com.i2r.ARC.PCControl.link.lineLink.CommandLineLink},
+ * what is on the other end of each connection speaks the same protocol a phone does, so the controller can be run against any
+ * number of devices without any phones.
+ * <p>
+ * Every device is found as soon as the link is made.  Connecting to one starts a new {@link SimulatedDevice} for it, so a device
+ * that is connected to again starts over, as a phone does after it has been restarted.
+ *
+ * @author Johnathan Pagnutti
+ */
+public class SimulatedLink implements RemoteLink<byte[]> {
+
+	/**
+	 * The start of every connection URL
+	 */
+	public static final String URL_PREFIX = "simulated-";
+
+	private final int count;
+	private final SimulatedDevice.Profile profile;
+
+	//the device started for each URL.  Guarded by itself
+	private final Map<String, SimulatedDevice> devices = new LinkedHashMap<String, SimulatedDevice>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param count the number of devices
+	 * @param profile the rates and sizes every device makes sensor data at
+	 */
+	public SimulatedLink(int count, SimulatedDevice.Profile profile){
+		this.count = count;
+		this.profile = profile;
+	}
+
+	@Override
+	public void searchForConnections() {
+		//every device is there from the start
+	}
+
+	@Override
+	public List<String> currentConnections() {
+		if(count <= 0){
+			return null;
+		}
+
+		List<String> urls = new ArrayList<String>(count);
+		for(int i = 0; i < count; i++){
+			urls.add(URL_PREFIX + i);
+		}
+		return urls;
+	}
+
+	@Override
+	public RemoteConnection<byte[]> connect(String connectionURL) {
+		MemoryPipe commands = new MemoryPipe();
+		MemoryPipe responses = new MemoryPipe();
+		SimulatedDevice device = new SimulatedDevice(connectionURL, profile, commands.in, responses.out);
+
+		SimulatedDevice old;
+		synchronized(devices){
+			old = devices.put(connectionURL, device);
+		}
+		if(old != null){
+			old.stop();
+		}
+
+		device.start();
+		return new SimulatedConnection(commands, responses);
+	}
+
+	/**
+	 * @return the device started for each connection made so far
+	 */
+	public List<SimulatedDevice> getDevices(){
+		synchronized(devices){
+			return new ArrayList<SimulatedDevice>(devices.values());
+		}
+	}
+
+	/**
+	 * Stop every device
+	 */
+	public void close(){
+		for(SimulatedDevice device : getDevices()){
+			device.stop();
+		}
+	}
+}
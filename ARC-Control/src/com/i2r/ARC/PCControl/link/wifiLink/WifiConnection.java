@@ -8,22 +8,80 @@ import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.Logger;
 
+import com.i2r.ARC.PCControl.DataManager.ARCDataParser;
 import com.i2r.ARC.PCControl.link.RemoteConnection;
+import com.i2r.ARC.PCControl.link.SelectedConnection;
+import com.i2r.ARC.PCControl.link.StripedConnection;
 
 /**
  * Creates a wifi connection to some URL.  Because all of the actual connecting will happen via the OS and wifi Direct (which, if I understand
  * correctly, I can treat like a wireless AP), the only actual work to do is to connect directly to the agreed upon IP address.
+ * <p>
+ * Connections accepted by a {@link WifiLink} are non-blocking channels, and are read by one of the link's {@link WifiSelectorLoop}s
+ * rather than through {@link #dataIn}, which is null for them (@see {@link SelectedConnection}).  Writes still look like a blocking
+ * stream to the write thread; a write the socket can't take yet waits until it can.
+ * <p>
+ * A connection accepted by a {@link WifiLink} can also have its remote device open extra sockets for bulk data (see
+ * {@link StripedConnection}).  Those are connections of their own, read by the selector loops like any other, and closed along
+ * with this one.
  * 
  * @author Johnathan Pagnutti
  */
-public class WifiConnection extends RemoteConnection<byte[]> {
+public class WifiConnection extends RemoteConnection<byte[]> implements SelectedConnection, StripedConnection {
+	
+	/**
+	 * The size of the buffer writes to a channel go through
+	 */
+	public static final int WRITE_BUFFER_BYTES = 8192;
+	
+	/**
+	 * The longest, in milliseconds, a write waits for the socket to take more before checking again
+	 */
+	public static final long WRITE_WAIT_MILLIS = 1000;
+	
 	Socket TCPSocket;
 	
+	//the channel of a connection accepted by a WifiLink, and the selector loop that reads it.  Null otherwise
+	final SocketChannel channel;
+	private final WifiSelectorLoop loop;
+	private final ChannelOutputStream channelOut;
+	
+	//the link that accepted this connection, which accepts its stripes too.  Null for connections that can't have stripes
+	private final WifiLink link;
+	
+	//the stripes the remote device has opened for this connection, guarded by itself, and who reads them
+	private final List<WifiConnection> stripes = new ArrayList<WifiConnection>();
+	private volatile StripeListener stripeListener;
+	
+	//the token the link handed out for this connection's stripes, or -1
+	private int stripeToken = -1;
+	
+	//the connection this one is a stripe of, or null
+	private volatile WifiConnection owner;
+	
+	//the parser every chunk read is handed to, set when reading starts
+	volatile ARCDataParser parser;
+	
+	//a chunk the parser had no room for yet.  Only touched by the selector loop's thread
+	byte[] held;
+	
+	//set once reading has started, and once the connection has been closed
+	private final AtomicBoolean reading = new AtomicBoolean(false);
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+	
 	static final Logger logger = Logger.getLogger(WifiConnection.class);
 	
 	/**
@@ -36,7 +94,11 @@ public class WifiConnection extends RemoteConnection<byte[]> {
 	 * @throws UnknownHostException 
 	 */
 	public WifiConnection(String connectionURL) throws UnknownHostException, IOException {
-		TCPSocket = new Socket(connectionURL, 9001);
+		TCPSocket = new Socket(connectionURL, WifiLink.PORT);
+		channel = null;
+		loop = null;
+		channelOut = null;
+		link = null;
 		
 		dataIn = new DataInputStream(TCPSocket.getInputStream());
 		dataOut = new DataOutputStream(TCPSocket.getOutputStream());	
@@ -45,13 +107,118 @@ public class WifiConnection extends RemoteConnection<byte[]> {
 	public WifiConnection(Socket socket) throws IOException {
 		logger.debug("Connecting through passed socket.");
 		TCPSocket = socket;
+		channel = null;
+		loop = null;
+		channelOut = null;
+		link = null;
 		
 		dataIn = new DataInputStream( new BufferedInputStream(TCPSocket.getInputStream()));
 		dataOut = new DataOutputStream( new BufferedOutputStream(TCPSocket.getOutputStream()));
 	}
 
+	/**
+	 * Creates a connection over a channel accepted by a {@link WifiLink}.  Nothing is read until {@link #startReading(ARCDataParser)}
+	 * is called, so anything the remote device sends before then waits in the socket.
+	 * 
+	 * @param channel the accepted channel, already non-blocking
+	 * @param loop the selector loop that will read the channel
+	 * @param link the link to accept the connection's stripes on, or null if the connection is a stripe itself
+	 */
+	WifiConnection(SocketChannel channel, WifiSelectorLoop loop, WifiLink link) {
+		this.channel = channel;
+		this.loop = loop;
+		this.link = link;
+		TCPSocket = channel.socket();
+		
+		channelOut = new ChannelOutputStream();
+		
+		dataIn = null;
+		dataOut = new BufferedOutputStream(channelOut, WRITE_BUFFER_BYTES);
+	}
+	
+	/**
+	 * Implemented from {@link SelectedConnection}
+	 * 
+	 * Registers the connection with its selector loop
+	 */
+	@Override
+	public void startReading(ARCDataParser parser) {
+		if(channel == null){
+			throw new IllegalStateException("Only connections accepted by a WifiLink are read by a selector.");
+		}
+		
+		if(!reading.compareAndSet(false, true)){
+			logger.error("Already reading " + this + ".");
+			return;
+		}
+		
+		this.parser = parser;
+		loop.register(this);
+	}
+	
+	/**
+	 * Implemented from {@link StripedConnection}
+	 * 
+	 * Has the link that accepted this connection accept stripes for it
+	 */
+	@Override
+	public int[] expectStripes(StripeListener listener) {
+		if(link == null || !isOpen()){
+			return null;
+		}
+		
+		synchronized(stripes){
+			stripeListener = listener;
+			if(stripeToken == -1){
+				stripeToken = link.expectStripes(this);
+			}
+			if(stripeToken == -1){
+				return null;
+			}
+			return new int[]{link.getStripePort(), stripeToken};
+		}
+	}
+	
+	/**
+	 * Called by the link when the remote device opens a stripe for this connection
+	 * 
+	 * @param stripe the stripe
+	 */
+	void stripeArrived(WifiConnection stripe) {
+		StripeListener l;
+		synchronized(stripes){
+			l = stripeListener;
+			if(!isOpen() || l == null){
+				stripe.close();
+				return;
+			}
+			stripes.add(stripe);
+			stripe.owner = this;
+		}
+		
+		logger.debug("Stripe " + stripe + " opened for " + this + ".");
+		l.stripeOpened(stripe);
+	}
+	
+	/**
+	 * @return true until the connection has been closed
+	 */
+	public boolean isOpen() {
+		return !closed.get() && (channel == null || channel.isOpen());
+	}
+	
+	@Override
+	public String toString() {
+		return String.valueOf(TCPSocket.getRemoteSocketAddress());
+	}
+	
 	@Override
 	public void close() {
+		if(channel != null){
+			closeChannel();
+			return;
+		}
+		
 		try {
 			dataOut.flush();
 			dataOut.close();
@@ -61,4 +228,131 @@ public class WifiConnection extends RemoteConnection<byte[]> {
 			logger.error(e.getMessage(), e);
 		}
 	}
+	
+	/**
+	 * Closes a channel accepted by a {@link WifiLink}, and stops its parser once it has parsed everything already read.  Called by
+	 * whoever is done with the connection, and by the selector loop when the remote device hangs up, so only the first call does
+	 * anything.  Anything still buffered to write is dropped; the write thread finds out the next time it writes.
+	 */
+	private void closeChannel() {
+		if(!closed.compareAndSet(false, true)){
+			return;
+		}
+		
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.error(e.getMessage(), e);
+		}
+		
+		if(reading.get()){
+			loop.closed();
+			parser.stop();
+		}
+		
+		channelOut.closeSelector();
+		
+		//the stripes only mean anything alongside this connection
+		List<WifiConnection> open;
+		synchronized(stripes){
+			open = new ArrayList<WifiConnection>(stripes);
+			stripes.clear();
+			if(stripeToken != -1){
+				link.forgetStripes(stripeToken);
+			}
+		}
+		
+		for(WifiConnection stripe : open){
+			stripe.close();
+		}
+		
+		WifiConnection o = owner;
+		if(o != null){
+			o.stripeLost(this);
+		}
+	}
+	
+	/**
+	 * Called when one of this connection's stripes closes
+	 * 
+	 * @param stripe the stripe
+	 */
+	private void stripeLost(WifiConnection stripe) {
+		StripeListener l;
+		synchronized(stripes){
+			//this connection closing closes its stripes, and nothing is lost that isn't lost anyway
+			if(!stripes.remove(stripe) || !isOpen()){
+				return;
+			}
+			l = stripeListener;
+		}
+		
+		logger.debug("Stripe " + stripe + " of " + this + " closed.");
+		l.stripeClosed(stripe);
+	}
+	
+	/***************
+	 * INNER CLASSES
+	 ***************/
+	
+	/**
+	 * A blocking output stream over a non-blocking channel.  Only ever written to by one thread (the write thread of the
+	 * connection's data manager).  When the socket can't take any more, the write waits on a selector of its own until it can,
+	 * which leaves the link's selector loops to reading.
+	 * 
+	 * @author Johnathan Pagnutti
+	 */
+	private class ChannelOutputStream extends OutputStream {
+		
+		//opened the first time the socket fills up
+		private volatile Selector writeSelector;
+		
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+			while(buf.hasRemaining()){
+				if(channel.write(buf) == 0){
+					awaitWritable();
+				}
+			}
+		}
+		
+		/**
+		 * Waits until the socket can take more, or {@link WifiConnection#WRITE_WAIT_MILLIS} has passed
+		 */
+		private void awaitWritable() throws IOException {
+			if(writeSelector == null){
+				writeSelector = Selector.open();
+				channel.register(writeSelector, SelectionKey.OP_WRITE);
+			}
+			
+			writeSelector.select(WRITE_WAIT_MILLIS);
+			writeSelector.selectedKeys().clear();
+		}
+		
+		/**
+		 * Closes the selector writes wait on, if one was ever opened
+		 */
+		void closeSelector() {
+			Selector s = writeSelector;
+			if(s != null){
+				try {
+					s.close();
+				} catch (IOException e) {
+					logger.error(e.getMessage(), e);
+				}
+			}
+		}
+		
+		@Override
+		public void close() throws IOException {
+			closeSelector();
+			closeChannel();
+		}
+	}
 }
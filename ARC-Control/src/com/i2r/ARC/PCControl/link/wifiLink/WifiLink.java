@@ -3,13 +3,22 @@
  */
 package com.i2r.ARC.PCControl.link.wifiLink;
 
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.Logger;
@@ -23,81 +32,430 @@ import com.i2r.ARC.PCControl.link.RemoteLink;
  * Wifi is much slicker than Bluetooth, as we can pretty much create a connection outright from an IP address (that should be a constant).
  * 
  * The other option is to attempt to broadcast a request for IPs, and then see what replies.  But who does that.
+ * <p>
+ * Remote devices connect to us.  Once searching starts, the link keeps accepting devices on {@link #PORT} for as long as the
+ * controller runs, on a non-blocking accept loop.  {@link #currentConnections()} is still searching until the first device shows
+ * up, and gives back every device accepted up to then; any device after that is handed to the link's {@link ArrivalListener}
+ * as it arrives.  Every connection the link accepts is read by one of {@link #SELECTOR_THREADS} {@link WifiSelectorLoop}s, so
+ * a controller talking to many devices doesn't need a read thread for each of them.
+ * <p>
+ * Devices can also open extra sockets for bulk data, called stripes, on the port after the one they connect to (see
+ * {@link WifiConnection#expectStripes(com.i2r.ARC.PCControl.link.StripedConnection.StripeListener)}).  A stripe starts with the
+ * token the link handed out for the connection it belongs to, and is read by the selector loops like any other connection.
  * @see {@link RemoteLink}
  * @author Johnathan Pagnutti
  */
 public class WifiLink implements RemoteLink<byte[]> {
-
+	
 	static final Logger logger = Logger.getLogger(WifiLink.class);
 	
-	ServerSocket initalConn;
-	Map<String, Socket> dataConnections;
+	/**
+	 * The port remote devices connect to
+	 */
+	public static final int PORT = 9001;
+	
+	/**
+	 * The number of threads reading the link's connections
+	 */
+	public static final int SELECTOR_THREADS = 2;
+	
+	/**
+	 * The longest, in milliseconds, a stripe has to send its token once it has been accepted
+	 */
+	public static final int STRIPE_HELLO_MILLIS = 2000;
+	
+	ServerSocketChannel initalConn;
+	
+	//every open connection the link has accepted, by remote address, in the order they were accepted.  Guarded by itself
+	Map<String, WifiConnection> dataConnections;
 	
 	public AtomicBoolean completedSearching;
 	
+	//set once currentConnections() has given back the devices accepted so far, after which new devices go to the listener.
+	//Guarded by dataConnections
+	private boolean reported = false;
+	
+	private volatile ArrivalListener listener;
+	
+	private final WifiSelectorLoop[] loops = new WifiSelectorLoop[SELECTOR_THREADS];
+	
+	//the port stripes are accepted on, and the channel accepting them, opened the first time a connection expects stripes.
+	//Guarded by striping
+	private final int stripePort;
+	private ServerSocketChannel stripeConn = null;
+	
+	//the connections expecting stripes, by the token their stripes start with.  Guarded by itself
+	private final Map<Integer, WifiConnection> striping = new HashMap<Integer, WifiConnection>();
+	private final Random tokens = new Random();
+	
 	public WifiLink(){
+		this(PORT);
+	}
+	
+	/**
+	 * Constructor
+	 *
+	 * @param port the port to accept remote devices on
+	 */
+	public WifiLink(int port){
 		completedSearching = new AtomicBoolean(false);
-		dataConnections = new HashMap<String, Socket>();
-		
+		dataConnections = new LinkedHashMap<String, WifiConnection>();
+		stripePort = port + 1;
+	
 		try {
-			initalConn = new ServerSocket(9001);
+			initalConn = ServerSocketChannel.open();
+			initalConn.socket().setReuseAddress(true);
+			initalConn.socket().bind(new InetSocketAddress(port));
+			initalConn.configureBlocking(false);
 		} catch (IOException e) {
 			logger.error(e.getMessage(), e);
+			initalConn = null;
 		}
 	}
 	
+	/**
+	 * Set who is told about remote devices that connect after {@link #currentConnections()} has reported the first ones
+	 *
+	 * @param listener the listener
+	 */
+	public void setArrivalListener(ArrivalListener listener){
+		this.listener = listener;
+	}
+	
 	@Override
 	public void searchForConnections() {
+		if(initalConn == null){
+			//couldn't open the port, there is nothing to search
+			completedSearching.set(true);
+			return;
+		}
+	
+		try {
+			for(int i = 0; i < loops.length; i++){
+				loops[i] = new WifiSelectorLoop();
+	
+				Thread t = new Thread(loops[i]);
+				t.setName("Wifi-Selector-Thread-" + i);
+				t.setDaemon(true);
+				t.start();
+			}
+		} catch (IOException e) {
+			logger.error(e.getMessage(), e);
+			completedSearching.set(true);
+			return;
+		}
+	
 		Thread t = new Thread(new SearchForWifiConnectionsRunnable());
+		t.setName("Wifi-Accept-Thread");
+		t.setDaemon(true);
 		t.start();
 	}
-
+	
 	@Override
 	public List<String> currentConnections() {
-		if(completedSearching.compareAndSet(true, true)){
-			if(dataConnections.isEmpty()){
-				return null;
+		synchronized(dataConnections){
+			if(completedSearching.compareAndSet(true, true)){
+				//from here on, new devices go to the listener
+				reported = true;
+	
+				List<String> returnList = new ArrayList<String>(dataConnections.size());
+				for(Map.Entry<String, WifiConnection> entry : dataConnections.entrySet()){
+					if(entry.getValue().isOpen()){
+						returnList.add(entry.getKey());
+					}
+				}
+	
+				if(returnList.isEmpty()){
+					return null;
+				}else{
+					return returnList;
+				}
 			}else{
-				List<String> returnList = new ArrayList<String>(dataConnections.keySet().size());
-				returnList.addAll(dataConnections.keySet());
-				return returnList;
+				return RemoteLink.STILL_SEARCHING;
 			}
-		}else{
-			return RemoteLink.STILL_SEARCHING;
 		}
 	}
-
+	
 	@Override
 	public RemoteConnection<byte[]> connect(String connectionURL) {
-		try {
-			if(dataConnections.keySet().contains(connectionURL)){
-				return new WifiConnection(dataConnections.get(connectionURL));
-			}else{
+		synchronized(dataConnections){
+			WifiConnection conn = dataConnections.get(connectionURL);
+	
+			if(conn == null){
 				return null;
+			}else if(!conn.isOpen()){
+				//the device has gone away.  If it comes back, it will be accepted as a new connection
+				dataConnections.remove(connectionURL);
+				return null;
+			}else{
+				return conn;
+			}
+		}
+	}
+	
+	/**
+	 * Stop accepting devices and reading the ones already accepted
+	 */
+	public void close(){
+		try {
+			if(initalConn != null){
+				initalConn.close();
 			}
 		} catch (IOException e) {
 			logger.error(e.getMessage(), e);
-			return null;
+		}
+	
+		synchronized(striping){
+			try {
+				if(stripeConn != null){
+					stripeConn.close();
+				}
+			} catch (IOException e) {
+				logger.error(e.getMessage(), e);
+			}
+		}
+	
+		for(WifiSelectorLoop loop : loops){
+			if(loop != null){
+				loop.close();
+			}
 		}
 	}
-
+	
+	/**
+	 * @return the port stripes are accepted on
+	 */
+	int getStripePort(){
+		return stripePort;
+	}
+	
+	/**
+	 * Start accepting stripes for a connection, opening the stripe port if no connection has expected stripes before
+	 *
+	 * @param conn the connection to accept stripes for
+	 * @return the token the connection's stripes have to start with, or -1 if stripes can't be accepted
+	 */
+	int expectStripes(WifiConnection conn){
+		synchronized(striping){
+			if(stripeConn == null){
+				if(loops[0] == null){
+					//not searching, so there is nothing to read stripes with
+					return -1;
+				}
+	
+				try {
+					stripeConn = ServerSocketChannel.open();
+					stripeConn.socket().setReuseAddress(true);
+					stripeConn.socket().bind(new InetSocketAddress(stripePort));
+				} catch (IOException e) {
+					logger.error("Couldn't accept stripes on port " + stripePort + ".", e);
+					stripeConn = null;
+					return -1;
+				}
+	
+				Thread t = new Thread(new AcceptStripesRunnable(stripeConn));
+				t.setName("Wifi-Stripe-Accept-Thread");
+				t.setDaemon(true);
+				t.start();
+			}
+	
+			int token;
+			do {
+				token = tokens.nextInt(Integer.MAX_VALUE);
+			} while(striping.containsKey(token));
+	
+			striping.put(token, conn);
+			return token;
+		}
+	}
+	
+	/**
+	 * Stop accepting stripes for a connection, once it has been closed
+	 *
+	 * @param token the token the connection's stripes start with
+	 */
+	void forgetStripes(int token){
+		synchronized(striping){
+			striping.remove(token);
+		}
+	}
+	
+	/**
+	 * Add a newly accepted channel to the link, and tell the listener about it if the first devices have already been reported
+	 *
+	 * @param channel the accepted channel
+	 * @throws IOException if the channel could not be made non-blocking
+	 */
+	private void accepted(SocketChannel channel) throws IOException {
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+	
+		String connectionURL = channel.socket().getRemoteSocketAddress().toString();
+		WifiConnection conn = new WifiConnection(channel, leastLoadedLoop(), this);
+	
+		boolean announce;
+		synchronized(dataConnections){
+			dataConnections.put(connectionURL, conn);
+			announce = reported;
+			completedSearching.set(true);
+		}
+	
+		logger.debug("Accepted a wifi connection from " + connectionURL);
+	
+		ArrivalListener l = listener;
+		if(announce && l != null){
+			l.connectionArrived(connectionURL);
+		}
+	}
+	
+	/**
+	 * Hand a newly accepted stripe to the connection it belongs to, once it has sent its token
+	 *
+	 * @param channel the accepted channel, still blocking
+	 * @throws IOException if the token didn't arrive in time, or the channel could not be made non-blocking
+	 */
+	private void acceptedStripe(SocketChannel channel) throws IOException {
+		//the token is read straight off the socket, so nothing after it is taken before the selector loop reads the channel
+		channel.socket().setSoTimeout(STRIPE_HELLO_MILLIS);
+		int token = new DataInputStream(channel.socket().getInputStream()).readInt();
+	
+		WifiConnection conn;
+		synchronized(striping){
+			conn = striping.get(token);
+		}
+	
+		if(conn == null){
+			logger.error("Stripe from " + channel.socket().getRemoteSocketAddress() + " has a token no connection is expecting.");
+			channel.close();
+			return;
+		}
+	
+		channel.configureBlocking(false);
+		conn.stripeArrived(new WifiConnection(channel, leastLoadedLoop(), null));
+	}
+	
+	/**
+	 * @return the selector loop reading the fewest connections
+	 */
+	private WifiSelectorLoop leastLoadedLoop(){
+		WifiSelectorLoop best = loops[0];
+		for(WifiSelectorLoop loop : loops){
+			if(loop.getConnectionCount() < best.getConnectionCount()){
+				best = loop;
+			}
+		}
+		return best;
+	}
 	
 	/***************
-	 * INNER CLASS
+	 * INNER CLASSES
 	 ***************/
+	
+	/**
+	 * Interface for whoever wants to know about remote devices that connect to a {@link WifiLink} after its first devices have
+	 * been reported by {@link WifiLink#currentConnections()}
+	 *
+	 * @author Johnathan Pagnutti
+	 */
+	public interface ArrivalListener {
+	
+		/**
+		 * Called on the link's accept thread each time a new remote device connects
+		 *
+		 * @param connectionURL the URL to pass to {@link WifiLink#connect(String)} for the new device
+		 */
+		public void connectionArrived(String connectionURL);
+	}
+	
+	/**
+	 * Accepts remote devices until the link is closed
+	 *
+	 * @author Johnathan Pagnutti
+	 */
 	private class SearchForWifiConnectionsRunnable implements Runnable{
-
+	
 		public SearchForWifiConnectionsRunnable() {}
-
+	
 		@Override
 		public void run() {
+			Selector acceptSelector = null;
 			try {
-				Socket tmp = initalConn.accept();
-				dataConnections.put(tmp.getInetAddress().toString(), tmp);
-				completedSearching.compareAndSet(false, true);
+				acceptSelector = Selector.open();
+				initalConn.register(acceptSelector, SelectionKey.OP_ACCEPT);
+	
+				while(initalConn.isOpen()){
+					acceptSelector.select();
+	
+					Iterator<SelectionKey> iter = acceptSelector.selectedKeys().iterator();
+					while(iter.hasNext()){
+						iter.next();
+						iter.remove();
+					}
+	
+					//take every device waiting, not just the one that woke us up
+					SocketChannel channel;
+					while((channel = initalConn.accept()) != null){
+						try {
+							accepted(channel);
+						} catch (IOException e) {
+							logger.error(e.getMessage(), e);
+							channel.close();
+						}
+					}
+				}
+			} catch (IOException e) {
+				if(initalConn.isOpen()){
+					logger.error(e.getMessage(), e);
+				}
+			} catch (ClosedSelectorException e) {
+				//closed while waiting, we're done
+			} finally {
+				if(acceptSelector != null){
+					try {
+						acceptSelector.close();
+					} catch (IOException e) {
+						logger.error(e.getMessage(), e);
+					}
+				}
+			}
+	
+			logger.debug("Stopped accepting wifi connections.");
+		}
+	}
+	
+	/**
+	 * Accepts stripes until the link is closed.  Stripes only come from devices that have already connected, so they are accepted
+	 * one at a time, waiting for each to send its token.
+	 *
+	 * @author Johnathan Pagnutti
+	 */
+	private class AcceptStripesRunnable implements Runnable{
+	
+		private final ServerSocketChannel server;
+	
+		public AcceptStripesRunnable(ServerSocketChannel server) {
+			this.server = server;
+		}
+	
+		@Override
+		public void run() {
+			try {
+				while(server.isOpen()){
+					SocketChannel channel = server.accept();
+					try {
+						acceptedStripe(channel);
+					} catch (IOException e) {
+						logger.error("Couldn't accept a stripe: " + e.getMessage());
+						channel.close();
+					}
+				}
+			} catch (ClosedChannelException e) {
+				//closed while waiting, we're done
 			} catch (IOException e) {
 				logger.error(e.getMessage(), e);
-			}	
+			}
+	
+			logger.debug("Stopped accepting stripes.");
 		}
 	}
 }
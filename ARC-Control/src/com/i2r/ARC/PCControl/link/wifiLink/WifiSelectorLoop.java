@@ -0,0 +1,227 @@
+/**
+ *
+ */
+package com.i2r.ARC.PCControl.link.wifiLink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * One of the few threads that read every {@link WifiConnection} of a {@link WifiLink}.  Each connection is read by exactly one loop
+ * for as long as it is open, so chunks reach its parser in order from a single thread, which is what the parser's queue needs.
+ * <p>
+ * A loop never waits on any one connection.  If a connection's parser is too far behind to take another chunk, the chunk is held,
+ * the loop stops reading that connection (so the remote device is held off by TCP, the same as a blocked read thread would do), and
+ * offers the chunk again every {@link #STALL_RETRY_MILLIS} until it is taken.  Every other connection on the loop carries on.
+ *
+ * @author Johnathan Pagnutti
+ */
+class WifiSelectorLoop implements Runnable {
+
+	static final Logger logger = Logger.getLogger(WifiSelectorLoop.class);
+
+	/**
+	 * The most bytes read from a connection at once
+	 */
+	public static final int READ_BUFFER_BYTES = 16 * 1024;
+
+	/**
+	 * How long, in milliseconds, a chunk held for a parser that is behind waits before it is offered again
+	 */
+	public static final long STALL_RETRY_MILLIS = 10;
+
+	private final Selector selector;
+
+	//connections waiting to be registered with the selector, which has to be done on the loop's own thread
+	private final Queue<WifiConnection> pending = new ConcurrentLinkedQueue<WifiConnection>();
+
+	//connections holding a chunk their parser hasn't taken yet.  Only touched by the loop's thread
+	private final List<WifiConnection> stalled = new ArrayList<WifiConnection>();
+
+	//the one buffer every read on this loop goes through
+	private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+
+	//the number of connections being read by this loop
+	private final AtomicInteger connections = new AtomicInteger(0);
+
+	/**
+	 * Constructor
+	 *
+	 * @throws IOException if a selector could not be opened
+	 */
+	WifiSelectorLoop() throws IOException{
+		selector = Selector.open();
+	}
+
+	/**
+	 * Start reading a connection on this loop
+	 *
+	 * @param conn the connection to read
+	 */
+	void register(WifiConnection conn){
+		connections.incrementAndGet();
+		pending.add(conn);
+		selector.wakeup();
+	}
+
+	/**
+	 * Called by a connection read by this loop when it is closed
+	 */
+	void closed(){
+		connections.decrementAndGet();
+	}
+
+	/**
+	 * @return the number of connections being read by this loop
+	 */
+	int getConnectionCount(){
+		return connections.get();
+	}
+
+	/**
+	 * Stop the loop.  Connections it was reading are left open, but nothing more is read from them.
+	 */
+	void close(){
+		try {
+			selector.close();
+		} catch (IOException e) {
+			logger.error(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Implemented from {@link Runnable}
+	 *
+	 * Reads every registered connection that has data, until the loop is closed
+	 */
+	@Override
+	public void run() {
+		try {
+			while(selector.isOpen()){
+				registerPending();
+
+				//only wake up on a timer while something is waiting to be offered again
+				if(stalled.isEmpty()){
+					selector.select();
+				}else{
+					selector.select(STALL_RETRY_MILLIS);
+				}
+
+				retryStalled();
+
+				Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+				while(iter.hasNext()){
+					SelectionKey key = iter.next();
+					iter.remove();
+
+					try {
+						if(key.isValid() && key.isReadable()){
+							read(key);
+						}
+					} catch (CancelledKeyException e) {
+						//the connection was closed from another thread, nothing to do
+					}
+				}
+			}
+		} catch (IOException e) {
+			logger.error(e.getMessage(), e);
+		} catch (ClosedSelectorException e) {
+			//closed while selecting, we're done
+		}
+
+		logger.debug("Wifi selector loop stopped.");
+	}
+
+	/**
+	 * Registers every connection added since the last pass
+	 */
+	private void registerPending(){
+		WifiConnection conn;
+		while((conn = pending.poll()) != null){
+			try {
+				conn.channel.register(selector, SelectionKey.OP_READ, conn);
+			} catch (ClosedChannelException e) {
+				logger.error("Connection " + conn + " closed before it could be read.");
+				conn.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads whatever a connection has, and hands it to the connection's parser
+	 *
+	 * @param key the key of the connection to read
+	 */
+	private void read(SelectionKey key){
+		WifiConnection conn = (WifiConnection) key.attachment();
+
+		int bytesRead;
+		readBuffer.clear();
+		try {
+			bytesRead = conn.channel.read(readBuffer);
+		} catch (ClosedChannelException e) {
+			//the connection was closed from another thread while it was being read
+			bytesRead = -1;
+		} catch (IOException e) {
+			logger.error(e.getMessage(), e);
+			bytesRead = -1;
+		}
+
+		if(bytesRead == -1){
+			//the remote device has gone away
+			key.cancel();
+			conn.close();
+			return;
+		}else if(bytesRead == 0){
+			return;
+		}
+
+		//trim the data down to the number of bytes read
+		byte[] chunk = new byte[bytesRead];
+		readBuffer.flip();
+		readBuffer.get(chunk);
+
+		if(logger.isDebugEnabled()){
+			logger.debug("Read " + chunk.length + " bytes from " + conn + ".");
+		}
+
+		if(!conn.parser.offerData(chunk)){
+			//the parser is behind, stop reading this connection until it takes the chunk
+			conn.held = chunk;
+			key.interestOps(0);
+			stalled.add(conn);
+		}
+	}
+
+	/**
+	 * Offers every held chunk to its parser again, and starts reading the connections whose chunk was taken
+	 */
+	private void retryStalled(){
+		Iterator<WifiConnection> iter = stalled.iterator();
+		while(iter.hasNext()){
+			WifiConnection conn = iter.next();
+			if(conn.parser.offerData(conn.held)){
+				conn.held = null;
+				iter.remove();
+
+				SelectionKey key = conn.channel.keyFor(selector);
+				if(key != null && key.isValid()){
+					key.interestOps(SelectionKey.OP_READ);
+				}
+			}
+		}
+	}
+}
@@ -7,7 +7,8 @@ package ARC;
  * 
  * Sub class constant containers:<br>
  * {@link Commands}, {@link Args}, {@link #Info}, {@link DataTypes},<br>
- * {@link Delimiters}, {@link Notifications}, {@link Sensors}
+ * {@link Delimiters}, {@link Notifications}, {@link Sensors},<br>
+ * {@link Protocol}
  ********************************************************************************
  */
 public final class Constants {
@@ -63,6 +64,116 @@ public final class Constants {
 		public static final int SUPPORTED_FEATURES = -5;
 		
 		
+		/**
+		 * Sent by the controller PC as soon as a connection
+		 * is made, to ask the android device to switch its
+		 * responses to a newer framing.
+		 * Expected arguments:<br><br>
+		 * the highest {@link Protocol} version the controller
+		 * can read<br>
+		 * (optional) any number of {@link DataTypes} the
+		 * controller would like compressed<br><br>
+		 * The android device answers with a {@link DataTypes#PROTOCOL}
+		 * response (in the old framing) holding the version
+		 * it will use from then on. Devices that don't know
+		 * this command answer with {@link Notifications#TASK_ERRORED_OUT},
+		 * and both sides keep using {@link Protocol#TEXT_VERSION}.
+		 */
+		public static final int NEGOTIATE_PROTOCOL = -6;
+		
+		
+		/**
+		 * Sent by the controller PC when binary frames flagged
+		 * {@link Protocol#FLAG_CHECKED} arrived corrupt, or never
+		 * arrived at all.
+		 * Expected arguments:<br><br>
+		 * the task ID the frames were sent for<br>
+		 * the first sequence number to send again<br>
+		 * the last sequence number to send again<br><br>
+		 * The android device sends the frames again from its
+		 * retransmit buffer, then answers with
+		 * {@link Notifications#TASK_COMPLETE}. If any of them
+		 * are no longer held it answers with
+		 * {@link Notifications#TASK_ERRORED_OUT} instead, and
+		 * the controller falls back to sending the whole task again.
+		 */
+		public static final int RETRANSMIT = -7;
+		
+		
+		/**
+		 * Sent by the controller PC right after
+		 * {@link #NEGOTIATE_PROTOCOL} on every connection, so
+		 * that tasks left running when a connection was lost
+		 * carry on where they left off.
+		 * Expected arguments:<br><br>
+		 * the controller's session ID<br>
+		 * (optional) any number of pairs of a task ID and the
+		 * sequence number of the next {@link Protocol#FLAG_CHECKED}
+		 * frame the controller is waiting on for that task<br><br>
+		 * If the session ID is the one the android device already
+		 * has, it sends the frames it spooled while the connection
+		 * was down, starting at each task's sequence number, and
+		 * answers with {@link Notifications#TASK_COMPLETE}. Tasks
+		 * it can't carry on (a new session, or frames it no longer
+		 * has) are listed in a {@link Notifications#TASK_ERRORED_OUT}
+		 * answer instead, and the controller sends those tasks again.
+		 */
+		public static final int RESUME = -8;
+		
+		
+		/**
+		 * Sent by the controller PC to let the android device
+		 * send more bulk data, as the controller gets through
+		 * what it already has.
+		 * Expected arguments:<br><br>
+		 * (optional) any number of pairs of a task ID and the
+		 * number of frame bytes to add to that task's credit<br><br>
+		 * The first credit command on a connection, which is sent
+		 * right after {@link #NEGOTIATE_PROTOCOL} with no pairs,
+		 * turns credit on: from then on every task may only have
+		 * {@link Protocol#INITIAL_CREDIT} bytes of bulk frames
+		 * written that the controller hasn't given back. The
+		 * android device never answers a credit command.
+		 */
+		public static final int CREDIT = -9;
+		
+		
+		/**
+		 * Sent by the controller PC to set the smallest and largest
+		 * pieces the android device may cut bulk sensor data into.
+		 * Expected arguments:<br><br>
+		 * the smallest piece in bytes<br>
+		 * the largest piece in bytes<br><br>
+		 * Between the two, the android device picks the piece size
+		 * from how fast the connection has been taking its writes.
+		 * Until this is sent, {@link Protocol#MIN_CHUNK_SIZE} and
+		 * {@link Protocol#MAX_CHUNK_SIZE} are used, and a new
+		 * connection always goes back to them. The android device
+		 * never answers a chunk bounds command.
+		 */
+		public static final int CHUNK_BOUNDS = -16;
+		
+		
+		/**
+		 * Sent by the controller PC over Wi-Fi to have the android
+		 * device open extra sockets for bulk data.
+		 * Expected arguments:<br><br>
+		 * the number of sockets to open<br>
+		 * the port on the controller to open them to<br>
+		 * the token the controller gave this connection<br><br>
+		 * Each socket starts with the token as four bytes, high
+		 * order byte first, and carries nothing but
+		 * {@link Protocol#FLAG_CHECKED} frames of bulk sensor data
+		 * from then on. Bulk frames at least
+		 * {@link Protocol#MIN_STRIPE_SIZE} long take turns over the
+		 * sockets, and the controller puts them back in order by
+		 * their sequence numbers. Everything else stays on the main
+		 * connection. Only taken once responses are binary frames,
+		 * and never answered.
+		 */
+		public static final int STRIPE = -17;
+		
+		
 		/**
 		 * Modify a currently running task with new parameters
 		 * Expected arguments:<br><br>
@@ -410,6 +521,118 @@ public final class Constants {
 		public static final int LOCATION = 14;
 		
 		
+		/**
+		 * Protocol data type - sent in answer to a
+		 * {@link Commands#NEGOTIATE_PROTOCOL} command. The data
+		 * is the ASCII number of the {@link Protocol} version the
+		 * android device will use for every response after
+		 * this one.
+		 */
+		public static final int PROTOCOL = 16;
+		
+		
+		/**
+		 * Environment records type - used in place of
+		 * {@link #ENVIRONMENT_DATA} once responses are
+		 * {@link Protocol#BINARY_VERSION} frames. Rather than one
+		 * text response per sensor event, the events of a short
+		 * window are packed into one block:<br><br>
+		 * 1 byte {@link #RECORDS_VERSION}<br>
+		 * varint number of sensors, then for each sensor a varint
+		 * name length and the UTF-8 name. A sensor's ID is where
+		 * it is in this list.<br>
+		 * 8 byte timestamp of the first record, in nanoseconds<br>
+		 * varint number of records, then for each record:<br>
+		 * varint sensor ID<br>
+		 * zigzag varint of the record's timestamp minus the one
+		 * before it (the first record's is 0)<br>
+		 * 1 byte accuracy<br>
+		 * varint number of values, then each value as a 4 byte
+		 * float<br><br>
+		 * Every number longer than a byte is high order byte
+		 * first, and varints are base 128, low order group first.
+		 * Each block stands on its own, so losing one never
+		 * stops the next from being read.
+		 */
+		public static final int ENVIRONMENT_RECORDS = 17;
+		
+		
+		/**
+		 * The version of the {@link #ENVIRONMENT_RECORDS} block
+		 * layout, the first byte of every block.
+		 */
+		public static final int RECORDS_VERSION = 1;
+		
+		
+		/**
+		 * Location track type - used in place of {@link #LOCATION}
+		 * once responses are {@link Protocol#BINARY_VERSION} frames.
+		 * Rather than a text dump of every fix, the fixes of a short
+		 * window are packed into one block:<br><br>
+		 * 1 byte {@link #TRACK_VERSION}<br>
+		 * varint number of providers, then for each provider a
+		 * varint name length and the UTF-8 name. A provider's ID is
+		 * where it is in this list.<br>
+		 * 8 byte time of the first fix, in milliseconds since the
+		 * epoch<br>
+		 * varint number of fixes, then for each fix:<br>
+		 * varint provider ID<br>
+		 * 1 byte of TRACK_HAS flags<br>
+		 * zigzag varint of the fix's time minus the one before it
+		 * (the first fix's is 0)<br>
+		 * zigzag varint of the fix's latitude minus the one before
+		 * it, and the same for longitude, both in units of
+		 * {@link #TRACK_DEGREE_SCALE} (the first fix's are from 0)<br>
+		 * then, only if its flag is set: accuracy as a varint in
+		 * centimeters, altitude as a zigzag varint in centimeters,
+		 * speed as a varint in centimeters per second, and bearing
+		 * as a varint in hundredths of a degree<br><br>
+		 * Every number longer than a byte is high order byte
+		 * first, and varints are base 128, low order group first.
+		 * Each block stands on its own, so losing one never
+		 * stops the next from being read.
+		 */
+		public static final int LOCATION_TRACK = 18;
+		
+		
+		/**
+		 * The version of the {@link #LOCATION_TRACK} block
+		 * layout, the first byte of every block.
+		 */
+		public static final int TRACK_VERSION = 1;
+		
+		
+		/**
+		 * The number of {@link #LOCATION_TRACK} latitude and
+		 * longitude units in one degree.
+		 */
+		public static final double TRACK_DEGREE_SCALE = 1e7;
+		
+		
+		/**
+		 * {@link #LOCATION_TRACK} fix flag: the fix has an accuracy.
+		 */
+		public static final int TRACK_HAS_ACCURACY = 0x01;
+		
+		
+		/**
+		 * {@link #LOCATION_TRACK} fix flag: the fix has an altitude.
+		 */
+		public static final int TRACK_HAS_ALTITUDE = 0x02;
+		
+		
+		/**
+		 * {@link #LOCATION_TRACK} fix flag: the fix has a speed.
+		 */
+		public static final int TRACK_HAS_SPEED = 0x04;
+		
+		
+		/**
+		 * {@link #LOCATION_TRACK} fix flag: the fix has a bearing.
+		 */
+		public static final int TRACK_HAS_BEARING = 0x08;
+		
+		
 	} // end of DataTypes class
 	
 	
@@ -591,5 +814,319 @@ public final class Constants {
 		
 		
 	} // end of Notifications class
+	
+	
+	
+	/*******************************************************
+	 * Framing used for responses sent from the android
+	 * device to the controller PC.<br><br>
+	 * 
+	 * {@link #TEXT_VERSION} responses are newline delimited
+	 * ASCII:<br>
+	 * TASK ID\n DATA TYPE\n DATA SIZE\n DATA<br><br>
+	 * 
+	 * {@link #BINARY_VERSION} responses are binary frames:<br>
+	 * {@link #FRAME_MAGIC} (1 byte)<br>
+	 * version (1 byte)<br>
+	 * flags (1 byte)<br>
+	 * TASK ID (varint)<br>
+	 * DATA TYPE (1 byte)<br>
+	 * DATA SIZE (varint)<br>
+	 * DATA<br><br>
+	 * 
+	 * Varints are unsigned base 128, low order group first,
+	 * with the high bit of each byte set if another byte
+	 * follows. An int takes at most {@link #MAX_VARINT_BYTES}.
+	 * Commands from the controller are always text.<br><br>
+	 * 
+	 * When a frame has {@link #FLAG_DEFLATED} set, its DATA
+	 * is a varint holding the uncompressed size, followed by
+	 * the data run through a {@link java.util.zip.Deflater}.
+	 * Each frame is compressed on its own, primed with the
+	 * dictionary for its data type, if it has one.<br><br>
+	 * 
+	 * When a frame has {@link #FLAG_CHECKED} set, a varint
+	 * sequence number comes between the flags and the TASK ID,
+	 * counting the frames sent for that task from 0, and
+	 * {@link #CHECK_SIZE} bytes follow the DATA: the CRC32 of
+	 * every byte of the frame from {@link #FRAME_MAGIC} to the
+	 * end of the DATA, high order byte first.<br><br>
+	 * 
+	 * Constants:<br>
+	 * {@link #TEXT_VERSION}, {@link #BINARY_VERSION},
+	 * {@link #FRAME_MAGIC}, {@link #FRAME_PREAMBLE_SIZE},<br>
+	 * {@link #MAX_VARINT_BYTES}, {@link #FLAGS_NONE},
+	 * {@link #VERSION_INDEX}, {@link #FLAG_DEFLATED},<br>
+	 * {@link #COMPRESS_TYPES_START_INDEX}, {@link #MIN_COMPRESS_SIZE},
+	 * {@link #ENVIRONMENT_DICTIONARY}, {@link #LOCATION_DICTIONARY},<br>
+	 * {@link #FLAG_CHECKED}, {@link #CHECK_SIZE},
+	 * {@link #MAX_FRAME_SIZE},<br>
+	 * {@link #RETRANSMIT_TASK_INDEX}, {@link #RETRANSMIT_FIRST_INDEX},
+	 * {@link #RETRANSMIT_LAST_INDEX},<br>
+	 * {@link #RESUME_SESSION_INDEX}, {@link #RESUME_TASKS_START_INDEX},<br>
+	 * {@link #INITIAL_CREDIT}, {@link #CREDIT_TASKS_START_INDEX},<br>
+	 * {@link #MIN_CHUNK_SIZE}, {@link #MAX_CHUNK_SIZE},
+	 * {@link #CHUNK_MIN_INDEX}, {@link #CHUNK_MAX_INDEX},<br>
+	 * {@link #MIN_STRIPE_SIZE}, {@link #MAX_STRIPES},
+	 * {@link #STRIPE_COUNT_INDEX}, {@link #STRIPE_PORT_INDEX},
+	 * {@link #STRIPE_TOKEN_INDEX}
+	 *******************************************************
+	 */
+	public static final class Protocol {
+		
+		
+		/**
+		 * The original newline delimited ASCII framing.
+		 * Every connection starts out using this.
+		 */
+		public static final int TEXT_VERSION = 1;
+		
+		
+		/**
+		 * Binary length-prefixed framing
+		 */
+		public static final int BINARY_VERSION = 2;
+		
+		
+		/**
+		 * First byte of every binary frame. Never a valid
+		 * first byte of a text response, which always starts
+		 * with an ASCII digit.
+		 */
+		public static final byte FRAME_MAGIC = (byte) 0xA5;
+		
+		
+		/**
+		 * Number of fixed bytes (magic, version, flags)
+		 * at the start of every binary frame
+		 */
+		public static final int FRAME_PREAMBLE_SIZE = 3;
+		
+		
+		/**
+		 * Most bytes an int varint can take up
+		 */
+		public static final int MAX_VARINT_BYTES = 5;
+		
+		
+		/**
+		 * Flags value for a frame with no optional
+		 * features in use
+		 */
+		public static final byte FLAGS_NONE = 0;
+		
+		
+		/**
+		 * Index of the requested version in the int parameters
+		 * of a {@link Commands#NEGOTIATE_PROTOCOL} command.
+		 */
+		public static final int VERSION_INDEX = 0;
+		
+		
+		/**
+		 * Frame flag - the frame's data is compressed.
+		 */
+		public static final byte FLAG_DEFLATED = 0x01;
+		
+		
+		/**
+		 * Index of the first data type to compress in the
+		 * int parameters of a {@link Commands#NEGOTIATE_PROTOCOL}
+		 * command. Every int parameter from here on is a
+		 * data type.
+		 */
+		public static final int COMPRESS_TYPES_START_INDEX = 1;
+		
+		
+		/**
+		 * Data smaller than this is never worth compressing.
+		 */
+		public static final int MIN_COMPRESS_SIZE = 32;
+		
+		
+		/**
+		 * Frame flag - the frame carries a sequence number and
+		 * ends with a CRC32, so the controller can ask for it
+		 * again with {@link Commands#RETRANSMIT} if it arrives
+		 * corrupt or not at all.
+		 */
+		public static final byte FLAG_CHECKED = 0x02;
+		
+		
+		/**
+		 * Number of bytes the CRC32 at the end of a
+		 * {@link #FLAG_CHECKED} frame takes up
+		 */
+		public static final int CHECK_SIZE = 4;
+		
+		
+		/**
+		 * The most data a binary frame may carry, before or
+		 * after compression. The controller throws out any
+		 * frame that says it holds more. Bulk data is always
+		 * cut into pieces far smaller than this (see
+		 * {@link #MAX_CHUNK_SIZE}). Both sides must use the
+		 * same value.
+		 */
+		public static final int MAX_FRAME_SIZE = 1024 * 1024;
+		
+		
+		/**
+		 * Index of the task ID whose frames should be sent again
+		 * in the int parameters of a {@link Commands#RETRANSMIT}
+		 * command.
+		 */
+		public static final int RETRANSMIT_TASK_INDEX = 0;
+		
+		
+		/**
+		 * Index of the first sequence number to send again
+		 * in the int parameters of a {@link Commands#RETRANSMIT}
+		 * command.
+		 */
+		public static final int RETRANSMIT_FIRST_INDEX = 1;
+		
+		
+		/**
+		 * Index of the last sequence number to send again
+		 * in the int parameters of a {@link Commands#RETRANSMIT}
+		 * command.
+		 */
+		public static final int RETRANSMIT_LAST_INDEX = 2;
+		
+		
+		/**
+		 * Index of the controller's session ID in the int
+		 * parameters of a {@link Commands#RESUME} command.
+		 */
+		public static final int RESUME_SESSION_INDEX = 0;
+		
+		
+		/**
+		 * Index of the first task ID in the int parameters of a
+		 * {@link Commands#RESUME} command. From here on the int
+		 * parameters are pairs of a task ID and the sequence
+		 * number to carry on from.
+		 */
+		public static final int RESUME_TASKS_START_INDEX = 1;
+		
+		
+		/**
+		 * The number of bulk frame bytes every task starts out
+		 * allowed to have written before the controller gives
+		 * any back with {@link Commands#CREDIT}. Both sides must
+		 * use the same value.
+		 */
+		public static final int INITIAL_CREDIT = 256 * 1024;
+		
+		
+		/**
+		 * Index of the first task ID in the int parameters of a
+		 * {@link Commands#CREDIT} command. From here on the int
+		 * parameters are pairs of a task ID and the number of
+		 * bytes to add to its credit.
+		 */
+		public static final int CREDIT_TASKS_START_INDEX = 0;
+		
+		
+		/**
+		 * The smallest piece bulk sensor data is cut into
+		 * before the controller sets its own bounds with
+		 * {@link Commands#CHUNK_BOUNDS}.
+		 */
+		public static final int MIN_CHUNK_SIZE = 512;
+		
+		
+		/**
+		 * The largest piece bulk sensor data is cut into
+		 * before the controller sets its own bounds with
+		 * {@link Commands#CHUNK_BOUNDS}.
+		 */
+		public static final int MAX_CHUNK_SIZE = 64 * 1024;
+		
+		
+		/**
+		 * Index of the smallest piece size in the int parameters
+		 * of a {@link Commands#CHUNK_BOUNDS} command.
+		 */
+		public static final int CHUNK_MIN_INDEX = 0;
+		
+		
+		/**
+		 * Index of the largest piece size in the int parameters
+		 * of a {@link Commands#CHUNK_BOUNDS} command.
+		 */
+		public static final int CHUNK_MAX_INDEX = 1;
+		
+		
+		/**
+		 * Bulk frames smaller than this always go over the main
+		 * connection, even once {@link Commands#STRIPE} sockets
+		 * are open. Both sides must use the same value.
+		 */
+		public static final int MIN_STRIPE_SIZE = 4 * 1024;
+		
+		
+		/**
+		 * The most sockets a {@link Commands#STRIPE} command
+		 * may ask for.
+		 */
+		public static final int MAX_STRIPES = 8;
+		
+		
+		/**
+		 * Index of the number of sockets to open in the int
+		 * parameters of a {@link Commands#STRIPE} command.
+		 */
+		public static final int STRIPE_COUNT_INDEX = 0;
+		
+		
+		/**
+		 * Index of the port to open sockets to in the int
+		 * parameters of a {@link Commands#STRIPE} command.
+		 */
+		public static final int STRIPE_PORT_INDEX = 1;
+		
+		
+		/**
+		 * Index of the token each socket starts with in the int
+		 * parameters of a {@link Commands#STRIPE} command.
+		 */
+		public static final int STRIPE_TOKEN_INDEX = 2;
+		
+		
+		/**
+		 * Dictionary that primes compression of
+		 * {@link DataTypes#ENVIRONMENT_DATA} frames. Both sides
+		 * must use exactly the same bytes.
+		 */
+		public static final String ENVIRONMENT_DICTIONARY =
+				"Light sensor\nProximity sensor\nPressure sensor\n" +
+				"Temperature sensor\nRelative Humidity sensor\n" +
+				"Magnetic field sensor\nOrientation sensor\n" +
+				"Gravity sensor\nLinear Acceleration sensor\n" +
+				"Rotation Vector sensor\nGyroscope sensor\n" +
+				"3-axis Accelerometer\n0.0\n1.0\n-0.0\n" +
+				"accuracy-status-unreliable\naccuracy-status-low\n" +
+				"accuracy-status-medium\naccuracy-status-high\n";
+		
+		
+		/**
+		 * Dictionary that primes compression of
+		 * {@link DataTypes#LOCATION} frames, which are
+		 * android.location.Location dumps. Both sides must use
+		 * exactly the same bytes.
+		 */
+		public static final String LOCATION_DICTIONARY =
+				"mExtras=null\nmExtras=Bundle[mParcelledData.dataSize=]\n" +
+				"mHasAltitude=false mAltitude=0.0\nmHasSpeed=false mSpeed=0.0\n" +
+				"mHasBearing=false mBearing=0.0\nmHasAccuracy=false mAccuracy=0.0\n" +
+				"mProvider=network mTime=\nmProvider=passive mTime=\n" +
+				"mHasAltitude=true mAltitude=\nmHasSpeed=true mSpeed=\n" +
+				"mHasBearing=true mBearing=\nmHasAccuracy=true mAccuracy=\n" +
+				"mProvider=gps mTime=\nmLatitude= mLongitude=\n";
+		
+		
+	} // end of Protocol class
 
 } // end of Constants class
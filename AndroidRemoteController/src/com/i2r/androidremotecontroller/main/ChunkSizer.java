@@ -0,0 +1,154 @@
+package com.i2r.androidremotecontroller.main;
+
+import ARC.Constants;
+import android.util.Log;
+
+/**
+ * This class models how big a piece bulk sensor data is cut
+ * into before it is sent. Every write to the connection is
+ * timed, and the piece size is picked so that one piece takes
+ * about {@link #TARGET_WRITE_MILLIS} to write at the rate the
+ * connection has been taking them. A fast link gets big pieces,
+ * so a picture is not sent as hundreds of tiny frames, and a
+ * slow link gets small ones, so a control frame never waits
+ * long behind a piece of bulk data that is already being
+ * written.<br>
+ * <br>
+ * Writes block once the connection's buffers are full, so the
+ * time a write takes covers both the link's speed and how long
+ * the other end takes to take the data off it. The piece size
+ * never goes outside the bounds set by the controller with
+ * {@link Constants.Commands#CHUNK_BOUNDS}.<br>
+ * <br>
+ * NOTE: this object is thread safe. Writes are timed on the
+ * frame writer thread, while sensors ask for the piece size
+ * on their own threads.
+ *
+ * @author Josh Noel
+ * @see {@link ResponsePacket#getChunkSize()}
+ */
+public class ChunkSizer {
+
+	private static final String TAG = "ChunkSizer";
+
+	/**
+	 * The piece size used before anything has been written.
+	 */
+	public static final int INITIAL_CHUNK_SIZE = 1024;
+
+	/**
+	 * How long writing one piece should take, in milliseconds.
+	 */
+	public static final long TARGET_WRITE_MILLIS = 20;
+
+	/**
+	 * The smallest write that is timed. Smaller writes take
+	 * about as long as the call itself, and say nothing about
+	 * how fast the connection is.
+	 */
+	public static final int MIN_SAMPLE_BYTES = 256;
+
+	/**
+	 * The largest bound the controller may set. A piece any
+	 * bigger than this would hold up its sender every time.
+	 */
+	public static final int MAX_BOUND = FrameScheduler.MAX_BULK_BYTES;
+
+	// how much of each new rate sample goes into the average
+	private static final double WEIGHT = 0.125;
+
+	// writes faster than this are counted as taking this long
+	private static final long MIN_SAMPLE_NANOS = 50 * 1000;
+
+	private static final long NANOS_PER_SECOND = 1000L * 1000 * 1000;
+
+	private int min, max, chunk, logged;
+	private double rate;
+
+
+	/**
+	 * Constructor<br>
+	 * Creates a sizer with the default bounds, that
+	 * starts out at {@link #INITIAL_CHUNK_SIZE}.
+	 */
+	public ChunkSizer(){
+		reset();
+	}
+
+
+	/**
+	 * Goes back to the default bounds, and forgets every
+	 * write timed so far. Used on every new connection.
+	 */
+	public synchronized void reset(){
+		this.min = Constants.Protocol.MIN_CHUNK_SIZE;
+		this.max = Constants.Protocol.MAX_CHUNK_SIZE;
+		this.chunk = clamp(INITIAL_CHUNK_SIZE);
+		this.logged = chunk;
+		this.rate = 0;
+	}
+
+
+	/**
+	 * Sets the smallest and largest piece size, keeping
+	 * the current size inside them.
+	 * @param min - the smallest piece size, in bytes
+	 * @param max - the largest piece size, in bytes
+	 * @return true if the bounds were set, false if they
+	 * were out of range, in which case nothing changes
+	 */
+	public synchronized boolean setBounds(int min, int max){
+		if(min <= 0 || min > max || max > MAX_BOUND){
+			Log.e(TAG, "bad chunk bounds: " + min + " to " + max);
+			return false;
+		}
+
+		this.min = min;
+		this.max = max;
+		this.chunk = clamp(chunk);
+		Log.d(TAG, "chunk bounds set to " + min + " to " + max);
+		return true;
+	}
+
+
+	/**
+	 * Counts a write to the connection toward the rate it
+	 * is taking data at, and picks the piece size again.
+	 * @param bytes - the number of bytes written
+	 * @param nanos - how long the write took, in nanoseconds
+	 */
+	public synchronized void record(int bytes, long nanos){
+		if(bytes < MIN_SAMPLE_BYTES){
+			return;
+		}
+
+		double sample = (double) bytes * NANOS_PER_SECOND / Math.max(nanos, MIN_SAMPLE_NANOS);
+		rate = (rate == 0) ? sample : rate + WEIGHT * (sample - rate);
+
+		chunk = clamp((int) Math.min(Integer.MAX_VALUE, rate * TARGET_WRITE_MILLIS / 1000));
+
+		// only log when the size has at least halved or doubled,
+		// so a steady connection doesn't fill up the log
+		if(chunk >= logged * 2 || chunk <= logged / 2){
+			Log.d(TAG, "chunk size is now " + chunk + " bytes at "
+					+ (long) rate + " bytes per second");
+			logged = chunk;
+		}
+	}
+
+
+	/**
+	 * Query for the size to cut the next piece of bulk data to
+	 * @return the piece size, in bytes
+	 */
+	public synchronized int chunkSize(){
+		return chunk;
+	}
+
+
+	// keeps a piece size inside the bounds
+	private int clamp(int size){
+		return Math.max(min, Math.min(max, size));
+	}
+
+}
@@ -76,6 +76,8 @@ public class CommandFilter {
 		this.sensors[Constants.Commands.RECORD_AUDIO] = new MicrophoneSensor(activity);
 		this.sensors[Constants.Commands.LISTEN_TO_ENVIRONMENT_SENSORS] = new EnvironmentSensorPool(activity);
 		this.sensors[Constants.Commands.GET_LOCATION] = new LocationSensor(activity);
+		
+		ResponsePacket.setSpoolDirectory(activity.getCacheDir());
 	}
 	
 
@@ -284,6 +286,36 @@ public class CommandFilter {
 			findSupportedFeatures(packet);
 			break;
 			
+		// controller wants a newer response framing
+		case Constants.Commands.NEGOTIATE_PROTOCOL:
+			negotiateProtocol(packet);
+			break;
+			
+		// controller got frames corrupt, or not at all
+		case Constants.Commands.RETRANSMIT:
+			retransmit(packet);
+			break;
+			
+		// controller reconnected, and wants its tasks to carry on
+		case Constants.Commands.RESUME:
+			resume(packet);
+			break;
+			
+		// controller got through some bulk data, and has room for more
+		case Constants.Commands.CREDIT:
+			ResponsePacket.grantCredit(packet.getIntParameters());
+			break;
+			
+		// controller set how big a piece bulk data may be cut into
+		case Constants.Commands.CHUNK_BOUNDS:
+			ResponsePacket.setChunkBounds(packet.getIntParameters());
+			break;
+			
+		// controller wants bulk data striped over extra sockets
+		case Constants.Commands.STRIPE:
+			ResponsePacket.openStripes(packet.getIntParameters());
+			break;
+			
 		// case is unknown, blow up in controller's face
 		default:
 			Log.e(TAG, "command is undefined");
@@ -358,6 +390,12 @@ public class CommandFilter {
 					sensors[i].killTask();
 				}
 			}
+			
+			// the controller has already given up on these tasks, so
+			// don't spend the connection on data still waiting to go out
+			for(int i = 0; i < tasksToKill.length; i++){
+				ResponsePacket.discardStream(tasksToKill[i]);
+			}
  		
 			boolean found = false;
 			Iterator<CommandPacket> iter = commandQueue.iterator();
@@ -406,6 +444,120 @@ public class CommandFilter {
 	
 	
 	
+	/**
+	 * FILTER CASE NEGOTIATE PROTOCOL:
+	 * Called if the controller PC asks for a newer response
+	 * framing. Answers with the newest version both sides can
+	 * use, and frames every response after that answer with it,
+	 * compressing the data types the controller asked for.
+	 * @param packet - the packet containing the newest version
+	 * the controller can read, and the data types to compress
+	 * @see {@link Constants#Protocol}
+	 */
+	private void negotiateProtocol(CommandPacket packet){
+		
+		if(packet.hasExtraIntParameters()){
+			
+			if(ResponsePacket.acceptProtocol(packet.getTaskID(),
+					packet.getIntParameters(), connection)){
+				ResponsePacket.getNotificationPacket(packet.getTaskID(),
+						Constants.Notifications.TASK_COMPLETE).send(connection);
+			}
+			
+		} else {
+			
+			Log.e(TAG, "no protocol version found in command");
+			ResponsePacket.getNotificationPacket(packet.getTaskID(),
+					Constants.Notifications.TASK_ERRORED_OUT).send(connection);
+		}
+	}
+	
+	
+	
+	/**
+	 * FILTER CASE RETRANSMIT:
+	 * Called if the controller PC got binary frames of a task
+	 * corrupt, or not at all. Sends just those frames again,
+	 * if they are still held. If they aren't, the controller
+	 * is told so, and sends the whole task again instead.
+	 * @param packet - the packet containing the task ID of the
+	 * frames, and the first and last sequence numbers to send again
+	 * @see {@link Constants.Commands#RETRANSMIT}
+	 */
+	private void retransmit(CommandPacket packet){
+		
+		int[] params = packet.getIntParameters();
+		
+		if(params != null && params.length > Constants.Protocol.RETRANSMIT_LAST_INDEX){
+			
+			if(ResponsePacket.retransmit(params[Constants.Protocol.RETRANSMIT_TASK_INDEX],
+					params[Constants.Protocol.RETRANSMIT_FIRST_INDEX],
+					params[Constants.Protocol.RETRANSMIT_LAST_INDEX])){
+				ResponsePacket.getNotificationPacket(packet.getTaskID(),
+						Constants.Notifications.TASK_COMPLETE).send(connection);
+			} else {
+				ResponsePacket.getNotificationPacket(packet.getTaskID(),
+						Constants.Notifications.TASK_ERRORED_OUT,
+						"frames no longer held").send(connection);
+			}
+			
+		} else {
+			
+			Log.e(TAG, "no frames to send again found in command");
+			ResponsePacket.getNotificationPacket(packet.getTaskID(),
+					Constants.Notifications.TASK_ERRORED_OUT).send(connection);
+		}
+	}
+	
+	
+	
+	/**
+	 * FILTER CASE RESUME:
+	 * Called right after the controller PC connects. If the
+	 * controller's session is the one already running here, the
+	 * tasks it lists carry on from where it got up to, out of the
+	 * frames spooled while it was not connected. Any task that
+	 * can't carry on is listed back to the controller, which
+	 * sends it again.
+	 * @param packet - the packet containing the session ID, then
+	 * pairs of a task ID and the sequence number to carry on from
+	 * @see {@link Constants.Commands#RESUME}
+	 */
+	private void resume(CommandPacket packet){
+		
+		int[] params = packet.getIntParameters();
+		
+		if(params != null && params.length > Constants.Protocol.RESUME_SESSION_INDEX){
+			
+			LinkedList<Integer> lost = ResponsePacket.resumeSession(
+					params[Constants.Protocol.RESUME_SESSION_INDEX], params);
+			
+			if(lost.isEmpty()){
+				ResponsePacket.getNotificationPacket(packet.getTaskID(),
+						Constants.Notifications.TASK_COMPLETE).send(connection);
+			} else {
+				StringBuilder builder = new StringBuilder();
+				for(Integer taskID : lost){
+					if(builder.length() > 0){
+						builder.append(' ');
+					}
+					builder.append(taskID);
+				}
+				ResponsePacket.getNotificationPacket(packet.getTaskID(),
+						Constants.Notifications.TASK_ERRORED_OUT,
+						builder.toString()).send(connection);
+			}
+			
+		} else {
+			
+			Log.e(TAG, "no session found in command");
+			ResponsePacket.getNotificationPacket(packet.getTaskID(),
+					Constants.Notifications.TASK_ERRORED_OUT).send(connection);
+		}
+	}
+	
+	
+	
 	/**
 	 * FILTER CASE SUPPORTED FEATURES:
 	 * Called if the given packet is a query for features of this device, so
@@ -528,11 +680,22 @@ public class CommandFilter {
 	 * Sets the connection for this responder object.<br>
 	 * NOTE: if this is null and there are pending commands
 	 * in this filter's queue, the commands will fail to
-	 * execute, and will be disposed of.
+	 * execute, and will be disposed of.<br>
+	 * A new connection always starts out with
+	 * {@link Constants.Protocol#TEXT_VERSION} responses, until
+	 * the controller negotiates something newer. Sensors still
+	 * running a task send over the new connection from now on.
 	 * @param connection - the connection to read and write with
 	 */
 	public void setConnection(RemoteConnection connection){
 		this.connection = connection;
+		ResponsePacket.resetProtocol();
+		
+		for(int i = 0; i < sensors.length; i++){
+			if(sensors[i] != null){
+				sensors[i].setConnection(connection);
+			}
+		}
 	}
 	
 	
@@ -0,0 +1,179 @@
+package com.i2r.androidremotecontroller.main;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.Deflater;
+
+import ARC.Constants;
+import android.util.Log;
+
+/**
+ * This class models the compression side of the binary
+ * response framing. The controller PC picks which data
+ * types it wants compressed when it negotiates the protocol,
+ * and each frame of one of those types is compressed on its
+ * own, primed with the dictionary for its data type.<br>
+ * <br>
+ * NOTE: this object is not thread safe. The one instance is
+ * owned by {@link ResponsePacket}, and only used while
+ * holding its class lock.
+ *
+ * @author Josh Noel
+ * @see {@link Constants#Protocol}
+ */
+public class FrameDeflater {
+
+	private static final String TAG = "FrameDeflater";
+
+	// the highest data type a frame can carry
+	private static final int MAX_DATA_TYPE = 0xFF;
+
+	private static final byte[] ENVIRONMENT_DICTIONARY =
+			Constants.Protocol.ENVIRONMENT_DICTIONARY.getBytes();
+	private static final byte[] LOCATION_DICTIONARY =
+			Constants.Protocol.LOCATION_DICTIONARY.getBytes();
+
+	private Deflater deflater;
+	private boolean[] compressedTypes;
+	private byte[] buffer;
+	private long rawBytes, sentBytes;
+
+
+	/**
+	 * Constructor<br>
+	 * Creates a deflater that compresses nothing until
+	 * {@link #setCompressedTypes(int[], int)} is called.
+	 */
+	public FrameDeflater(){
+		this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+		this.compressedTypes = new boolean[MAX_DATA_TYPE + 1];
+		this.buffer = new byte[1024];
+		this.rawBytes = 0;
+		this.sentBytes = 0;
+	}
+
+
+	/**
+	 * Sets the data types the controller asked to have
+	 * compressed, replacing any set before.
+	 * @param types - the int parameters of a negotiate
+	 * protocol command, or null if there were none
+	 * @param start - the index the data types start at
+	 * @see {@link Constants.Protocol#COMPRESS_TYPES_START_INDEX}
+	 */
+	public void setCompressedTypes(int[] types, int start){
+		reset();
+		if(types != null){
+			for(int i = start; i < types.length; i++){
+				if(types[i] >= 0 && types[i] <= MAX_DATA_TYPE){
+					compressedTypes[types[i]] = true;
+				} else {
+					Log.e(TAG, "can't compress unknown data type: " + types[i]);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Stops compressing every data type.
+	 */
+	public void reset(){
+		for(int i = 0; i < compressedTypes.length; i++){
+			compressedTypes[i] = false;
+		}
+	}
+
+
+	/**
+	 * Compresses the given data, if its data type was asked
+	 * for and compressing it actually makes it smaller. Data
+	 * that is already compressed, such as a JPEG, usually
+	 * grows, and is left alone.
+	 * @param dataType - the data type of the frame
+	 * @param data - the data to compress
+	 * @return the data to send in place of the given data,
+	 * already holding the uncompressed size, or null if the data
+	 * should be sent as is
+	 */
+	public byte[] deflate(int dataType, byte[] data){
+		return deflate(dataType, data, 0, data.length);
+	}
+
+
+	/**
+	 * Compresses a slice of the given data, the same
+	 * way as {@link #deflate(int, byte[])}.
+	 * @param dataType - the data type of the frame
+	 * @param data - the array holding the data to compress
+	 * @param offset - the index of the first byte to compress
+	 * @param length - the number of bytes to compress
+	 * @return the data to send in place of the slice, already
+	 * holding the uncompressed size, or null if the slice
+	 * should be sent as is
+	 */
+	public byte[] deflate(int dataType, byte[] data, int offset, int length){
+
+		if(dataType < 0 || dataType > MAX_DATA_TYPE || !compressedTypes[dataType]
+				|| length < Constants.Protocol.MIN_COMPRESS_SIZE){
+			return null;
+		}
+
+		deflater.reset();
+
+		byte[] dictionary = getDictionary(dataType);
+		if(dictionary != null){
+			deflater.setDictionary(dictionary);
+		}
+
+		deflater.setInput(data, offset, length);
+		deflater.finish();
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream(length);
+		ResponsePacket.writeVarint(stream, length);
+
+		// give up as soon as the result is no smaller than the data
+		while(!deflater.finished() && stream.size() < length){
+			int count = deflater.deflate(buffer);
+			stream.write(buffer, 0, count);
+		}
+
+		rawBytes += length;
+
+		if(!deflater.finished() || stream.size() >= length){
+			sentBytes += length;
+			return null;
+		}
+
+		sentBytes += stream.size();
+		return stream.toByteArray();
+	}
+
+
+	/**
+	 * Query for the dictionary to prime a data type with
+	 * @param dataType - the data type of the frame
+	 * @return the dictionary for the data type, or null
+	 * if it has none
+	 */
+	private static byte[] getDictionary(int dataType){
+		switch(dataType){
+		case Constants.DataTypes.ENVIRONMENT_DATA:
+			return ENVIRONMENT_DICTIONARY;
+		case Constants.DataTypes.LOCATION:
+			return LOCATION_DICTIONARY;
+		default:
+			return null;
+		}
+	}
+
+
+	/**
+	 * Query for how well compression is working
+	 * @return the bytes actually sent for every hundred bytes
+	 * of data that could have been compressed
+	 */
+	public long getPercentSent(){
+		return (rawBytes == 0) ? 100 : (sentBytes * 100) / rawBytes;
+	}
+
+}
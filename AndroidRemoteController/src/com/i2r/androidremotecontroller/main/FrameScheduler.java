@@ -0,0 +1,640 @@
+package com.i2r.androidremotecontroller.main;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+
+import ARC.Constants;
+import android.util.Log;
+
+import com.i2r.androidremotecontroller.connections.RemoteConnection;
+
+/**
+ * This class models the order binary frames are written to a
+ * {@link RemoteConnection} in. Every frame belongs to a stream,
+ * which is the task ID it was sent for, and each stream keeps its
+ * frames in the order they were sent. Between streams, a stream
+ * with a small control frame (a notification, a sensor's features,
+ * a protocol answer) waiting at its head always goes first, and
+ * streams with bulk data (pictures, audio, environment and location
+ * readings) take turns one frame at a time. This way a kill or a
+ * task complete never waits behind megabytes of another task's
+ * picture data, while a task's own notifications still come after
+ * its own data.<br>
+ * <br>
+ * Frames are written by one thread per scheduler. Once a stream has
+ * more than {@link #MAX_BULK_BYTES} of bulk data waiting, threads
+ * sending bulk data for it are held up until the connection catches
+ * up. Control frames are never held up, and neither are frames being
+ * sent again because the controller asked for them.<br>
+ * <br>
+ * Once the controller turns credit on with {@link Constants.Commands#CREDIT},
+ * every stream may only have {@link Constants.Protocol#INITIAL_CREDIT}
+ * bytes of bulk frames written that the controller hasn't given back.
+ * A stream that runs out of credit sits out its turns until the
+ * controller catches up, and since its frames then stay waiting, the
+ * threads sending for it are held up too. This way a controller with a
+ * slow disk slows the sensors down, instead of piling their data up in
+ * memory on either side.<br>
+ * <br>
+ * Every bulk frame written is timed, so the {@link ChunkSizer} can
+ * pick how big a piece the next bulk data is cut into.<br>
+ * <br>
+ * Over Wi-Fi, the controller can have bulk frames striped with
+ * {@link Constants.Commands#STRIPE}: the scheduler opens extra sockets,
+ * each with a writer thread of its own, and every bulk frame at least
+ * {@link Constants.Protocol#MIN_STRIPE_SIZE} long goes out on whichever
+ * of them is free first, so a big picture is no longer held to one TCP
+ * window. The main connection is left to control frames and small bulk
+ * frames. The controller puts the frames back in order by their sequence
+ * numbers. If a stripe fails, the frame it was writing is sent again on
+ * the main connection, and once every stripe has failed, bulk frames go
+ * back to the main connection too.
+ *
+ * @author Josh Noel
+ * @see {@link ResponsePacket#sendResponse(ResponsePacket, RemoteConnection)}
+ */
+public class FrameScheduler implements Runnable {
+
+	private static final String TAG = "FrameScheduler";
+
+	/**
+	 * The most bulk data bytes one stream can have waiting to be
+	 * written before its senders are held up.
+	 */
+	public static final int MAX_BULK_BYTES = 128 * 1024;
+
+	private RemoteConnection connection;
+	private ChunkSizer sizer;
+	private HashMap<Integer, LinkedList<Frame>> streams;
+	private HashMap<Integer, Integer> bulkBytes;
+	private HashMap<Integer, Integer> credits;
+	private LinkedList<Integer> turns;
+	private boolean running, metered;
+	private int writing, stripes;
+	private LinkedList<Socket> stripeSockets;
+	private Thread writer;
+
+
+	/**
+	 * Constructor<br>
+	 * Creates a scheduler for the given connection. Nothing is
+	 * written until {@link #start()} is called.
+	 * @param connection - the connection to write frames to
+	 * @param sizer - the sizer to time bulk frame writes for
+	 */
+	public FrameScheduler(RemoteConnection connection, ChunkSizer sizer){
+		this.connection = connection;
+		this.sizer = sizer;
+		this.streams = new HashMap<Integer, LinkedList<Frame>>();
+		this.bulkBytes = new HashMap<Integer, Integer>();
+		this.credits = new HashMap<Integer, Integer>();
+		this.turns = new LinkedList<Integer>();
+		this.stripeSockets = new LinkedList<Socket>();
+		this.running = false;
+		this.writing = 0;
+		this.stripes = 0;
+		this.metered = false;
+		this.writer = null;
+	}
+
+
+	/**
+	 * Starts the writer thread for this scheduler.
+	 */
+	public synchronized void start(){
+		if(!running){
+			running = true;
+			writer = new Thread(this);
+			writer.setName("Frame-Writer");
+			writer.setDaemon(true);
+			writer.start();
+		}
+	}
+
+
+	/**
+	 * Stops the writer thread, throwing out any frames that
+	 * have not been written yet.
+	 */
+	public synchronized void stop(){
+		running = false;
+		streams.clear();
+		turns.clear();
+		bulkBytes.clear();
+		credits.clear();
+		
+		// a stripe writer stuck in a write only lets go
+		// once its socket is closed
+		for(Socket socket : stripeSockets){
+			close(socket);
+		}
+		stripeSockets.clear();
+		stripes = 0;
+		notifyAll();
+	}
+
+
+	/**
+	 * Waits until every frame given to this scheduler so far
+	 * has been written, or the scheduler is stopped.
+	 */
+	public synchronized void drain(){
+		while(running && (!turns.isEmpty() || writing > 0)){
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+
+	/**
+	 * Query for the state of this scheduler
+	 * @return true if frames given to this scheduler will be
+	 * written, false if it has been stopped
+	 */
+	public synchronized boolean isRunning(){
+		return running;
+	}
+
+
+	/**
+	 * Query for what kind of frame a data type goes in.
+	 * @param dataType - the data type of a response
+	 * @return true if responses of this data type are bulk
+	 * sensor data, false if they are control frames
+	 * @see {@link Constants#DataTypes}
+	 */
+	public static boolean isBulk(int dataType){
+		return dataType == Constants.DataTypes.IMAGE
+				|| dataType == Constants.DataTypes.AUDIO
+				|| dataType == Constants.DataTypes.ENVIRONMENT_DATA
+				|| dataType == Constants.DataTypes.ENVIRONMENT_RECORDS
+				|| dataType == Constants.DataTypes.LOCATION
+				|| dataType == Constants.DataTypes.LOCATION_TRACK;
+	}
+
+
+	/**
+	 * Query for whether a bulk frame for the given stream
+	 * would be queued without holding up its sender.
+	 * @param streamID - the task ID the frame is for
+	 * @return true if the stream has room, or the scheduler
+	 * has been stopped
+	 */
+	public synchronized boolean hasBulkRoom(int streamID){
+		return !running || get(bulkBytes, streamID, 0) <= MAX_BULK_BYTES;
+	}
+
+
+	/**
+	 * Holds up the calling thread while the given stream has more
+	 * than {@link #MAX_BULK_BYTES} of bulk data waiting to be
+	 * written. Must be called without holding any lock a
+	 * control frame sender might need.
+	 * @param streamID - the task ID the sender is sending for
+	 * @return true if there is room, false if the scheduler
+	 * was stopped or the thread interrupted while waiting
+	 */
+	public synchronized boolean awaitBulkRoom(int streamID){
+		while(running && get(bulkBytes, streamID, 0) > MAX_BULK_BYTES){
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return running;
+	}
+
+
+	/**
+	 * Turns credit on, so that from now on bulk frames are only
+	 * written while their stream has credit left. Every stream
+	 * starts out with {@link Constants.Protocol#INITIAL_CREDIT}.
+	 */
+	public synchronized void meter(){
+		if(!metered){
+			Log.d(TAG, "bulk frames are now metered by credit");
+			metered = true;
+		}
+	}
+
+
+	/**
+	 * Gives a stream more credit, once the controller has
+	 * got through some of its bulk frames.
+	 * @param streamID - the task ID to give credit to
+	 * @param bytes - the number of frame bytes to give
+	 */
+	public synchronized void grant(int streamID, int bytes){
+		if(bytes <= 0){
+			return;
+		}
+
+		Integer key = Integer.valueOf(streamID);
+		int credit = get(credits, streamID, Constants.Protocol.INITIAL_CREDIT) + bytes;
+
+		// a stream with nothing waiting and a full window is no
+		// different from one that was never heard of
+		if(credit >= Constants.Protocol.INITIAL_CREDIT && !streams.containsKey(key)){
+			credits.remove(key);
+		} else {
+			credits.put(key, Integer.valueOf(credit));
+		}
+
+		notifyAll();
+	}
+
+
+	/**
+	 * Opens sockets to the controller for bulk frames to be striped
+	 * over, each with a writer thread of its own. The sockets are
+	 * opened on those threads, so this never waits on the network.
+	 * Stripes last until the scheduler is stopped.
+	 * @param host - the address of the controller
+	 * @param port - the port on the controller to open sockets to
+	 * @param token - the token each socket starts with, so the
+	 * controller knows which connection it belongs to
+	 * @param count - the number of sockets to open
+	 * @see {@link Constants.Commands#STRIPE}
+	 */
+	public synchronized void stripe(String host, int port, int token, int count){
+		if(!running){
+			return;
+		}
+		
+		for(int i = 0; i < count; i++){
+			Thread thread = new Thread(new StripeWriter(host, port, token));
+			thread.setName("Frame-Stripe-Writer-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+
+	/**
+	 * Query for the number of stripes bulk frames are
+	 * currently being written over.
+	 * @return the number of stripe sockets open
+	 */
+	public synchronized int getStripeCount(){
+		return stripes;
+	}
+
+
+	/**
+	 * Queues a frame to be written after every frame already
+	 * queued for the same stream.
+	 * @param streamID - the task ID the frame was sent for
+	 * @param bulk - true if the frame holds bulk sensor data
+	 * @param bytes - the encoded frame
+	 * @return true if the frame was queued, false if the
+	 * scheduler has been stopped
+	 * @see {@link #isBulk(int)}
+	 */
+	public synchronized boolean enqueue(int streamID, boolean bulk, byte[] bytes){
+		if(!running){
+			return false;
+		}
+
+		Integer key = Integer.valueOf(streamID);
+		LinkedList<Frame> stream = streams.get(key);
+
+		if(stream == null){
+			stream = new LinkedList<Frame>();
+			streams.put(key, stream);
+			turns.addLast(key);
+		}
+
+		stream.addLast(new Frame(streamID, bulk, bytes));
+
+		if(bulk){
+			add(bulkBytes, streamID, 0, bytes.length);
+		}
+
+		notifyAll();
+		return true;
+	}
+
+
+	/**
+	 * Queues frames the controller asked to have sent again
+	 * ahead of every frame already queued for the same stream.
+	 * They go out as control frames, since the controller is
+	 * holding back the rest of the stream until they arrive.
+	 * @param streamID - the task ID the frames were sent for
+	 * @param frames - the encoded frames, in order
+	 * @return true if the frames were queued, false if the
+	 * scheduler has been stopped
+	 */
+	public synchronized boolean resend(int streamID, List<byte[]> frames){
+		if(!running){
+			return false;
+		}
+
+		Integer key = Integer.valueOf(streamID);
+		LinkedList<Frame> stream = streams.get(key);
+
+		if(stream == null){
+			stream = new LinkedList<Frame>();
+			streams.put(key, stream);
+			turns.addFirst(key);
+		}
+
+		// add from the back so the first frame ends up at the head
+		ListIterator<byte[]> iter = frames.listIterator(frames.size());
+		while(iter.hasPrevious()){
+			stream.addFirst(new Frame(streamID, false, iter.previous()));
+		}
+
+		notifyAll();
+		return true;
+	}
+
+
+	/**
+	 * Throws out every frame still waiting for the given stream,
+	 * used when its task has been killed.
+	 * @param streamID - the task ID to throw frames out for
+	 * @return the number of frames thrown out
+	 */
+	public synchronized int discard(int streamID){
+		Integer key = Integer.valueOf(streamID);
+		LinkedList<Frame> stream = streams.remove(key);
+		int count = 0;
+
+		if(stream != null){
+			turns.remove(key);
+			count = stream.size();
+			notifyAll();
+		}
+
+		bulkBytes.remove(key);
+		credits.remove(key);
+
+		return count;
+	}
+
+
+	/**
+	 * Takes the next frame to write, waiting for one if
+	 * there are none, or none of the streams waiting have
+	 * credit left.
+	 * @param striped - true to take only frames that go
+	 * over a stripe, false to take only the ones that don't
+	 * @return the next frame, or null if the scheduler
+	 * has been stopped
+	 */
+	private synchronized Frame next(boolean striped){
+		Integer pick = null;
+
+		while(running && (pick = pick(striped)) == null){
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Log.e(TAG, "frame writer interrupted");
+				return null;
+			}
+		}
+
+		if(!running){
+			return null;
+		}
+
+		LinkedList<Frame> stream = streams.get(pick);
+		Frame frame = stream.removeFirst();
+
+		if(stream.isEmpty()){
+			streams.remove(pick);
+		} else {
+			turns.addLast(pick);
+		}
+
+		if(frame.bulk){
+			add(bulkBytes, pick.intValue(), 0, -frame.bytes.length);
+			if(metered){
+				add(credits, pick.intValue(), Constants.Protocol.INITIAL_CREDIT, -frame.bytes.length);
+			}
+			notifyAll();
+		}
+
+		writing++;
+		return frame;
+	}
+
+
+	// picks the stream to take the next frame from, and takes
+	// it out of the turns, or returns null if none can go.
+	// Stripe writers only take bulk frames big enough to stripe,
+	// and the main writer takes everything else
+	private Integer pick(boolean striped){
+
+		// a stream with a control frame at its head goes first
+		Iterator<Integer> iter = turns.iterator();
+		while(!striped && iter.hasNext()){
+			Integer key = iter.next();
+			if(!streams.get(key).getFirst().bulk){
+				iter.remove();
+				return key;
+			}
+		}
+
+		// otherwise, the bulk streams with credit left take turns.
+		// A stream with any credit at all may write its next frame,
+		// so a frame bigger than what is left never gets stuck
+		iter = turns.iterator();
+		while(iter.hasNext()){
+			Integer key = iter.next();
+			if(isStriped(streams.get(key).getFirst()) == striped && (!metered 
+					|| get(credits, key.intValue(), Constants.Protocol.INITIAL_CREDIT) > 0)){
+				iter.remove();
+				return key;
+			}
+		}
+
+		return null;
+	}
+
+
+	// true if a bulk frame at the head of its stream should go
+	// over a stripe rather than the main connection
+	private boolean isStriped(Frame frame){
+		return stripes > 0 && frame.bulk && frame.bytes.length >= Constants.Protocol.MIN_STRIPE_SIZE;
+	}
+
+
+	// marks a frame taken by next() as written
+	private synchronized void written(){
+		writing--;
+		notifyAll();
+	}
+
+
+	// closes a socket, ignoring any trouble
+	private static void close(Socket socket){
+		try {
+			socket.close();
+		} catch (IOException e) {
+			Log.e(TAG, "error closing stripe: " + e.getMessage());
+		}
+	}
+
+
+	// looks up a stream's count, or the given default if it has none
+	private static int get(HashMap<Integer, Integer> counts, int streamID, int initial){
+		Integer count = counts.get(Integer.valueOf(streamID));
+		return (count == null) ? initial : count.intValue();
+	}
+
+
+	// adds to a stream's count, starting from the given default,
+	// and forgets it once it is back at the default
+	private static void add(HashMap<Integer, Integer> counts, int streamID, int initial, int amount){
+		int count = get(counts, streamID, initial) + amount;
+		if(count == initial){
+			counts.remove(Integer.valueOf(streamID));
+		} else {
+			counts.put(Integer.valueOf(streamID), Integer.valueOf(count));
+		}
+	}
+
+
+	/**
+	 * Writes frames to the connection until this
+	 * scheduler is stopped.
+	 */
+	@Override
+	public void run() {
+		Log.d(TAG, "starting frame writer");
+		Frame frame;
+		while((frame = next(false)) != null){
+			if(connection.isConnected()){
+				long start = System.nanoTime();
+				connection.write(frame.bytes);
+				
+				// only bulk frames are timed, control frames are
+				// mostly too small to say anything about the link
+				if(frame.bulk){
+					sizer.record(frame.bytes.length, System.nanoTime() - start);
+				}
+			} else {
+				Log.e(TAG, "connection lost, frame writer stopping");
+				stop();
+			}
+			
+			written();
+		}
+		Log.d(TAG, "frame writer stopped");
+	}
+
+
+	/**
+	 * Writes bulk frames over one stripe socket until the
+	 * scheduler is stopped or the socket fails.
+	 */
+	private class StripeWriter implements Runnable {
+		private final String host;
+		private final int port, token;
+
+		private StripeWriter(String host, int port, int token){
+			this.host = host;
+			this.port = port;
+			this.token = token;
+		}
+
+		@Override
+		public void run() {
+			Socket socket;
+			OutputStream out;
+			try {
+				socket = new Socket(host, port);
+				socket.setTcpNoDelay(true);
+				out = socket.getOutputStream();
+				
+				// tell the controller which connection this stripe is for
+				DataOutputStream hello = new DataOutputStream(out);
+				hello.writeInt(token);
+				hello.flush();
+			} catch (IOException e) {
+				Log.e(TAG, "could not open stripe: " + e.getMessage());
+				return;
+			}
+			
+			synchronized(FrameScheduler.this){
+				if(!running){
+					close(socket);
+					return;
+				}
+				stripes++;
+				stripeSockets.add(socket);
+				
+				// frames already waiting may go over the new stripe
+				FrameScheduler.this.notifyAll();
+			}
+			
+			Log.d(TAG, "striping bulk frames over " + socket);
+			Frame frame;
+			while((frame = next(true)) != null){
+				try {
+					long start = System.nanoTime();
+					out.write(frame.bytes);
+					out.flush();
+					sizer.record(frame.bytes.length, System.nanoTime() - start);
+					written();
+				} catch (IOException e) {
+					Log.e(TAG, "stripe failed: " + e.getMessage());
+					lost(socket, frame);
+					return;
+				}
+			}
+			Log.d(TAG, "stripe writer stopped");
+		}
+	}
+
+
+	// takes a stripe that failed out of use, and has the frame it
+	// was writing sent again on the main connection. The controller
+	// drops it if it turns out it got there after all
+	private synchronized void lost(Socket socket, Frame frame){
+		close(socket);
+		if(stripeSockets.remove(socket)){
+			stripes--;
+		}
+		
+		writing--;
+		if(running){
+			LinkedList<byte[]> again = new LinkedList<byte[]>();
+			again.add(frame.bytes);
+			resend(frame.streamID, again);
+		}
+		notifyAll();
+	}
+
+
+	/**
+	 * One encoded frame waiting to be written.
+	 */
+	private static class Frame {
+		private final int streamID;
+		private final boolean bulk;
+		private final byte[] bytes;
+
+		private Frame(int streamID, boolean bulk, byte[] bytes){
+			this.streamID = streamID;
+			this.bulk = bulk;
+			this.bytes = bytes;
+		}
+	}
+
+}
@@ -0,0 +1,319 @@
+package com.i2r.androidremotecontroller.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import ARC.Constants;
+import android.util.Log;
+
+/**
+ * This class models the binary frames of a session held
+ * on to while the controller is not connected. Frames are
+ * appended to a file in the application's cache directory,
+ * with only their task ID, sequence number and place in the
+ * file kept in memory, so a long recording or a burst of
+ * pictures can be held without filling up the heap. Once the
+ * controller reconnects and sends {@link Constants.Commands#RESUME},
+ * the frames it still needs are taken back out in the order
+ * they went in.<br>
+ * <br>
+ * Once {@link #MAX_BYTES} have been written to the file, any
+ * further frames are refused, and the tasks they were for
+ * are marked lost, since the controller can no longer get
+ * all of their frames. The file is emptied every time the
+ * last frame is taken out.<br>
+ * <br>
+ * NOTE: this object is not thread safe. The one instance is
+ * owned by {@link ResponsePacket}, and only used while
+ * holding its class lock.
+ *
+ * @author Josh Noel
+ * @see {@link ResponsePacket#resumeSession(int, int[])}
+ */
+public class FrameSpool {
+
+	private static final String TAG = "FrameSpool";
+
+	/**
+	 * The name of the spool file in the directory it is given.
+	 */
+	public static final String FILE_NAME = "arc-frame-spool";
+
+	/**
+	 * The most bytes written to the spool file before
+	 * frames are refused.
+	 */
+	public static final long MAX_BYTES = 32L * 1024 * 1024;
+
+	private File file;
+	private RandomAccessFile store;
+	private LinkedList<Entry> entries;
+	private HashSet<Integer> lost;
+	private long end;
+
+
+	/**
+	 * Constructor<br>
+	 * Creates an empty spool. The spool file is only
+	 * created once the first frame is added.
+	 * @param directory - the directory to keep the spool
+	 * file in, or null if there is nowhere to keep one,
+	 * in which case every frame is refused
+	 */
+	public FrameSpool(File directory){
+		this.file = (directory == null) ? null : new File(directory, FILE_NAME);
+		this.store = null;
+		this.entries = new LinkedList<Entry>();
+		this.lost = new HashSet<Integer>();
+		this.end = 0;
+	}
+
+
+	/**
+	 * Adds a frame after every frame already spooled.
+	 * @param taskID - the task the frame was sent for
+	 * @param sequence - the frame's sequence number
+	 * @param bulk - true if the frame holds bulk sensor data
+	 * @param frame - the encoded frame
+	 * @return true if the frame was spooled, false if it was
+	 * refused, in which case its task is marked lost
+	 */
+	public boolean add(int taskID, int sequence, boolean bulk, byte[] frame){
+		Entry entry = write(taskID, sequence, bulk, frame);
+		if(entry != null){
+			entries.addLast(entry);
+		}
+		return entry != null;
+	}
+
+
+	/**
+	 * Adds a frame ahead of every frame already spooled, used for
+	 * frames that went out on a connection and may not have
+	 * arrived, since they always come before anything spooled
+	 * after the connection was lost.
+	 * @param taskID - the task the frame was sent for
+	 * @param sequence - the frame's sequence number
+	 * @param bulk - true if the frame holds bulk sensor data
+	 * @param frame - the encoded frame
+	 * @return true if the frame was spooled, false if it was
+	 * refused, in which case its task is marked lost
+	 */
+	public boolean addFirst(int taskID, int sequence, boolean bulk, byte[] frame){
+		Entry entry = write(taskID, sequence, bulk, frame);
+		if(entry != null){
+			entries.addFirst(entry);
+		}
+		return entry != null;
+	}
+
+
+	/**
+	 * Query for the first frame spooled for a task
+	 * @param taskID - the task to look for
+	 * @return the sequence number of the oldest frame spooled
+	 * for the task, or -1 if none are
+	 */
+	public int firstSequence(int taskID){
+		for(Entry entry : entries){
+			if(entry.taskID == taskID){
+				return entry.sequence;
+			}
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Query for whether any of a task's frames were refused
+	 * @param taskID - the task to check
+	 * @return true if the spool is missing frames for the task
+	 */
+	public boolean isLost(int taskID){
+		return lost.contains(Integer.valueOf(taskID));
+	}
+
+
+	/**
+	 * Throws out every frame the controller no longer needs:
+	 * frames of tasks it didn't ask to carry on, and frames
+	 * it already got before the connection was lost.
+	 * @param positions - the task IDs to keep frames for, mapped
+	 * to the sequence number of the first frame to keep
+	 */
+	public void retain(HashMap<Integer, Integer> positions){
+		Iterator<Entry> iter = entries.iterator();
+		while(iter.hasNext()){
+			Entry entry = iter.next();
+			Integer position = positions.get(Integer.valueOf(entry.taskID));
+			if(position == null || entry.sequence < position.intValue()){
+				iter.remove();
+			}
+		}
+		lost.clear();
+		emptyIfDone();
+	}
+
+
+	/**
+	 * Takes the oldest frame out of the spool.
+	 * @return the frame, or null if the spool is empty
+	 */
+	public Frame take(){
+		Frame frame = null;
+
+		while(frame == null && !entries.isEmpty()){
+			Entry entry = entries.removeFirst();
+			try {
+				byte[] bytes = new byte[entry.length];
+				store.seek(entry.offset);
+				store.readFully(bytes);
+				frame = new Frame(entry.taskID, entry.sequence, entry.bulk, bytes);
+			} catch (IOException e) {
+				Log.e(TAG, "could not read spooled frame " + entry.sequence
+						+ " of task " + entry.taskID + ": " + e.getMessage());
+			}
+		}
+
+		emptyIfDone();
+		return frame;
+	}
+
+
+	/**
+	 * Throws out every frame spooled for a task,
+	 * used once the task has been killed.
+	 * @param taskID - the task to throw out frames for
+	 */
+	public void discard(int taskID){
+		Iterator<Entry> iter = entries.iterator();
+		while(iter.hasNext()){
+			if(iter.next().taskID == taskID){
+				iter.remove();
+			}
+		}
+		lost.remove(Integer.valueOf(taskID));
+		emptyIfDone();
+	}
+
+
+	/**
+	 * Throws out every frame, and deletes the spool file.
+	 */
+	public void clear(){
+		entries.clear();
+		lost.clear();
+		end = 0;
+		if(store != null){
+			try {
+				store.close();
+			} catch (IOException e) {
+				Log.e(TAG, "error closing spool file: " + e.getMessage());
+			}
+			store = null;
+		}
+		if(file != null && file.exists() && !file.delete()){
+			Log.e(TAG, "could not delete spool file");
+		}
+	}
+
+
+	/**
+	 * Query for whether there is room for more frames
+	 * @return true if frames are being refused
+	 */
+	public boolean isFull(){
+		return file == null || end >= MAX_BYTES;
+	}
+
+
+	/**
+	 * Query for how much is spooled
+	 * @return the number of frames waiting to be taken out
+	 */
+	public int size(){
+		return entries.size();
+	}
+
+
+	// writes a frame to the end of the spool file, returning
+	// where it was put, or null if it was refused
+	private Entry write(int taskID, int sequence, boolean bulk, byte[] frame){
+		if(isFull() || end + frame.length > MAX_BYTES){
+			lost.add(Integer.valueOf(taskID));
+			return null;
+		}
+
+		try {
+			if(store == null){
+				store = new RandomAccessFile(file, "rw");
+				store.setLength(0);
+			}
+			store.seek(end);
+			store.write(frame);
+		} catch (IOException e) {
+			Log.e(TAG, "could not spool frame " + sequence + " of task "
+					+ taskID + ": " + e.getMessage());
+			lost.add(Integer.valueOf(taskID));
+			return null;
+		}
+
+		Entry entry = new Entry(taskID, sequence, bulk, end, frame.length);
+		end += frame.length;
+		return entry;
+	}
+
+
+	// starts the file over once nothing in it is needed
+	private void emptyIfDone(){
+		if(entries.isEmpty() && store != null && end > 0){
+			try {
+				store.setLength(0);
+			} catch (IOException e) {
+				Log.e(TAG, "could not empty spool file: " + e.getMessage());
+			}
+			end = 0;
+		}
+	}
+
+
+	/**
+	 * Where one spooled frame is in the spool file.
+	 */
+	private static class Entry {
+		private final int taskID, sequence, length;
+		private final boolean bulk;
+		private final long offset;
+
+		private Entry(int taskID, int sequence, boolean bulk, long offset, int length){
+			this.taskID = taskID;
+			this.sequence = sequence;
+			this.bulk = bulk;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+
+	/**
+	 * One frame taken back out of the spool.
+	 */
+	public static class Frame {
+		public final int taskID, sequence;
+		public final boolean bulk;
+		public final byte[] bytes;
+
+		private Frame(int taskID, int sequence, boolean bulk, byte[] bytes){
+			this.taskID = taskID;
+			this.sequence = sequence;
+			this.bulk = bulk;
+			this.bytes = bytes;
+		}
+	}
+
+}
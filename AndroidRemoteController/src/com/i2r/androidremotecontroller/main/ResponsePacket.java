@@ -1,7 +1,11 @@
 package com.i2r.androidremotecontroller.main;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.zip.CRC32;
 
 import ARC.Constants;
 import android.util.Log;
@@ -24,10 +28,48 @@ public class ResponsePacket {
 	private static final String TAG = "ResponsePacket";
 
 	public static boolean SHOW_DATA = true;
+	
+	// the framing every response is currently sent with,
+	// only read or changed while holding the class lock
+	private static int protocolVersion = Constants.Protocol.TEXT_VERSION;
+	
+	// compresses binary frames of the data types the controller
+	// asked for, also only used while holding the class lock
+	private static FrameDeflater deflater = new FrameDeflater();
+	
+	// orders binary frames so control frames are not held up
+	// behind bulk data, null while responses are text
+	private static FrameScheduler scheduler = null;
+	
+	// numbers binary frames and keeps them for a while after they
+	// are sent, so they can be sent again if they arrive corrupt
+	private static RetransmitBuffer retransmits = new RetransmitBuffer();
+	
+	// picks how big a piece bulk data is cut into, from how fast
+	// the connection has been taking writes, has its own lock
+	private static final ChunkSizer sizer = new ChunkSizer();
+	
+	// checksums binary frames, only used while holding the class lock
+	private static CRC32 check = new CRC32();
+	
+	// the controller's session, or ARG_NONE before it has sent one
+	private static int session = Constants.Args.ARG_NONE;
+	
+	// holds the session's frames while the controller is not connected,
+	// null until there is somewhere to keep them
+	private static FrameSpool spool = null;
+	
+	// true from when the session's connection is lost until every
+	// spooled frame has been handed to the new connection
+	private static boolean detached = false;
+	
+	// counts spool replays, so a replay knows when a newer one took over
+	private static int replays = 0;
 
 	private String header, footer;
 	private int taskID, dataType;
 	private byte[] data;
+	private int offset, length;
 
 	
 	/**
@@ -43,6 +85,8 @@ public class ResponsePacket {
 		this.taskID = Constants.Args.ARG_NONE;
 		this.dataType = Constants.Args.ARG_NONE;
 		this.data = null;
+		this.offset = 0;
+		this.length = 0;
 	}
 
 	
@@ -64,11 +108,39 @@ public class ResponsePacket {
 	 * @see {@link ResponsePacket#isValid()}
 	 */
 	public ResponsePacket(int taskID, int dataType, byte[] data) {
+		this(taskID, dataType, data, 0, (data == null) ? 0 : data.length);
+	}
+
+	
+	/**
+	 * Construct a new valid ResponsePacket that sends only a slice of the
+	 * given data, so that a large piece of data can be sent in pieces
+	 * without copying each piece out of it first.<br>
+	 * NOTE: the data is not copied, so it must not be changed until
+	 * this packet has been sent.
+	 * 
+	 * @param taskID
+	 *            - the task id for the result data in this response. Task IDs
+	 *            for data are supplied via the remote control PC.
+	 * @param dataType
+	 *            - the type of data being sent. This is to inform the remote
+	 *            control PC what kind of data it is about to receive.
+	 * @param data
+	 *            - the data to send a slice of
+	 * @param offset
+	 *            - the index of the first byte of the slice
+	 * @param length
+	 *            - the number of bytes in the slice
+	 * @see {@link ResponsePacket#isValid()}
+	 */
+	public ResponsePacket(int taskID, int dataType, byte[] data, int offset, int length) {
 		this.header = Constants.Args.ARG_STRING_NONE;
 		this.footer = Constants.Args.ARG_STRING_NONE;
 		this.taskID = taskID;
 		this.dataType = dataType;
 		this.data = data;
+		this.offset = offset;
+		this.length = length;
 	}
 
 	
@@ -97,6 +169,8 @@ public class ResponsePacket {
 		this.taskID = taskID;
 		this.dataType = Constants.Args.ARG_NONE;
 		this.data = null;
+		this.offset = 0;
+		this.length = 0;
 	}
 
 	
@@ -132,6 +206,8 @@ public class ResponsePacket {
 		this.taskID = taskID;
 		this.dataType = dataType;
 		this.data = data;
+		this.offset = 0;
+		this.length = (data == null) ? 0 : data.length;
 	}
 
 	
@@ -198,13 +274,36 @@ public class ResponsePacket {
 	 * failure to send the packet across a connection.
 	 * 
 	 * @return the data byte array of this response if it has been set, or null
-	 *         if it has not been set.
+	 *         if it has not been set. If this response only sends a slice of
+	 *         it, the whole array is returned.
+	 * @see {@link #getDataOffset()}
+	 * @see {@link #getDataLength()}
 	 */
 	public byte[] getData() {
 		return data;
 	}
 
 	
+	/**
+	 * Query for where the data this response sends starts in its data array.
+	 * 
+	 * @return the index of the first byte sent
+	 */
+	public int getDataOffset() {
+		return offset;
+	}
+
+	
+	/**
+	 * Query for how much of its data array this response sends.
+	 * 
+	 * @return the number of bytes sent
+	 */
+	public int getDataLength() {
+		return length;
+	}
+
+	
 	// ************************|
 	// SETTERS ---------------|
 	// ************************|
@@ -273,6 +372,8 @@ public class ResponsePacket {
 	 */
 	public void setData(byte[] data) {
 		this.data = data;
+		this.offset = 0;
+		this.length = (data == null) ? 0 : data.length;
 	}
 
 	
@@ -362,7 +463,7 @@ public class ResponsePacket {
 	 * @see {@link Constants#DataTypes}
 	 */
 	public boolean hasData() {
-		return data != null && data.length > 0;
+		return data != null && length > 0;
 	}
 	
 	
@@ -430,10 +531,10 @@ public class ResponsePacket {
 		builder.append("\ndata size: ");
 
 		if (data != null) {
-			builder.append(data.length);
+			builder.append(length);
 			if (showData) {
 				builder.append("\ndata:\n");
-				builder.append(new String(data));
+				builder.append(new String(data, offset, length));
 			}
 		} else {
 			builder.append(0);
@@ -454,7 +555,10 @@ public class ResponsePacket {
 	 * @see {@link #getNotificationPacket(int, char)}
 	 */
 	public static boolean sendPing(RemoteConnection connection){
-		return getNotificationPacket(0, 
+		// a ping has to actually go out, a spooled one says nothing
+		// about the connection
+		return connection != null && connection.isConnected()
+				&& getNotificationPacket(0, 
 				Constants.Notifications.PROXIMITY_UPDATE)
 				.send(connection);
 	}
@@ -547,21 +651,468 @@ public class ResponsePacket {
 	/**
 	 * Sends the byte array encoded version of the response packet across the
 	 * given connection, providing the packet and connection are valid and not
-	 * null.
+	 * null.<br>
+	 * Once responses are binary frames, they are handed to a
+	 * {@link FrameScheduler} rather than written straight away, and a packet
+	 * of bulk data may hold up the calling thread until the connection has
+	 * room for it, and the controller has given its task enough credit.
 	 * 
 	 * @param packet
 	 *            - the packet to encode and send across the given connection
 	 * @param connection
 	 *            - the connection to send the packet over
-	 * @return true if the packet was successfully sent, false otherwise
+	 * @return true if the packet was successfully sent (or queued to be sent),
+	 *         false otherwise
+	 */
+	public static boolean sendResponse(ResponsePacket packet, RemoteConnection connection) {
+		
+		// wait for room before taking the class lock, so a bulk sender
+		// that is held up never holds up anyone else
+		FrameScheduler current = getScheduler();
+		if (current != null && packet != null && FrameScheduler.isBulk(packet.dataType)) {
+			current.awaitBulkRoom(packet.taskID);
+		}
+		
+		return writeResponse(packet, connection);
+	}
+	
+	
+	/**
+	 * Query for whether a packet of bulk data for the given task would
+	 * be sent without holding up the calling thread. Senders that can't
+	 * afford to wait, like a recording that has to keep reading, can use
+	 * this to drop data instead.
+	 * @param taskID
+	 *            - the task the packet would be sent for
+	 * @return true if the packet would be sent straight away
+	 */
+	public static boolean hasBulkRoom(int taskID) {
+		FrameScheduler current = getScheduler();
+		return current == null || current.hasBulkRoom(taskID);
+	}
+	
+	
+	/**
+	 * Answers a {@link Constants.Commands#CREDIT} command from the
+	 * controller: turns credit on if it isn't already, and adds to the
+	 * credit of every task listed. Credit only means anything for
+	 * binary frames, so it is ignored while responses are text.
+	 * @param params
+	 *            - the int parameters of the credit command, or null
+	 *            if there were none
+	 * @return true if the credit was taken, false if responses are text
+	 * @see {@link Constants.Protocol#CREDIT_TASKS_START_INDEX}
+	 */
+	public static synchronized boolean grantCredit(int[] params) {
+		if (scheduler == null) {
+			return false;
+		}
+		
+		scheduler.meter();
+		
+		if (params != null) {
+			for (int i = Constants.Protocol.CREDIT_TASKS_START_INDEX; i + 1 < params.length; i += 2) {
+				scheduler.grant(params[i], params[i + 1]);
+			}
+		}
+		
+		return true;
+	}
+	
+	
+	/**
+	 * Query for how big a piece to cut bulk data into before sending it,
+	 * picked from how fast the connection has been taking writes. This
+	 * can change from one piece to the next.
+	 * @return the piece size, in bytes
+	 * @see {@link ChunkSizer}
+	 */
+	public static int getChunkSize() {
+		return sizer.chunkSize();
+	}
+	
+	
+	/**
+	 * Answers a {@link Constants.Commands#CHUNK_BOUNDS} command from the
+	 * controller, setting the smallest and largest piece bulk data may
+	 * be cut into until the connection is lost.
+	 * @param params
+	 *            - the int parameters of the chunk bounds command
+	 * @return true if the bounds were set, false if they were missing
+	 *         or out of range
+	 * @see {@link Constants.Protocol#CHUNK_MIN_INDEX}
+	 * @see {@link Constants.Protocol#CHUNK_MAX_INDEX}
+	 */
+	public static boolean setChunkBounds(int[] params) {
+		if (params == null || params.length <= Constants.Protocol.CHUNK_MAX_INDEX) {
+			Log.e(TAG, "chunk bounds command is missing its bounds");
+			return false;
+		}
+		
+		return sizer.setBounds(params[Constants.Protocol.CHUNK_MIN_INDEX],
+				params[Constants.Protocol.CHUNK_MAX_INDEX]);
+	}
+	
+	
+	/**
+	 * Answers a {@link Constants.Commands#STRIPE} command from the
+	 * controller, opening sockets for bulk frames to be striped over
+	 * until the connection is lost. Frames have to be numbered for the
+	 * controller to put them back in order, so stripes are only opened
+	 * while responses are binary frames.
+	 * @param params
+	 *            - the int parameters of the stripe command
+	 * @return true if the sockets are being opened, false if the
+	 *         parameters were missing or out of range, or responses
+	 *         are text
+	 * @see {@link FrameScheduler#stripe(String, int, int, int)}
+	 */
+	public static synchronized boolean openStripes(int[] params) {
+		if (params == null || params.length <= Constants.Protocol.STRIPE_TOKEN_INDEX) {
+			Log.e(TAG, "stripe command is missing its parameters");
+			return false;
+		}
+		
+		int count = params[Constants.Protocol.STRIPE_COUNT_INDEX];
+		if (count < 1 || count > Constants.Protocol.MAX_STRIPES) {
+			Log.e(TAG, count + " is not a valid number of stripes");
+			return false;
+		}
+		
+		if (scheduler == null) {
+			Log.e(TAG, "stripes can only be opened for binary frames");
+			return false;
+		}
+		
+		Log.d(TAG, "opening " + count + " stripes");
+		scheduler.stripe(Constants.Info.CONTROLLER_IP_ADDRESS,
+				params[Constants.Protocol.STRIPE_PORT_INDEX],
+				params[Constants.Protocol.STRIPE_TOKEN_INDEX], count);
+		return true;
+	}
+	
+	
+	/**
+	 * Query for the scheduler binary frames are currently handed to.
+	 * @return the scheduler, or null if responses are text
+	 */
+	private static synchronized FrameScheduler getScheduler() {
+		return scheduler;
+	}
+	
+	
+	/**
+	 * Throws out any frames of the given task that are still waiting to
+	 * be written, used once the task has been killed.
+	 * @param taskID
+	 *            - the task to throw out frames for
 	 */
-	public static synchronized boolean sendResponse(ResponsePacket packet, RemoteConnection connection) {
+	public static synchronized void discardStream(int taskID) {
+		if (scheduler != null) {
+			int count = scheduler.discard(taskID);
+			if (count > 0) {
+				Log.d(TAG, "threw out " + count + " frames for task " + taskID);
+			}
+		}
+		retransmits.discard(taskID);
+		if (spool != null) {
+			spool.discard(taskID);
+		}
+	}
+	
+	
+	/**
+	 * Gives binary frames somewhere to be spooled while the controller
+	 * is not connected, so the tasks they were sent for can carry on
+	 * once it reconnects.
+	 * @param directory
+	 *            - the directory to keep the spool file in
+	 * @see {@link FrameSpool}
+	 */
+	public static synchronized void setSpoolDirectory(File directory) {
+		if (spool != null) {
+			spool.clear();
+		}
+		spool = new FrameSpool(directory);
+	}
+	
+	
+	/**
+	 * Query for whether a response sent now would get to the controller,
+	 * either straight away or out of the spool once it reconnects.
+	 * @param connection
+	 *            - the connection the response would be sent over
+	 * @return true if the connection is up, or the controller has a
+	 *         session whose frames are being spooled, false otherwise
+	 */
+	public static synchronized boolean canSend(RemoteConnection connection) {
+		if (connection != null && connection.isConnected()) {
+			return true;
+		}
+		return session != Constants.Args.ARG_NONE && spool != null && !spool.isFull()
+				&& (detached || protocolVersion == Constants.Protocol.BINARY_VERSION);
+	}
+	
+	
+	/**
+	 * Answers a {@link Constants.Commands#RESUME} command from the
+	 * controller.<br>
+	 * If the session is the one this device already has, every task the
+	 * controller listed carries on from the sequence number it gave: the
+	 * frames spooled while it was not connected are handed to the new
+	 * connection, oldest first, before anything newer for the same task.
+	 * Spooled frames for tasks it didn't list are thrown out.<br>
+	 * If the session is new, whatever is left of the old one is thrown out,
+	 * and none of the listed tasks can carry on.
+	 * @param sessionID
+	 *            - the controller's session ID
+	 * @param params
+	 *            - the int parameters of the resume command
+	 * @return the IDs of the listed tasks that can't carry on, and have
+	 *         to be sent again, empty if every one of them can
+	 * @see {@link Constants.Protocol#RESUME_TASKS_START_INDEX}
+	 */
+	public static synchronized LinkedList<Integer> resumeSession(int sessionID, int[] params) {
+		LinkedList<Integer> failed = new LinkedList<Integer>();
+		HashMap<Integer, Integer> positions = new HashMap<Integer, Integer>();
+		
+		for (int i = Constants.Protocol.RESUME_TASKS_START_INDEX; i + 1 < params.length; i += 2) {
+			positions.put(Integer.valueOf(params[i]), Integer.valueOf(params[i + 1]));
+		}
+		
+		if (sessionID != session || spool == null) {
+			Log.d(TAG, "starting session " + sessionID);
+			session = sessionID;
+			detached = false;
+			replays++;
+			retransmits.clear();
+			if (spool != null) {
+				spool.clear();
+			}
+			failed.addAll(positions.keySet());
+			return failed;
+		}
+		
+		// a task can carry on if nothing was sent after where the controller
+		// is up to, or everything from there on is still spooled
+		for (Integer taskID : positions.keySet()) {
+			int position = positions.get(taskID).intValue();
+			int next = retransmits.peekSequence(taskID.intValue());
+			int first = spool.firstSequence(taskID.intValue());
+			
+			if (spool.isLost(taskID.intValue()) || position > next
+					|| (position < next && (first < 0 || first > position))) {
+				failed.add(taskID);
+			}
+		}
+		
+		for (Integer taskID : failed) {
+			positions.remove(taskID);
+		}
+		
+		// frames can only be handed over as binary frames
+		if (scheduler == null) {
+			for (Integer taskID : positions.keySet()) {
+				if (spool.firstSequence(taskID.intValue()) >= 0) {
+					failed.add(taskID);
+				}
+			}
+			positions.clear();
+		}
+		
+		spool.retain(positions);
+		Log.d(TAG, "resuming session " + sessionID + ", " + spool.size() 
+				+ " frames spooled, " + failed.size() + " tasks lost");
+		
+		if (detached && scheduler != null) {
+			startReplay();
+		} else {
+			detached = false;
+		}
+		
+		return failed;
+	}
+	
+	
+	/**
+	 * Moves the session over to the spool, since its connection has
+	 * been lost. Every frame kept for the old connection is spooled,
+	 * since there is no telling which of them arrived, and so is every
+	 * frame sent for the session's tasks from now on, until the
+	 * controller resumes the session.<br>
+	 * NOTE: must be called holding the class lock.
+	 */
+	private static void detach() {
+		if (!detached) {
+			Log.d(TAG, "connection lost, spooling frames for session " + session);
+		}
+		detached = true;
+		replays++;
+		retransmits.spoolTo(spool);
+	}
+	
+	
+	/**
+	 * Query for whether a response should be spooled rather than sent.
+	 * Noticing the connection has been lost while a session is running
+	 * moves the session over to the spool.<br>
+	 * NOTE: must be called holding the class lock.
+	 * @param taskID
+	 *            - the task the response is for
+	 * @param connection
+	 *            - the connection the response is being sent over
+	 * @return true if the response should be spooled
+	 */
+	private static boolean shouldSpool(int taskID, RemoteConnection connection) {
+		if (session == Constants.Args.ARG_NONE || spool == null) {
+			return false;
+		}
+		
+		boolean connected = connection != null && connection.isConnected();
+		
+		if (!detached && protocolVersion == Constants.Protocol.BINARY_VERSION
+				&& (!connected || scheduler == null || !scheduler.isRunning())) {
+			detach();
+		}
+		
+		return detached && (!connected || retransmits.isNumbered(taskID));
+	}
+	
+	
+	/**
+	 * Starts a thread handing every spooled frame to the current
+	 * {@link FrameScheduler}, oldest first. Bulk frames wait for room
+	 * like any other bulk frame. Once the spool is empty the session is
+	 * no longer detached, and frames go straight to the scheduler again.
+	 * NOTE: must be called holding the class lock.
+	 */
+	private static void startReplay() {
+		final int replay = ++replays;
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				replaySpool(replay);
+			}
+		});
+		thread.setName("Spool-Replay");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	
+	// the body of the replay thread started by startReplay()
+	private static void replaySpool(int replay) {
+		int count = 0;
+		while (true) {
+			FrameSpool.Frame frame;
+			FrameScheduler target;
+			
+			synchronized (ResponsePacket.class) {
+				if (replay != replays || scheduler == null) {
+					Log.d(TAG, "spool replay stopped after " + count + " frames");
+					return;
+				}
+				
+				frame = spool.take();
+				if (frame == null) {
+					Log.d(TAG, "spool replay done, " + count + " frames sent");
+					detached = false;
+					return;
+				}
+				
+				retransmits.keep(frame.taskID, frame.sequence, frame.bulk, frame.bytes);
+				target = scheduler;
+			}
+			
+			if (frame.bulk) {
+				target.awaitBulkRoom(frame.taskID);
+			}
+			
+			if (!target.enqueue(frame.taskID, frame.bulk, frame.bytes)) {
+				// lost the connection again, the frame is still kept,
+				// and goes back in the spool along with the rest
+				return;
+			}
+			count++;
+		}
+	}
+	
+	
+	/**
+	 * Sends binary frames of the given task again, ahead of anything
+	 * else still waiting to be written for it, used when the controller
+	 * got them corrupt or not at all.
+	 * @param taskID
+	 *            - the task the frames were sent for
+	 * @param first
+	 *            - the sequence number of the first frame to send again
+	 * @param last
+	 *            - the sequence number of the last frame to send again
+	 * @return true if every frame asked for was queued to be sent again,
+	 *         false if responses are not binary frames, or any of the
+	 *         frames is no longer held
+	 * @see {@link Constants.Commands#RETRANSMIT}
+	 */
+	public static synchronized boolean retransmit(int taskID, int first, int last) {
+		if (scheduler == null || first < 0 || first > last) {
+			return false;
+		}
+		
+		LinkedList<byte[]> frames = retransmits.get(taskID, first, last);
+		if (frames == null) {
+			Log.e(TAG, "frames " + first + " to " + last + " of task " 
+					+ taskID + " are no longer held");
+			return false;
+		}
+		
+		Log.d(TAG, "sending frames " + first + " to " + last + " of task " + taskID + " again");
+		return scheduler.resend(taskID, frames);
+	}
+	
+	
+	/**
+	 * Encodes the given packet with the current framing and writes it to
+	 * the given connection, or hands it to the {@link FrameScheduler} if
+	 * there is one. While the controller's session is detached from its
+	 * connection, packets for the session's tasks are spooled instead.
+	 * 
+	 * @param packet
+	 *            - the packet to encode and send across the given connection
+	 * @param connection
+	 *            - the connection to send the packet over
+	 * @return true if the packet was successfully sent (or queued to be sent,
+	 *         or spooled), false otherwise
+	 */
+	private static synchronized boolean writeResponse(ResponsePacket packet, RemoteConnection connection) {
 		byte[] result = null;
-		if (packet != null && packet.isValid() && connection != null && connection.isConnected()) {
-			result = encodePacket(packet, Constants.Delimiters.PACKET_DELIMITER);
-			if (result != null) {
+		if (packet != null && packet.isValid() && shouldSpool(packet.taskID, connection)) {
+			int sequence = retransmits.nextSequence(packet.taskID);
+			result = encodeFrame(packet, sequence);
+			if (result != null && !spool.add(packet.taskID, sequence,
+					FrameScheduler.isBulk(packet.dataType), result)) {
+				Log.e(TAG, "could not spool response for task " + packet.taskID);
+				result = null;
+			}
+		} else if (packet != null && packet.isValid() && connection != null && connection.isConnected()) {
+			if (protocolVersion == Constants.Protocol.BINARY_VERSION) {
+				int sequence = retransmits.nextSequence(packet.taskID);
+				result = encodeFrame(packet, sequence);
+				if (result != null) {
+					retransmits.keep(packet.taskID, sequence, FrameScheduler.isBulk(packet.dataType), result);
+				}
+			} else {
+				result = encodePacket(packet, Constants.Delimiters.PACKET_DELIMITER);
+			}
+			if (result != null && scheduler != null) {
+				if (!scheduler.enqueue(packet.taskID, FrameScheduler.isBulk(packet.dataType), result)) {
+					Log.e(TAG, "could not send response because the frame writer has stopped");
+					result = null;
+				}
+			} else if (result != null) {
 				//Log.d(TAG, "response:\n" + packet.toStringWithData());
+				long start = System.nanoTime();
 				connection.write(result);
+				sizer.record(result.length, System.nanoTime() - start);
 			} else {
 				Log.e(TAG, "could not send response because encodedPacket returned null");
 			}
@@ -582,6 +1133,116 @@ public class ResponsePacket {
 	}
 
 	
+	/**
+	 * Answers a {@link Constants.Commands#NEGOTIATE_PROTOCOL} command from the
+	 * controller, and switches every response after the answer over to the
+	 * agreed version.<br>
+	 * The answer itself still goes out in the old framing, since that is what
+	 * the controller is reading until it sees it. Holding the class lock
+	 * for both the answer and the switch makes sure no other response can
+	 * get in between them. Going back to text waits for every binary frame
+	 * already queued to be written first.
+	 * 
+	 * @param taskID
+	 *            - the task ID of the negotiate command
+	 * @param params
+	 *            - the int parameters of the negotiate command: the newest
+	 *            version the controller can read, then the data types it
+	 *            wants compressed
+	 * @param connection
+	 *            - the connection to answer on
+	 * @return true if the answer was sent and the switch was made, false
+	 *         otherwise
+	 * @see {@link Constants#Protocol}
+	 */
+	public static synchronized boolean acceptProtocol(int taskID, int[] params, RemoteConnection connection) {
+		int requested = params[Constants.Protocol.VERSION_INDEX];
+		int version = Math.max(Constants.Protocol.TEXT_VERSION,
+				Math.min(requested, Constants.Protocol.BINARY_VERSION));
+		
+		boolean sent = writeResponse(new ResponsePacket(taskID,
+				Constants.DataTypes.PROTOCOL, String.valueOf(version).getBytes()), connection);
+		
+		if (sent) {
+			Log.d(TAG, "switching from protocol version " + protocolVersion + " to " + version);
+			protocolVersion = version;
+			
+			// only binary frames have room to say they are compressed,
+			// and only binary frames can be reordered
+			if (version == Constants.Protocol.BINARY_VERSION) {
+				deflater.setCompressedTypes(params, Constants.Protocol.COMPRESS_TYPES_START_INDEX);
+				if (scheduler == null) {
+					scheduler = new FrameScheduler(connection, sizer);
+					scheduler.start();
+				}
+			} else {
+				deflater.reset();
+				if (scheduler != null) {
+					scheduler.drain();
+					scheduler.stop();
+					scheduler = null;
+				}
+				
+				// text responses aren't numbered, so there is nothing to
+				// carry on from if the connection is lost
+				retransmits.clear();
+				if (spool != null) {
+					spool.clear();
+				}
+				detached = false;
+				replays++;
+			}
+		}
+		
+		return sent;
+	}
+	
+	
+	/**
+	 * Puts responses back to {@link Constants.Protocol#TEXT_VERSION},
+	 * which every new connection starts out with.<br>
+	 * If the controller has a session running over binary frames, the
+	 * session is kept, and its frames are spooled until the controller
+	 * resumes it with {@link Constants.Commands#RESUME}.
+	 */
+	public static synchronized void resetProtocol() {
+		if (protocolVersion != Constants.Protocol.TEXT_VERSION) {
+			Log.d(TAG, "compressed frames were sent at " + deflater.getPercentSent() + "% of their size");
+		}
+		
+		boolean keepSession = session != Constants.Args.ARG_NONE && spool != null
+				&& (detached || protocolVersion == Constants.Protocol.BINARY_VERSION);
+		
+		protocolVersion = Constants.Protocol.TEXT_VERSION;
+		deflater.reset();
+		
+		// the new connection may be nothing like the old one,
+		// and the controller sends its bounds again if it has any
+		sizer.reset();
+		
+		// anything still queued was meant for the old connection
+		if (scheduler != null) {
+			scheduler.stop();
+			scheduler = null;
+		}
+		
+		if (keepSession) {
+			detach();
+		} else {
+			retransmits.clear();
+		}
+	}
+	
+	
+	/**
+	 * Query for the framing responses are currently sent with.
+	 * @return one of the versions in {@link Constants#Protocol}
+	 */
+	public static synchronized int getProtocolVersion() {
+		return protocolVersion;
+	}
+	
+	
 	/**
 	 * Encodes the given ResponsePacket to a byte array that can be sent across
 	 * an ARC connection. This is the bare bones ordering of how a ResponsePacket
@@ -623,9 +1284,9 @@ public class ResponsePacket {
 				stream.write(delimiter);
 				stream.write(String.valueOf(packet.dataType).getBytes());
 				stream.write(delimiter);
-				stream.write(String.valueOf(packet.data.length).getBytes());
+				stream.write(String.valueOf(packet.length).getBytes());
 				stream.write(delimiter);
-				stream.write(packet.data);
+				stream.write(packet.data, packet.offset, packet.length);
 
 				// include a footer only if it has been added
 				if (packet.hasFooter()) {
@@ -648,4 +1309,101 @@ public class ResponsePacket {
 
 		return result;
 	}
+	
+	
+	/**
+	 * Encodes the given ResponsePacket to a
+	 * {@link Constants.Protocol#BINARY_VERSION} frame: the preamble,
+	 * then a varint task ID, a single byte data type, a varint
+	 * data size, and the data.<br>
+	 * If the controller asked for the packet's data type to be
+	 * compressed, and compressing it makes it smaller, the
+	 * compressed data is sent instead, with
+	 * {@link Constants.Protocol#FLAG_DEFLATED} set.<br>
+	 * Every frame is sent with {@link Constants.Protocol#FLAG_CHECKED}
+	 * set: it is numbered within its task, and ends with a CRC32.<br>
+	 * NOTE: binary frames have no room for a header or footer, so
+	 * those are left out even if they have been set.
+	 * 
+	 * @param packet
+	 *            - the packet to write to a byte array
+	 * @param sequence
+	 *            - the sequence number of the frame within its task
+	 * @return a byte array representing the encoded frame, or null if
+	 *         the packet was not well formed.
+	 * @see {@link Constants#Protocol}
+	 * @see {@link RetransmitBuffer#nextSequence(int)}
+	 */
+	private static byte[] encodeFrame(ResponsePacket packet, int sequence) {
+
+		byte[] result = null;
+
+		if (packet.isValid()) {
+			
+			byte flags = Constants.Protocol.FLAG_CHECKED;
+			byte[] data = deflater.deflate(packet.dataType, packet.data, packet.offset, packet.length);
+			int start = 0, size;
+			
+			if (data != null) {
+				flags |= Constants.Protocol.FLAG_DEFLATED;
+				size = data.length;
+			} else {
+				data = packet.data;
+				start = packet.offset;
+				size = packet.length;
+			}
+			
+			// the preamble plus three varints is never more than 19 bytes
+			ByteArrayOutputStream stream = new ByteArrayOutputStream(
+					Constants.Protocol.FRAME_PREAMBLE_SIZE
+					+ 3 * Constants.Protocol.MAX_VARINT_BYTES + 1);
+			
+			stream.write(Constants.Protocol.FRAME_MAGIC);
+			stream.write(Constants.Protocol.BINARY_VERSION);
+			stream.write(flags);
+			writeVarint(stream, sequence);
+			writeVarint(stream, packet.taskID);
+			stream.write(packet.dataType);
+			writeVarint(stream, size);
+			byte[] header = stream.toByteArray();
+			
+			// put the frame together in one array, so the data
+			// is only copied once
+			result = new byte[header.length + size
+					+ Constants.Protocol.CHECK_SIZE];
+			System.arraycopy(header, 0, result, 0, header.length);
+			System.arraycopy(data, start, result, header.length, size);
+			
+			check.reset();
+			check.update(result, 0, header.length + size);
+			int crc = (int) check.getValue();
+			
+			int end = header.length + size;
+			result[end] = (byte) (crc >>> 24);
+			result[end + 1] = (byte) (crc >>> 16);
+			result[end + 2] = (byte) (crc >>> 8);
+			result[end + 3] = (byte) crc;
+			
+		} else {
+			Log.e(TAG,
+					"error - response is not well formed and could not be transposed to a frame");
+		}
+
+		return result;
+	}
+	
+	
+	/**
+	 * Writes an int to the given stream as an unsigned base 128
+	 * varint, low order group first.
+	 * @param stream - the stream to write to
+	 * @param value - the value to write
+	 */
+	static void writeVarint(ByteArrayOutputStream stream, int value) {
+		while ((value & ~0x7F) != 0) {
+			stream.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		stream.write(value);
+	}
 }
@@ -0,0 +1,242 @@
+package com.i2r.androidremotecontroller.main;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import ARC.Constants;
+
+/**
+ * This class models the short term memory of binary frames
+ * already sent to the controller. Every {@link Constants.Protocol#FLAG_CHECKED}
+ * frame is numbered within its task and kept here for a little
+ * while after it is sent, so that when the controller finds one
+ * corrupt or missing it can ask for just that frame again with
+ * a {@link Constants.Commands#RETRANSMIT} command, rather than
+ * having the whole task run again.<br>
+ * <br>
+ * Frames are kept for at most {@link #MAX_AGE} milliseconds,
+ * and once more than {@link #MAX_BYTES} are kept the oldest
+ * are thrown out first. If the connection is lost, every
+ * frame still kept is moved to the {@link FrameSpool}, since
+ * there is no telling which of them arrived.<br>
+ * <br>
+ * NOTE: this object is not thread safe. The one instance is
+ * owned by {@link ResponsePacket}, and only used while
+ * holding its class lock.
+ *
+ * @author Josh Noel
+ * @see {@link ResponsePacket#retransmit(int, int, int)}
+ */
+public class RetransmitBuffer {
+
+	/**
+	 * The most frame bytes kept at once.
+	 */
+	public static final int MAX_BYTES = 1024 * 1024;
+
+	/**
+	 * The longest a frame is kept, in milliseconds.
+	 */
+	public static final long MAX_AGE = 30000;
+
+	private HashMap<Integer, Integer> sequences;
+	private HashMap<Long, Frame> frames;
+	private LinkedList<Frame> order;
+	private int bytes;
+
+
+	/**
+	 * Constructor<br>
+	 * Creates an empty buffer, with every task's
+	 * frames numbered from 0.
+	 */
+	public RetransmitBuffer(){
+		this.sequences = new HashMap<Integer, Integer>();
+		this.frames = new HashMap<Long, Frame>();
+		this.order = new LinkedList<Frame>();
+		this.bytes = 0;
+	}
+
+
+	/**
+	 * Query for the sequence number of the next frame
+	 * sent for the given task. Each call counts one frame.
+	 * @param taskID - the task the frame is sent for
+	 * @return the sequence number to send the frame with
+	 */
+	public int nextSequence(int taskID){
+		Integer key = Integer.valueOf(taskID);
+		Integer next = sequences.get(key);
+		int sequence = (next == null) ? 0 : next.intValue();
+		sequences.put(key, Integer.valueOf(sequence + 1));
+		return sequence;
+	}
+
+
+	/**
+	 * Query for the sequence number the next frame sent
+	 * for the given task will get, without counting it.
+	 * @param taskID - the task to look up
+	 * @return the next sequence number, or 0 if nothing
+	 * has been sent for the task
+	 */
+	public int peekSequence(int taskID){
+		Integer next = sequences.get(Integer.valueOf(taskID));
+		return (next == null) ? 0 : next.intValue();
+	}
+
+
+	/**
+	 * Query for whether any frames have been numbered
+	 * for the given task.
+	 * @param taskID - the task to look up
+	 * @return true if the task has sent at least one frame
+	 */
+	public boolean isNumbered(int taskID){
+		return sequences.containsKey(Integer.valueOf(taskID));
+	}
+
+
+	/**
+	 * Keeps an encoded frame so it can be sent again,
+	 * throwing out whatever has been kept too long to
+	 * make room for it.
+	 * @param taskID - the task the frame was sent for
+	 * @param sequence - the frame's sequence number
+	 * @param bulk - true if the frame holds bulk sensor data
+	 * @param frame - the encoded frame, exactly as sent
+	 */
+	public void keep(int taskID, int sequence, boolean bulk, byte[] frame){
+		Frame kept = new Frame(taskID, sequence, bulk, frame, System.currentTimeMillis());
+
+		order.addLast(kept);
+		frames.put(kept.key, kept);
+		bytes += frame.length;
+
+		trim(kept.time);
+	}
+
+
+	/**
+	 * Query for a run of frames to send again.
+	 * @param taskID - the task the frames were sent for
+	 * @param first - the first sequence number wanted
+	 * @param last - the last sequence number wanted
+	 * @return the encoded frames in order, or null if any
+	 * one of them is no longer kept
+	 */
+	public LinkedList<byte[]> get(int taskID, int first, int last){
+		trim(System.currentTimeMillis());
+
+		LinkedList<byte[]> result = new LinkedList<byte[]>();
+		for(int sequence = first; sequence <= last; sequence++){
+			Frame kept = frames.get(key(taskID, sequence));
+			if(kept == null){
+				return null;
+			}
+			result.addLast(kept.bytes);
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Forgets every frame kept for the given task,
+	 * used once the task has been killed.
+	 * @param taskID - the task to forget
+	 */
+	public void discard(int taskID){
+		sequences.remove(Integer.valueOf(taskID));
+
+		Iterator<Frame> iter = order.iterator();
+		while(iter.hasNext()){
+			Frame kept = iter.next();
+			if(kept.taskID == taskID){
+				iter.remove();
+				frames.remove(kept.key);
+				bytes -= kept.bytes.length;
+			}
+		}
+	}
+
+
+	/**
+	 * Moves every frame kept into the given spool, ahead of
+	 * anything already spooled, used when the connection the
+	 * frames went out on has been lost and they may never have
+	 * arrived. Every task carries on numbering where it was.
+	 * @param spool - the spool to move the frames to
+	 */
+	public void spoolTo(FrameSpool spool){
+		while(!order.isEmpty()){
+			Frame kept = order.removeLast();
+			spool.addFirst(kept.taskID, kept.sequence, kept.bulk, kept.bytes);
+		}
+		frames.clear();
+		bytes = 0;
+	}
+
+
+	/**
+	 * Forgets every frame, and starts numbering
+	 * every task from 0 again.
+	 */
+	public void clear(){
+		sequences.clear();
+		frames.clear();
+		order.clear();
+		bytes = 0;
+	}
+
+
+	/**
+	 * Query for how much is being kept
+	 * @return the number of frame bytes kept
+	 */
+	public int size(){
+		return bytes;
+	}
+
+
+	// throws out the oldest frames while there are too
+	// many bytes kept, or they have been kept too long
+	private void trim(long now){
+		while(!order.isEmpty() && (bytes > MAX_BYTES
+				|| now - order.getFirst().time > MAX_AGE)){
+			Frame oldest = order.removeFirst();
+			frames.remove(oldest.key);
+			bytes -= oldest.bytes.length;
+		}
+	}
+
+
+	// one key for a task ID and sequence number pair
+	private static Long key(int taskID, int sequence){
+		return Long.valueOf(((long) taskID << 32) | (sequence & 0xFFFFFFFFL));
+	}
+
+
+	/**
+	 * One encoded frame being kept.
+	 */
+	private static class Frame {
+		private final int taskID;
+		private final int sequence;
+		private final Long key;
+		private final boolean bulk;
+		private final byte[] bytes;
+		private final long time;
+
+		private Frame(int taskID, int sequence, boolean bulk, byte[] bytes, long time){
+			this.taskID = taskID;
+			this.sequence = sequence;
+			this.key = key(taskID, sequence);
+			this.bulk = bulk;
+			this.bytes = bytes;
+			this.time = time;
+		}
+	}
+
+}
@@ -0,0 +1,192 @@
+package com.i2r.androidremotecontroller.sensors;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import ARC.Constants;
+import android.util.Log;
+
+/**
+ * This class models a block of environment sensor events
+ * waiting to be sent as one {@link Constants.DataTypes#ENVIRONMENT_RECORDS}
+ * response. Events are packed as they are added: each sensor
+ * name is written once per block and then referred to by an
+ * ID, timestamps are written as the difference from the event
+ * before, and values are written as raw floats, so a burst of
+ * events from sensors running as fast as they can turns into a
+ * handful of responses instead of hundreds of small text ones.<br>
+ * <br>
+ * A block is due to be sent once it has been open for
+ * {@link #WINDOW_MILLIS}, or has grown to {@link #MAX_BLOCK_BYTES}.
+ * Blocks are kept small enough to never be cut into pieces on
+ * their way out, so every response is a whole block.<br>
+ * <br>
+ * NOTE: this object is not thread safe. Each instance is owned
+ * by an {@link EnvironmentSensorPool}, and only used while
+ * holding its lock.
+ *
+ * @author Josh Noel
+ * @see {@link Constants.DataTypes#ENVIRONMENT_RECORDS}
+ */
+public class EnvironmentRecordEncoder {
+
+	private static final String TAG = "EnvironmentRecordEncoder";
+
+	/**
+	 * The longest a block is kept open, in milliseconds.
+	 */
+	public static final long WINDOW_MILLIS = 100;
+
+	/**
+	 * The size a block is sent at, however long it has been open.
+	 */
+	public static final int MAX_BLOCK_BYTES = 4096;
+
+	private LinkedHashMap<String, Integer> ids;
+	private ByteArrayOutputStream records;
+	private int count, namesSize;
+	private long first, last, opened;
+
+
+	/**
+	 * Constructor<br>
+	 * Creates an empty block.
+	 */
+	public EnvironmentRecordEncoder(){
+		this.ids = new LinkedHashMap<String, Integer>();
+		this.records = new ByteArrayOutputStream(MAX_BLOCK_BYTES);
+		clear();
+	}
+
+
+	/**
+	 * Adds one sensor event to the block, opening it
+	 * if it is empty.
+	 * @param name - the name of the sensor the event came from
+	 * @param timestamp - the event's timestamp, in nanoseconds
+	 * @param accuracy - the accuracy of the event
+	 * @param values - the event's values
+	 */
+	public void add(String name, long timestamp, int accuracy, float[] values){
+		if(count == 0){
+			first = timestamp;
+			last = timestamp;
+			opened = System.currentTimeMillis();
+		}
+
+		Integer id = ids.get(name);
+		if(id == null){
+			id = Integer.valueOf(ids.size());
+			ids.put(name, id);
+			namesSize += name.length() + 1;
+		}
+
+		writeVarint(records, id.intValue());
+		writeVarint(records, zigzag(timestamp - last));
+		records.write(accuracy);
+		writeVarint(records, values.length);
+
+		for(int i = 0; i < values.length; i++){
+			int bits = Float.floatToIntBits(values[i]);
+			records.write(bits >>> 24);
+			records.write(bits >>> 16);
+			records.write(bits >>> 8);
+			records.write(bits);
+		}
+
+		last = timestamp;
+		count++;
+	}
+
+
+	/**
+	 * Query for whether the block should be sent now
+	 * @param now - the current time, in milliseconds
+	 * @return true if the block has events, and has either
+	 * been open long enough or grown big enough
+	 */
+	public boolean isDue(long now){
+		return count > 0 && (now - opened >= WINDOW_MILLIS
+				|| namesSize + records.size() >= MAX_BLOCK_BYTES);
+	}
+
+
+	/**
+	 * Finishes the block, and starts a new, empty one.
+	 * @return the encoded block, or null if it had no events
+	 */
+	public byte[] finish(){
+		if(count == 0){
+			return null;
+		}
+
+		ByteArrayOutputStream block = new ByteArrayOutputStream(
+				namesSize + records.size() + 2 * Constants.Protocol.MAX_VARINT_BYTES + 16);
+
+		block.write(Constants.DataTypes.RECORDS_VERSION);
+
+		// the sensor names, in the order their IDs were given out
+		writeVarint(block, ids.size());
+		Iterator<String> iter = ids.keySet().iterator();
+		while(iter.hasNext()){
+			byte[] name = encodeName(iter.next());
+			writeVarint(block, name.length);
+			block.write(name, 0, name.length);
+		}
+
+		for(int shift = 56; shift >= 0; shift -= 8){
+			block.write((int) (first >>> shift));
+		}
+
+		writeVarint(block, count);
+		byte[] packed = records.toByteArray();
+		block.write(packed, 0, packed.length);
+
+		clear();
+		return block.toByteArray();
+	}
+
+
+	// empties the block
+	private void clear(){
+		ids.clear();
+		records.reset();
+		count = 0;
+		namesSize = 0;
+		first = 0;
+		last = 0;
+		opened = 0;
+	}
+
+
+	// a sensor name as UTF-8, also used for the
+	// provider names of a LocationTrackEncoder
+	static byte[] encodeName(String name){
+		try {
+			return name.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			Log.e(TAG, "UTF-8 is not supported, sending name as is");
+			return name.getBytes();
+		}
+	}
+
+
+	// folds the sign into the low bit, so small differences
+	// either way stay small
+	static long zigzag(long value){
+		return (value << 1) ^ (value >> 63);
+	}
+
+
+	// writes an unsigned base 128 varint, low order group first
+	static void writeVarint(ByteArrayOutputStream stream, long value){
+		while((value & ~0x7FL) != 0){
+			stream.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		stream.write((int) value);
+	}
+
+}
@@ -11,6 +11,7 @@ import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.util.Log;
 
+import com.i2r.androidremotecontroller.main.ResponsePacket;
 import com.i2r.androidremotecontroller.supported_features.EnvironmentFeatureSet;
 import com.i2r.androidremotecontroller.supported_features.FormatExchanger;
 
@@ -31,6 +32,10 @@ import com.i2r.androidremotecontroller.supported_features.FormatExchanger;
  * risk running this android device's power down at an exceedingly
  * high rate.</p>
  * 
+ * <p>Once responses are binary frames, events are not sent one
+ * at a time, but packed into blocks by an {@link EnvironmentRecordEncoder}
+ * and sent every {@link EnvironmentRecordEncoder#WINDOW_MILLIS}.</p>
+ * 
  * @author Josh Noel
  * @see {@link SensorEventListener}
  * @see {@link Sensor}
@@ -49,7 +54,8 @@ public class EnvironmentSensorPool extends
 	
 	private SensorManager manager;
 	private List<Sensor> sensors;
-	private boolean taskCompleted;
+	private EnvironmentRecordEncoder batch;
+	private boolean taskCompleted, packed;
 
 	
 	/**
@@ -64,7 +70,9 @@ public class EnvironmentSensorPool extends
 		super(activity);
 		this.manager = (SensorManager) activity.getSystemService(Context.SENSOR_SERVICE);
 		this.sensors  = manager.getSensorList(Sensor.TYPE_ALL);
+		this.batch = new EnvironmentRecordEncoder();
 		this.taskCompleted = false;
+		this.packed = false;
 		
 		createNewDuration("duration");
 	}
@@ -97,6 +105,12 @@ public class EnvironmentSensorPool extends
 		setTaskID(taskID);
 		taskCompleted = false;
 		
+		// only a controller reading binary frames can read packed records
+		synchronized(this){
+			packed = ResponsePacket.getProtocolVersion() == Constants.Protocol.BINARY_VERSION;
+			batch.finish();
+		}
+		
 		Log.d(TAG, "preparing sensors");
 		
 		// iterate through all available sensors
@@ -170,6 +184,14 @@ public class EnvironmentSensorPool extends
 	@Override
 	public synchronized void onSensorChanged(SensorEvent event) {
 		
+		if(packed){
+			batch.add(event.sensor.getName(), event.timestamp, event.accuracy, event.values);
+			if(batch.isDue(System.currentTimeMillis())){
+				sendBatch();
+			}
+			return;
+		}
+		
 		// general data encoding: name, timestamp, accuracy, values
 		StringBuilder builder = new StringBuilder();
 		builder.append(event.sensor.getName());
@@ -188,6 +210,34 @@ public class EnvironmentSensorPool extends
 	}
 	
 
+	/**
+	 * Sends every event packed so far as one
+	 * {@link Constants.DataTypes#ENVIRONMENT_RECORDS} response.
+	 * Blocks are small enough to go as they are, rather than
+	 * through {@link #sendData(int, byte[])}, which could cut
+	 * one into pieces.
+	 */
+	private synchronized void sendBatch(){
+		byte[] block = batch.finish();
+		if(block != null){
+			new ResponsePacket(getTaskID(), Constants.DataTypes.ENVIRONMENT_RECORDS,
+					block).send(getConnection());
+		}
+	}
+	
+	
+	/**
+	 * Sends the events packed so far if their block has been
+	 * open long enough, for when events have stopped coming in
+	 * to send it.
+	 */
+	private synchronized void sendBatchIfDue(){
+		if(batch.isDue(System.currentTimeMillis())){
+			sendBatch();
+		}
+	}
+	
+	
 	/**
 	 * Query about the ongoing state of this environment sensor collection
 	 * @return true if this sensor collection has not timed out and
@@ -212,16 +262,21 @@ public class EnvironmentSensorPool extends
 			
 			// don't need to do anything here since
 			// data transfer is controlled by callbacks
+			// except for sending packed events that have
+			// waited long enough
 			while(validToSave()){
 				try{
-					Thread.sleep(1000);
+					Thread.sleep(EnvironmentRecordEncoder.WINDOW_MILLIS);
 				} catch(InterruptedException e){}
+				sendBatchIfDue();
 			}
 			
 			if(!taskCompleted){
 				killTask();
 			}
 			
+			// whatever is left goes before the task complete
+			sendBatch();
 			sendTaskComplete();
 			
 		}}).start();
@@ -395,25 +395,26 @@ public abstract class GenericDeviceSensor {
 	/**
 	 * Sends the given data across this sensor's current
 	 * connection with the given data type. If the data
-	 * is considered too large, it is broken into megabyte
-	 * blocks that will be sent individually so that this
-	 * data can stream more fluidly across the connection.
+	 * is larger than {@link ResponsePacket#getChunkSize()},
+	 * it is sent in pieces of that size, so that this data
+	 * can stream more fluidly across the connection. The
+	 * piece size is looked up again for every piece, so a
+	 * large picture follows the connection as it speeds up
+	 * or slows down. Pieces are sent as slices of the given
+	 * data rather than copies of it.
 	 * @param dataType - the data type to send this data with.
 	 * @param data - the data to send across the connection.
-	 * @see {@link ResponsePacket#ResponsePacket(int, int, byte[])}
+	 * @see {@link ResponsePacket#ResponsePacket(int, int, byte[], int, int)}
 	 * @see {@link ResponsePacket#send(RemoteConnection)}
 	 */
 	protected void sendData(int dataType, byte[] data){
 		if(data != null){
-			if(data.length / 1024 > 2){
-				int buffer_size = 1024;
-				for(int i = 0; i < data.length; i += buffer_size){
-					int size = Math.min(buffer_size, data.length - i);
-					byte[] temp = new byte[size];
-					for(int j = 0; j < size; j++){
-						temp[j] = data[i+j];
-					}
-					new ResponsePacket(taskID, dataType, temp).send(connection);
+			if(data.length > ResponsePacket.getChunkSize()){
+				int i = 0;
+				while(i < data.length){
+					int size = Math.min(ResponsePacket.getChunkSize(), data.length - i);
+					new ResponsePacket(taskID, dataType, data, i, size).send(connection);
+					i += size;
 				}
 				
 			} else {
@@ -19,7 +19,10 @@ import com.i2r.androidremotecontroller.supported_features.LocationFeatureSet;
 
 /**
  * This class models a GPS sensor that can be queried for
- * position data by the controlling device.
+ * position data by the controlling device.<br>
+ * Once responses are binary frames, fixes are not sent as text
+ * dumps, but packed into blocks by a {@link LocationTrackEncoder}
+ * and sent every {@link LocationTrackEncoder#WINDOW_MILLIS}.
  * @author Josh Noel
  * @see {@link LocationManager}
  */
@@ -29,7 +32,8 @@ public class LocationSensor extends GenericDeviceSensor implements LocationListe
 	
 	private static final String TAG = "LocationSensor";
 	
-	private boolean taskCompleted;
+	private boolean taskCompleted, packed;
+	private LocationTrackEncoder track;
 	private LocationManager manager;
 	private BroadcastReceiver receiver;
 	
@@ -43,6 +47,8 @@ public class LocationSensor extends GenericDeviceSensor implements LocationListe
 	public LocationSensor(Activity activity) {
 		super(activity);
 		this.taskCompleted = false;
+		this.packed = false;
+		this.track = new LocationTrackEncoder();
 		this.manager = (LocationManager) activity.getSystemService(Context.LOCATION_SERVICE);
 		createNewDuration("response-duration");
 		
@@ -95,6 +101,12 @@ public class LocationSensor extends GenericDeviceSensor implements LocationListe
 		setTaskID(taskID);
 		this.taskCompleted = false;
 		
+		// only a controller reading binary frames can read packed tracks
+		synchronized(this){
+			packed = ResponsePacket.getProtocolVersion() == Constants.Protocol.BINARY_VERSION;
+			track.finish();
+		}
+		
 		if(args != null){
 			
 			getDuration(0).setMax(args[0]).start();
@@ -104,6 +116,9 @@ public class LocationSensor extends GenericDeviceSensor implements LocationListe
 				if(getDuration(0).hasMax()){
 					manager.requestLocationUpdates(provider, args[1], args[2], this);
 					Log.d(TAG, "starting location responder with duration");
+					if(packed){
+						startTrackSender();
+					}
 				} else {
 					manager.requestSingleUpdate(provider, this, getActivity().getMainLooper());
 					Log.d(TAG, "startinglocation responder with single response");
@@ -181,12 +196,17 @@ public class LocationSensor extends GenericDeviceSensor implements LocationListe
 	public void onLocationChanged(Location location) {
 		if(!taskCompleted){
 			if(!getDuration(0).hasMax() || !getDuration(0).maxReached()){
-				StringBuilder builder = new StringBuilder();
-				location.dump(new StringBuilderPrinter(builder), "");
-				sendData(Constants.DataTypes.LOCATION, builder.toString().getBytes());
+				if(packed){
+					addFix(location);
+				} else {
+					StringBuilder builder = new StringBuilder();
+					location.dump(new StringBuilderPrinter(builder), "");
+					sendData(Constants.DataTypes.LOCATION, builder.toString().getBytes());
+				}
 			} 
 			
 			if(getDuration(0).maxReached()){
+				sendTrack();
 				sendTaskComplete();
 				killTask();
 			}
@@ -194,6 +214,68 @@ public class LocationSensor extends GenericDeviceSensor implements LocationListe
 	}
 
 
+	/**
+	 * Packs a fix into the current track block, sending the
+	 * block if it is due. A single fix is sent straight away,
+	 * since there is nothing to wait for.
+	 * @param location - the fix to pack
+	 */
+	private synchronized void addFix(Location location){
+		track.add(location);
+		if(!getDuration(0).hasMax() || track.isDue(System.currentTimeMillis())){
+			sendTrack();
+		}
+	}
+	
+	
+	/**
+	 * Sends every fix packed so far as one
+	 * {@link Constants.DataTypes#LOCATION_TRACK} response.
+	 */
+	private synchronized void sendTrack(){
+		byte[] block = track.finish();
+		if(block != null){
+			new ResponsePacket(getTaskID(), Constants.DataTypes.LOCATION_TRACK,
+					block).send(getConnection());
+		}
+	}
+	
+	
+	/**
+	 * Sends the fixes packed so far if their block has been
+	 * open long enough.
+	 */
+	private synchronized void sendTrackIfDue(){
+		if(track.isDue(System.currentTimeMillis())){
+			sendTrack();
+		}
+	}
+	
+	
+	/**
+	 * Starts a thread that sends packed fixes once they have
+	 * waited long enough, since fixes may come in too far apart
+	 * for the next one to send them. It stops once the task is
+	 * done, sending whatever is left.
+	 */
+	private void startTrackSender(){
+		new Thread(new Runnable(){public void run(){
+			
+			while(!taskCompleted && !getDuration(0).maxReached()){
+				try{
+					Thread.sleep(LocationTrackEncoder.WINDOW_MILLIS);
+				} catch(InterruptedException e){}
+				sendTrackIfDue();
+			}
+			
+			if(!taskCompleted){
+				sendTrack();
+			}
+			
+		}}).start();
+	}
+
+
 	@Override
 	public void onProviderDisabled(String provider) {
 		Log.d(TAG, "provider disabled: " + provider);
@@ -0,0 +1,185 @@
+package com.i2r.androidremotecontroller.sensors;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import ARC.Constants;
+import android.location.Location;
+
+/**
+ * This class models a block of location fixes waiting to be
+ * sent as one {@link Constants.DataTypes#LOCATION_TRACK} response.
+ * Fixes are packed as they are added: latitude and longitude
+ * as fixed point differences from the fix before, time as a
+ * difference in milliseconds, and accuracy, altitude, speed and
+ * bearing only when the fix has them. A fix that took hundreds
+ * of bytes as a text dump takes around a dozen.<br>
+ * <br>
+ * A block is due to be sent once it has been open for
+ * {@link #WINDOW_MILLIS}, or holds {@link #MAX_FIXES} fixes.<br>
+ * <br>
+ * NOTE: this object is not thread safe. Each instance is owned
+ * by a {@link LocationSensor}, and only used while holding its
+ * lock.
+ *
+ * @author Josh Noel
+ * @see {@link Constants.DataTypes#LOCATION_TRACK}
+ */
+public class LocationTrackEncoder {
+
+	/**
+	 * The longest a block is kept open, in milliseconds.
+	 */
+	public static final long WINDOW_MILLIS = 1000;
+
+	/**
+	 * The number of fixes a block is sent at, however
+	 * long it has been open.
+	 */
+	public static final int MAX_FIXES = 64;
+
+	private LinkedHashMap<String, Integer> providers;
+	private ByteArrayOutputStream fixes;
+	private int count, lastLatitude, lastLongitude;
+	private long first, last, opened;
+
+
+	/**
+	 * Constructor<br>
+	 * Creates an empty block.
+	 */
+	public LocationTrackEncoder(){
+		this.providers = new LinkedHashMap<String, Integer>();
+		this.fixes = new ByteArrayOutputStream(MAX_FIXES * 16);
+		clear();
+	}
+
+
+	/**
+	 * Adds one fix to the block, opening it if it is empty.
+	 * @param location - the fix to add
+	 */
+	public void add(Location location){
+		long time = location.getTime();
+
+		if(count == 0){
+			first = time;
+			last = time;
+			opened = System.currentTimeMillis();
+		}
+
+		String provider = (location.getProvider() == null) ? "" : location.getProvider();
+		Integer id = providers.get(provider);
+		if(id == null){
+			id = Integer.valueOf(providers.size());
+			providers.put(provider, id);
+		}
+
+		int flags = 0;
+		flags |= location.hasAccuracy() ? Constants.DataTypes.TRACK_HAS_ACCURACY : 0;
+		flags |= location.hasAltitude() ? Constants.DataTypes.TRACK_HAS_ALTITUDE : 0;
+		flags |= location.hasSpeed() ? Constants.DataTypes.TRACK_HAS_SPEED : 0;
+		flags |= location.hasBearing() ? Constants.DataTypes.TRACK_HAS_BEARING : 0;
+
+		int latitude = toFixed(location.getLatitude());
+		int longitude = toFixed(location.getLongitude());
+
+		EnvironmentRecordEncoder.writeVarint(fixes, id.intValue());
+		fixes.write(flags);
+		EnvironmentRecordEncoder.writeVarint(fixes, EnvironmentRecordEncoder.zigzag(time - last));
+		EnvironmentRecordEncoder.writeVarint(fixes, EnvironmentRecordEncoder.zigzag((long) latitude - lastLatitude));
+		EnvironmentRecordEncoder.writeVarint(fixes, EnvironmentRecordEncoder.zigzag((long) longitude - lastLongitude));
+
+		if(location.hasAccuracy()){
+			EnvironmentRecordEncoder.writeVarint(fixes, hundredths(location.getAccuracy()));
+		}
+		if(location.hasAltitude()){
+			EnvironmentRecordEncoder.writeVarint(fixes,
+					EnvironmentRecordEncoder.zigzag(Math.round(location.getAltitude() * 100)));
+		}
+		if(location.hasSpeed()){
+			EnvironmentRecordEncoder.writeVarint(fixes, hundredths(location.getSpeed()));
+		}
+		if(location.hasBearing()){
+			EnvironmentRecordEncoder.writeVarint(fixes, hundredths(location.getBearing()));
+		}
+
+		last = time;
+		lastLatitude = latitude;
+		lastLongitude = longitude;
+		count++;
+	}
+
+
+	/**
+	 * Query for whether the block should be sent now
+	 * @param now - the current time, in milliseconds
+	 * @return true if the block has fixes, and has either
+	 * been open long enough or filled up
+	 */
+	public boolean isDue(long now){
+		return count > 0 && (now - opened >= WINDOW_MILLIS || count >= MAX_FIXES);
+	}
+
+
+	/**
+	 * Finishes the block, and starts a new, empty one.
+	 * @return the encoded block, or null if it had no fixes
+	 */
+	public byte[] finish(){
+		if(count == 0){
+			return null;
+		}
+
+		ByteArrayOutputStream block = new ByteArrayOutputStream(fixes.size() + 64);
+
+		block.write(Constants.DataTypes.TRACK_VERSION);
+
+		// the provider names, in the order their IDs were given out
+		EnvironmentRecordEncoder.writeVarint(block, providers.size());
+		Iterator<String> iter = providers.keySet().iterator();
+		while(iter.hasNext()){
+			byte[] name = EnvironmentRecordEncoder.encodeName(iter.next());
+			EnvironmentRecordEncoder.writeVarint(block, name.length);
+			block.write(name, 0, name.length);
+		}
+
+		for(int shift = 56; shift >= 0; shift -= 8){
+			block.write((int) (first >>> shift));
+		}
+
+		EnvironmentRecordEncoder.writeVarint(block, count);
+		byte[] packed = fixes.toByteArray();
+		block.write(packed, 0, packed.length);
+
+		clear();
+		return block.toByteArray();
+	}
+
+
+	// empties the block
+	private void clear(){
+		providers.clear();
+		fixes.reset();
+		count = 0;
+		lastLatitude = 0;
+		lastLongitude = 0;
+		first = 0;
+		last = 0;
+		opened = 0;
+	}
+
+
+	// degrees in track units, which always fit in an int
+	private static int toFixed(double degrees){
+		return (int) Math.round(degrees * Constants.DataTypes.TRACK_DEGREE_SCALE);
+	}
+
+
+	// a measurement that can't be negative, in hundredths
+	private static long hundredths(float value){
+		return Math.max(0, Math.round(value * 100.0));
+	}
+
+}
@@ -7,6 +7,7 @@ import android.media.AudioRecord;
 import android.media.MediaRecorder.AudioSource;
 import android.util.Log;
 
+import com.i2r.androidremotecontroller.main.ResponsePacket;
 import com.i2r.androidremotecontroller.supported_features.FormatExchanger;
 import com.i2r.androidremotecontroller.supported_features.MicrophoneFeatureSet;
 
@@ -267,10 +268,12 @@ public class MicrophoneSensor extends GenericDeviceSensor {
 	private class RecordThread extends Thread {
 		
 		private byte[] buffer;
+		private int dropped;
 		private static final int BUFFER_SIZE = 1024;
 		
 		public RecordThread(){
 			this.buffer = new byte[BUFFER_SIZE];
+			this.dropped = 0;
 		}
 		
 		@Override
@@ -293,10 +296,22 @@ public class MicrophoneSensor extends GenericDeviceSensor {
 						// to internal storage
 					} else {
 						
-						// if this sensor currently has a valid connection
-						if(getConnection().isConnected()){
+						// if this sensor currently has a valid connection, or
+						// the audio will be spooled until the controller is back
+						if(ResponsePacket.canSend(getConnection())){
 							
-							sendData(Constants.DataTypes.AUDIO, buffer);
+							// the recorder can't wait for the controller to catch
+							// up without overrunning, so drop audio it has no room for
+							if(ResponsePacket.hasBulkRoom(getTaskID())){
+								if(dropped > 0){
+									Log.e(TAG, "dropped " + dropped + " bytes of audio for task " 
+											+ getTaskID() + " while the controller caught up");
+									dropped = 0;
+								}
+								sendData(Constants.DataTypes.AUDIO, buffer);
+							} else {
+								dropped += result;
+							}
 							
 							// if there is no valid connection,
 							// but the controller specified to keep recording